@@ -17,6 +17,12 @@
 package org.jboss.provisioning;
 
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jboss.provisioning.util.PmCollections;
 
 /**
  *
@@ -25,6 +31,36 @@ import java.nio.file.Path;
 public interface ArtifactRepositoryManager {
 
     Path resolve(ArtifactCoords coords) throws ArtifactException;
+
+    /**
+     * Resolves the locations of the artifacts given their coordinates.
+     * Implementations may resolve the artifacts concurrently.
+     * The default implementation resolves them one by one.
+     *
+     * @param coords  artifact coordinates
+     * @return  locations of the artifacts in the order of the coordinates
+     * @throws ArtifactResolutionException  in case some of the artifacts could not be resolved,
+     * the exception reports the failure for each of them as well as the locations of the resolved ones
+     */
+    default Map<ArtifactCoords, Path> resolveAll(Collection<ArtifactCoords> coords) throws ArtifactResolutionException {
+        final Map<ArtifactCoords, Path> resolved = new LinkedHashMap<>(coords.size());
+        Map<ArtifactCoords, ArtifactException> failures = Collections.emptyMap();
+        for(ArtifactCoords artifact : coords) {
+            if(resolved.containsKey(artifact) || failures.containsKey(artifact)) {
+                continue;
+            }
+            try {
+                resolved.put(artifact, resolve(artifact));
+            } catch(ArtifactException e) {
+                failures = PmCollections.putLinked(failures, artifact, e);
+            }
+        }
+        if(!failures.isEmpty()) {
+            throw new ArtifactResolutionException(resolved, failures);
+        }
+        return resolved;
+    }
+
     void install(ArtifactCoords coords, Path artifact) throws ArtifactException;
     void deploy(ArtifactCoords coords, Path artifact) throws ArtifactException;
     String getHighestVersion(ArtifactCoords coords, String range) throws ArtifactException;
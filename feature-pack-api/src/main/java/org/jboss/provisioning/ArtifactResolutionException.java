@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Reports the artifacts that could not be resolved by a batch resolution
+ * along with the locations of the artifacts that were resolved.
+ */
+public class ArtifactResolutionException extends ArtifactException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<ArtifactCoords, Path> resolved;
+    private final Map<ArtifactCoords, ArtifactException> failures;
+
+    public ArtifactResolutionException(Map<ArtifactCoords, Path> resolved, Map<ArtifactCoords, ArtifactException> failures) {
+        super(Errors.failedToResolveArtifacts(failures.keySet()));
+        this.resolved = resolved;
+        this.failures = failures;
+        for(ArtifactException failure : failures.values()) {
+            addSuppressed(failure);
+        }
+    }
+
+    /**
+     * @return  locations of the resolved artifacts
+     */
+    public Map<ArtifactCoords, Path> getResolved() {
+        return resolved;
+    }
+
+    /**
+     * @return  failures of the artifacts that could not be resolved
+     */
+    public Map<ArtifactCoords, ArtifactException> getFailures() {
+        return failures;
+    }
+}
@@ -42,6 +42,8 @@ public interface Constants {
     String THIS = "this";
 
     String PROVISIONED_STATE_DIR = ".pm";
+    String INSTALLATION_JOURNAL = "journal";
+    String INSTALLATION_MANIFEST = "manifest";
     String PROVISIONED_STATE_XML = "provisioned.xml";
 
     String PM_UNDEFINED = "PM_UNDEFINED";
@@ -51,7 +53,22 @@ public interface Constants {
 
     // SYSTEM PROPERTIES
     String PROP_CONFIG_ARRANGER = "pm.config.arranger";
+    String PROP_CONFIG_THREADS = "pm.config.threads";
+    String PROP_DIFF_MAX_TEXT_SIZE = "pm.diff.max.text.size";
+    String PROP_FP_CACHE_DIR = "pm.fp.cache.dir";
+    String PROP_FP_CACHE_MAX_SIZE = "pm.fp.cache.max.size";
+    String PROP_FP_LAYOUT = "pm.fp.layout";
+    String PROP_HASH_ALGORITHM = "pm.hash.algorithm";
+    String PROP_INSTALL_MODE = "pm.install.mode";
+    String PROP_INSTALL_THREADS = "pm.install.threads";
 
     // CONFIG ARRANGERS
     String CONFIG_ARRANGER_SPEC_ONLY = "spec-only";
+
+    // FEATURE-PACK LAYOUTS
+    String FP_LAYOUT_ZIP = "zip";
+
+    // INSTALL MODES
+    String INSTALL_MODE_INCREMENTAL = "incremental";
+    String INSTALL_MODE_LINK = "link";
 }
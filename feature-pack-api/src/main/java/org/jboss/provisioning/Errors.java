@@ -142,6 +142,16 @@ public interface Errors {
         return buf.toString();
     }
 
+    static String failedToResolveArtifacts(Collection<ArtifactCoords> coords) {
+        final StringBuilder buf = new StringBuilder("Failed to resolve artifact");
+        if(coords.size() > 1) {
+            buf.append('s');
+        }
+        buf.append(' ');
+        StringUtils.append(buf, coords);
+        return buf.toString();
+    }
+
     static String packageContentCopyFailed(String packageName) {
         return "Failed to copy package " + packageName + " content";
     }
@@ -260,6 +260,7 @@ public class ProvisioningManager {
 
     private void doProvision(ProvisioningConfig provisioningConfig, ArtifactCoords.Ga uninstallGa, Map<String, String> options) throws ProvisioningException {
         checkInstallationDir(installationHome);
+        ProvisioningRuntime.recover(installationHome, messageWriter);
 
         if(!provisioningConfig.hasFeaturePackDeps()) {
             emptyHomeDir();
@@ -420,7 +421,9 @@ public class ProvisioningManager {
                     ProvisioningRuntime.exportToFeaturePack(runtime, diffGav, location, installationHome);
                 } else {
                     ProvisioningRuntime.diff(runtime, location, installationHome);
-                    runtime.getDiff().toXML(location, installationHome);
+                    if(!runtime.isFileSystemDiffExported()) {
+                        runtime.getDiff().toXML(location, installationHome);
+                    }
                 }
             } catch (XMLStreamException | IOException e) {
                 messageWriter.error(e, e.getMessage());
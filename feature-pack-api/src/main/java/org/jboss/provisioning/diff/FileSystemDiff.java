@@ -16,32 +16,63 @@
  */
 package org.jboss.provisioning.diff;
 
-import static org.jboss.provisioning.util.IoUtils.listContents;
-
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.MalformedInputException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.ProviderException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLStreamException;
 
+import org.jboss.provisioning.Constants;
 import org.jboss.provisioning.MessageWriter;
+import org.jboss.provisioning.state.InstallationManifest;
+import org.jboss.provisioning.util.HashUtils;
 import org.jboss.provisioning.util.PathFilter;
+import org.jboss.provisioning.util.PathsUtils;
+import org.jboss.provisioning.util.PropertyUtils;
+import org.jboss.provisioning.xml.FileSystemDiffResultWriter;
 
 import difflib.DiffUtils;
 import difflib.Patch;
 
 /**
+ * Compares the staged installation with the customized one.
+ *
+ * Both directory trees are walked side by side in the sorted order of the paths
+ * and merged in a single pass, i.e. the complete listings are never held in memory.
+ * The files present in both installations are compared and diffed on worker threads,
+ * the results are reported to the handler in the order of the walk, as soon as they
+ * are available. The files larger than the value of
+ * {@link Constants#PROP_DIFF_MAX_TEXT_SIZE} are reported as binary.
  *
  * @author Emmanuel Hugonnet (c) 2017 Red Hat, inc.
  */
 public class FileSystemDiff {
+
+    private static final long DEFAULT_MAX_TEXT_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 65536;
+
     private final Path stagedInstallation;
     private final Path customizedInstallation;
     protected final MessageWriter messageWriter;
@@ -57,83 +88,390 @@ public class FileSystemDiff {
     }
 
     public FileSystemDiffResult diff(final PathFilter filter) throws ProviderException {
-        try {
-            final Map<Path, String> stagged = listContents(stagedInstallation, filter);
-            final Map<Path, String> custom = listContents(customizedInstallation, filter);
-            Changes changes = listChanges(stagged, custom);
-            return new FileSystemDiffResult(
-                    listDeletedFiles(stagged, custom),
-                    listAddedFiles(stagged, custom),
-                    changes.modifiedBinaryFiles,
-                    changes.unifiedDiff);
-        } catch (IOException ioex) {
-            throw new ProviderException(ioex);
+        final Set<Path> deletedFiles = new LinkedHashSet<>();
+        final Set<Path> addedFiles = new LinkedHashSet<>();
+        final Set<Path> modifiedBinaryFiles = new LinkedHashSet<>();
+        final Map<Path, List<String>> unifiedDiffs = new LinkedHashMap<>();
+        diff(filter, new FileSystemDiffHandler() {
+            @Override
+            public void added(Path path) {
+                addedFiles.add(path);
+            }
+            @Override
+            public void deleted(Path path) {
+                deletedFiles.add(path);
+            }
+            @Override
+            public void modifiedBinary(Path path) {
+                modifiedBinaryFiles.add(path);
+            }
+            @Override
+            public void modified(Path path, List<String> unifiedDiff) {
+                unifiedDiffs.put(path, unifiedDiff);
+            }
+        });
+        return new FileSystemDiffResult(deletedFiles, addedFiles, modifiedBinaryFiles, unifiedDiffs);
+    }
+
+    /**
+     * Writes the changes to the filesystem_changes.xml file of the target directory
+     * as they are found and copies the added and the modified binary files
+     * of the customized installation to the target directory.
+     *
+     * @param filter  path filter
+     * @param target  target directory
+     * @throws ProviderException  in case of a failure
+     */
+    public void export(final PathFilter filter, final Path target) throws ProviderException {
+        final Path addedDir = target.resolve("added_files");
+        final Path modifiedDir = target.resolve("modified_files");
+        try (FileSystemDiffResultWriter.Stream writer = FileSystemDiffResultWriter.getInstance().open(target.resolve("filesystem_changes.xml"))) {
+            diff(filter, new FileSystemDiffHandler() {
+                @Override
+                public void added(Path path) throws IOException {
+                    writer.added(path);
+                    copy(path, addedDir);
+                }
+                @Override
+                public void deleted(Path path) throws IOException {
+                    writer.deleted(path);
+                }
+                @Override
+                public void modifiedBinary(Path path) throws IOException {
+                    writer.modifiedBinary(path);
+                    copy(path, modifiedDir);
+                }
+                @Override
+                public void modified(Path path, List<String> unifiedDiff) throws IOException {
+                    writer.modified(path, unifiedDiff);
+                }
+            });
+        } catch (IOException | XMLStreamException e) {
+            throw new ProviderException(e);
         }
     }
 
-    private Set<Path> listDeletedFiles(final Map<Path, String> stagged, final Map<Path, String> custom) {
-        Set<Path> deletedFiles = new HashSet<>();
-        for (Path path : stagged.keySet()) {
-            if (!custom.containsKey(path)) {
-                Path staggedPath = resolveStagePath(path);
-                if (Files.exists(staggedPath)) {
-                    if (!Files.isDirectory(staggedPath) || !Files.exists(resolveOriginPath(path))) {
-                        deletedFiles.add(path);
+    private void copy(Path path, Path targetDir) throws IOException {
+        final Path target = targetDir.resolve(path.toString());
+        Files.createDirectories(target.getParent());
+        Files.copy(resolveOriginPath(path), target);
+    }
+
+    /**
+     * Reports the changes to the handler as they are found.
+     *
+     * @param filter  path filter
+     * @param handler  handler of the changes
+     * @throws ProviderException  in case of a failure
+     */
+    public void diff(final PathFilter filter, final FileSystemDiffHandler handler) throws ProviderException {
+        final long maxTextSize = getMaxTextSize();
+        final String algorithm = HashUtils.getChangeDetectionAlgorithm();
+        final InstallationManifest stagedManifest = readManifest(stagedInstallation, algorithm);
+        final InstallationManifest customizedManifest = readManifest(customizedInstallation, algorithm);
+        // bounds the number of the computed diffs waiting for the preceding ones to be reported
+        final int maxPending = Runtime.getRuntime().availableProcessors() * 2;
+        final Deque<Future<Change>> pending = new ArrayDeque<>();
+        try {
+            final TreeWalk staged = new TreeWalk(stagedInstallation, filter);
+            final TreeWalk customized = new TreeWalk(customizedInstallation, filter);
+            Item stagedItem = staged.next();
+            Item customizedItem = customized.next();
+            while (stagedItem != null || customizedItem != null) {
+                final int order = stagedItem == null ? 1 : customizedItem == null ? -1 : TreeWalk.compare(stagedItem.path, customizedItem.path);
+                if (order < 0) {
+                    // an empty directory which now has content is not deleted
+                    if (!stagedItem.attrs.isDirectory() || !Files.exists(resolveOriginPath(stagedItem.path))) {
+                        pending.add(CompletableFuture.completedFuture(new Change(Change.DELETED, stagedItem.path)));
                     }
+                    stagedItem = staged.next();
+                } else if (order > 0) {
+                    pending.add(CompletableFuture.completedFuture(new Change(Change.ADDED, customizedItem.path)));
+                    customizedItem = customized.next();
+                } else {
+                    final Item original = stagedItem;
+                    final Item revised = customizedItem;
+                    pending.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return compare(original, stagedManifest, revised, customizedManifest, maxTextSize);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                    stagedItem = staged.next();
+                    customizedItem = customized.next();
+                }
+                while (!pending.isEmpty() && (pending.size() > maxPending || pending.peekFirst().isDone())) {
+                    report(pending.pollFirst(), handler);
                 }
             }
+            while (!pending.isEmpty()) {
+                report(pending.pollFirst(), handler);
+            }
+        } catch (IOException ioex) {
+            throw new ProviderException(ioex);
+        } finally {
+            for (Future<Change> f : pending) {
+                f.cancel(true);
+            }
         }
-        return deletedFiles;
     }
 
-    private Set<Path> listAddedFiles(final Map<Path, String> stagged, final Map<Path, String> custom) {
-        Set<Path> addedFiles = new HashSet<>();
-        for (Path path : custom.keySet()) {
-            if (!stagged.containsKey(path)) {
-                addedFiles.add(path);
+    private static void report(Future<Change> future, FileSystemDiffHandler handler) throws IOException {
+        final Change change;
+        try {
+            change = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProviderException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
             }
+            throw new ProviderException(cause);
+        }
+        if (change == null) {
+            return;
+        }
+        switch (change.type) {
+            case Change.ADDED:
+                handler.added(change.path);
+                break;
+            case Change.DELETED:
+                handler.deleted(change.path);
+                break;
+            case Change.MODIFIED:
+                if (change.unifiedDiff == null) {
+                    handler.modifiedBinary(change.path);
+                } else {
+                    handler.modified(change.path, change.unifiedDiff);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected change type " + change.type);
+        }
+    }
+
+    private static long getMaxTextSize() throws ProviderException {
+        final String value = PropertyUtils.getSystemProperty(Constants.PROP_DIFF_MAX_TEXT_SIZE);
+        if (value == null) {
+            return DEFAULT_MAX_TEXT_SIZE;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new ProviderException("Failed to parse the value of " + Constants.PROP_DIFF_MAX_TEXT_SIZE + ": " + value, e);
         }
-        return addedFiles;
+    }
+
+    /**
+     * Reads the manifest recorded for the installation when it was provisioned,
+     * which allows to avoid reading the files that have not been modified since then.
+     */
+    private InstallationManifest readManifest(Path installation, String algorithm) {
+        final InstallationManifest manifest;
+        try {
+            manifest = InstallationManifest.read(PathsUtils.getInstallationManifest(installation));
+        } catch (IOException e) {
+            messageWriter.verbose(e, "Failed to read the manifest of %s", installation);
+            return null;
+        }
+        return manifest == null || !manifest.getAlgorithm().equals(algorithm) ? null : manifest;
     }
 
     private Path resolveStagePath(Path path) {
-        return stagedInstallation.resolve(path);
+        return stagedInstallation.resolve(path.toString());
     }
 
     private Path resolveOriginPath(Path path) {
-        return customizedInstallation.resolve(path);
-    }
-
-        private Changes listChanges(final Map<Path, String> stagged, final Map<Path, String> custom) throws IOException {
-            Changes changes = new Changes();
-            for (Entry<Path, String> entry : stagged.entrySet()) {
-                Path path = entry.getKey();
-                if (custom.containsKey(path) && !custom.get(path).equals(entry.getValue())) {
-                    try {
-                        changes.unifiedDiff.put(path, extractUnifiedDiff(resolveStagePath(path), resolveOriginPath(path)));
-                    } catch(MalformedInputException ex) {
-                        changes.modifiedBinaryFiles.add(path);
+        return customizedInstallation.resolve(path.toString());
+    }
+
+    private Change compare(Item staged, InstallationManifest stagedManifest, Item customized, InstallationManifest customizedManifest,
+            long maxTextSize) throws IOException {
+        if (staged.attrs.isDirectory() || customized.attrs.isDirectory()) {
+            return staged.attrs.isDirectory() && customized.attrs.isDirectory() ? null : new Change(staged.path, null);
+        }
+        final InstallationManifest.Entry stagedEntry = staged.getRecordedEntry(stagedManifest);
+        final InstallationManifest.Entry customizedEntry = customized.getRecordedEntry(customizedManifest);
+        if (stagedEntry != null && customizedEntry != null) {
+            if (stagedEntry.isSameContent(customizedEntry)) {
+                return null;
+            }
+        } else if (staged.attrs.size() == customized.attrs.size() && contentEquals(staged.file, customized.file)) {
+            return null;
+        }
+        if (staged.attrs.size() > maxTextSize || customized.attrs.size() > maxTextSize) {
+            return new Change(staged.path, null);
+        }
+        try {
+            return new Change(staged.path, extractUnifiedDiff(resolveStagePath(staged.path), resolveOriginPath(staged.path)));
+        } catch (MalformedInputException ex) {
+            return new Change(staged.path, null);
+        }
+    }
+
+    private static boolean contentEquals(Path p1, Path p2) throws IOException {
+        try (InputStream in1 = Files.newInputStream(p1); InputStream in2 = Files.newInputStream(p2)) {
+            final byte[] b1 = new byte[BUFFER_SIZE];
+            final byte[] b2 = new byte[BUFFER_SIZE];
+            while (true) {
+                final int read = readFully(in1, b1);
+                if (read != readFully(in2, b2)) {
+                    return false;
+                }
+                if (read <= 0) {
+                    return true;
+                }
+                for (int i = 0; i < read; ++i) {
+                    if (b1[i] != b2[i]) {
+                        return false;
                     }
                 }
             }
-            return changes;
         }
+    }
 
-        private List<String> extractUnifiedDiff(Path revised, Path original) throws IOException {
-            final List<String> revisedLines = Files.readAllLines(revised, StandardCharsets.UTF_8);
-            final List<String> originalLines = Files.readAllLines(original, StandardCharsets.UTF_8);
-            Patch<String> patch = DiffUtils.diff(revisedLines, originalLines);
-            return DiffUtils.generateUnifiedDiff(revised.toString(), original.toString(), revisedLines, patch, 0);
+    private static int readFully(InputStream in, byte[] buf) throws IOException {
+        int total = 0;
+        while (total < buf.length) {
+            final int read = in.read(buf, total, buf.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
         }
+        return total;
+    }
 
-    private static class Changes {
+    private List<String> extractUnifiedDiff(Path revised, Path original) throws IOException {
+        final List<String> revisedLines = Files.readAllLines(revised, StandardCharsets.UTF_8);
+        final List<String> originalLines = Files.readAllLines(original, StandardCharsets.UTF_8);
+        Patch<String> patch = DiffUtils.diff(revisedLines, originalLines);
+        return DiffUtils.generateUnifiedDiff(revised.toString(), original.toString(), revisedLines, patch, 0);
+    }
 
-        private final Map<Path, List<String>> unifiedDiff;
-        private final Set<Path> modifiedBinaryFiles;
+    private static class Change {
+
+        private static final char ADDED = 'A';
+        private static final char DELETED = 'D';
+        private static final char MODIFIED = 'M';
+
+        private final char type;
+        private final Path path;
+        private final List<String> unifiedDiff;
+
+        private Change(char type, Path path) {
+            this.type = type;
+            this.path = path;
+            this.unifiedDiff = null;
+        }
+
+        /**
+         * A modified file, the diff is null for binary files.
+         */
+        private Change(Path path, List<String> unifiedDiff) {
+            this.type = MODIFIED;
+            this.path = path;
+            this.unifiedDiff = unifiedDiff;
+        }
+    }
+
+    private static class Item {
+
+        private final Path file;
+        private final Path path;
+        private final String name;
+        private final BasicFileAttributes attrs;
+
+        private Item(Path file, Path path, String name, BasicFileAttributes attrs) {
+            this.file = file;
+            this.path = path;
+            this.name = name;
+            this.attrs = attrs;
+        }
 
-        private Changes() {
-            this.unifiedDiff = new HashMap<>();
-            this.modifiedBinaryFiles = new HashSet<>();
+        /**
+         * Returns the entry of the manifest if the file has not been modified since it was recorded.
+         */
+        private InstallationManifest.Entry getRecordedEntry(InstallationManifest manifest) {
+            if (manifest == null) {
+                return null;
+            }
+            final InstallationManifest.Entry entry = manifest.getEntry(name);
+            return entry != null && entry.isUnchanged(attrs) ? entry : null;
+        }
+    }
+
+    /**
+     * Walks the files and the empty directories of a tree depth-first,
+     * visiting the children of a directory in the order of their names.
+     * Only the listings of the directories on the current branch are kept.
+     */
+    private static class TreeWalk {
+
+        private static final Comparator<Path> NAME_ORDER = Comparator.comparing(p -> p.getFileName().toString());
+
+        /**
+         * Compares the relative paths in the order they are visited.
+         */
+        static int compare(Path p1, Path p2) {
+            final int count = Math.min(p1.getNameCount(), p2.getNameCount());
+            for (int i = 0; i < count; ++i) {
+                final int order = p1.getName(i).toString().compareTo(p2.getName(i).toString());
+                if (order != 0) {
+                    return order;
+                }
+            }
+            return Integer.compare(p1.getNameCount(), p2.getNameCount());
+        }
+
+        private final Path root;
+        private final PathFilter filter;
+        private final Deque<Iterator<Path>> branch = new ArrayDeque<>();
+
+        TreeWalk(Path root, PathFilter filter) throws IOException {
+            this.root = root;
+            this.filter = filter;
+            if (root != null && Files.isDirectory(root)) {
+                branch.push(list(root).iterator());
+            }
+        }
+
+        Item next() throws IOException {
+            while (!branch.isEmpty()) {
+                final Iterator<Path> children = branch.peek();
+                if (!children.hasNext()) {
+                    branch.pop();
+                    continue;
+                }
+                final Path file = children.next();
+                final Path path = root.relativize(file);
+                final String name = InstallationManifest.relativePath(root, file);
+                if (InstallationManifest.isExcluded(name) || !filter.accept(path)) {
+                    continue;
+                }
+                final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attrs.isDirectory()) {
+                    final List<Path> list = list(file);
+                    if (!list.isEmpty()) {
+                        branch.push(list.iterator());
+                        continue;
+                    }
+                }
+                return new Item(file, path, name, attrs);
+            }
+            return null;
+        }
+
+        private static List<Path> list(Path dir) throws IOException {
+            final List<Path> list;
+            try (Stream<Path> stream = Files.list(dir)) {
+                list = stream.collect(Collectors.toCollection(ArrayList::new));
+            }
+            list.sort(NAME_ORDER);
+            return list;
         }
     }
 }
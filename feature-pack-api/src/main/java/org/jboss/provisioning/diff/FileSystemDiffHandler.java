@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.diff;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Receives the differences between two installations as they are found.
+ * The paths are relative to the installation directories and are reported
+ * in the order of the directory tree walk, from the thread calling the diff.
+ */
+public interface FileSystemDiffHandler {
+
+    void added(Path path) throws IOException;
+
+    void deleted(Path path) throws IOException;
+
+    void modifiedBinary(Path path) throws IOException;
+
+    void modified(Path path, List<String> unifiedDiff) throws IOException;
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.layout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.PropertyUtils;
+import org.jboss.provisioning.util.ZipUtils;
+
+/**
+ * Persistent size-bounded cache of expanded feature-pack layouts.
+ *
+ * Entries are keyed by the SHA-1 of the feature-pack artifact, so a given
+ * artifact is extracted only once. The expanded layouts must be treated as read-only.
+ *
+ * The cache may be shared by multiple JVMs. An entry that is in use is protected
+ * from eviction by a shared lock on its lock file. Additions and evictions are
+ * serialized by an exclusive lock on the cache lock file. Once the total size of the
+ * cache exceeds the limit, the least recently used entries are evicted.
+ */
+public class FeaturePackCache {
+
+    public static final long DEFAULT_MAX_SIZE = 2L * 1024 * 1024 * 1024;
+
+    private static final String CACHE_LOCK = ".lock";
+    private static final String EVICTED_PREFIX = ".evicted-";
+    private static final String LAYOUT = "layout";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String SIZE = "size";
+    private static final String TMP_PREFIX = ".tmp-";
+
+    /**
+     * File locks are held on behalf of the whole JVM and can't be acquired twice
+     * by the same JVM, so the entry locks are reference counted.
+     */
+    private static final Map<Path, EntryLock> ENTRY_LOCKS = new HashMap<>();
+
+    private static class EntryLock {
+        final FileChannel channel;
+        final FileLock lock;
+        int refs = 1;
+
+        EntryLock(FileChannel channel, FileLock lock) {
+            this.channel = channel;
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * Returns the cache configured with the system properties or null
+     * in case the cache has not been enabled.
+     *
+     * @return  configured cache or null
+     * @throws ProvisioningException  in case the configuration is not valid
+     */
+    public static FeaturePackCache fromSystemProperties() throws ProvisioningException {
+        final String dir = PropertyUtils.getSystemProperty(Constants.PROP_FP_CACHE_DIR);
+        if(dir == null) {
+            return null;
+        }
+        final String maxSizeStr = PropertyUtils.getSystemProperty(Constants.PROP_FP_CACHE_MAX_SIZE);
+        long maxSize = DEFAULT_MAX_SIZE;
+        if(maxSizeStr != null) {
+            try {
+                maxSize = Long.parseLong(maxSizeStr);
+            } catch(NumberFormatException e) {
+                throw new ProvisioningException("Failed to parse the value of " + Constants.PROP_FP_CACHE_MAX_SIZE + ": " + maxSizeStr, e);
+            }
+        }
+        return newInstance(Paths.get(dir), maxSize);
+    }
+
+    public static FeaturePackCache newInstance(Path dir, long maxSize) throws ProvisioningException {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.mkdirs(dir), e);
+        }
+        return new FeaturePackCache(dir.toAbsolutePath().normalize(), maxSize);
+    }
+
+    /**
+     * Cache entry acquired by the caller. The entry can not be evicted
+     * until it is closed.
+     */
+    public class Entry implements Closeable {
+
+        private final String hash;
+        private final Path lockFile;
+        private final Path layoutDir;
+        private boolean closed;
+
+        private Entry(String hash, Path lockFile, Path layoutDir) {
+            this.hash = hash;
+            this.lockFile = lockFile;
+            this.layoutDir = layoutDir;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public Path getLayoutDir() {
+            return layoutDir;
+        }
+
+        @Override
+        public void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            releaseEntryLock(lockFile);
+        }
+    }
+
+    private final Path dir;
+    private final long maxSize;
+
+    private FeaturePackCache(Path dir, long maxSize) {
+        this.dir = dir;
+        this.maxSize = maxSize;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the cache entry for the feature-pack artifact extracting
+     * the artifact into the cache if it is not there yet.
+     *
+     * @param artifact  feature-pack artifact
+     * @return  acquired cache entry which should be closed once the layout is not used anymore
+     * @throws ProvisioningException  in case of a failure
+     */
+    public Entry acquire(Path artifact) throws ProvisioningException {
+        final String hash;
+        try {
+            hash = HashUtils.hashFile(artifact);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.hashCalculation(artifact), e);
+        }
+        final Path lockFile = dir.resolve(hash + LOCK_SUFFIX);
+        acquireEntryLock(lockFile);
+        try {
+            final Path entryDir = dir.resolve(hash);
+            if(Files.exists(entryDir)) {
+                touch(entryDir);
+            } else {
+                add(artifact, entryDir);
+            }
+            return new Entry(hash, lockFile, entryDir.resolve(LAYOUT));
+        } catch(ProvisioningException | RuntimeException | Error e) {
+            releaseEntryLock(lockFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries that are not in use
+     * until the size of the cache fits the limit.
+     *
+     * @throws ProvisioningException  in case of a failure
+     */
+    public void evict() throws ProvisioningException {
+        synchronized (FeaturePackCache.class) {
+            try (FileChannel channel = openLockFile(dir.resolve(CACHE_LOCK)); FileLock lock = channel.lock()) {
+                doEvict();
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to evict feature-pack cache entries from " + dir, e);
+            }
+        }
+    }
+
+    private void add(Path artifact, final Path entryDir) throws ProvisioningException {
+        final Path tmpDir = dir.resolve(TMP_PREFIX + UUID.randomUUID().toString());
+        try {
+            final Path layoutDir = tmpDir.resolve(LAYOUT);
+            try {
+                ZipUtils.unzip(artifact, layoutDir);
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to unzip " + artifact + " to " + layoutDir, e);
+            }
+            final Path sizeFile = tmpDir.resolve(SIZE);
+            try {
+                Files.write(sizeFile, String.valueOf(sizeOf(layoutDir)).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.writeFile(sizeFile), e);
+            }
+            synchronized (FeaturePackCache.class) {
+                try (FileChannel channel = openLockFile(dir.resolve(CACHE_LOCK)); FileLock lock = channel.lock()) {
+                    // another JVM could have added the entry in the meantime
+                    if (!Files.exists(entryDir)) {
+                        Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    doEvict();
+                } catch (IOException e) {
+                    throw new ProvisioningException(Errors.moveFile(tmpDir, entryDir), e);
+                }
+            }
+        } finally {
+            IoUtils.recursiveDelete(tmpDir);
+        }
+    }
+
+    private void doEvict() throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        final Map<Path, Long> sizes = new HashMap<>();
+        final Map<Path, FileTime> lastUsed = new HashMap<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) {
+                final String name = p.getFileName().toString();
+                if (name.startsWith(EVICTED_PREFIX)) {
+                    IoUtils.recursiveDelete(p);
+                    continue;
+                }
+                if (name.charAt(0) == '.' || !Files.isDirectory(p)) {
+                    continue;
+                }
+                final Path sizeFile = p.resolve(SIZE);
+                if (!Files.exists(sizeFile)) {
+                    continue;
+                }
+                final long size;
+                try {
+                    size = Long.parseLong(new String(Files.readAllBytes(sizeFile), StandardCharsets.UTF_8).trim());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                entries.add(p);
+                sizes.put(p, size);
+                lastUsed.put(p, Files.getLastModifiedTime(p));
+                totalSize += size;
+            }
+        }
+        if (totalSize <= maxSize) {
+            return;
+        }
+        entries.sort((o1, o2) -> lastUsed.get(o1).compareTo(lastUsed.get(o2)));
+        for (Path entryDir : entries) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            if (evictEntry(entryDir)) {
+                totalSize -= sizes.get(entryDir);
+            }
+        }
+    }
+
+    private boolean evictEntry(Path entryDir) throws IOException {
+        final Path evictedDir = dir.resolve(EVICTED_PREFIX + UUID.randomUUID().toString());
+        final Path lockFile = dir.resolve(entryDir.getFileName().toString() + LOCK_SUFFIX);
+        synchronized (ENTRY_LOCKS) {
+            if (ENTRY_LOCKS.containsKey(lockFile)) {
+                return false;
+            }
+            try (FileChannel channel = openLockFile(lockFile)) {
+                final FileLock lock = channel.tryLock();
+                if (lock == null) {
+                    // in use by another JVM
+                    return false;
+                }
+                try {
+                    Files.move(entryDir, evictedDir, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        IoUtils.recursiveDelete(evictedDir);
+        return true;
+    }
+
+    private static void acquireEntryLock(Path lockFile) throws ProvisioningException {
+        synchronized (ENTRY_LOCKS) {
+            final EntryLock entryLock = ENTRY_LOCKS.get(lockFile);
+            if (entryLock != null) {
+                ++entryLock.refs;
+                return;
+            }
+            FileChannel channel = null;
+            try {
+                channel = openLockFile(lockFile);
+                ENTRY_LOCKS.put(lockFile, new EntryLock(channel, channel.lock(0L, Long.MAX_VALUE, true)));
+            } catch (IOException e) {
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e1) {
+                    }
+                }
+                throw new ProvisioningException("Failed to lock " + lockFile, e);
+            }
+        }
+    }
+
+    private static void releaseEntryLock(Path lockFile) {
+        synchronized (ENTRY_LOCKS) {
+            final EntryLock entryLock = ENTRY_LOCKS.get(lockFile);
+            if (entryLock == null || --entryLock.refs > 0) {
+                return;
+            }
+            ENTRY_LOCKS.remove(lockFile);
+            try {
+                entryLock.lock.release();
+                entryLock.channel.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static FileChannel openLockFile(Path lockFile) throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void touch(Path entryDir) {
+        try {
+            Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // the entry will be considered older than it is
+        }
+    }
+
+    private static long sizeOf(Path dir) throws IOException {
+        final long[] size = new long[1];
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+}
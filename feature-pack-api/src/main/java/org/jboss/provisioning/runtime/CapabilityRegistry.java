@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.provisioning.spec.CapabilitySpec;
+import org.jboss.provisioning.util.PmCollections;
+
+/**
+ * Interns the capability names of a config into dense integer ids.
+ *
+ * A capability name is stored as a path of its dot-separated parts,
+ * i.e. each id is the id of its prefix plus the last part of the name.
+ * This allows a resolver to walk from a prefix to the id of the resolved
+ * capability without building and hashing the complete name.
+ * The names are built only for error reporting.
+ */
+class CapabilityRegistry {
+
+    static final int ROOT = 0;
+
+    private int size = 1;
+    private int[] parents = new int[64];
+    private String[] parts = new String[64];
+    private final List<Map<String, Integer>> children = new ArrayList<>(64);
+    private CapabilityProviders[] providers = new CapabilityProviders[64];
+
+    private final Map<CapabilitySpec, Integer> staticIds = new IdentityHashMap<>();
+    private final Map<String, String[]> splitElems = new HashMap<>();
+
+    CapabilityRegistry() {
+        children.add(Collections.emptyMap());
+    }
+
+    /**
+     * Returns the id of a static capability.
+     */
+    int getId(CapabilitySpec capSpec) {
+        Integer id = staticIds.get(capSpec);
+        if(id == null) {
+            id = getId(ROOT, capSpec.toString());
+            staticIds.put(capSpec, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the capability named by the prefix
+     * identified by the id and the element appended to it.
+     * The element may consist of several dot-separated parts.
+     */
+    int getId(int prefix, String elem) {
+        if(elem.indexOf('.') < 0) {
+            return getChild(prefix, elem);
+        }
+        String[] split = splitElems.get(elem);
+        if(split == null) {
+            split = split(elem);
+            splitElems.put(elem, split);
+        }
+        for(String part : split) {
+            prefix = getChild(prefix, part);
+        }
+        return prefix;
+    }
+
+    String getName(int id) {
+        if(id == ROOT) {
+            return "";
+        }
+        final StringBuilder buf = new StringBuilder();
+        appendName(id, buf);
+        return buf.toString();
+    }
+
+    CapabilityProviders getProviders(int id) {
+        return providers[id];
+    }
+
+    CapabilityProviders addProviders(int id) {
+        CapabilityProviders capProviders = providers[id];
+        if(capProviders == null) {
+            capProviders = new CapabilityProviders();
+            providers[id] = capProviders;
+        }
+        return capProviders;
+    }
+
+    private int getChild(int parent, String part) {
+        final Map<String, Integer> parentChildren = children.get(parent);
+        final Integer child = parentChildren.get(part);
+        if(child != null) {
+            return child;
+        }
+        if(size == parents.length) {
+            final int capacity = size << 1;
+            parents = Arrays.copyOf(parents, capacity);
+            parts = Arrays.copyOf(parts, capacity);
+            providers = Arrays.copyOf(providers, capacity);
+        }
+        final int id = size++;
+        parents[id] = parent;
+        parts[id] = part;
+        children.add(Collections.emptyMap());
+        children.set(parent, PmCollections.put(parentChildren, part, id));
+        return id;
+    }
+
+    private void appendName(int id, StringBuilder buf) {
+        final int parent = parents[id];
+        if(parent != ROOT) {
+            appendName(parent, buf);
+            buf.append('.');
+        }
+        buf.append(parts[id]);
+    }
+
+    private static String[] split(String elem) {
+        final List<String> split = new ArrayList<>();
+        int start = 0;
+        int dot = elem.indexOf('.');
+        while(dot >= 0) {
+            split.add(elem.substring(start, dot));
+            start = dot + 1;
+            dot = elem.indexOf('.', start);
+        }
+        split.add(elem.substring(start));
+        return split.toArray(new String[split.size()]);
+    }
+}
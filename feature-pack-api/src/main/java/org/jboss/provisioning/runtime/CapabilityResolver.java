@@ -17,11 +17,9 @@
 
 package org.jboss.provisioning.runtime;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
 
 import org.jboss.provisioning.Errors;
 import org.jboss.provisioning.ProvisioningException;
@@ -33,34 +31,40 @@ import org.jboss.provisioning.spec.CapabilitySpec;
  */
 public class CapabilityResolver {
 
-    private ArrayList<StringBuilder> capList = null;
-    private StringBuilder capBuf;
+    private static final int[] NONE = new int[0];
+
+    private final CapabilityRegistry registry;
+    private int[] capIds = null;
+    private int capsTotal;
+    private int capId = CapabilityRegistry.ROOT;
 
     private ResolvedFeature feature;
     private CapabilitySpec capSpec;
     private String currentElem;
 
-    List<String> resolve(CapabilitySpec capSpec, ResolvedFeature feature) throws ProvisioningException {
+    CapabilityResolver(CapabilityRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Resolves the capability spec for the feature.
+     *
+     * @return  ids of the resolved capabilities in the registry
+     */
+    int[] resolve(CapabilitySpec capSpec, ResolvedFeature feature) throws ProvisioningException {
         if(capSpec.isStatic()) {
-            return Collections.singletonList(capSpec.toString());
-        }
-        if(capBuf == null) {
-            capBuf = new StringBuilder();
+            return new int[] {registry.getId(capSpec)};
         }
         this.feature = feature;
         this.capSpec = capSpec;
         try {
             if(!capSpec.resolve(this)) {
-                return Collections.emptyList();
-            }
-            if(capList == null) {
-                return capBuf.length() == 0 ? Collections.emptyList() : Collections.singletonList(capBuf.toString());
+                return NONE;
             }
-            List<String> resolved = new ArrayList<>(capList.size());
-            for (int i = 0; i < capList.size(); ++i) {
-                resolved.add(capList.get(i).toString());
+            if(capIds == null) {
+                return capId == CapabilityRegistry.ROOT ? NONE : new int[] {capId};
             }
-            return resolved;
+            return Arrays.copyOf(capIds, capsTotal);
         } catch(ProvisioningException e) {
             throw new ProvisioningException(Errors.failedToResolveCapability(feature, capSpec), e);
         } finally {
@@ -70,8 +74,9 @@ public class CapabilityResolver {
 
     void reset() {
         feature = null;
-        capList = null;
-        capBuf.setLength(0);
+        capIds = null;
+        capsTotal = 0;
+        capId = CapabilityRegistry.ROOT;
         currentElem = null;
     }
 
@@ -93,60 +98,54 @@ public class CapabilityResolver {
     }
 
     public CapabilityResolver add(Object elem) throws ProvisioningException {
-        if(capList == null) {
-            if(capBuf.length() > 0) {
-                capBuf.append('.');
-            }
-            capBuf.append(toStringElem(elem));
+        final String str = toStringElem(elem);
+        if(capIds == null) {
+            capId = registry.getId(capId, str);
             return this;
         }
-        final String str = toStringElem(elem);
-        for(int i = 0; i < capList.size(); ++i) {
-            capList.get(i).append('.').append(str);
+        for(int i = 0; i < capsTotal; ++i) {
+            capIds[i] = registry.getId(capIds[i], str);
         }
         return this;
     }
 
     public CapabilityResolver multiply(Collection<?> elems) throws ProvisioningException {
         if(elems.isEmpty()) {
-            throw new ProvisioningException(Errors.illegalCapabilityElement(capSpec, elems.toString(), capBuf.toString()));
+            throw new ProvisioningException(Errors.illegalCapabilityElement(capSpec, elems.toString(), registry.getName(capId)));
         }
         if(elems.size() == 1) {
             add(elems.iterator().next());
             return this;
         }
-        if(capList == null) {
-            if(capBuf.length() > 0) {
-                capBuf.append('.');
-            }
-            capList = new ArrayList<>(elems.size());
+        if(capIds == null) {
+            capIds = new int[elems.size()];
             for(Object o : elems) {
-                capList.add(capBuf.length() == 0 ? new StringBuilder(toStringElem(o)) : new StringBuilder(capBuf).append(toStringElem(o)));
+                capIds[capsTotal++] = registry.getId(capId, toStringElem(o));
             }
             return this;
         }
 
-        capList.ensureCapacity(capList.size() * elems.size());
-        final int capsTotal = capList.size();
-        for (int i = 0; i < capsTotal; ++i) {
-            final StringBuilder capBuf = capList.get(i).append('.');
+        final int prefixesTotal = capsTotal;
+        capIds = Arrays.copyOf(capIds, prefixesTotal * elems.size());
+        for (int i = 0; i < prefixesTotal; ++i) {
+            final int prefix = capIds[i];
             final Iterator<?> elemI = elems.iterator();
             final Object firstElem = elemI.next();
             while(elemI.hasNext()) {
-                capList.add(new StringBuilder(capBuf).append(toStringElem(elemI.next())));
+                capIds[capsTotal++] = registry.getId(prefix, toStringElem(elemI.next()));
             }
-            capBuf.append(toStringElem(firstElem));
+            capIds[i] = registry.getId(prefix, toStringElem(firstElem));
         }
         return this;
     }
 
     private String toStringElem(Object elem) throws ProvisioningException {
         if(elem == null) {
-            throw new ProvisioningException(Errors.illegalCapabilityElement(capSpec, null, capBuf.toString()));
+            throw new ProvisioningException(Errors.illegalCapabilityElement(capSpec, null, registry.getName(capId)));
         }
         final String str = elem.toString().trim();
         if(str.isEmpty()) {
-            throw new ProvisioningException(Errors.illegalCapabilityElement(capSpec, str, capBuf.toString()));
+            throw new ProvisioningException(Errors.illegalCapabilityElement(capSpec, str, registry.getName(capId)));
         }
         return str;
     }
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.Errors;
 import org.jboss.provisioning.ProvisioningDescriptionException;
 import org.jboss.provisioning.ProvisioningException;
 import org.jboss.provisioning.config.ConfigId;
@@ -43,6 +44,7 @@ class ConfigModelStack {
         final ConfigModel config;
         private final boolean pushedFgScope;
         private List<ResolvedFeatureGroupConfig> groupStack = new ArrayList<>();
+        private final FeatureFilterIndex filter = new FeatureFilterIndex();
 
         ConfigScope(ConfigModel config) throws ProvisioningException {
             this.config = config;
@@ -71,6 +73,7 @@ class ConfigModelStack {
                 return false;
             }
             groupStack.add(resolvedFg);
+            filter.push(resolvedFg);
             return true;
         }
 
@@ -79,40 +82,16 @@ class ConfigModelStack {
                 throw new IllegalStateException("Feature group stack is empty");
             }
             final ResolvedFeatureGroupConfig last = groupStack.remove(groupStack.size() - 1);
+            filter.pop(last);
             final boolean processed = rt.processIncludedFeatures(last);
             return processed;
         }
 
         boolean isFilteredOut(ResolvedSpecId specId, final ResolvedFeatureId id) {
-            boolean included = false;
-            for(int i = groupStack.size() - 1; i >= 0; --i) {
-                final ResolvedFeatureGroupConfig fgConfig = groupStack.get(i);
-                if (fgConfig.inheritFeatures) {
-                    if (id != null && fgConfig.excludedFeatures.contains(id)) {
-                        return true;
-                    }
-                    if (fgConfig.excludedSpecs.contains(specId)) {
-                        if (id != null && fgConfig.includedFeatures.containsKey(id)) {
-                            included = true;
-                            continue;
-                        }
-                        return true;
-                    }
-                } else {
-                    if (id != null && fgConfig.includedFeatures.containsKey(id)) {
-                        included = true;
-                        continue;
-                    }
-                    if (!fgConfig.includedSpecs.contains(specId)) {
-                        return true;
-                    }
-                    if (id != null && fgConfig.excludedFeatures.contains(id)) {
-                        return true;
-                    }
-                    included = true;
-                }
+            if(filter.isExcluded(specId, id)) {
+                return true;
             }
-            if(included) {
+            if(filter.isIncluded(id)) {
                 return false;
             }
             return config == null ? false : !config.isInheritFeatures();
@@ -352,6 +331,21 @@ class ConfigModelStack {
         }
     }
 
+    /**
+     * Resolves the references of the specs of the features, which may require
+     * locating the referenced specs in the feature-packs. Once they are resolved,
+     * ordering the features involves only the state of this config.
+     */
+    void resolveRefMappings() throws ProvisioningException {
+        try {
+            for(SpecFeatures sf : specFeatures.values()) {
+                sf.spec.resolveRefMappings(rt);
+            }
+        } catch (ProvisioningException e) {
+            throw new ProvisioningException(Errors.failedToBuildConfigSpec(id.getModel(), id.getName()), e);
+        }
+    }
+
     List<ResolvedFeature> orderFeatures() throws ProvisioningException {
         if(orderedFeatures != null) {
             return orderedFeatures;
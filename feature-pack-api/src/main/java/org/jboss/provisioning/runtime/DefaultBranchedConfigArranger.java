@@ -17,9 +17,10 @@
 
 package org.jboss.provisioning.runtime;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -53,8 +54,8 @@ class DefaultBranchedConfigArranger {
     private boolean orderReferencedSpec;
     private final boolean branchIsBatch;
 
-    private CapabilityResolver capResolver = new CapabilityResolver();
-    private Map<String, CapabilityProviders> capProviders = Collections.emptyMap();
+    private final CapabilityRegistry capRegistry = new CapabilityRegistry();
+    private final CapabilityResolver capResolver = new CapabilityResolver(capRegistry);
 
     private List<ConfigFeatureBranch> featureBranches = Collections.emptyList();
     private ConfigFeatureBranch currentBranch;
@@ -91,13 +92,26 @@ class DefaultBranchedConfigArranger {
         if(branch.isOrdered()) {
             return;
         }
-        if(branch.hasDeps()) {
-            for(ConfigFeatureBranch dep : branch.getDeps()) {
-                orderBranches(dep, features);
+        // the branches are ordered depth-first, after their dependencies
+        final Deque<ConfigFeatureBranch> branches = new ArrayDeque<>();
+        final Deque<Iterator<ConfigFeatureBranch>> deps = new ArrayDeque<>();
+        branches.push(branch);
+        deps.push(branch.hasDeps() ? branch.getDeps().iterator() : Collections.emptyIterator());
+        while(!branches.isEmpty()) {
+            final Iterator<ConfigFeatureBranch> depsI = deps.peek();
+            if(depsI.hasNext()) {
+                final ConfigFeatureBranch dep = depsI.next();
+                if(!dep.isOrdered()) {
+                    branches.push(dep);
+                    deps.push(dep.hasDeps() ? dep.getDeps().iterator() : Collections.emptyIterator());
+                }
+                continue;
             }
+            deps.pop();
+            final ConfigFeatureBranch ordered = branches.pop();
+            features.addAll(ordered.getFeatures());
+            ordered.ordered();
         }
-        features.addAll(branch.getFeatures());
-        branch.ordered();
     }
 
     private void doOrder(ProvisioningRuntimeBuilder rt) throws ProvisioningException {
@@ -108,15 +122,11 @@ class DefaultBranchedConfigArranger {
             if(specFeatures.spec.xmlSpec.providesCapabilities()) {
                 for(CapabilitySpec cap : specFeatures.spec.xmlSpec.getProvidedCapabilities()) {
                     if(cap.isStatic()) {
-                        getProviders(cap.toString(), true).add(specFeatures);
+                        capRegistry.addProviders(capRegistry.getId(cap)).add(specFeatures);
                     } else {
                         for(ResolvedFeature feature : specFeatures.getFeatures()) {
-                            final List<String> resolvedCaps = capResolver.resolve(cap, feature);
-                            if(resolvedCaps.isEmpty()) {
-                                continue;
-                            }
-                            for(String resolvedCap : resolvedCaps) {
-                                getProviders(resolvedCap, true).add(feature);
+                            for(int resolvedCap : capResolver.resolve(cap, feature)) {
+                                capRegistry.addProviders(resolvedCap).add(feature);
                             }
                         }
                     }
@@ -130,11 +140,11 @@ class DefaultBranchedConfigArranger {
 
         if(branchPerSpec) {
             for(SpecFeatures features : specFeatures.values()) {
-                orderFeaturesInSpec(features, false);
+                order(new SpecStep(features, false));
             }
         } else {
             for(ResolvedFeature feature : features.values()) {
-                orderFeature(feature);
+                order(new FeatureStep(feature));
             }
         }
 /*
@@ -166,170 +176,350 @@ class DefaultBranchedConfigArranger {
         */
     }
 
-    private CapabilityProviders getProviders(String cap, boolean add) throws ProvisioningException {
-        CapabilityProviders providers = capProviders.get(cap);
-        if(providers != null) {
-            return providers;
+    /**
+     * A step of the feature ordering.
+     *
+     * The ordering of a feature may require ordering other features first,
+     * which in turn may require ordering other features, etc. Instead of
+     * recursing through the reference chains, each step returns the step
+     * it depends on and is resumed with its result once the step
+     * it returned has completed. The steps are chained in an explicit stack
+     * so the depth of the chains is not limited by the depth of the thread
+     * stack.
+     */
+    private abstract static class OrderingStep {
+
+        private OrderingStep caller;
+        protected int state;
+        private List<CircularRefInfo> result;
+
+        protected OrderingStep call(OrderingStep callee, int resumeState) {
+            state = resumeState;
+            return callee;
         }
-        if(!add) {
-            throw new ProvisioningException(Errors.noCapabilityProvider(cap));
+
+        protected OrderingStep complete(List<CircularRefInfo> result) {
+            this.result = result;
+            return null;
+        }
+
+        /**
+         * Proceeds with the step.
+         *
+         * @param calleeResult  the result of the step returned by the previous invocation,
+         *   null if this is the first invocation
+         * @return  the step that has to complete before this one can proceed,
+         *   null if this step has completed
+         * @throws ProvisioningException  in case of an error
+         */
+        protected abstract OrderingStep proceed(List<CircularRefInfo> calleeResult) throws ProvisioningException;
+    }
+
+    private static List<CircularRefInfo> order(OrderingStep step) throws ProvisioningException {
+        List<CircularRefInfo> calleeResult = null;
+        while(true) {
+            final OrderingStep callee = step.proceed(calleeResult);
+            if(callee != null) {
+                callee.caller = step;
+                step = callee;
+                calleeResult = null;
+            } else if(step.caller == null) {
+                return step.result;
+            } else {
+                calleeResult = step.result;
+                step = step.caller;
+            }
         }
-        providers = new CapabilityProviders();
-        capProviders = PmCollections.put(capProviders, cap, providers);
-        return providers;
     }
 
     /**
      * Attempts to order the features of the spec.
      * Terminates immediately when a feature reference loop is detected.
      *
-     * @param specFeatures  spec features
-     * @return  returns the feature id on which the feature reference loop was detected,
-     *   returns null if no loop was detected (despite whether any feature was processed or not)
-     * @throws ProvisioningException
+     * The result of the step is the feature id on which the feature reference loop was detected,
+     * or null if no loop was detected (despite whether any feature was processed or not)
      */
-    private List<CircularRefInfo> orderFeaturesInSpec(SpecFeatures specFeatures, boolean force) throws ProvisioningException {
-        if(!force) {
-            if (!specFeatures.isFree()) {
-                return null;
-            }
-            specFeatures.schedule();
+    private class SpecStep extends OrderingStep {
+
+        private static final int START = 0;
+        private static final int FEATURE_ORDERED = 1;
+
+        private final SpecFeatures specFeatures;
+        private final boolean force;
+        private List<ResolvedFeature> features;
+        private int i;
+        private List<CircularRefInfo> allCircularRefs;
+
+        SpecStep(SpecFeatures specFeatures, boolean force) {
+            this.specFeatures = specFeatures;
+            this.force = force;
         }
 
-        List<CircularRefInfo> allCircularRefs = null;
-        int i = 0;
-        final List<ResolvedFeature> features = specFeatures.getFeatures();
-        while(i < features.size() && allCircularRefs == null) {
-            if (onParentChildrenBranch) {
-                onParentChildrenBranch = false;
-                startNewBranch(branchIsBatch);
-            }
-            allCircularRefs = orderFeature(features.get(i++));
-/*            if(circularRefs != null) {
-                if(allCircularRefs == null) {
-                    allCircularRefs = circularRefs;
-                } else {
-                    if(allCircularRefs.size() == 1) {
-                        final CircularRefInfo first = allCircularRefs.get(0);
-                        allCircularRefs = new ArrayList<>(1 + circularRefs.size());
-                        allCircularRefs.add(first);
+        @Override
+        protected OrderingStep proceed(List<CircularRefInfo> calleeResult) throws ProvisioningException {
+            switch(state) {
+                case START:
+                    if(!force) {
+                        if (!specFeatures.isFree()) {
+                            return complete(null);
+                        }
+                        specFeatures.schedule();
                     }
-                    allCircularRefs.addAll(circularRefs);
+                    features = specFeatures.getFeatures();
+                    break;
+                case FEATURE_ORDERED:
+                    allCircularRefs = calleeResult;
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+            if(i < features.size() && allCircularRefs == null) {
+                if (onParentChildrenBranch) {
+                    onParentChildrenBranch = false;
+                    startNewBranch(branchIsBatch);
                 }
+                return call(new FeatureStep(features.get(i++)), FEATURE_ORDERED);
             }
-*/        }
-        if(!force) {
-            specFeatures.free();
+            if(!force) {
+                specFeatures.free();
+            }
+            return complete(allCircularRefs);
         }
-        return allCircularRefs;
     }
 
     /**
      * Attempts to order the feature. If the feature has already been scheduled
      * for ordering but haven't been ordered yet, it means there is a circular feature
-     * reference loop, in which case the feature is not ordered and false is returned.
-     *
-     * @param feature  the feature to put in the ordered list
-     * @return  whether the feature was added to the ordered list or not
-     * @throws ProvisioningException
+     * reference loop, in which case the feature is not ordered and the loop is
+     * the result of the step.
      */
-    private List<CircularRefInfo> orderFeature(ResolvedFeature feature) throws ProvisioningException {
-        if(feature.isOrdered()) {
-            return null;
-        }
-        if(!feature.isFree()) {
-            return Collections.singletonList(new CircularRefInfo(feature));
-        }
-        feature.schedule();
+    private class FeatureStep extends OrderingStep {
+
+        private static final int START = 0;
+        private static final int NEXT_CAPABILITY = 1;
+        private static final int PROVIDERS_ORDERED = 2;
+        private static final int DEPS = 3;
+        private static final int NEXT_REF = 4;
+        private static final int REF_ORDERED = 5;
+        private static final int SPEC_REFS = 6;
+        private static final int CIRCULAR_REFS = 7;
+        private static final int NEXT_FIRST_IN_CONFIG = 8;
+        private static final int FIRST_IN_CONFIG_ORDERED = 9;
+        private static final int NEXT_ON_PATH = 10;
+        private static final int NEXT_ON_PATH_ORDERED = 11;
+
+        private final ResolvedFeature feature;
+        private List<CircularRefInfo> circularRefs;
+
+        private Iterator<CapabilitySpec> capSpecs;
+        private CapabilitySpec capSpec;
+        private int[] resolvedCaps;
+        private int capI;
+        private CapabilityProviders providers;
+
+        private Iterator<ResolvedFeatureId> refIds;
+        private boolean specRefs;
+
+        private List<CircularRefInfo> initiatedCircularRefs;
+        private int loopI;
+        private boolean prevOrderRefSpec;
+        private boolean originalCircularDeps;
+
+        FeatureStep(ResolvedFeature feature) {
+            this.feature = feature;
+        }
+
+        @Override
+        protected OrderingStep proceed(List<CircularRefInfo> calleeResult) throws ProvisioningException {
+            while(true) {
+                switch(state) {
+                    case START:
+                        if(feature.isOrdered()) {
+                            return complete(null);
+                        }
+                        if(!feature.isFree()) {
+                            return complete(Collections.singletonList(new CircularRefInfo(feature)));
+                        }
+                        feature.schedule();
 
-        List<CircularRefInfo> circularRefs = Collections.emptyList();
-        if(feature.spec.xmlSpec.requiresCapabilities()) {
-            circularRefs = orderCapabilityProviders(feature, circularRefs);
-        }
-        if(!feature.deps.isEmpty()) {
-            circularRefs = orderReferencedFeatures(feature, feature.deps.keySet(), false, circularRefs);
-        }
-        List<ResolvedFeatureId> refIds = feature.resolveRefs();
-        if(!refIds.isEmpty()) {
-            circularRefs = orderReferencedFeatures(feature, refIds, true, circularRefs);
+                        circularRefs = Collections.emptyList();
+                        if(feature.spec.xmlSpec.requiresCapabilities()) {
+                            capSpecs = feature.spec.xmlSpec.getRequiredCapabilities().iterator();
+                            resolvedCaps = new int[0];
+                            state = NEXT_CAPABILITY;
+                        } else {
+                            state = DEPS;
+                        }
+                        break;
+                    case NEXT_CAPABILITY:
+                        if(capI < resolvedCaps.length) {
+                            final int resolvedCap = resolvedCaps[capI++];
+                            providers = capRegistry.getProviders(resolvedCap);
+                            if (providers == null) {
+                                throw new ProvisioningException(Errors.noCapabilityProvider(feature, capSpec, capRegistry.getName(resolvedCap)));
+                            }
+                            return call(new ProvidersStep(providers), PROVIDERS_ORDERED);
+                        }
+                        if(capSpecs.hasNext()) {
+                            capSpec = capSpecs.next();
+                            resolvedCaps = capResolver.resolve(capSpec, feature);
+                            capI = 0;
+                        } else {
+                            state = DEPS;
+                        }
+                        break;
+                    case PROVIDERS_ORDERED:
+                        circularRefs = PmCollections.addAll(circularRefs, calleeResult);
+                        if(providers.isProvided()) {
+                            feature.addBranchDep(providers.branches.iterator().next(), false);
+                        }
+                        state = NEXT_CAPABILITY;
+                        break;
+                    case DEPS:
+                        if(!feature.deps.isEmpty()) {
+                            refIds = feature.deps.keySet().iterator();
+                            specRefs = false;
+                            state = NEXT_REF;
+                        } else {
+                            state = SPEC_REFS;
+                        }
+                        break;
+                    case SPEC_REFS:
+                        final List<ResolvedFeatureId> specRefIds = feature.resolveRefs();
+                        if(!specRefIds.isEmpty()) {
+                            refIds = specRefIds.iterator();
+                            specRefs = true;
+                            state = NEXT_REF;
+                        } else {
+                            state = CIRCULAR_REFS;
+                        }
+                        break;
+                    case NEXT_REF:
+                        if(refIds.hasNext()) {
+                            return call(new ReferenceStep(feature, refIds.next(), specRefs), REF_ORDERED);
+                        }
+                        state = specRefs ? CIRCULAR_REFS : SPEC_REFS;
+                        break;
+                    case REF_ORDERED:
+                        if(calleeResult != null) {
+                            circularRefs = PmCollections.addAll(circularRefs, calleeResult);
+                        }
+                        state = NEXT_REF;
+                        break;
+                    case CIRCULAR_REFS:
+                        if(!orderCircularRefs()) {
+                            return null;
+                        }
+                        break;
+                    case NEXT_FIRST_IN_CONFIG:
+                        if(loopI < initiatedCircularRefs.size()) {
+                            return call(new FeatureStep(initiatedCircularRefs.get(loopI++).firstInConfig), FIRST_IN_CONFIG_ORDERED);
+                        }
+                        orderReferencedSpec = prevOrderRefSpec;
+                        return complete(null);
+                    case FIRST_IN_CONFIG_ORDERED:
+                        if(calleeResult != null) {
+                            throw new IllegalStateException();
+                        }
+                        state = NEXT_FIRST_IN_CONFIG;
+                        break;
+                    case NEXT_ON_PATH:
+                        if(loopI < initiatedCircularRefs.size()) {
+                            return call(new FeatureStep(initiatedCircularRefs.get(loopI++).nextOnPath), NEXT_ON_PATH_ORDERED);
+                        }
+                        if(!originalCircularDeps) {
+                            startNewBranch(branchIsBatch);
+                        }
+                        circularDeps = originalCircularDeps;
+                        orderReferencedSpec = prevOrderRefSpec;
+                        return complete(null);
+                    case NEXT_ON_PATH_ORDERED:
+                        if(calleeResult != null) {
+                            throw new IllegalStateException();
+                        }
+                        state = NEXT_ON_PATH;
+                        break;
+                    default:
+                        throw new IllegalStateException();
+                }
+            }
         }
 
-        List<CircularRefInfo> initiatedCircularRefs = Collections.emptyList();
-        if(!circularRefs.isEmpty()) {
-            // there is a one or more circular feature reference loop(s)
-
-            // check whether there is a loop that this feature didn't initiate
-            // if there is such a loop then propagate the loops this feature didn't start to their origins
-            if(circularRefs.size() == 1) {
-                final CircularRefInfo next = circularRefs.get(0);
-                if (next.loopedOn.id.equals(feature.id)) { // this feature initiated the loop
-                    circularRefs = Collections.emptyList();
-                    initiatedCircularRefs = Collections.singletonList(next);
-                } else {
-                    next.setNext(feature);
-                    feature.free();
-                }
-            } else {
-                final Iterator<CircularRefInfo> i = circularRefs.iterator();
-                while (i.hasNext()) {
-                    final CircularRefInfo next = i.next();
-                    if (next.loopedOn.id.equals(feature.id)) {
-                        // this feature initiated the loop
-                        i.remove();
-                        initiatedCircularRefs = PmCollections.add(initiatedCircularRefs, next);
+        /**
+         * Analyzes the detected circular reference loops.
+         *
+         * @return  true if the features in the loops initiated by this feature have to be ordered,
+         *   false if the step has completed
+         * @throws ProvisioningException  in case of an error
+         */
+        private boolean orderCircularRefs() throws ProvisioningException {
+            initiatedCircularRefs = Collections.emptyList();
+            if(!circularRefs.isEmpty()) {
+                // there is a one or more circular feature reference loop(s)
+
+                // check whether there is a loop that this feature didn't initiate
+                // if there is such a loop then propagate the loops this feature didn't start to their origins
+                if(circularRefs.size() == 1) {
+                    final CircularRefInfo next = circularRefs.get(0);
+                    if (next.loopedOn.id.equals(feature.id)) { // this feature initiated the loop
+                        circularRefs = Collections.emptyList();
+                        initiatedCircularRefs = Collections.singletonList(next);
                     } else {
-                        // the feature is in the middle of the loop
                         next.setNext(feature);
                         feature.free();
                     }
+                } else {
+                    final Iterator<CircularRefInfo> i = circularRefs.iterator();
+                    while (i.hasNext()) {
+                        final CircularRefInfo next = i.next();
+                        if (next.loopedOn.id.equals(feature.id)) {
+                            // this feature initiated the loop
+                            i.remove();
+                            initiatedCircularRefs = PmCollections.add(initiatedCircularRefs, next);
+                        } else {
+                            // the feature is in the middle of the loop
+                            next.setNext(feature);
+                            feature.free();
+                        }
+                    }
+                }
+                if(!circularRefs.isEmpty()) {
+                    complete(circularRefs);
+                    return false;
                 }
+                // all the loops were initiated by this feature
             }
-            if(!circularRefs.isEmpty()) {
-                return circularRefs;
+
+            if (initiatedCircularRefs.isEmpty()) {
+                ordered(feature);
+                complete(null);
+                return false;
             }
-            // all the loops were initiated by this feature
-        }
 
-        if (!initiatedCircularRefs.isEmpty()) {
-            final boolean prevOrderRefSpec = orderReferencedSpec;
+            prevOrderRefSpec = orderReferencedSpec;
             orderReferencedSpec = false;
 
             // sort according to the appearance in the config
             initiatedCircularRefs.sort(CircularRefInfo.getFirstInConfigComparator());
             if(initiatedCircularRefs.get(0).firstInConfig.includeNo < feature.includeNo) {
                 feature.free();
-                for(CircularRefInfo ref : initiatedCircularRefs) {
-                    if(orderFeature(ref.firstInConfig) != null) {
-                        throw new IllegalStateException();
-                    }
-                }
-            } else {
-                final boolean originalCircularDeps = circularDeps;
-                circularDeps = true;
-
-                // there could be multiple triggers for the same circle
-                // i.e. cap requirements, refs, etc, the same circle can be detected multiple times
-                // the check is necessary to avoid breaking it into pieces
-                if(!originalCircularDeps) {
-                    startNewBranch(true);
-                }
-                ordered(feature);
-                initiatedCircularRefs.sort(CircularRefInfo.getNextOnPathComparator());
-                for(CircularRefInfo ref : initiatedCircularRefs) {
-                    if(orderFeature(ref.nextOnPath) != null) {
-                        throw new IllegalStateException();
-                    }
-                }
-                if(!originalCircularDeps) {
-                    startNewBranch(branchIsBatch);
-                }
-                circularDeps = originalCircularDeps;
+                state = NEXT_FIRST_IN_CONFIG;
+                return true;
+            }
+            originalCircularDeps = circularDeps;
+            circularDeps = true;
+
+            // there could be multiple triggers for the same circle
+            // i.e. cap requirements, refs, etc, the same circle can be detected multiple times
+            // the check is necessary to avoid breaking it into pieces
+            if(!originalCircularDeps) {
+                startNewBranch(true);
             }
-            orderReferencedSpec = prevOrderRefSpec;
-        } else {
             ordered(feature);
+            initiatedCircularRefs.sort(CircularRefInfo.getNextOnPathComparator());
+            state = NEXT_ON_PATH;
+            return true;
         }
-        return null;
     }
 
     private void ordered(ResolvedFeature feature) throws ProvisioningException {
@@ -433,16 +623,29 @@ class DefaultBranchedConfigArranger {
         if(!next.hasDeps()) {
             return false;
         }
+        // visitedBranches contains the branches on the current path
+        final Deque<ConfigFeatureBranch> path = new ArrayDeque<>();
+        final Deque<Iterator<ConfigFeatureBranch>> deps = new ArrayDeque<>();
         visitedBranches.add(next);
-        for(ConfigFeatureBranch newDep : next.getDeps()) {
+        path.push(next);
+        deps.push(next.getDeps().iterator());
+        while(!path.isEmpty()) {
+            final Iterator<ConfigFeatureBranch> depsI = deps.peek();
+            if(!depsI.hasNext()) {
+                deps.pop();
+                visitedBranches.remove(path.pop());
+                continue;
+            }
+            final ConfigFeatureBranch newDep = depsI.next();
             if(visitedBranches.contains(newDep)) {
                 return true;
             }
-            if(createsDepCircle(newDep, visitedBranches)) {
-                return true;
+            if(newDep.hasDeps()) {
+                visitedBranches.add(newDep);
+                path.push(newDep);
+                deps.push(newDep.getDeps().iterator());
             }
         }
-        visitedBranches.remove(next);
         return false;
     }
 
@@ -459,127 +662,136 @@ class DefaultBranchedConfigArranger {
         return currentBranch;
     }
 
-    private List<CircularRefInfo> orderCapabilityProviders(ResolvedFeature feature, List<CircularRefInfo> circularRefs)
-            throws ProvisioningException {
-        for (CapabilitySpec capSpec : feature.spec.xmlSpec.getRequiredCapabilities()) {
-            final List<String> resolvedCaps = capResolver.resolve(capSpec, feature);
-            if (resolvedCaps.isEmpty()) {
-                continue;
-            }
-            for (String resolvedCap : resolvedCaps) {
-                final CapabilityProviders providers;
-                try {
-                    providers = getProviders(resolvedCap, false);
-                } catch (ProvisioningException e) {
-                    throw new ProvisioningException(Errors.noCapabilityProvider(feature, capSpec, resolvedCap));
-                }
-                circularRefs = PmCollections.addAll(circularRefs, orderProviders(providers));
-                if(providers.isProvided()) {
-                    feature.addBranchDep(providers.branches.iterator().next(), false);
-                    //System.out.println("added branch dep on cap provider " + feature.getId() + " -> " + providers.branches);
-                }
-            }
-        }
-        return circularRefs;
-    }
+    /**
+     * Attempts to order the providers of a capability. The step completes as soon as the capability
+     * is provided. Otherwise, the result is the first detected feature reference loop.
+     */
+    private class ProvidersStep extends OrderingStep {
+
+        private static final int START = 0;
+        private static final int SPEC_ORDERED = 1;
+        private static final int FEATURE_ORDERED = 2;
 
-    private List<CircularRefInfo> orderProviders(CapabilityProviders providers) throws ProvisioningException {
-        if(providers.isProvided()) {
-            return Collections.emptyList();
+        private final CapabilityProviders providers;
+        private int specI;
+        private int featureI;
+        private List<CircularRefInfo> firstLoop;
+
+        ProvidersStep(CapabilityProviders providers) {
+            this.providers = providers;
         }
-        List<CircularRefInfo> firstLoop = null;
-        if (!providers.specs.isEmpty()) {
-            for (SpecFeatures specFeatures : providers.specs) {
-                final List<CircularRefInfo> loop = orderFeaturesInSpec(specFeatures, !specFeatures.isFree());
-                if (providers.isProvided()) {
-                    return Collections.emptyList();
-                }
-                if (firstLoop == null) {
-                    firstLoop = loop;
-                }
+
+        @Override
+        protected OrderingStep proceed(List<CircularRefInfo> calleeResult) throws ProvisioningException {
+            switch(state) {
+                case START:
+                    if(providers.isProvided()) {
+                        return complete(Collections.emptyList());
+                    }
+                    break;
+                case SPEC_ORDERED:
+                case FEATURE_ORDERED:
+                    if (providers.isProvided()) {
+                        return complete(Collections.emptyList());
+                    }
+                    if (firstLoop == null) {
+                        firstLoop = calleeResult;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException();
             }
-        }
-        if (!providers.features.isEmpty()) {
-            for (ResolvedFeature provider : providers.features) {
-                final List<CircularRefInfo> loop = orderFeature(provider);
-                if (providers.isProvided()) {
-                    return Collections.emptyList();
-                }
-                if (firstLoop == null) {
-                    firstLoop = loop;
-                }
+            if(specI < providers.specs.size()) {
+                final SpecFeatures specFeatures = providers.specs.get(specI++);
+                return call(new SpecStep(specFeatures, !specFeatures.isFree()), SPEC_ORDERED);
             }
+            if(featureI < providers.features.size()) {
+                return call(new FeatureStep(providers.features.get(featureI++)), FEATURE_ORDERED);
+            }
+            return complete(firstLoop == null ? Collections.emptyList() : firstLoop);
         }
-        return firstLoop == null ? Collections.emptyList() : firstLoop;
     }
 
     /**
-     * Attempts to order the referenced features.
-     *
-     * @param feature  parent feature
-     * @param refIds  referenced features ids
-     * @param specRefs  whether these referenced features represent actual spec references or feature dependencies
-     * @return  feature ids that form circular dependency loops
-     * @throws ProvisioningException
+     * Attempts to order a feature reference. The result is the feature reference loop(s)
+     * because of which the referenced feature could not be ordered.
      */
-    private List<CircularRefInfo> orderReferencedFeatures(ResolvedFeature feature, Collection<ResolvedFeatureId> refIds, boolean specRefs, List<CircularRefInfo> circularRefs) throws ProvisioningException {
-        for(ResolvedFeatureId refId : refIds) {
-            final List<CircularRefInfo> newCircularRefs = orderReferencedFeature(feature, refId, specRefs);
-            if(newCircularRefs == null) {
-                continue;
+    private class ReferenceStep extends OrderingStep {
+
+        private static final int START = 0;
+        private static final int SPEC_ORDERED = 1;
+        private static final int FEATURE_ORDERED = 2;
+
+        private final ResolvedFeature feature;
+        private final ResolvedFeatureId refId;
+        private final boolean specRef;
+        private ResolvedFeature dep;
+
+        /**
+         * @param feature  parent feature
+         * @param refId  referenced feature id
+         * @param specRef  whether the referenced feature represents a spec reference or a feature dependency
+         */
+        ReferenceStep(ResolvedFeature feature, ResolvedFeatureId refId, boolean specRef) {
+            this.feature = feature;
+            this.refId = refId;
+            this.specRef = specRef;
+        }
+
+        @Override
+        protected OrderingStep proceed(List<CircularRefInfo> calleeResult) throws ProvisioningException {
+            switch(state) {
+                case START:
+                    if(orderReferencedSpec && specRef && !feature.spec.id.equals(refId.specId)) {
+                        final SpecFeatures targetSpecFeatures = specFeatures.get(refId.specId);
+                        if (targetSpecFeatures == null) {
+                            throw new ProvisioningDescriptionException(Errors.unresolvedFeatureDep(feature, refId));
+                        }
+                        return call(new SpecStep(targetSpecFeatures, false), SPEC_ORDERED);
+                    }
+                    break;
+                case SPEC_ORDERED:
+                    final List<CircularRefInfo> featureLoops = getFeatureLoops(calleeResult);
+                    if (featureLoops != null) {
+                        return complete(featureLoops);
+                    }
+                    break;
+                case FEATURE_ORDERED:
+                    if(dep.branch != null) {
+                        feature.addBranchDep(dep.branch, refId.isChildRef());
+                    }
+                    return complete(calleeResult);
+                default:
+                    throw new IllegalStateException();
+            }
+            dep = features.get(refId);
+            if (dep == null) {
+                throw new ProvisioningDescriptionException(Errors.unresolvedFeatureDep(feature, refId));
             }
-            circularRefs = PmCollections.addAll(circularRefs, newCircularRefs);
+            return call(new FeatureStep(dep), FEATURE_ORDERED);
         }
-        return circularRefs;
-    }
 
-    /**
-     * Attempts to order a feature reference.
-     *
-     * @param feature  parent feature
-     * @param refId  referenced feature id
-     * @param specRef  whether the referenced feature represents a spec reference or a feature dependency
-     * @return  true if the referenced feature was ordered, false if the feature was not ordered because of the circular reference loop
-     * @throws ProvisioningException
-     */
-    private List<CircularRefInfo> orderReferencedFeature(ResolvedFeature feature, ResolvedFeatureId refId, boolean specRef) throws ProvisioningException {
-        if(orderReferencedSpec && specRef && !feature.spec.id.equals(refId.specId)) {
-            final SpecFeatures targetSpecFeatures = specFeatures.get(refId.specId);
-            if (targetSpecFeatures == null) {
-                throw new ProvisioningDescriptionException(Errors.unresolvedFeatureDep(feature, refId));
+        private List<CircularRefInfo> getFeatureLoops(List<CircularRefInfo> specLoops) {
+            if (specLoops == null) {
+                return null;
             }
-            final List<CircularRefInfo> specLoops = orderFeaturesInSpec(targetSpecFeatures, false);
-            if (specLoops != null) {
-                List<CircularRefInfo> featureLoops = null;
-                for (int i = 0; i < specLoops.size(); ++i) {
-                    final CircularRefInfo specLoop = specLoops.get(i);
-                    if (specLoop.nextOnPath.id.equals(refId)) {
-                        if (featureLoops == null) {
-                            featureLoops = Collections.singletonList(specLoop);
-                        } else {
-                            if (featureLoops.size() == 1) {
-                                final CircularRefInfo first = featureLoops.get(0);
-                                featureLoops = new ArrayList<>(2);
-                                featureLoops.add(first);
-                            }
-                            featureLoops.add(specLoop);
+            List<CircularRefInfo> featureLoops = null;
+            for (int i = 0; i < specLoops.size(); ++i) {
+                final CircularRefInfo specLoop = specLoops.get(i);
+                if (specLoop.nextOnPath.id.equals(refId)) {
+                    if (featureLoops == null) {
+                        featureLoops = Collections.singletonList(specLoop);
+                    } else {
+                        if (featureLoops.size() == 1) {
+                            final CircularRefInfo first = featureLoops.get(0);
+                            featureLoops = new ArrayList<>(2);
+                            featureLoops.add(first);
                         }
+                        featureLoops.add(specLoop);
                     }
                 }
-                if (featureLoops != null) {
-                    return featureLoops;
-                }
             }
+            return featureLoops;
         }
-
-        final ResolvedFeature dep = features.get(refId);
-        if (dep == null) {
-            throw new ProvisioningDescriptionException(Errors.unresolvedFeatureDep(feature, refId));
-        }
-        final List<CircularRefInfo> circularRefs = orderFeature(dep);
-        if(dep.branch != null) {
-            feature.addBranchDep(dep.branch, refId.isChildRef());
-        }
-        return circularRefs;
     }
 }
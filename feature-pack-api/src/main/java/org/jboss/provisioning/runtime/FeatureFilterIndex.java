@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Effective include/exclude state of the feature groups pushed onto
+ * a config scope.
+ *
+ * Every group on the stack either filters out a feature, explicitly includes
+ * it or has no opinion about it. A feature is filtered out if at least one
+ * of the groups filters it out, regardless of the position of the group
+ * in the stack. This allows the state to be kept as counters that are
+ * updated when a group is pushed or popped, so that the cost of checking
+ * a feature does not depend on the depth of the stack.
+ */
+class FeatureFilterIndex {
+
+    private static <K> void add(Map<K, Integer> counters, K key, int delta) {
+        final Integer count = counters.get(key);
+        final int newCount = count == null ? delta : count + delta;
+        if(newCount == 0) {
+            counters.remove(key);
+        } else {
+            counters.put(key, newCount);
+        }
+    }
+
+    private static <K> int count(Map<K, Integer> counters, K key) {
+        if(counters.isEmpty()) {
+            return 0;
+        }
+        final Integer count = counters.get(key);
+        return count == null ? 0 : count;
+    }
+
+    // groups that don't inherit features
+    private int nonInheriting;
+    private final Map<ResolvedSpecId, Integer> includedSpecs = new HashMap<>();
+    private final Map<ResolvedFeatureId, Integer> includedFeatures = new HashMap<>();
+    // groups including the spec of the feature as well as including or excluding the feature itself
+    private final Map<ResolvedFeatureId, Integer> includedSpecOverrides = new HashMap<>();
+
+    // groups that inherit features
+    private final Map<ResolvedSpecId, Integer> excludedSpecs = new HashMap<>();
+    private final Map<ResolvedFeatureId, Integer> excludedFeatures = new HashMap<>();
+    // groups excluding the spec of the feature as well as including or excluding the feature itself
+    private final Map<ResolvedFeatureId, Integer> excludedSpecOverrides = new HashMap<>();
+    // groups excluding the spec of the feature but including the feature itself
+    private final Map<ResolvedFeatureId, Integer> reincludedFeatures = new HashMap<>();
+
+    void push(ResolvedFeatureGroupConfig fg) {
+        update(fg, 1);
+    }
+
+    void pop(ResolvedFeatureGroupConfig fg) {
+        update(fg, -1);
+    }
+
+    /**
+     * Checks whether any of the groups filters out the feature.
+     *
+     * @param specId  feature spec id
+     * @param id  feature id, which may be null
+     * @return  true if the feature is filtered out
+     */
+    boolean isExcluded(ResolvedSpecId specId, ResolvedFeatureId id) {
+        if(id == null) {
+            return count(includedSpecs, specId) < nonInheriting || count(excludedSpecs, specId) > 0;
+        }
+        final int included = count(includedFeatures, id) + count(includedSpecs, specId) - count(includedSpecOverrides, id);
+        if(included < nonInheriting) {
+            return true;
+        }
+        return count(excludedFeatures, id) + count(excludedSpecs, specId) - count(excludedSpecOverrides, id) > 0;
+    }
+
+    /**
+     * Checks whether any of the groups explicitly includes the feature.
+     * The result is meaningful only if the feature is not excluded.
+     *
+     * @param id  feature id, which may be null
+     * @return  true if the feature is included
+     */
+    boolean isIncluded(ResolvedFeatureId id) {
+        return nonInheriting > 0 || id != null && count(reincludedFeatures, id) > 0;
+    }
+
+    private void update(ResolvedFeatureGroupConfig fg, int delta) {
+        if(fg.inheritFeatures) {
+            for(ResolvedSpecId specId : fg.excludedSpecs) {
+                add(excludedSpecs, specId, delta);
+            }
+            for(ResolvedFeatureId id : fg.excludedFeatures) {
+                add(excludedFeatures, id, delta);
+                if(fg.excludedSpecs.contains(id.specId)) {
+                    add(excludedSpecOverrides, id, delta);
+                }
+            }
+            for(ResolvedFeatureId id : fg.includedFeatures.keySet()) {
+                if(!fg.excludedFeatures.contains(id) && fg.excludedSpecs.contains(id.specId)) {
+                    add(excludedSpecOverrides, id, delta);
+                    add(reincludedFeatures, id, delta);
+                }
+            }
+            return;
+        }
+        nonInheriting += delta;
+        for(ResolvedSpecId specId : fg.includedSpecs) {
+            add(includedSpecs, specId, delta);
+        }
+        for(ResolvedFeatureId id : fg.includedFeatures.keySet()) {
+            add(includedFeatures, id, delta);
+            if(fg.includedSpecs.contains(id.specId)) {
+                add(includedSpecOverrides, id, delta);
+            }
+        }
+        for(ResolvedFeatureId id : fg.excludedFeatures) {
+            if(!fg.includedFeatures.containsKey(id) && fg.includedSpecs.contains(id.specId)) {
+                add(includedSpecOverrides, id, delta);
+            }
+        }
+    }
+}
@@ -47,12 +47,14 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
 
     private final FeaturePackSpec spec;
     private final Path dir;
+    private final Path resourcesDir;
     private final Map<String, PackageRuntime> packages;
     private final Map<String, ResolvedFeatureSpec> featureSpecs;
 
     FeaturePackRuntime(FeaturePackRuntimeBuilder builder) throws ProvisioningException {
         this.spec = builder.spec;
         this.dir = builder.dir;
+        this.resourcesDir = builder.resourcesDir;
         this.featureSpecs = builder.featureSpecs;
 
         Map<String, PackageRuntime> tmpPackages = new LinkedHashMap<>();
@@ -137,9 +139,9 @@ public class FeaturePackRuntime implements FeaturePack<PackageRuntime> {
             throw new IllegalArgumentException("Resource path is null");
         }
         if(path.length == 1) {
-            return dir.resolve(Constants.RESOURCES).resolve(path[0]);
+            return resourcesDir.resolve(path[0]);
         }
-        Path p = dir.resolve(Constants.RESOURCES);
+        Path p = resourcesDir;
         for(String name : path) {
             p = p.resolve(name);
         }
@@ -18,13 +18,18 @@ package org.jboss.provisioning.runtime;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -38,6 +43,7 @@ import org.jboss.provisioning.spec.FeaturePackSpec;
 import org.jboss.provisioning.spec.FeatureSpec;
 import org.jboss.provisioning.type.ParameterTypeProvider;
 import org.jboss.provisioning.type.builtin.BuiltInParameterTypeProvider;
+import org.jboss.provisioning.util.IoUtils;
 import org.jboss.provisioning.util.LayoutUtils;
 import org.jboss.provisioning.util.PmCollections;
 import org.jboss.provisioning.xml.FeatureGroupXmlParser;
@@ -52,10 +58,14 @@ class FeaturePackRuntimeBuilder {
 
     final ArtifactCoords.Gav gav;
     final Path dir;
+    Path resourcesDir;
     final FeaturePackSpec spec;
     boolean ordered;
     Map<String, ResolvedFeatureSpec> featureSpecs = null;
     private Map<String, FeatureGroup> fgSpecs = null;
+    // the names of the specs that are not present in the feature-pack
+    private Set<String> missingFeatureSpecs = Collections.emptySet();
+    private Set<String> missingFgSpecs = Collections.emptySet();
 
     Map<String, PackageRuntime.Builder> pkgBuilders = Collections.emptyMap();
     List<String> pkgOrder = new ArrayList<>();
@@ -65,9 +75,68 @@ class FeaturePackRuntimeBuilder {
     FeaturePackRuntimeBuilder(FeaturePackSpec spec, Path dir) {
         this.gav = spec.getGav();
         this.dir = dir;
+        this.resourcesDir = dir.resolve(Constants.RESOURCES);
         this.spec = spec;
     }
 
+    /**
+     * Extracts the resources and the layouts of the resolved packages,
+     * except for their content, into the target directory. This is meant for the feature-packs
+     * that are read directly from their archives, so that the plugins get file-system
+     * paths for the resources while the package content is copied straight from the archive
+     * at installation time.
+     *
+     * @param targetDir  target feature-pack layout directory
+     * @throws ProvisioningException  in case of a failure
+     */
+    void extractLayout(Path targetDir) throws ProvisioningException {
+        final Path srcResources = dir.resolve(Constants.RESOURCES);
+        resourcesDir = targetDir.resolve(Constants.RESOURCES);
+        if(Files.exists(srcResources)) {
+            try {
+                IoUtils.copy(srcResources, resourcesDir);
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.copyFile(srcResources, resourcesDir), e);
+            }
+        }
+        if(pkgBuilders.isEmpty()) {
+            return;
+        }
+        for(PackageRuntime.Builder pkgBuilder : pkgBuilders.values()) {
+            final Path pkgDir = LayoutUtils.getPackageDir(targetDir, pkgBuilder.spec.getName(), false);
+            try {
+                copyPackageLayout(pkgBuilder.dir, pkgDir);
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.copyFile(pkgBuilder.dir, pkgDir), e);
+            }
+            pkgBuilder.dir = pkgDir;
+        }
+    }
+
+    private static void copyPackageLayout(Path srcPkgDir, Path targetPkgDir) throws IOException {
+        Files.createDirectories(targetPkgDir);
+        Files.walkFileTree(srcPkgDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                String relativePath = srcPkgDir.relativize(dir).toString();
+                // zip file system directory names may end with a slash
+                if(relativePath.endsWith("/")) {
+                    relativePath = relativePath.substring(0, relativePath.length() - 1);
+                }
+                if(relativePath.equals(Constants.CONTENT)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Files.createDirectories(targetPkgDir.resolve(relativePath));
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, targetPkgDir.resolve(srcPkgDir.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
     boolean resolvePackage(String pkgName, ProvisioningRuntimeBuilder rt) throws ProvisioningException {
         if(pkgBuilders.containsKey(pkgName)) {
             return true;
@@ -91,18 +160,19 @@ class FeaturePackRuntimeBuilder {
         pkgBuilders = PmCollections.put(pkgBuilders, pkgName, pkgBuilder);
 
         if(pkgBuilder.spec.hasPackageDeps()) {
-            try {
-                rt.processPackageDeps(pkgBuilder.spec);
-            } catch(ProvisioningException e) {
-                throw new ProvisioningDescriptionException(Errors.resolvePackage(gav, pkgName), e);
-            }
+            // the package is completed by the runtime builder once its dependencies have been resolved
+            rt.schedulePackageDeps(this, pkgName, pkgBuilder.spec);
+        } else {
+            packageResolved(pkgName, rt);
         }
+        return true;
+    }
 
+    void packageResolved(String pkgName, ProvisioningRuntimeBuilder rt) {
         pkgOrder.add(pkgName);
         if(!ordered) {
             rt.orderFpRtBuilder(this);
         }
-        return true;
     }
 
     FeatureGroup getFeatureGroupSpec(String name) throws ProvisioningException {
@@ -112,6 +182,9 @@ class FeaturePackRuntimeBuilder {
                 return fgSpec;
             }
         }
+        if(missingFgSpecs.contains(name)) {
+            return null;
+        }
         final Path specXml = dir.resolve(Constants.FEATURE_GROUPS).resolve(name + ".xml");
         if (Files.exists(specXml)) {
             try (BufferedReader reader = Files.newBufferedReader(specXml)) {
@@ -125,22 +198,26 @@ class FeaturePackRuntimeBuilder {
                 throw new ProvisioningException(Errors.parseXml(specXml), e);
             }
         }
+        missingFgSpecs = PmCollections.add(missingFgSpecs, name);
         return null;
     }
 
-    ResolvedFeatureSpec getFeatureSpec(String name) throws ProvisioningException {
+    ResolvedFeatureSpec getFeatureSpec(String name, ProvisioningRuntimeBuilder rt) throws ProvisioningException {
         if(featureSpecs != null) {
             final ResolvedFeatureSpec resolvedSpec = featureSpecs.get(name);
             if(resolvedSpec != null) {
                 return resolvedSpec;
             }
         }
+        if(missingFeatureSpecs.contains(name)) {
+            return null;
+        }
         final Path specXml = dir.resolve(Constants.FEATURES).resolve(name).resolve(Constants.SPEC_XML);
         if (Files.exists(specXml)) {
             try (BufferedReader reader = Files.newBufferedReader(specXml)) {
                 final FeatureSpec xmlSpec = FeatureSpecXmlParser.getInstance().parse(reader);
                 final ResolvedFeatureSpec resolvedSpec = new ResolvedFeatureSpec(
-                        new ResolvedSpecId(gav, xmlSpec.getName()), featureParamTypeProvider, xmlSpec);
+                        rt.intern(new ResolvedSpecId(gav, xmlSpec.getName())), featureParamTypeProvider, xmlSpec);
                 if(featureSpecs == null) {
                     featureSpecs = new HashMap<>();
                 }
@@ -150,6 +227,7 @@ class FeaturePackRuntimeBuilder {
                 throw new ProvisioningDescriptionException(Errors.parseXml(specXml), e);
             }
         }
+        missingFeatureSpecs = PmCollections.add(missingFeatureSpecs, name);
         return null;
     }
 
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.MessageWriter;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.state.InstallationManifest;
+import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.PathsUtils;
+
+/**
+ * Applies to the installation directory only the differences between the
+ * staged installation and the manifest recorded for the installation.
+ *
+ * The changes are first prepared in the journal directory of the installation,
+ * which includes the new content and the list of the operations to perform.
+ * Once the journal is committed, the operations are performed, moving the
+ * replaced and the deleted paths into the journal. If the run is interrupted,
+ * a committed journal is rolled forward, otherwise it is discarded. If one of
+ * the operations fails, the performed ones are rolled back.
+ */
+class IncrementalInstaller {
+
+    private static final String BACKUP = "backup";
+    private static final String COMMITTED = "committed";
+    private static final String DISCARDED = "discarded";
+    private static final String MANIFEST = "manifest";
+    private static final String NEW = "new";
+    private static final String OPS = "ops";
+
+    private static final char DELETE = 'D';
+    private static final char MKDIR = 'M';
+    private static final char PUT = 'P';
+
+    private static class Op {
+        final char type;
+        final String path;
+
+        Op(char type, String path) {
+            this.type = type;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Completes a run interrupted before the journal was cleaned up.
+     *
+     * @param installDir  installation directory
+     * @param messageWriter  message writer
+     * @throws ProvisioningException  in case the journal could not be completed
+     */
+    static void recover(Path installDir, MessageWriter messageWriter) throws ProvisioningException {
+        final IncrementalInstaller installer = new IncrementalInstaller(installDir);
+        if(!Files.exists(installer.journalDir)) {
+            return;
+        }
+        if(!Files.exists(installer.journalDir.resolve(COMMITTED))) {
+            messageWriter.verbose("Discarding the uncommitted changes of %s", installDir);
+            IoUtils.recursiveDelete(installer.journalDir);
+            return;
+        }
+        if(!Files.exists(installer.journalDir.resolve(MANIFEST))) {
+            // the manifest is moved once all the operations have been performed
+            messageWriter.verbose("Cleaning up the journal of %s", installDir);
+            IoUtils.recursiveDelete(installer.journalDir);
+            return;
+        }
+        messageWriter.print("Completing the interrupted provisioning of %s", installDir);
+        final List<Op> ops = new ArrayList<>();
+        final Path opsFile = installer.journalDir.resolve(OPS);
+        try {
+            for(String line : Files.readAllLines(opsFile, StandardCharsets.UTF_8)) {
+                if(!line.isEmpty()) {
+                    ops.add(new Op(line.charAt(0), line.substring(2)));
+                }
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readFile(opsFile), e);
+        }
+        installer.commit(ops);
+    }
+
+    /**
+     * Applies the differences between the staged installation and the installed one.
+     *
+     * @param stagedDir  staged installation directory
+     * @param stagedManifest  manifest of the staged installation
+     * @param installDir  installation directory
+     * @param messageWriter  message writer
+     * @return  false if the installation does not have a comparable manifest and has to be replaced entirely
+     * @throws ProvisioningException  in case the changes could not be applied
+     */
+    static boolean install(Path stagedDir, InstallationManifest stagedManifest, Path installDir, MessageWriter messageWriter) throws ProvisioningException {
+        final Path manifestFile = PathsUtils.getInstallationManifest(installDir);
+        final InstallationManifest installedManifest;
+        try {
+            installedManifest = InstallationManifest.read(manifestFile);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readFile(manifestFile), e);
+        }
+        if(installedManifest == null || !installedManifest.getAlgorithm().equals(stagedManifest.getAlgorithm())) {
+            return false;
+        }
+        final IncrementalInstaller installer = new IncrementalInstaller(installDir);
+        final List<Op> ops = installer.plan(stagedManifest, installedManifest);
+        messageWriter.verbose("Applying %d change(s) to %s", ops.size(), installDir);
+        installer.prepare(stagedDir, stagedManifest, ops);
+        installer.commit(ops);
+        return true;
+    }
+
+    private final Path installDir;
+    private final Path journalDir;
+
+    private IncrementalInstaller(Path installDir) {
+        this.installDir = installDir;
+        this.journalDir = PathsUtils.getInstallationJournalDir(installDir);
+    }
+
+    private List<Op> plan(InstallationManifest stagedManifest, InstallationManifest installedManifest) throws ProvisioningException {
+        final List<Op> ops = new ArrayList<>();
+        final Set<String> deleted = new HashSet<>();
+        // the paths that are not in the staged installation are deleted first
+        try {
+            Files.walkFileTree(installDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if(dir.equals(installDir)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    final String path = InstallationManifest.relativePath(installDir, dir);
+                    if(InstallationManifest.isExcluded(path)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    final InstallationManifest.Entry entry = stagedManifest.getEntry(path);
+                    if(entry == null || !entry.isDir()) {
+                        ops.add(new Op(DELETE, path));
+                        deleted.add(path);
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    final String path = InstallationManifest.relativePath(installDir, file);
+                    if(InstallationManifest.isExcluded(path)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    final InstallationManifest.Entry entry = stagedManifest.getEntry(path);
+                    if(entry == null || entry.isDir()) {
+                        ops.add(new Op(DELETE, path));
+                        deleted.add(path);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readDirectory(installDir), e);
+        }
+
+        // the entries are sorted, i.e. the directories are created before their content is added
+        for(InstallationManifest.Entry entry : stagedManifest.getEntries()) {
+            final String path = entry.getPath();
+            final Path target = installDir.resolve(path);
+            final boolean present = !deleted.contains(path) && Files.exists(target, LinkOption.NOFOLLOW_LINKS);
+            if(entry.isDir()) {
+                if(!present) {
+                    ops.add(new Op(MKDIR, path));
+                }
+                continue;
+            }
+            if(present) {
+                final InstallationManifest.Entry installed = installedManifest.getEntry(path);
+                // files modified since they were installed are replaced as well
+                if(installed != null && installed.isSameContent(entry) && installed.isUnchanged(readAttributes(target))) {
+                    continue;
+                }
+            }
+            ops.add(new Op(PUT, path));
+        }
+        return ops;
+    }
+
+    private static BasicFileAttributes readAttributes(Path p) throws ProvisioningException {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readFile(p), e);
+        }
+    }
+
+    private void prepare(Path stagedDir, InstallationManifest stagedManifest, List<Op> ops) throws ProvisioningException {
+        IoUtils.recursiveDelete(journalDir);
+        final Path newDir = journalDir.resolve(NEW);
+        final List<String> lines = new ArrayList<>(ops.size());
+        try {
+            Files.createDirectories(newDir);
+            for(Op op : ops) {
+                if(op.type == PUT) {
+                    final Path target = newDir.resolve(op.path);
+                    Files.createDirectories(target.getParent());
+                    Files.copy(stagedDir.resolve(op.path), target);
+                }
+                lines.add(op.type + " " + op.path);
+            }
+            Files.write(journalDir.resolve(OPS), lines, StandardCharsets.UTF_8);
+            stagedManifest.write(journalDir.resolve(MANIFEST));
+            Files.createFile(journalDir.resolve(COMMITTED));
+        } catch (IOException e) {
+            IoUtils.recursiveDelete(journalDir);
+            throw new ProvisioningException("Failed to prepare the changes of " + installDir, e);
+        }
+    }
+
+    private void commit(List<Op> ops) throws ProvisioningException {
+        final Path newDir = journalDir.resolve(NEW);
+        final Path backupDir = journalDir.resolve(BACKUP);
+        int performed = 0;
+        try {
+            while (performed < ops.size()) {
+                final Op op = ops.get(performed);
+                final Path target = installDir.resolve(op.path);
+                switch (op.type) {
+                    case DELETE:
+                        backup(target, backupDir.resolve(op.path));
+                        break;
+                    case MKDIR:
+                        Files.createDirectories(target);
+                        break;
+                    case PUT:
+                        final Path src = newDir.resolve(op.path);
+                        if (!Files.exists(src)) {
+                            // has already been moved
+                            break;
+                        }
+                        backup(target, backupDir.resolve(op.path));
+                        Files.move(src, target);
+                        break;
+                    default:
+                        throw new ProvisioningException("Unexpected journal operation " + op.type);
+                }
+                ++performed;
+            }
+            Files.move(journalDir.resolve(MANIFEST), PathsUtils.getInstallationManifest(installDir), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // the failed operation may have been performed partially
+            rollback(ops, Math.min(performed + 1, ops.size()));
+            throw new ProvisioningException("Failed to apply the changes to " + installDir, e);
+        }
+        IoUtils.recursiveDelete(journalDir);
+    }
+
+    /**
+     * Reverts the first count operations. The original content is restored
+     * from the backup before the content that replaced it is removed.
+     */
+    private void rollback(List<Op> ops, int count) throws ProvisioningException {
+        final Path newDir = journalDir.resolve(NEW);
+        final Path backupDir = journalDir.resolve(BACKUP);
+        final Path discardedDir = journalDir.resolve(DISCARDED);
+        try {
+            for (int i = count - 1; i >= 0; --i) {
+                final Op op = ops.get(i);
+                final Path target = installDir.resolve(op.path);
+                final Path backup = backupDir.resolve(op.path);
+                switch (op.type) {
+                    case MKDIR:
+                        IoUtils.recursiveDelete(target);
+                        break;
+                    case DELETE:
+                    case PUT:
+                        if(Files.exists(backup, LinkOption.NOFOLLOW_LINKS)) {
+                            restore(backup, target, discardedDir.resolve(op.path));
+                        } else if(op.type == PUT && !Files.exists(newDir.resolve(op.path))) {
+                            // the new content has been moved in and there was nothing to replace
+                            IoUtils.recursiveDelete(target);
+                        }
+                        break;
+                    default:
+                        throw new ProvisioningException("Unexpected journal operation " + op.type);
+                }
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException("Failed to roll back the changes to " + installDir, e);
+        }
+        IoUtils.recursiveDelete(journalDir);
+    }
+
+    private static void restore(Path backup, Path target, Path discarded) throws IOException {
+        if(Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            Files.createDirectories(discarded.getParent());
+            Files.move(target, discarded);
+        }
+        Files.move(backup, target);
+    }
+
+    private static void backup(Path target, Path backup) throws IOException {
+        if(Files.exists(backup, LinkOption.NOFOLLOW_LINKS)) {
+            // the original has already been saved, the target is the new content
+            return;
+        }
+        if(!Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.createDirectories(backup.getParent());
+        Files.move(target, backup);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.state.InstallationManifest;
+import org.jboss.provisioning.util.FeaturePackInstallException;
+import org.jboss.provisioning.util.PropertyUtils;
+
+/**
+ * Copies the content of the resolved packages into the target directory.
+ *
+ * The final target path to source mapping is planned first, following the
+ * order of the feature-packs and their packages, so that the content of a
+ * package installed later overrides the content installed earlier. Then each
+ * target file is copied exactly once by a pool of worker threads.
+ *
+ * If linking is enabled, the target files are created as hard links to the
+ * source files instead. If the links cannot be created (e.g. the source and the
+ * target are on different file systems), the files are copied.
+ */
+class PackageContentInstaller {
+
+    private static class Content {
+        final InstallationManifest.Origin origin;
+        final Path src;
+
+        Content(InstallationManifest.Origin origin, Path src) {
+            this.origin = origin;
+            this.src = src;
+        }
+    }
+
+    static int getParallelism() throws ProvisioningException {
+        return PropertyUtils.getParallelism(Constants.PROP_INSTALL_THREADS);
+    }
+
+    private final Path targetDir;
+    private final int parallelism;
+    private final boolean link;
+    private volatile boolean linkFailed;
+    private final Set<Path> dirs = new LinkedHashSet<>();
+    private final Map<Path, Content> files = new LinkedHashMap<>();
+
+    PackageContentInstaller(Path targetDir, int parallelism, boolean link) {
+        this.targetDir = targetDir;
+        this.parallelism = parallelism;
+        this.link = link;
+    }
+
+    void addPackage(ArtifactCoords.Gav fpGav, PackageRuntime pkg) throws ProvisioningException {
+        final Path contentDir = pkg.getContentDir();
+        if(!Files.exists(contentDir)) {
+            return;
+        }
+        final InstallationManifest.Origin origin = new InstallationManifest.Origin(fpGav, pkg.getName());
+        try {
+            Files.walkFileTree(contentDir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                            dirs.add(resolveTarget(contentDir, dir));
+                            return FileVisitResult.CONTINUE;
+                        }
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                            final Path target = resolveTarget(contentDir, file);
+                            // re-insert to copy the overriding content in the order it was added
+                            files.remove(target);
+                            files.put(target, new Content(origin, file));
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (IOException e) {
+            throw new FeaturePackInstallException(Errors.packageContentCopyFailed(pkg.getName()), e);
+        }
+    }
+
+    /**
+     * The packages and the feature-packs the planned files originate from.
+     *
+     * @return  origins of the files by their paths relative to the target directory
+     */
+    Map<String, InstallationManifest.Origin> getOrigins() {
+        final Map<String, InstallationManifest.Origin> origins = new HashMap<>(files.size());
+        for(Map.Entry<Path, Content> entry : files.entrySet()) {
+            origins.put(InstallationManifest.relativePath(targetDir, entry.getKey()), entry.getValue().origin);
+        }
+        return origins;
+    }
+
+    void install() throws ProvisioningException {
+        for(Path dir : dirs) {
+            try {
+                Files.createDirectories(dir);
+            } catch (IOException e) {
+                throw new FeaturePackInstallException(Errors.mkdirs(dir), e);
+            }
+        }
+        if(files.isEmpty()) {
+            return;
+        }
+        final int threads = Math.min(parallelism, files.size());
+        if(threads == 1) {
+            for(Map.Entry<Path, Content> entry : files.entrySet()) {
+                copy(entry.getValue(), entry.getKey());
+            }
+            return;
+        }
+
+        final List<List<Map.Entry<Path, Content>>> batches = new ArrayList<>(threads);
+        for(int i = 0; i < threads; ++i) {
+            batches.add(new ArrayList<>(files.size() / threads + 1));
+        }
+        int i = 0;
+        for(Map.Entry<Path, Content> entry : files.entrySet()) {
+            batches.get(i++ % threads).add(entry);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>(threads);
+            for(List<Map.Entry<Path, Content>> batch : batches) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws ProvisioningException {
+                        for(Map.Entry<Path, Content> entry : batch) {
+                            copy(entry.getValue(), entry.getKey());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for(Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if(cause instanceof ProvisioningException) {
+                        throw (ProvisioningException) cause;
+                    }
+                    throw new ProvisioningException("Failed to install package content", cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProvisioningException("Interrupted while installing package content", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Path resolveTarget(Path contentDir, Path p) {
+        // the content may belong to a different file system (e.g. a zip archive)
+        return targetDir.resolve(contentDir.relativize(p).toString());
+    }
+
+    private void copy(Content content, Path target) throws ProvisioningException {
+        if(link && !linkFailed) {
+            try {
+                Files.createLink(target, content.src);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                linkFailed = true;
+            }
+        }
+        try {
+            Files.copy(content.src, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new FeaturePackInstallException(Errors.packageContentCopyFailed(content.origin.getPackage()), e);
+        }
+    }
+}
@@ -31,11 +31,13 @@ import org.jboss.provisioning.state.ProvisionedPackage;
 public class PackageRuntime implements ProvisionedPackage {
 
     static class Builder {
-        final Path dir;
+        Path dir;
+        final Path contentDir;
         final PackageSpec spec;
 
         private Builder(PackageSpec spec, Path dir) {
             this.dir = dir;
+            this.contentDir = dir.resolve(Constants.CONTENT);
             this.spec = spec;
         }
 
@@ -50,10 +52,12 @@ public class PackageRuntime implements ProvisionedPackage {
 
     private final PackageSpec spec;
     private final Path layoutDir;
+    private final Path contentDir;
 
     private PackageRuntime(Builder builder) {
         this.spec = builder.spec;
         this.layoutDir = builder.dir;
+        this.contentDir = builder.contentDir;
     }
 
     public PackageSpec getSpec() {
@@ -88,7 +92,13 @@ public class PackageRuntime implements ProvisionedPackage {
         return p;
     }
 
+    /**
+     * Returns the content directory of the package. In case the feature-pack
+     * is read directly from its archive, the directory belongs to the archive's file system.
+     *
+     * @return  package content directory
+     */
     public Path getContentDir() {
-        return layoutDir.resolve(Constants.CONTENT);
+        return contentDir;
     }
 }
@@ -16,10 +16,13 @@
  */
 package org.jboss.provisioning.runtime;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.ProviderException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -29,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.ServiceLoader;
+import java.util.UUID;
 import java.util.stream.Stream;
 
 import javax.xml.stream.XMLStreamException;
@@ -41,18 +45,22 @@ import org.jboss.provisioning.ProvisioningDescriptionException;
 import org.jboss.provisioning.ProvisioningException;
 import org.jboss.provisioning.config.FeaturePackConfig;
 import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.diff.FileSystemDiff;
 import org.jboss.provisioning.diff.FileSystemDiffResult;
 import org.jboss.provisioning.repomanager.FeaturePackBuilder;
 import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
 import org.jboss.provisioning.state.FeaturePackSet;
+import org.jboss.provisioning.state.InstallationManifest;
 import org.jboss.provisioning.state.ProvisionedConfig;
 import org.jboss.provisioning.util.FeaturePackInstallException;
 import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.PathFilter;
 import org.jboss.provisioning.util.PathsUtils;
 import org.jboss.provisioning.util.StringUtils;
 import org.jboss.provisioning.xml.ProvisionedStateXmlWriter;
 import org.jboss.provisioning.xml.ProvisioningXmlWriter;
 import org.jboss.provisioning.ArtifactRepositoryManager;
+import org.jboss.provisioning.ArtifactResolutionException;
 import org.jboss.provisioning.Constants;
 import org.jboss.provisioning.config.ConfigId;
 import org.jboss.provisioning.config.ConfigModel;
@@ -69,20 +77,15 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
 
     public static void install(ProvisioningRuntime runtime) throws ProvisioningException {
         // copy package content
+        final PackageContentInstaller contentInstaller = new PackageContentInstaller(runtime.stagedDir, PackageContentInstaller.getParallelism(), runtime.linkContent);
         for(FeaturePackRuntime fp : runtime.fpRuntimes.values()) {
             final ArtifactCoords.Gav fpGav = fp.getGav();
             runtime.messageWriter.verbose("Installing %s", fpGav);
             for(PackageRuntime pkg : fp.getPackages()) {
-                final Path pkgSrcDir = pkg.getContentDir();
-                if (Files.exists(pkgSrcDir)) {
-                    try {
-                        IoUtils.copy(pkgSrcDir, runtime.stagedDir);
-                    } catch (IOException e) {
-                        throw new FeaturePackInstallException(Errors.packageContentCopyFailed(pkg.getName()), e);
-                    }
-                }
+                contentInstaller.addPackage(fpGav, pkg);
             }
         }
+        contentInstaller.install();
 
         // execute the plug-ins
         runtime.executePlugins();
@@ -100,18 +103,88 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         } catch (XMLStreamException | IOException e) {
             throw new FeaturePackInstallException(Errors.writeFile(PathsUtils.getProvisionedStateXml(runtime.stagedDir)), e);
         }
-        runtime.messageWriter.verbose("Moving the provisioned installation from the staged directory to %s", runtime.installDir);
-        // copy from the staged to the target installation directory
-        if (Files.exists(runtime.installDir)) {
-            IoUtils.recursiveDelete(runtime.installDir);
+
+        // record the manifest of the installation
+        final InstallationManifest manifest;
+        try {
+            manifest = InstallationManifest.build(runtime.stagedDir, contentInstaller.getOrigins());
+        } catch (IOException e) {
+            throw new FeaturePackInstallException(Errors.hashCalculation(runtime.stagedDir), e);
         }
+
+        if(!runtime.incrementalInstall || !IncrementalInstaller.install(runtime.stagedDir, manifest, runtime.installDir, runtime.messageWriter)) {
+            runtime.messageWriter.verbose("Moving the provisioned installation from the staged directory to %s", runtime.installDir);
+            if(!runtime.linkInstall || !renameStagedDir(runtime)) {
+                // copy from the staged to the target installation directory
+                if (Files.exists(runtime.installDir)) {
+                    IoUtils.recursiveDelete(runtime.installDir);
+                }
+                try {
+                    IoUtils.copy(runtime.stagedDir, runtime.installDir);
+                } catch (IOException e) {
+                    throw new ProvisioningException(Errors.copyFile(runtime.stagedDir, runtime.installDir));
+                }
+            }
+        }
+
+        final Path manifestFile = PathsUtils.getInstallationManifest(runtime.installDir);
         try {
-            IoUtils.copy(runtime.stagedDir, runtime.installDir);
+            manifest.updateLastModified(runtime.installDir);
+            manifest.write(manifestFile);
         } catch (IOException e) {
-            throw new ProvisioningException(Errors.copyFile(runtime.stagedDir, runtime.installDir));
+            throw new ProvisioningException(Errors.writeFile(manifestFile), e);
         }
     }
 
+    /**
+     * Completes the provisioning of the installation if it was interrupted
+     * while applying the changes incrementally.
+     *
+     * @param installDir  installation directory
+     * @param messageWriter  message writer
+     * @throws ProvisioningException  in case the interrupted provisioning could not be completed
+     */
+    public static void recover(Path installDir, MessageWriter messageWriter) throws ProvisioningException {
+        IncrementalInstaller.recover(installDir, messageWriter);
+    }
+
+    /**
+     * Replaces the installation directory with the staged one by renaming it,
+     * which is possible only if both are on the same file system.
+     * The previous installation is first moved aside, so that it can be restored
+     * if the staged directory could not be renamed.
+     *
+     * @return  true if the staged directory was renamed, false if it has to be copied
+     */
+    private static boolean renameStagedDir(ProvisioningRuntime runtime) throws ProvisioningException {
+        final Path installDir = runtime.installDir.toAbsolutePath();
+        Path prevDir = null;
+        if(Files.exists(installDir)) {
+            prevDir = installDir.resolveSibling("." + installDir.getFileName() + "-" + UUID.randomUUID());
+            try {
+                Files.move(installDir, prevDir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        try {
+            Files.move(runtime.stagedDir, installDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if(prevDir != null) {
+                try {
+                    Files.move(prevDir, installDir, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e1) {
+                    throw new ProvisioningException(Errors.moveFile(prevDir, installDir), e1);
+                }
+            }
+            return false;
+        }
+        if(prevDir != null) {
+            IoUtils.recursiveDelete(prevDir);
+        }
+        return true;
+    }
+
     public static void exportToFeaturePack(ProvisioningRuntime runtime, ArtifactCoords.Gav exportGav, Path location, Path installationHome) throws ProvisioningDescriptionException, ProvisioningException, IOException {
         diff(runtime, location, installationHome);
         FeaturePackRepositoryManager fpRepoManager = FeaturePackRepositoryManager.newInstance(location);
@@ -174,6 +247,9 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
     private ProvisioningConfig config;
     private Path installDir;
     private final Path stagedDir;
+    private final boolean linkInstall;
+    private final boolean linkContent;
+    private final boolean incrementalInstall;
     private final Path workDir;
     private final Path tmpDir;
     private final Path pluginsDir;
@@ -182,8 +258,10 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
     private final MessageWriter messageWriter;
     private List<ProvisionedConfig> configs = Collections.emptyList();
     private FileSystemDiffResult diff = FileSystemDiffResult.empty();
+    private boolean fsDiffExported;
     private final String operation;
     private ClassLoader pluginsClassLoader;
+    private final List<Closeable> layoutHandles;
 
     ProvisioningRuntime(ProvisioningRuntimeBuilder builder, final MessageWriter messageWriter) throws ProvisioningException {
         this.startTime = builder.startTime;
@@ -194,6 +272,10 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         this.configs = builder.getResolvedConfigs();
         options = builder.options;
         this.operation = builder.operation;
+        this.layoutHandles = builder.layoutHandles;
+        this.linkInstall = builder.linkInstall;
+        this.linkContent = builder.linkContent;
+        this.incrementalInstall = builder.incrementalInstall;
 
         this.workDir = builder.workDir;
         this.installDir = builder.installDir;
@@ -244,6 +326,17 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         return stagedDir;
     }
 
+    /**
+     * The number of threads the content of the installation is processed with,
+     * which is configured with the pm.install.threads system property.
+     *
+     * @return the number of threads
+     * @throws ProvisioningException  in case the value of the property is invalid
+     */
+    public int getInstallThreads() throws ProvisioningException {
+        return PackageContentInstaller.getParallelism();
+    }
+
     /**
      * The target installation location
      *
@@ -308,6 +401,34 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         return diff;
     }
 
+    /**
+     * Writes the filesystem changes of the customized installation to the target
+     * directory as they are found instead of collecting them into the diff result.
+     *
+     * @param filter  path filter
+     * @param target  target directory
+     * @param customizedInstallation  customized installation
+     * @throws ProvisioningException  in case of a failure
+     */
+    public void exportFileSystemDiff(PathFilter filter, Path target, Path customizedInstallation) throws ProvisioningException {
+        try {
+            new FileSystemDiff(messageWriter, installDir, customizedInstallation).export(filter, target);
+        } catch(ProviderException e) {
+            throw new ProvisioningException(e.getMessage(), e);
+        }
+        fsDiffExported = true;
+    }
+
+    /**
+     * Whether the filesystem changes have already been written to the target
+     * directory of the diff by {@link #exportFileSystemDiff(PathFilter, Path, Path)}.
+     *
+     * @return  true if the filesystem changes have been exported
+     */
+    public boolean isFileSystemDiffExported() {
+        return fsDiffExported;
+    }
+
     public void exportDiffResultToFeaturePack(FeaturePackBuilder fpBuilder, Map<String, FeaturePackConfig.Builder> builders, Path installationHome) throws ProvisioningException {
         ClassLoader pluginClassLoader = getPluginClassloader();
         if (pluginClassLoader != null) {
@@ -426,6 +547,19 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
         return artifactResolver.resolve(coords);
     }
 
+    /**
+     * Resolves the locations of the artifacts given their coordinates
+     * in a single batch.
+     *
+     * @param coords  artifact coordinates
+     * @return  locations of the artifacts
+     * @throws ArtifactResolutionException  in case some of the artifacts
+     * could not be resolved
+     */
+    public Map<ArtifactCoords, Path> resolveArtifacts(Collection<ArtifactCoords> coords) throws ArtifactResolutionException {
+        return artifactResolver.resolveAll(coords);
+    }
+
     @Override
     public boolean hasConfigs() {
         return !configs.isEmpty();
@@ -460,6 +594,7 @@ public class ProvisioningRuntime implements FeaturePackSet<FeaturePackRuntime>,
 
     @Override
     public void close() {
+        ProvisioningRuntimeBuilder.closeLayoutHandles(layoutHandles);
         IoUtils.recursiveDelete(workDir);
 //        if (messageWriter.isVerboseEnabled()) {
             final long time = System.currentTimeMillis() - startTime;
@@ -18,19 +18,29 @@
 package org.jboss.provisioning.runtime;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLStreamException;
 
@@ -55,6 +65,7 @@ import org.jboss.provisioning.config.ProvisioningConfig;
 import org.jboss.provisioning.config.ConfigModel;
 import org.jboss.provisioning.config.FeatureGroup;
 import org.jboss.provisioning.config.FeatureGroupSupport;
+import org.jboss.provisioning.layout.FeaturePackCache;
 import org.jboss.provisioning.spec.FeatureDependencySpec;
 import org.jboss.provisioning.spec.FeatureId;
 import org.jboss.provisioning.spec.FeatureReferenceSpec;
@@ -65,6 +76,7 @@ import org.jboss.provisioning.state.ProvisionedConfig;
 import org.jboss.provisioning.util.IoUtils;
 import org.jboss.provisioning.util.LayoutUtils;
 import org.jboss.provisioning.util.PmCollections;
+import org.jboss.provisioning.util.PropertyUtils;
 import org.jboss.provisioning.util.ZipUtils;
 import org.jboss.provisioning.xml.FeaturePackXmlParser;
 
@@ -75,6 +87,141 @@ import org.jboss.provisioning.xml.FeaturePackXmlParser;
  */
 public class ProvisioningRuntimeBuilder {
 
+    /**
+     * The result of a spec lookup starting from an origin, i.e. the spec
+     * and the feature-pack it was found in, or null if it was not found.
+     */
+    private static class SpecLookup<T> {
+
+        private static final SpecLookup<?> NOT_FOUND = new SpecLookup<>(null, null);
+
+        @SuppressWarnings("unchecked")
+        static <T> SpecLookup<T> notFound() {
+            return (SpecLookup<T>) NOT_FOUND;
+        }
+
+        final T spec;
+        final FeaturePackRuntimeBuilder origin;
+
+        SpecLookup(T spec, FeaturePackRuntimeBuilder origin) {
+            this.spec = spec;
+            this.origin = origin;
+        }
+    }
+
+    /**
+     * The package dependencies of a package, or of a config, feature group or feature spec,
+     * that are being resolved.
+     *
+     * A package is complete once its dependencies have been resolved. The packages
+     * that have dependencies of their own are pushed onto an explicit stack instead
+     * of recursing through the dependency chains.
+     */
+    private class PackageDeps {
+
+        PackageDeps parent;
+        // the package the dependencies belong to, null if they don't belong to a package
+        private final FeaturePackRuntimeBuilder fp;
+        private final String pkgName;
+        private final PackageDepsSpec spec;
+        private Iterator<PackageDependencySpec> deps;
+        private Iterator<String> origins;
+        private FeaturePackRuntimeBuilder originalFp;
+        private boolean originSwitched;
+        // the dependency being resolved
+        PackageDependencySpec dep;
+
+        PackageDeps(FeaturePackRuntimeBuilder fp, String pkgName, PackageDepsSpec spec) {
+            this.fp = fp;
+            this.pkgName = pkgName;
+            this.spec = spec;
+            deps = spec.hasLocalPackageDeps() ? spec.getLocalPackageDeps().iterator() : Collections.emptyIterator();
+            origins = spec.hasExternalPackageDeps() ? spec.getPackageOrigins().iterator() : Collections.emptyIterator();
+        }
+
+        /**
+         * Resolves the next dependencies.
+         *
+         * @return  the dependencies of a package that have to be resolved first,
+         *   or null if all the dependencies have been resolved
+         * @throws ProvisioningException  in case a dependency could not be resolved
+         */
+        PackageDeps next() throws ProvisioningException {
+            while(true) {
+                if(deps.hasNext()) {
+                    dep = deps.next();
+                    if(fpConfigStack.isPackageExcluded(currentOrigin.gav.toGa(), dep.getName())) {
+                        if(!dep.isOptional()) {
+                            throw new ProvisioningDescriptionException(Errors.unsatisfiedPackageDependency(currentOrigin.gav, dep.getName()));
+                        }
+                        continue;
+                    }
+                    try {
+                        findPackage(dep.getName());
+                    } catch(ProvisioningDescriptionException e) {
+                        if(dep.isOptional()) {
+                            continue;
+                        }
+                        throw e;
+                    }
+                    if(scheduledPkgDeps != null) {
+                        final PackageDeps pkgDeps = scheduledPkgDeps;
+                        scheduledPkgDeps = null;
+                        pkgDeps.parent = this;
+                        return pkgDeps;
+                    }
+                    continue;
+                }
+                restoreOrigin();
+                if(!origins.hasNext()) {
+                    return null;
+                }
+                final String origin = origins.next();
+                originalFp = setOrigin(origin);
+                originSwitched = true;
+                deps = spec.getExternalPackageDeps(origin).iterator();
+            }
+        }
+
+        void complete() {
+            if(fp != null) {
+                fp.packageResolved(pkgName, ProvisioningRuntimeBuilder.this);
+            }
+        }
+
+        ProvisioningException fail(ProvisioningException e) {
+            restoreOrigin();
+            return fp == null ? e : new ProvisioningDescriptionException(Errors.resolvePackage(fp.gav, pkgName), e);
+        }
+
+        void restoreOrigin() {
+            if(originSwitched) {
+                setOrigin(originalFp);
+                originSwitched = false;
+            }
+        }
+    }
+
+    /**
+     * A feature-pack config being processed. The feature-pack dependencies
+     * of the feature-pack are processed in between its configs are pushed
+     * and popped, which is done using an explicit stack instead of recursing
+     * through the feature-pack dependency chains.
+     */
+    private static class FpConfigScope {
+
+        final FeaturePackConfig fpConfig;
+        final FeaturePackRuntimeBuilder parentFp;
+        List<ConfigModelStack> fpConfigStacks = Collections.emptyList();
+        List<ConfigModelStack> specConfigStacks = Collections.emptyList();
+        boolean extendedStackLevel;
+
+        FpConfigScope(FeaturePackConfig fpConfig, FeaturePackRuntimeBuilder parentFp) {
+            this.fpConfig = fpConfig;
+            this.parentFp = parentFp;
+        }
+    }
+
     public static ProvisioningRuntimeBuilder newInstance() {
         return newInstance(DefaultMessageWriter.getDefaultInstance());
     }
@@ -103,6 +250,14 @@ public class ProvisioningRuntimeBuilder {
     Path pluginsDir = null;
     Map<String, String> options = Collections.emptyMap();
     private final MessageWriter messageWriter;
+    private FeaturePackCache fpCache;
+    private boolean zipLayout;
+    boolean linkInstall;
+    // whether the package content may be hard-linked from the layout into the staged directory
+    boolean linkContent;
+    boolean incrementalInstall;
+    // cache entries and archive file systems backing the feature-pack layouts
+    List<Closeable> layoutHandles = Collections.emptyList();
 
     private final Map<ArtifactCoords.Ga, FeaturePackRuntimeBuilder> fpRtBuilders = new HashMap<>();
     private List<FeaturePackRuntimeBuilder> fpRtBuildersOrdered = new ArrayList<>();
@@ -127,6 +282,21 @@ public class ProvisioningRuntimeBuilder {
 
     private ResolvedFeature parentFeature;
 
+    // the results of the spec lookups by the origin (null for the provisioning config) and the name,
+    // resolved once per provisioning since the dependency graph does not change
+    private final Map<FeaturePackRuntimeBuilder, Map<String, SpecLookup<ResolvedFeatureSpec>>> featureSpecLookups = new HashMap<>();
+    private final Map<FeaturePackRuntimeBuilder, Map<String, SpecLookup<FeatureGroup>>> fgLookups = new HashMap<>();
+    private int specLookupHits;
+    private int specLookupMisses;
+
+    // the ids of the features included into the configs, which are often the same across the configs
+    private final Map<ResolvedFeatureId, ResolvedFeatureId> featureIds = new HashMap<>();
+    // the ids of the loaded feature specs, which all the feature ids of a spec refer to
+    private final Map<ResolvedSpecId, ResolvedSpecId> specIds = new HashMap<>();
+
+    // the dependencies of the package found by the last package lookup that remain to be resolved
+    private PackageDeps scheduledPkgDeps;
+
     private ProvisioningRuntimeBuilder(final MessageWriter messageWriter) {
         startTime = System.currentTimeMillis();
         workDir = IoUtils.createRandomTmpDir();
@@ -164,17 +334,63 @@ public class ProvisioningRuntimeBuilder {
         return this;
     }
 
+    /**
+     * Sets the cache of the expanded feature-pack layouts. If the cache
+     * is not set, the one configured with the system properties will be used, if any.
+     *
+     * @param fpCache  feature-pack layout cache
+     * @return  this builder
+     */
+    public ProvisioningRuntimeBuilder setFeaturePackCache(FeaturePackCache fpCache) {
+        this.fpCache = fpCache;
+        return this;
+    }
+
     public ProvisioningRuntime build() throws ProvisioningException {
         try {
             return doBuild();
         } catch(ProvisioningException | RuntimeException | Error e) {
+            closeLayoutHandles(layoutHandles);
             IoUtils.recursiveDelete(workDir);
             throw e;
         }
     }
 
+    static void closeLayoutHandles(List<Closeable> layoutHandles) {
+        for(Closeable handle : layoutHandles) {
+            try {
+                handle.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
     private ProvisioningRuntime doBuild() throws ProvisioningException {
 
+        final String fpLayout = PropertyUtils.getSystemProperty(Constants.PROP_FP_LAYOUT);
+        if(fpLayout != null) {
+            if(!Constants.FP_LAYOUT_ZIP.equals(fpLayout)) {
+                throw new ProvisioningException("Unsupported feature-pack layout " + fpLayout);
+            }
+            zipLayout = true;
+        } else if(fpCache == null) {
+            fpCache = FeaturePackCache.fromSystemProperties();
+        }
+
+        final String installMode = PropertyUtils.getSystemProperty(Constants.PROP_INSTALL_MODE);
+        if(installMode != null) {
+            if(Constants.INSTALL_MODE_LINK.equals(installMode)) {
+                linkInstall = true;
+                // the layouts in the cache are shared, changes made to the linked files
+                // in the installation would affect them
+                linkContent = fpCache == null && !zipLayout;
+            } else if(Constants.INSTALL_MODE_INCREMENTAL.equals(installMode)) {
+                incrementalInstall = true;
+            } else {
+                throw new ProvisioningException("Unsupported install mode " + installMode);
+            }
+        }
+
         if(!uninstallFps.isEmpty()) {
             Map<Ga, Gav> depsOfUninstalled = Collections.emptyMap();
             for(ArtifactCoords.Ga uninstallGa : uninstallFps.keySet()) {
@@ -236,6 +452,7 @@ public class ProvisioningRuntimeBuilder {
 
             if(!config.hasFeaturePackDeps()) {
                 emptyHomeDir();
+                closeLayoutHandles(layoutHandles);
                 IoUtils.recursiveDelete(workDir);
                 return null;
             }
@@ -263,9 +480,7 @@ public class ProvisioningRuntimeBuilder {
         for (FeaturePackConfig fpConfig : fpConfigs) {
             extendedStackLevel |= fpConfigStack.push(fpConfig, extendedStackLevel);
         }
-        while(fpConfigStack.hasNext()) {
-            processFpConfig(fpConfigStack.next());
-        }
+        processFpConfigs();
 
         if(extendedStackLevel) {
             fpConfigStack.popLevel();
@@ -283,9 +498,24 @@ public class ProvisioningRuntimeBuilder {
 
         mergeModelOnlyConfigs();
 
+        messageWriter.verbose("Feature and group spec lookups: %d cached, %d resolved", specLookupHits, specLookupMisses);
         return new ProvisioningRuntime(this, messageWriter);
     }
 
+    /**
+     * @return  the number of the feature and feature group spec lookups served from the resolved ones
+     */
+    public int getSpecLookupHits() {
+        return specLookupHits;
+    }
+
+    /**
+     * @return  the number of the feature and feature group spec lookups that had to walk the feature-pack dependencies
+     */
+    public int getSpecLookupMisses() {
+        return specLookupMisses;
+    }
+
     Map<ArtifactCoords.Ga, FeaturePackRuntime> getFpRuntimes() throws ProvisioningException {
         if(fpRtBuildersOrdered.isEmpty()) {
             return Collections.emptyMap();
@@ -293,11 +523,13 @@ public class ProvisioningRuntimeBuilder {
         if(fpRtBuildersOrdered.size() == 1) {
             final FeaturePackRuntimeBuilder builder = fpRtBuildersOrdered.get(0);
             copyResources(builder);
+            extractLayout(builder);
             return Collections.singletonMap(builder.gav.toGa(), builder.build());
         }
         final Map<ArtifactCoords.Ga, FeaturePackRuntime> fpRuntimes = new LinkedHashMap<>(fpRtBuildersOrdered.size());
         for (FeaturePackRuntimeBuilder builder : fpRtBuildersOrdered) {
             copyResources(builder);
+            extractLayout(builder);
             fpRuntimes.put(builder.gav.toGa(), builder.build());
         }
         return Collections.unmodifiableMap(fpRuntimes);
@@ -345,12 +577,36 @@ public class ProvisioningRuntimeBuilder {
         modelOnlyConfigs = Collections.emptyMap();
     }
 
-    private void processFpConfig(FeaturePackConfig fpConfig) throws ProvisioningException {
+    private void processFpConfigs() throws ProvisioningException {
+        final Deque<FpConfigScope> scopes = new ArrayDeque<>();
+        try {
+            while(true) {
+                final FpConfigScope scope = scopes.peek();
+                if((scope == null || scope.extendedStackLevel) && fpConfigStack.hasNext()) {
+                    scopes.push(enterFpConfig(fpConfigStack.next()));
+                    continue;
+                }
+                if(scope == null) {
+                    return;
+                }
+                scopes.pop();
+                exitFpConfig(scope);
+            }
+        } finally {
+            if(!scopes.isEmpty()) {
+                final FeaturePackRuntimeBuilder parentFp = scopes.getLast().parentFp;
+                this.thisOrigin = parentFp;
+                setOrigin(parentFp);
+            }
+        }
+    }
+
+    private FpConfigScope enterFpConfig(FeaturePackConfig fpConfig) throws ProvisioningException {
         thisOrigin = getFpBuilder(fpConfig.getGav());
-        final FeaturePackRuntimeBuilder parentFp = setOrigin(thisOrigin);
+        final FpConfigScope scope = new FpConfigScope(fpConfig, setOrigin(thisOrigin));
 
+        boolean entered = false;
         try {
-            List<ConfigModelStack> fpConfigStacks = Collections.emptyList();
             for (int i = fpConfig.getDefinedConfigs().size() - 1; i >= 0; --i) {
                 final ConfigModel config = fpConfig.getDefinedConfigs().get(i);
                 if (fpConfigStack.isFilteredOut(config.getId(), true)) {
@@ -358,10 +614,9 @@ public class ProvisioningRuntimeBuilder {
                 }
                 configStack = getConfigStack(config.getId());
                 configStack.pushConfig(config);
-                fpConfigStacks = PmCollections.add(fpConfigStacks, configStack);
+                scope.fpConfigStacks = PmCollections.add(scope.fpConfigStacks, configStack);
             }
 
-            List<ConfigModelStack> specConfigStacks = Collections.emptyList();
             for (int i = currentOrigin.spec.getDefinedConfigs().size() - 1; i >= 0; --i) {
                 final ConfigModel config = currentOrigin.spec.getDefinedConfigs().get(i);
                 if (fpConfigStack.isFilteredOut(config.getId(), false)) {
@@ -369,28 +624,34 @@ public class ProvisioningRuntimeBuilder {
                 }
                 configStack = getConfigStack(config.getId());
                 configStack.pushConfig(config);
-                specConfigStacks = PmCollections.add(specConfigStacks, configStack);
+                scope.specConfigStacks = PmCollections.add(scope.specConfigStacks, configStack);
             }
 
             configStack = null;
 
-            boolean extendedStackLevel = false;
             if (currentOrigin.spec.hasFeaturePackDeps()) {
                 final Collection<FeaturePackConfig> fpDeps = currentOrigin.spec.getFeaturePackDeps();
                 for (FeaturePackConfig fpDep : fpDeps) {
-                    extendedStackLevel |= fpConfigStack.push(fpDep, extendedStackLevel);
-                }
-                if (extendedStackLevel) {
-                    while (fpConfigStack.hasNext()) {
-                        processFpConfig(fpConfigStack.next());
-                    }
+                    scope.extendedStackLevel |= fpConfigStack.push(fpDep, scope.extendedStackLevel);
                 }
             }
+            entered = true;
+        } finally {
+            if(!entered) {
+                this.thisOrigin = scope.parentFp;
+                setOrigin(scope.parentFp);
+            }
+        }
+        return scope;
+    }
 
+    private void exitFpConfig(FpConfigScope scope) throws ProvisioningException {
+        final FeaturePackConfig fpConfig = scope.fpConfig;
+        try {
             boolean contributed = false;
 
-            for (int i = specConfigStacks.size() - 1; i >= 0; --i) {
-                final ConfigModelStack configStack = specConfigStacks.get(i);
+            for (int i = scope.specConfigStacks.size() - 1; i >= 0; --i) {
+                final ConfigModelStack configStack = scope.specConfigStacks.get(i);
                 final ConfigModel config = configStack.popConfig();
                 if (config.getId().isModelOnly()) {
                     recordModelOnlyConfig(fpConfig.getGav(), config);
@@ -418,8 +679,8 @@ public class ProvisioningRuntimeBuilder {
                 }
             }
 
-            for (int i = fpConfigStacks.size() - 1; i >= 0; --i) {
-                final ConfigModelStack configStack = fpConfigStacks.get(i);
+            for (int i = scope.fpConfigStacks.size() - 1; i >= 0; --i) {
+                final ConfigModelStack configStack = scope.fpConfigStacks.get(i);
                 final ConfigModel config = configStack.popConfig();
                 if (config.getId().isModelOnly()) {
                     recordModelOnlyConfig(fpConfig.getGav(), config);
@@ -428,7 +689,7 @@ public class ProvisioningRuntimeBuilder {
                 contributed |= processConfig(configStack, config);
             }
 
-            if (extendedStackLevel) {
+            if (scope.extendedStackLevel) {
                 fpConfigStack.popLevel();
             }
 
@@ -436,8 +697,8 @@ public class ProvisioningRuntimeBuilder {
                 orderFpRtBuilder(currentOrigin);
             }
         } finally {
-            this.thisOrigin = parentFp;
-            setOrigin(parentFp);
+            this.thisOrigin = scope.parentFp;
+            setOrigin(scope.parentFp);
         }
     }
 
@@ -643,9 +904,9 @@ public class ProvisioningRuntimeBuilder {
             final FeatureConfig fc = new FeatureConfig(included.getValue());
             final ResolvedFeatureSpec resolvedSpec = getFeatureSpec(fc.getSpecId().getName());
             if (parentFeature != null) {
-                includedFeatures = PmCollections.put(includedFeatures, resolvedSpec.resolveIdFromForeignKey(parentFeature.id, fc.getParentRef(), fc.getParams()), fc);
+                includedFeatures = PmCollections.put(includedFeatures, intern(resolvedSpec.resolveIdFromForeignKey(parentFeature.id, fc.getParentRef(), fc.getParams())), fc);
             } else {
-                includedFeatures = PmCollections.put(includedFeatures, resolvedSpec.resolveFeatureId(fc.getParams()), fc);
+                includedFeatures = PmCollections.put(includedFeatures, intern(resolvedSpec.resolveFeatureId(fc.getParams())), fc);
             }
         }
         return includedFeatures;
@@ -656,9 +917,9 @@ public class ProvisioningRuntimeBuilder {
             final FeatureId excludedId = excluded.getKey();
             final ResolvedFeatureSpec resolvedSpec = getFeatureSpec(excludedId.getSpec().getName());
             if(parentFeature != null) {
-                resolvedIds = PmCollections.add(resolvedIds, resolvedSpec.resolveIdFromForeignKey(parentFeature.id, excluded.getValue(), excludedId.getParams()));
+                resolvedIds = PmCollections.add(resolvedIds, intern(resolvedSpec.resolveIdFromForeignKey(parentFeature.id, excluded.getValue(), excludedId.getParams())));
             } else {
-                resolvedIds = PmCollections.add(resolvedIds, resolvedSpec.resolveFeatureId(excludedId.getParams()));
+                resolvedIds = PmCollections.add(resolvedIds, intern(resolvedSpec.resolveFeatureId(excludedId.getParams())));
             }
         }
         return resolvedIds;
@@ -704,13 +965,33 @@ public class ProvisioningRuntimeBuilder {
         return resolvedFeatures;
     }
 
+    /**
+     * Returns the instance of the id that has been included, or referenced by a feature group
+     * include or exclude, first during this provisioning.
+     */
+    ResolvedFeatureId intern(ResolvedFeatureId id) {
+        if(id == null) {
+            return null;
+        }
+        final ResolvedFeatureId interned = featureIds.putIfAbsent(id, id);
+        return interned == null ? id : interned;
+    }
+
+    /**
+     * Returns the instance of the spec id that has been resolved first during this provisioning.
+     */
+    ResolvedSpecId intern(ResolvedSpecId id) {
+        final ResolvedSpecId interned = specIds.putIfAbsent(id, id);
+        return interned == null ? id : interned;
+    }
+
     private boolean resolveFeature(ConfigModelStack configStack, FeatureConfig fc) throws ProvisioningException {
         final FeaturePackRuntimeBuilder originalOrigin = currentOrigin;
         final ResolvedFeatureSpec spec = getFeatureSpec(fc.getSpecId().getName(), true);
         final ResolvedFeature originalParent = parentFeature;
         try {
-            final ResolvedFeatureId resolvedId = parentFeature == null ? spec.resolveFeatureId(fc.getParams())
-                    : spec.resolveIdFromForeignKey(parentFeature.id, fc.getParentRef(), fc.getParams());
+            final ResolvedFeatureId resolvedId = intern(parentFeature == null ? spec.resolveFeatureId(fc.getParams())
+                    : spec.resolveIdFromForeignKey(parentFeature.id, fc.getParentRef(), fc.getParams()));
             if (configStack.isFilteredOut(spec.id, resolvedId)) {
                 return false;
             }
@@ -821,14 +1102,33 @@ public class ProvisioningRuntimeBuilder {
     }
 
     FeaturePackRuntimeBuilder loadFpBuilder(ArtifactCoords.Gav gav) throws ProvisioningException {
-        final Path fpDir = LayoutUtils.getFeaturePackDir(layoutDir, gav, false);
-        mkdirs(fpDir);
+        final Path fpDir;
+        if(zipLayout) {
+            // the metadata is parsed lazily straight from the archive
+            final Path artifactPath = artifactResolver.resolve(gav.toArtifactCoords());
+            final FileSystem zipfs;
+            try {
+                zipfs = FileSystems.newFileSystem(artifactPath, null);
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.openFile(artifactPath), e);
+            }
+            layoutHandles = PmCollections.add(layoutHandles, zipfs);
+            fpDir = zipfs.getRootDirectories().iterator().next();
+        } else if(fpCache == null) {
+            fpDir = LayoutUtils.getFeaturePackDir(layoutDir, gav, false);
+            mkdirs(fpDir);
 
-        final Path artifactPath = artifactResolver.resolve(gav.toArtifactCoords());
-        try {
-            ZipUtils.unzip(artifactPath, fpDir);
-        } catch (IOException e) {
-            throw new ProvisioningException("Failed to unzip " + artifactPath + " to " + layoutDir, e);
+            final Path artifactPath = artifactResolver.resolve(gav.toArtifactCoords());
+            try {
+                ZipUtils.unzip(artifactPath, fpDir);
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to unzip " + artifactPath + " to " + layoutDir, e);
+            }
+        } else {
+            // the cached layout is shared, it is only read from and never modified
+            final FeaturePackCache.Entry cacheEntry = fpCache.acquire(artifactResolver.resolve(gav.toArtifactCoords()));
+            layoutHandles = PmCollections.add(layoutHandles, cacheEntry);
+            fpDir = cacheEntry.getLayoutDir();
         }
 
         final Path fpXml = fpDir.resolve(Constants.FEATURE_PACK_XML);
@@ -847,14 +1147,29 @@ public class ProvisioningRuntimeBuilder {
     }
 
     private void resolvePackage(final String pkgName) throws ProvisioningException {
-        if(resolvePackage(currentOrigin, pkgName, Collections.emptySet(), false)) {
+        findPackage(pkgName);
+        if(scheduledPkgDeps != null) {
+            final PackageDeps pkgDeps = scheduledPkgDeps;
+            scheduledPkgDeps = null;
+            resolvePackageDeps(pkgDeps);
+        }
+    }
+
+    private void findPackage(final String pkgName) throws ProvisioningException {
+        if(findPackage(currentOrigin, pkgName)) {
             return;
         }
         throw new ProvisioningDescriptionException(Errors.packageNotFound(currentOrigin.gav, pkgName));
     }
 
-    private boolean resolvePackage(FeaturePackRuntimeBuilder origin, String name, Set<ArtifactCoords.Ga> visitedGas, boolean switchOrigin) throws ProvisioningException {
+    /**
+     * Looks for the package in the origin and then, depth-first, in its feature-pack dependencies.
+     * The package found is resolved except for its dependencies, which are scheduled
+     * to be resolved by the caller.
+     */
+    private boolean findPackage(FeaturePackRuntimeBuilder origin, String name) throws ProvisioningException {
         final FeaturePackDepsConfig fpDeps;
+        Set<ArtifactCoords.Ga> visitedGas = Collections.emptySet();
         if (origin != null) {
             if(origin.resolvePackage(name, this)) {
                 return true;
@@ -869,64 +1184,82 @@ public class ProvisioningRuntimeBuilder {
             return false;
         }
 
-        for (FeaturePackConfig fpDep : fpDeps.getFeaturePackDeps()) {
+        final Deque<Iterator<FeaturePackConfig>> depsStack = new ArrayDeque<>();
+        depsStack.push(fpDeps.getFeaturePackDeps().iterator());
+        while(!depsStack.isEmpty()) {
+            final Iterator<FeaturePackConfig> depsI = depsStack.peek();
+            if(!depsI.hasNext()) {
+                depsStack.pop();
+                continue;
+            }
+            final FeaturePackConfig fpDep = depsI.next();
             if (visitedGas.contains(fpDep.getGav().toGa())) {
                 continue;
             }
-            if(resolvePackage(getOrLoadFpBuilder(fpDep.getGav()), name, visitedGas, switchOrigin)) {
+            final FeaturePackRuntimeBuilder depFp = getOrLoadFpBuilder(fpDep.getGav());
+            if(depFp.resolvePackage(name, this)) {
                 return true;
             }
+            visitedGas = PmCollections.add(visitedGas, depFp.gav.toGa());
+            if(depFp.spec.hasFeaturePackDeps()) {
+                depsStack.push(depFp.spec.getFeaturePackDeps().iterator());
+            }
         }
         return false;
     }
 
+    /**
+     * Schedules the resolution of the dependencies of a package found by {@link #findPackage(String)}.
+     * The package is completed once its dependencies have been resolved.
+     */
+    void schedulePackageDeps(FeaturePackRuntimeBuilder fp, String pkgName, PackageDepsSpec pkgDeps) {
+        if(scheduledPkgDeps != null) {
+            throw new IllegalStateException("Dependencies of another package have already been scheduled");
+        }
+        scheduledPkgDeps = new PackageDeps(fp, pkgName, pkgDeps);
+    }
+
     void processPackageDeps(final PackageDepsSpec pkgDeps) throws ProvisioningException {
-        if (pkgDeps.hasLocalPackageDeps()) {
-            for (PackageDependencySpec dep : pkgDeps.getLocalPackageDeps()) {
-                if(fpConfigStack.isPackageExcluded(currentOrigin.gav.toGa(), dep.getName())) {
-                    if(!dep.isOptional()) {
-                        throw new ProvisioningDescriptionException(Errors.unsatisfiedPackageDependency(currentOrigin.gav, dep.getName()));
+        resolvePackageDeps(new PackageDeps(null, null, pkgDeps));
+    }
+
+    private void resolvePackageDeps(PackageDeps pkgDeps) throws ProvisioningException {
+        ProvisioningException failure = null;
+        try {
+            while (pkgDeps != null) {
+                if (failure != null) {
+                    // the resolution of the dependency of the package failed
+                    if (!(failure instanceof ProvisioningDescriptionException) || !pkgDeps.dep.isOptional()) {
+                        failure = pkgDeps.fail(failure);
+                        pkgDeps = pkgDeps.parent;
+                        continue;
                     }
-                    continue;
+                    failure = null;
                 }
+                final PackageDeps next;
                 try {
-                    resolvePackage(dep.getName());
-                } catch(ProvisioningDescriptionException e) {
-                    if(dep.isOptional()) {
-                        continue;
-                    } else {
-                        throw e;
-                    }
+                    next = pkgDeps.next();
+                } catch (ProvisioningException e) {
+                    failure = pkgDeps.fail(e);
+                    pkgDeps = pkgDeps.parent;
+                    continue;
                 }
-            }
-        }
-        if(!pkgDeps.hasExternalPackageDeps()) {
-            return;
-        }
-        for (String origin : pkgDeps.getPackageOrigins()) {
-            final FeaturePackRuntimeBuilder originalFp = setOrigin(origin);
-            try {
-                for (PackageDependencySpec pkgDep : pkgDeps.getExternalPackageDeps(origin)) {
-                    if (fpConfigStack.isPackageExcluded(currentOrigin.gav.toGa(), pkgDep.getName())) {
-                        if (!pkgDep.isOptional()) {
-                            throw new ProvisioningDescriptionException(
-                                    Errors.unsatisfiedPackageDependency(currentOrigin.gav, pkgDep.getName()));
-                        }
-                        continue;
-                    }
-                    try {
-                        resolvePackage(pkgDep.getName());
-                    } catch (ProvisioningDescriptionException e) {
-                        if (pkgDep.isOptional()) {
-                            continue;
-                        } else {
-                            throw e;
-                        }
-                    }
+                if (next != null) {
+                    pkgDeps = next;
+                    continue;
                 }
-            } finally {
-                setOrigin(originalFp);
+                pkgDeps.complete();
+                pkgDeps = pkgDeps.parent;
+            }
+        } catch (RuntimeException | Error e) {
+            while (pkgDeps != null) {
+                pkgDeps.restoreOrigin();
+                pkgDeps = pkgDeps.parent;
             }
+            throw e;
+        }
+        if (failure != null) {
+            throw failure;
         }
     }
 
@@ -942,7 +1275,7 @@ public class ProvisioningRuntimeBuilder {
             return Collections.emptyList();
         }
 
-        List<ProvisionedConfig> configList = new ArrayList<>(configsTotal);
+        final List<ConfigModelStack> configList = new ArrayList<>(configsTotal);
         if(!anonymousConfigs.isEmpty()) {
             for (ConfigModelStack config : anonymousConfigs) {
                 orderConfig(config, configList, Collections.emptySet());
@@ -966,12 +1299,72 @@ public class ProvisioningRuntimeBuilder {
                 }
             }
         }
-        return configList.size() > 0 ? Collections.unmodifiableList(configList) : configList;
+        if(configList.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(buildConfigs(configList));
     }
 
-    private void orderConfig(ConfigModelStack config, List<ProvisionedConfig> configList, Set<ConfigId> scheduledIds) throws ProvisioningException {
+    /**
+     * Orders the features of the configs. The features of a config are ordered
+     * independently of the other configs, the dependencies between the configs
+     * only determine the order of the result, which is the order of the stacks.
+     * So the configs are ordered concurrently once the references of their specs,
+     * which may require locating specs in the feature-packs, have been resolved.
+     */
+    private List<ProvisionedConfig> buildConfigs(List<ConfigModelStack> configStacks) throws ProvisioningException {
+        final List<ProvisionedConfig> configList = new ArrayList<>(configStacks.size());
+        final int threads = Math.min(configStacks.size(), PropertyUtils.getParallelism(Constants.PROP_CONFIG_THREADS));
+        if(threads == 1) {
+            for(ConfigModelStack configStack : configStacks) {
+                configList.add(ResolvedConfig.build(configStack));
+            }
+            return configList;
+        }
+
+        for(ConfigModelStack configStack : configStacks) {
+            configStack.resolveRefMappings();
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<ResolvedConfig>> futures = new ArrayList<>(configStacks.size());
+            for(ConfigModelStack configStack : configStacks) {
+                futures.add(executor.submit(new Callable<ResolvedConfig>() {
+                    @Override
+                    public ResolvedConfig call() throws ProvisioningException {
+                        return ResolvedConfig.build(configStack);
+                    }
+                }));
+            }
+            for(Future<ResolvedConfig> future : futures) {
+                try {
+                    configList.add(future.get());
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if(cause instanceof ProvisioningException) {
+                        throw (ProvisioningException) cause;
+                    }
+                    if(cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if(cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new ProvisioningException("Failed to order the features of the configs", cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProvisioningException("Interrupted while ordering the features of the configs", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return configList;
+    }
+
+    private void orderConfig(ConfigModelStack config, List<ConfigModelStack> configList, Set<ConfigId> scheduledIds) throws ProvisioningException {
         if(!config.hasConfigDeps()) {
-            configList.add(ResolvedConfig.build(config));
+            configList.add(config);
             return;
         }
         if(!config.id.isAnonymous()) {
@@ -1014,19 +1407,25 @@ public class ProvisioningRuntimeBuilder {
             }
         }
         scheduledIds = PmCollections.remove(scheduledIds, config.id);
-        configList.add(ResolvedConfig.build(config));
+        configList.add(config);
     }
 
-    private boolean contains(List<ProvisionedConfig> configList, ConfigId depId) {
+    private boolean contains(List<ConfigModelStack> configList, ConfigId depId) {
         int i = 0;
         while(i < configList.size()) {
-            if(((ResolvedConfig)configList.get(i++)).id.equals(depId)) {
+            if(configList.get(i++).id.equals(depId)) {
                 return true;
             }
         }
         return false;
     }
 
+    private void extractLayout(FeaturePackRuntimeBuilder fpRtBuilder) throws ProvisioningException {
+        if(zipLayout) {
+            fpRtBuilder.extractLayout(LayoutUtils.getFeaturePackDir(layoutDir, fpRtBuilder.gav, false));
+        }
+    }
+
     private void copyResources(FeaturePackRuntimeBuilder fpRtBuilder) throws ProvisioningException {
         // resources should be copied last overriding the dependency resources
         final Path fpResources = fpRtBuilder.dir.resolve(Constants.RESOURCES);
@@ -1078,20 +1477,39 @@ public class ProvisioningRuntimeBuilder {
      * NOTE: this method will change the current origin to the origin of the group!
      */
     private FeatureGroup getFeatureGroupSpec(String name) throws ProvisioningException {
-        final FeatureGroup fg = getFeatureGroupSpec(currentOrigin, name, Collections.emptySet());
+        final FeatureGroup fg = lookupFeatureGroupSpec(currentOrigin, name);
         if(fg == null) {
             throw new ProvisioningDescriptionException("Failed to locate feature group '" + name + "' in " + (currentOrigin == null ? "the provisioning configuration" : currentOrigin.gav + " and its dependencies"));
         }
         return fg;
     }
 
-    private FeatureGroup getFeatureGroupSpec(FeaturePackRuntimeBuilder origin, String name, Set<ArtifactCoords.Ga> visitedGas) throws ProvisioningException {
+    private FeatureGroup lookupFeatureGroupSpec(FeaturePackRuntimeBuilder origin, String name) throws ProvisioningException {
+        Map<String, SpecLookup<FeatureGroup>> lookups = fgLookups.get(origin);
+        SpecLookup<FeatureGroup> lookup = lookups == null ? null : lookups.get(name);
+        if(lookup == null) {
+            ++specLookupMisses;
+            lookup = findFeatureGroupSpec(origin, name, Collections.emptySet());
+            if(lookups == null) {
+                lookups = new HashMap<>();
+                fgLookups.put(origin, lookups);
+            }
+            lookups.put(name, lookup);
+        } else {
+            ++specLookupHits;
+        }
+        if(lookup.spec != null) {
+            currentOrigin = lookup.origin;
+        }
+        return lookup.spec;
+    }
+
+    private SpecLookup<FeatureGroup> findFeatureGroupSpec(FeaturePackRuntimeBuilder origin, String name, Set<ArtifactCoords.Ga> visitedGas) throws ProvisioningException {
         final FeaturePackDepsConfig fpDeps;
         if(origin != null) {
             final FeatureGroup fg = origin.getFeatureGroupSpec(name);
             if(fg != null) {
-                currentOrigin = origin;
-                return fg;
+                return new SpecLookup<>(fg, origin);
             }
             fpDeps = origin.spec;
             visitedGas = PmCollections.add(visitedGas, origin.gav.toGa());
@@ -1100,19 +1518,19 @@ public class ProvisioningRuntimeBuilder {
         }
 
         if (!fpDeps.hasFeaturePackDeps()) {
-            return null;
+            return SpecLookup.notFound();
         }
 
         for (FeaturePackConfig fpDep : fpDeps.getFeaturePackDeps()) {
             if (visitedGas.contains(fpDep.getGav().toGa())) {
                 continue;
             }
-            final FeatureGroup fg = getFeatureGroupSpec(getOrLoadFpBuilder(fpDep.getGav()), name, visitedGas);
-            if (fg != null) {
-                return fg;
+            final SpecLookup<FeatureGroup> lookup = findFeatureGroupSpec(getOrLoadFpBuilder(fpDep.getGav()), name, visitedGas);
+            if (lookup.spec != null) {
+                return lookup;
             }
         }
-        return null;
+        return SpecLookup.notFound();
     }
 
     private ResolvedFeatureSpec getFeatureSpec(String name) throws ProvisioningException {
@@ -1128,7 +1546,7 @@ public class ProvisioningRuntimeBuilder {
     }
 
     private ResolvedFeatureSpec getFeatureSpec(FeaturePackRuntimeBuilder origin, String name, boolean switchOrigin) throws ProvisioningException {
-        final ResolvedFeatureSpec resolvedSpec = getFeatureSpec(origin, name, Collections.emptySet(), switchOrigin);
+        final ResolvedFeatureSpec resolvedSpec = lookupFeatureSpec(origin, name, switchOrigin);
         if(resolvedSpec == null) {
             if(origin == null) {
                 throw new ProvisioningDescriptionException("Failed to locate feature spec '" + name + "' in the installed feature-packs.");
@@ -1138,15 +1556,32 @@ public class ProvisioningRuntimeBuilder {
         return resolvedSpec;
     }
 
-    private ResolvedFeatureSpec getFeatureSpec(FeaturePackRuntimeBuilder origin, String name, Set<ArtifactCoords.Ga> visitedGas, boolean switchOrigin) throws ProvisioningException {
+    private ResolvedFeatureSpec lookupFeatureSpec(FeaturePackRuntimeBuilder origin, String name, boolean switchOrigin) throws ProvisioningException {
+        Map<String, SpecLookup<ResolvedFeatureSpec>> lookups = featureSpecLookups.get(origin);
+        SpecLookup<ResolvedFeatureSpec> lookup = lookups == null ? null : lookups.get(name);
+        if(lookup == null) {
+            ++specLookupMisses;
+            lookup = findFeatureSpec(origin, name, Collections.emptySet());
+            if(lookups == null) {
+                lookups = new HashMap<>();
+                featureSpecLookups.put(origin, lookups);
+            }
+            lookups.put(name, lookup);
+        } else {
+            ++specLookupHits;
+        }
+        if(lookup.spec != null && switchOrigin) {
+            currentOrigin = lookup.origin;
+        }
+        return lookup.spec;
+    }
+
+    private SpecLookup<ResolvedFeatureSpec> findFeatureSpec(FeaturePackRuntimeBuilder origin, String name, Set<ArtifactCoords.Ga> visitedGas) throws ProvisioningException {
         final FeaturePackDepsConfig fpDeps;
         if (origin != null) {
-            final ResolvedFeatureSpec fs = origin.getFeatureSpec(name);
+            final ResolvedFeatureSpec fs = origin.getFeatureSpec(name, this);
             if (fs != null) {
-                if (switchOrigin) {
-                    currentOrigin = origin;
-                }
-                return fs;
+                return new SpecLookup<>(fs, origin);
             }
             fpDeps = origin.spec;
             visitedGas = PmCollections.add(visitedGas, origin.gav.toGa());
@@ -1155,18 +1590,18 @@ public class ProvisioningRuntimeBuilder {
         }
 
         if (!fpDeps.hasFeaturePackDeps()) {
-            return null;
+            return SpecLookup.notFound();
         }
 
         for (FeaturePackConfig fpDep : fpDeps.getFeaturePackDeps()) {
             if (visitedGas.contains(fpDep.getGav().toGa())) {
                 continue;
             }
-            final ResolvedFeatureSpec fs = getFeatureSpec(getOrLoadFpBuilder(fpDep.getGav()), name, visitedGas, switchOrigin);
-            if (fs != null) {
-                return fs;
+            final SpecLookup<ResolvedFeatureSpec> lookup = findFeatureSpec(getOrLoadFpBuilder(fpDep.getGav()), name, visitedGas);
+            if (lookup.spec != null) {
+                return lookup;
             }
         }
-        return null;
+        return SpecLookup.notFound();
     }
 }
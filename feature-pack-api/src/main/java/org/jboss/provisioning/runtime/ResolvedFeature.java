@@ -134,7 +134,9 @@ public class ResolvedFeature extends CapabilityProvider implements ProvisionedFe
         }
         orderingState = ORDERED;
         provided(branch);
-        spec.provided(branch);
+        if(specFeatures != null) {
+            specFeatures.provided(branch);
+        }
         branchDeps = null;
     }
 
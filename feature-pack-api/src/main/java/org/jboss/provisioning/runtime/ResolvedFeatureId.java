@@ -28,6 +28,9 @@ import org.jboss.provisioning.util.PmCollections;
 import org.jboss.provisioning.util.StringUtils;
 
 /**
+ * Immutable, the hash code is computed once. The ids of the features included
+ * into the configs are interned by the runtime builder, so the same id is
+ * usually represented by the same instance.
  *
  * @author Alexey Loubyansky
  */
@@ -155,6 +158,7 @@ public class ResolvedFeatureId {
     final ResolvedSpecId specId;
     final Map<String, Object> params;
     final Boolean child;
+    private final int hash;
 
     ResolvedFeatureId(ResolvedSpecId specId, Map<String, Object> params) {
         this(specId, params, null);
@@ -173,6 +177,11 @@ public class ResolvedFeatureId {
         }
         this.params = PmCollections.unmodifiable(filtered);
         this.child = child;
+        final int prime = 31;
+        int hash = 1;
+        hash = prime * hash + this.params.hashCode();
+        hash = prime * hash + ((specId == null) ? 0 : specId.hashCode());
+        this.hash = hash;
     }
 
     public ResolvedSpecId getSpecId() {
@@ -189,11 +198,7 @@ public class ResolvedFeatureId {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((params == null) ? 0 : params.hashCode());
-        result = prime * result + ((specId == null) ? 0 : specId.hashCode());
-        return result;
+        return hash;
     }
 
     @Override
@@ -205,6 +210,8 @@ public class ResolvedFeatureId {
         if (getClass() != obj.getClass())
             return false;
         ResolvedFeatureId other = (ResolvedFeatureId) obj;
+        if (hash != other.hash)
+            return false;
         if (params == null) {
             if (other.params != null)
                 return false;
@@ -388,6 +388,10 @@ public class ResolvedFeatureSpec extends CapabilityProvider {
     }
 
     void resolveRefMappings(ProvisioningRuntimeBuilder rt) throws ProvisioningException {
+        if(resolvedRefTargets != null) {
+            // the spec is shared by the configs, the references are resolved once
+            return;
+        }
         if(!xmlSpec.hasFeatureRefs()) {
             resolvedRefTargets = Collections.emptyMap();
             return;
@@ -19,16 +19,23 @@ package org.jboss.provisioning.runtime;
 import org.jboss.provisioning.ArtifactCoords;
 
 /**
+ * Immutable, the hash code is computed once.
  *
  * @author Alexey Loubyansky
  */
 public class ResolvedSpecId {
     final ArtifactCoords.Gav gav;
     final String name;
+    private final int hash;
 
     public ResolvedSpecId(ArtifactCoords.Gav gav, String name) {
         this.gav = gav;
         this.name = name;
+        final int prime = 31;
+        int hash = 1;
+        hash = prime * hash + ((gav == null) ? 0 : gav.hashCode());
+        hash = prime * hash + ((name == null) ? 0 : name.hashCode());
+        this.hash = hash;
     }
 
     public ArtifactCoords.Gav getGav() {
@@ -41,11 +48,7 @@ public class ResolvedSpecId {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((gav == null) ? 0 : gav.hashCode());
-        result = prime * result + ((name == null) ? 0 : name.hashCode());
-        return result;
+        return hash;
     }
 
     @Override
@@ -57,6 +60,8 @@ public class ResolvedSpecId {
         if (getClass() != obj.getClass())
             return false;
         ResolvedSpecId other = (ResolvedSpecId) obj;
+        if (hash != other.hash)
+            return false;
         if (gav == null) {
             if (other.gav != null)
                 return false;
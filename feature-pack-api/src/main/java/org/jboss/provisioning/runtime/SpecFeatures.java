@@ -26,7 +26,7 @@ import org.jboss.provisioning.ProvisioningException;
  *
  * @author Alexey Loubyansky
  */
-class SpecFeatures {
+class SpecFeatures extends CapabilityProvider {
 
     private static final byte FREE = 0;
     private static final byte PROCESSING = 1;
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.state;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.PathsUtils;
+import org.jboss.provisioning.util.RecordedHashes;
+
+/**
+ * Paths and hashes of the files and directories of a provisioned installation.
+ * For each file, the manifest also records its size, last modification time and,
+ * if the file was copied from a package content, the package and the feature-pack
+ * the file originates from.
+ *
+ * The manifest is persisted in the provisioned state directory of the installation.
+ */
+public class InstallationManifest implements RecordedHashes {
+
+    private static final int MAGIC = 0x504d4d46; // PMMF
+    /*
+     * 2 - the format recording the file origins, the hashes are SHA-1
+     * 3 - records the algorithm the hashes were computed with
+     */
+    private static final int VERSION = 3;
+    private static final int VERSION_SHA1 = 2;
+    private static final String MANIFEST_PATH = Constants.PROVISIONED_STATE_DIR + '/' + Constants.INSTALLATION_MANIFEST;
+    private static final String JOURNAL_PATH = Constants.PROVISIONED_STATE_DIR + '/' + Constants.INSTALLATION_JOURNAL;
+
+    /**
+     * Package and feature-pack a file originates from.
+     */
+    public static class Origin {
+
+        private final ArtifactCoords.Gav fpGav;
+        private final String pkgName;
+
+        public Origin(ArtifactCoords.Gav fpGav, String pkgName) {
+            this.fpGav = fpGav;
+            this.pkgName = pkgName;
+        }
+
+        public ArtifactCoords.Gav getFeaturePack() {
+            return fpGav;
+        }
+
+        public String getPackage() {
+            return pkgName;
+        }
+    }
+
+    public static class Entry {
+
+        private final String path;
+        private final long size;
+        private long lastModified;
+        private final byte[] hash;
+        private final Origin origin;
+
+        private Entry(String path, long size, long lastModified, byte[] hash, Origin origin) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.origin = origin;
+        }
+
+        /**
+         * Path relative to the installation directory using '/' as the separator.
+         *
+         * @return  relative path
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public boolean isDir() {
+            return hash == null;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+
+        /**
+         * The package and the feature-pack the file was copied from.
+         *
+         * @return  origin of the file or null if the file was not copied from a package content
+         */
+        public Origin getOrigin() {
+            return origin;
+        }
+
+        public boolean isSameContent(Entry other) {
+            return size == other.size && Arrays.equals(hash, other.hash);
+        }
+
+        /**
+         * Checks whether the size and the last modification time of the file
+         * are the ones recorded in the manifest, in which case the file is
+         * assumed to be unchanged and the recorded hash can be used for it.
+         *
+         * @param attrs  current attributes of the file
+         * @return  true if the file appears to be unchanged
+         */
+        public boolean isUnchanged(BasicFileAttributes attrs) {
+            return hash != null && attrs.isRegularFile() && size == attrs.size() && lastModified == attrs.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * Checks whether the path relative to the installation directory is
+     * used by the provisioning tool itself and is not a part of the installation.
+     *
+     * @param path  relative path using '/' as the separator
+     * @return  true if the path is not a part of the installation
+     */
+    public static boolean isExcluded(String path) {
+        return path.equals(MANIFEST_PATH) || path.equals(JOURNAL_PATH) || path.startsWith(JOURNAL_PATH + '/');
+    }
+
+    public static String relativePath(Path root, Path p) {
+        return PathsUtils.relativePath(root, p);
+    }
+
+    /**
+     * Hashes the content of the installation directory.
+     *
+     * @param installDir  installation directory
+     * @return  the manifest of the installation
+     * @throws IOException  in case of a failure reading the installation
+     */
+    public static InstallationManifest build(Path installDir) throws IOException {
+        return build(installDir, Collections.emptyMap());
+    }
+
+    /**
+     * Hashes the content of the installation directory. The files are hashed in
+     * parallel using the algorithm configured for change detection.
+     *
+     * @param installDir  installation directory
+     * @param origins  origins of the files by their relative paths
+     * @return  the manifest of the installation
+     * @throws IOException  in case of a failure reading the installation
+     */
+    public static InstallationManifest build(Path installDir, Map<String, Origin> origins) throws IOException {
+        final Map<String, Entry> entries = new TreeMap<>();
+        final List<Path> files = new ArrayList<>();
+        final List<BasicFileAttributes> fileAttrs = new ArrayList<>();
+        Files.walkFileTree(installDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if(dir.equals(installDir)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                final String path = relativePath(installDir, dir);
+                if(isExcluded(path)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                entries.put(path, new Entry(path, -1, -1, null, null));
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if(!isExcluded(relativePath(installDir, file))) {
+                    files.add(file);
+                    fileAttrs.add(attrs);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        final String algorithm = HashUtils.getChangeDetectionAlgorithm();
+        final byte[][] hashes = HashUtils.hashPaths(files, algorithm);
+        for(int i = 0; i < hashes.length; ++i) {
+            final String path = relativePath(installDir, files.get(i));
+            final BasicFileAttributes attrs = fileAttrs.get(i);
+            entries.put(path, new Entry(path, attrs.size(), attrs.lastModifiedTime().toMillis(), hashes[i], origins.get(path)));
+        }
+        return new InstallationManifest(algorithm, entries);
+    }
+
+    /**
+     * Reads the manifest from a file.
+     *
+     * @param file  manifest file
+     * @return  the manifest or null if the file does not exist or is not a supported manifest
+     * @throws IOException  in case of a failure reading the file
+     */
+    public static InstallationManifest read(Path file) throws IOException {
+        if(!Files.exists(file)) {
+            return null;
+        }
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if(in.readInt() != MAGIC) {
+                return null;
+            }
+            final int version = in.readInt();
+            final String algorithm;
+            if(version == VERSION) {
+                algorithm = in.readUTF();
+            } else if(version == VERSION_SHA1) {
+                algorithm = HashUtils.SHA1;
+            } else {
+                return null;
+            }
+            final Origin[] origins = new Origin[in.readInt()];
+            for(int i = 0; i < origins.length; ++i) {
+                origins[i] = new Origin(ArtifactCoords.newGav(in.readUTF(), in.readUTF(), in.readUTF()), in.readUTF());
+            }
+            final int size = in.readInt();
+            final Map<String, Entry> entries = new TreeMap<>();
+            for(int i = 0; i < size; ++i) {
+                final String path = in.readUTF();
+                final long fileSize = in.readLong();
+                final long lastModified = in.readLong();
+                byte[] hash = null;
+                final int hashLength = in.readShort();
+                if(hashLength >= 0) {
+                    hash = new byte[hashLength];
+                    in.readFully(hash);
+                }
+                final int origin = in.readInt();
+                entries.put(path, new Entry(path, fileSize, lastModified, hash, origin < 0 ? null : origins[origin]));
+            }
+            return new InstallationManifest(algorithm, entries);
+        }
+    }
+
+    private final String algorithm;
+    private final Map<String, Entry> entries;
+
+    private InstallationManifest(String algorithm, Map<String, Entry> entries) {
+        this.algorithm = algorithm;
+        this.entries = entries;
+    }
+
+    /**
+     * The algorithm the files were hashed with. The hashes can be compared only
+     * to the ones computed with the same algorithm.
+     *
+     * @return  hash algorithm
+     */
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public boolean excludes(String path) {
+        return isExcluded(path);
+    }
+
+    @Override
+    public byte[] getHash(String path, BasicFileAttributes attrs) {
+        final Entry entry = entries.get(path);
+        return entry != null && entry.isUnchanged(attrs) ? entry.getHash() : null;
+    }
+
+    public Entry getEntry(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Entries sorted by their paths, i.e. a directory precedes its children.
+     *
+     * @return  entries of the manifest
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * Updates the recorded last modification times with the ones of the files
+     * in the installation directory, e.g. after the files were copied there.
+     *
+     * @param installDir  installation directory
+     * @throws IOException  in case of a failure reading the attributes
+     */
+    public void updateLastModified(Path installDir) throws IOException {
+        for(Entry entry : entries.values()) {
+            if(entry.isDir()) {
+                continue;
+            }
+            final Path file = installDir.resolve(entry.path);
+            if(Files.exists(file)) {
+                entry.lastModified = Files.getLastModifiedTime(file).toMillis();
+            }
+        }
+    }
+
+    /**
+     * Writes the manifest to a temporary file which then replaces the target one.
+     *
+     * @param file  target file
+     * @throws IOException  in case of a failure writing the file
+     */
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(algorithm);
+            final Map<Origin, Integer> origins = new IdentityHashMap<>();
+            for(Entry entry : entries.values()) {
+                if(entry.origin != null && !origins.containsKey(entry.origin)) {
+                    origins.put(entry.origin, origins.size());
+                }
+            }
+            final Origin[] originTable = new Origin[origins.size()];
+            for(Map.Entry<Origin, Integer> origin : origins.entrySet()) {
+                originTable[origin.getValue()] = origin.getKey();
+            }
+            out.writeInt(originTable.length);
+            for(Origin origin : originTable) {
+                out.writeUTF(origin.fpGav.getGroupId());
+                out.writeUTF(origin.fpGav.getArtifactId());
+                out.writeUTF(origin.fpGav.getVersion());
+                out.writeUTF(origin.pkgName);
+            }
+            out.writeInt(entries.size());
+            for(Entry entry : entries.values()) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                if(entry.hash == null) {
+                    out.writeShort(-1);
+                } else {
+                    out.writeShort(entry.hash.length);
+                    out.write(entry.hash);
+                }
+                out.writeInt(entry.origin == null ? -1 : origins.get(entry.origin));
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -17,6 +17,9 @@
 
 package org.jboss.provisioning.type.builtin;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.jboss.provisioning.ArtifactCoords.Ga;
 import org.jboss.provisioning.Constants;
 import org.jboss.provisioning.type.FeatureParameterType;
@@ -37,16 +40,41 @@ public class BuiltInParameterTypeProvider implements ParameterTypeProvider {
         return INSTANCE;
     }
 
+    private static final int MAX_CACHED_TYPES = 1024;
+
+    /**
+     * The resolved types by their expressions. The built-in types do not depend
+     * on the feature-pack they are used in, so the expression alone is the key.
+     * The least recently used types are evicted once the limit is reached.
+     */
+    @SuppressWarnings("serial")
+    private final Map<String, FeatureParameterType> types = new LinkedHashMap<String, FeatureParameterType>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FeatureParameterType> eldest) {
+            return size() > MAX_CACHED_TYPES;
+        }
+    };
+
     @Override
     public FeatureParameterType getType(Ga fpGa, String name) throws ParameterTypeNotFoundException {
         if(Constants.BUILT_IN_TYPE_STRING.equals(name)) {
             return StringParameterType.getInstance();
-        } else {
-            try {
-                return new FormattedParameterType(FormatParser.resolveFormat(name));
-            } catch (FormatParsingException e) {
-                throw new ParameterTypeNotFoundException("Failed to resolve parameter type " + name, e);
-            }
+        }
+        FeatureParameterType type;
+        synchronized(types) {
+            type = types.get(name);
+        }
+        if(type != null) {
+            return type;
+        }
+        try {
+            type = new FormattedParameterType(FormatParser.resolveFormat(name));
+        } catch (FormatParsingException e) {
+            throw new ParameterTypeNotFoundException("Failed to resolve parameter type " + name, e);
+        }
+        synchronized(types) {
+            final FeatureParameterType cached = types.putIfAbsent(name, type);
+            return cached == null ? type : cached;
         }
     }
 }
@@ -16,8 +16,12 @@
  */
 package org.jboss.provisioning.util;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
@@ -26,51 +30,214 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+import org.jboss.provisioning.Constants;
 
 /**
+ * Hashing utilities. The digests are not shared between threads, so the methods
+ * can be invoked concurrently.
  *
  * @author Alexey Loubyansky
  */
 public class HashUtils {
 
+    public static final String SHA1 = "SHA-1";
+
+    /**
+     * Non-cryptographic checksum, which is much faster to compute than SHA-1
+     * and is good enough to detect changes made to the content of a file.
+     */
+    public static final String CRC32 = "CRC32";
+
     private static final char[] TABLE = "0123456789abcdef".toCharArray();
 
-    private static final MessageDigest DIGEST;
-    static {
+    private static final int BUFFER_SIZE = 65536;
+    // files starting from this size are mapped into memory instead of being read into a buffer
+    private static final long MAP_THRESHOLD = 8L * 1024 * 1024;
+    private static final long MAP_CHUNK_SIZE = 64L * 1024 * 1024;
+    // the number of files below which a task is not split further
+    private static final int HASH_FILES_BATCH = 16;
+
+    private static class Crc32Digest extends MessageDigest {
+
+        private final CRC32 crc = new CRC32();
+
+        Crc32Digest() {
+            super(CRC32);
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            crc.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            crc.update(input, offset, len);
+        }
+
+        @Override
+        protected void engineUpdate(ByteBuffer input) {
+            crc.update(input);
+        }
+
+        @Override
+        protected int engineGetDigestLength() {
+            return 4;
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            final long value = crc.getValue();
+            crc.reset();
+            return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        }
+
+        @Override
+        protected void engineReset() {
+            crc.reset();
+        }
+    }
+
+    private static class ThreadState {
+        final Map<String, MessageDigest> digests = new HashMap<>(2);
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        MessageDigest getDigest(String algorithm) {
+            MessageDigest digest = digests.get(algorithm);
+            if(digest == null) {
+                digest = newDigest(algorithm);
+                digests.put(algorithm, digest);
+            } else {
+                digest.reset();
+            }
+            return digest;
+        }
+    }
+
+    private static final ThreadLocal<ThreadState> THREAD_STATE = new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+            return new ThreadState();
+        }
+    };
+
+    private static MessageDigest newDigest(String algorithm) {
+        if(CRC32.equals(algorithm)) {
+            return new Crc32Digest();
+        }
         try {
-            DIGEST = MessageDigest.getInstance("SHA-1");
+            return MessageDigest.getInstance(algorithm);
         } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+            throw new IllegalArgumentException("Unsupported hash algorithm " + algorithm, e);
         }
     }
 
+    /**
+     * The algorithm used to detect changes in the content of the installed files,
+     * which can be configured with the {@link Constants#PROP_HASH_ALGORITHM} system property.
+     *
+     * @return  the name of the hash algorithm
+     */
+    public static String getChangeDetectionAlgorithm() {
+        final String algorithm = PropertyUtils.getSystemProperty(Constants.PROP_HASH_ALGORITHM);
+        return algorithm == null ? SHA1 : algorithm;
+    }
+
     public static byte[] hashPath(Path path) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            updateDigest(DIGEST, path);
-            return DIGEST.digest();
-        }
+        return hashPath(path, SHA1);
+    }
+
+    public static byte[] hashPath(Path path, String algorithm) throws IOException {
+        final ThreadState state = THREAD_STATE.get();
+        final MessageDigest digest = state.getDigest(algorithm);
+        updateDigest(digest, path, state.buffer);
+        return digest.digest();
     }
 
     public static String hashFile(Path path) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            updateDigest(DIGEST, path);
-            return bytesToHexString(DIGEST.digest());
-        }
+        return bytesToHexString(hashPath(path, SHA1));
+    }
+
+    public static String hashFile(Path path, String algorithm) throws IOException {
+        return bytesToHexString(hashPath(path, algorithm));
     }
 
     public static String hash(String content) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            DIGEST.update(content.getBytes(StandardCharsets.UTF_8));
-            return bytesToHexString(DIGEST.digest());
+        final MessageDigest digest = THREAD_STATE.get().getDigest(SHA1);
+        digest.update(content.getBytes(StandardCharsets.UTF_8));
+        return bytesToHexString(digest.digest());
+    }
+
+    /**
+     * Hashes the paths in parallel. The hashing tasks are executed in the common
+     * fork-join pool, the idle workers steal the files to hash from the busy ones.
+     *
+     * @param paths  paths to hash
+     * @param algorithm  hash algorithm
+     * @return  the hashes in the order of the paths
+     * @throws IOException  in case one of the paths could not be read
+     */
+    public static byte[][] hashPaths(List<Path> paths, String algorithm) throws IOException {
+        final byte[][] hashes = new byte[paths.size()][];
+        if(paths.size() <= HASH_FILES_BATCH) {
+            for(int i = 0; i < hashes.length; ++i) {
+                hashes[i] = hashPath(paths.get(i), algorithm);
+            }
+            return hashes;
+        }
+        try {
+            ForkJoinPool.commonPool().invoke(new HashPathsTask(paths, algorithm, hashes, 0, hashes.length));
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
         }
+        return hashes;
     }
 
-    private static void updateDigest(MessageDigest digest, Path path) throws IOException {
+    private static class HashPathsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> paths;
+        private final String algorithm;
+        private final byte[][] hashes;
+        private final int from;
+        private final int to;
+
+        HashPathsTask(List<Path> paths, String algorithm, byte[][] hashes, int from, int to) {
+            this.paths = paths;
+            this.algorithm = algorithm;
+            this.hashes = hashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= HASH_FILES_BATCH) {
+                for(int i = from; i < to; ++i) {
+                    try {
+                        hashes[i] = hashPath(paths.get(i), algorithm);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new HashPathsTask(paths, algorithm, hashes, from, middle),
+                    new HashPathsTask(paths, algorithm, hashes, middle, to));
+        }
+    }
+
+    private static void updateDigest(MessageDigest digest, Path path, ByteBuffer buffer) throws IOException {
         if(Files.isDirectory(path)) {
             try(DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
                 final Map<String, Path> sortedChildren = new TreeMap<String, Path>();
@@ -78,42 +245,52 @@ public class HashUtils {
                     sortedChildren.put(p.getFileName().toString(), p);
                 }
                 for (Path child : sortedChildren.values()) {
-                    updateDigest(digest, child);
+                    updateDigest(digest, child, buffer);
                 }
             }
         } else {
-            try (BufferedInputStream bis = new BufferedInputStream(Files.newInputStream(path))){
-                byte[] bytes = new byte[8192];
-                int read;
-                while ((read = bis.read(bytes)) > -1) {
-                    digest.update(bytes, 0, read);
+            try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+                final long size = channel.size();
+                if(size >= MAP_THRESHOLD && channel instanceof FileChannel) {
+                    final FileChannel fileChannel = (FileChannel) channel;
+                    long position = 0;
+                    while(position < size) {
+                        final MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, size - position));
+                        position += mapped.remaining();
+                        digest.update(mapped);
+                    }
+                    return;
+                }
+                buffer.clear();
+                while (channel.read(buffer) > -1) {
+                    digest.update(buffer.array(), 0, buffer.position());
+                    buffer.clear();
                 }
             }
         }
     }
 
     public static byte[] hashJar(Path jarFile, boolean ignoreManifest) throws IOException {
-        synchronized (DIGEST) {
-            DIGEST.reset();
-            try (FileSystem zipfs = FileSystems.newFileSystem(jarFile, null)) {
-                for (Path zipRoot : zipfs.getRootDirectories()) {
-                    final Map<String, Path> sortedChildren = new TreeMap<String, Path>();
-                    try(DirectoryStream<Path> stream = Files.newDirectoryStream(zipRoot)) {
-                        for(Path p : stream) {
-                            final String fileName = p.getFileName().toString();
-                            if(ignoreManifest && fileName.equals("META-INF/")) {
-                                continue;
-                            }
-                            sortedChildren.put(fileName, p);
+        final ThreadState state = THREAD_STATE.get();
+        final MessageDigest digest = state.getDigest(SHA1);
+        try (FileSystem zipfs = FileSystems.newFileSystem(jarFile, null)) {
+            for (Path zipRoot : zipfs.getRootDirectories()) {
+                final Map<String, Path> sortedChildren = new TreeMap<String, Path>();
+                try(DirectoryStream<Path> stream = Files.newDirectoryStream(zipRoot)) {
+                    for(Path p : stream) {
+                        final String fileName = p.getFileName().toString();
+                        if(ignoreManifest && fileName.equals("META-INF/")) {
+                            continue;
                         }
+                        sortedChildren.put(fileName, p);
                     }
-                    for (Path child : sortedChildren.values()) {
-                        updateDigest(DIGEST, child);
-                    }
+                }
+                for (Path child : sortedChildren.values()) {
+                    updateDigest(digest, child, state.buffer);
                 }
             }
-            return DIGEST.digest();
         }
+        return digest.digest();
     }
 
     /**
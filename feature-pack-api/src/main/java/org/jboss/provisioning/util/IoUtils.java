@@ -31,9 +31,11 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.function.Consumer;
@@ -99,7 +101,8 @@ public class IoUtils {
                     @Override
                     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                         throws IOException {
-                        final Path targetDir = target.resolve(source.relativize(dir));
+                        // the source may belong to a different file system (e.g. a zip archive)
+                        final Path targetDir = target.resolve(source.relativize(dir).toString());
                         try {
                             Files.copy(dir, targetDir);
                         } catch (FileAlreadyExistsException e) {
@@ -112,7 +115,7 @@ public class IoUtils {
                     @Override
                     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
                         throws IOException {
-                        Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+                        Files.copy(file, target.resolve(source.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING);
                         return FileVisitResult.CONTINUE;
                     }
                 });
@@ -141,16 +144,38 @@ public class IoUtils {
     }
 
      public static Map<Path, String> listContents(Path root, PathFilter filter) throws IOException {
+         return listContents(root, filter, null);
+     }
+
+    /**
+     * Lists the files and the empty directories of the root directory with their hashes.
+     * The files are hashed in parallel using the algorithm configured for change detection.
+     * If hashes were recorded for the files with the same algorithm, the files
+     * which appear to be unchanged are not read, the recorded hashes are used for them instead.
+     *
+     * @param root  root directory
+     * @param filter  path filter
+     * @param hashes  hashes recorded for the files of the root directory or null
+     * @return  hashes by the paths relative to the root directory
+     * @throws IOException  in case of a failure reading the directory
+     */
+    public static Map<Path, String> listContents(Path root, PathFilter filter, RecordedHashes hashes) throws IOException {
         if (root == null || !Files.exists(root)) {
             return Collections.emptyMap();
         }
+        final String algorithm = HashUtils.getChangeDetectionAlgorithm();
         if(Files.isRegularFile(root)) {
-            return Collections.singletonMap(root.relativize(root), HashUtils.hashFile(root));
+            return Collections.singletonMap(root.relativize(root), HashUtils.hashFile(root, algorithm));
         }
-        Map<Path, String> contents = new HashMap<>();
+        final RecordedHashes recorded = hashes == null || !hashes.getAlgorithm().equals(algorithm) ? null : hashes;
+        final Map<Path, String> contents = new HashMap<>();
+        final List<Path> toHash = new ArrayList<>();
         Files.walkFileTree(root, new FileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (hashes != null && hashes.excludes(PathsUtils.relativePath(root, dir))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
                 if (filter.accept(root.relativize(dir))) {
                     String[] files = dir.toFile().list();
                     if (files == null || files.length == 0) {
@@ -163,9 +188,18 @@ public class IoUtils {
 
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if(filter.accept(root.relativize(file))) {
-                    contents.put(root.relativize(file), HashUtils.hashFile(file));
+                final String path = hashes == null ? null : PathsUtils.relativePath(root, file);
+                if(path != null && hashes.excludes(path) || !filter.accept(root.relativize(file))) {
+                    return FileVisitResult.CONTINUE;
                 }
+                if(recorded != null) {
+                    final byte[] hash = recorded.getHash(path, attrs);
+                    if(hash != null) {
+                        contents.put(root.relativize(file), HashUtils.bytesToHexString(hash));
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+                toHash.add(file);
                 return FileVisitResult.CONTINUE;
             }
 
@@ -179,6 +213,10 @@ public class IoUtils {
                 return FileVisitResult.CONTINUE;
             }
         });
+        final byte[][] computed = HashUtils.hashPaths(toHash, algorithm);
+        for(int i = 0; i < computed.length; ++i) {
+            contents.put(root.relativize(toHash.get(i)), HashUtils.bytesToHexString(computed[i]));
+        }
         return contents;
     }
 }
@@ -41,6 +41,14 @@ public class PathsUtils {
         return getProvisionedStateDir(installationDir).resolve(Constants.PROVISIONED_STATE_XML);
     }
 
+    public static Path getInstallationManifest(Path installationDir) {
+        return getProvisionedStateDir(installationDir).resolve(Constants.INSTALLATION_MANIFEST);
+    }
+
+    public static Path getInstallationJournalDir(Path installationDir) {
+        return getProvisionedStateDir(installationDir).resolve(Constants.INSTALLATION_JOURNAL);
+    }
+
     public static Path getFeaturePackXml(Path installationDir, ArtifactCoords.Gav fpGav) {
         return getProvisionedStateDir(installationDir)
                 .resolve(Constants.FEATURE_PACKS)
@@ -49,4 +57,23 @@ public class PathsUtils {
                 .resolve(fpGav.getVersion())
                 .resolve(Constants.FEATURE_PACK_XML);
     }
+
+    /**
+     * Relativizes the path against the root using '/' as the separator
+     * regardless of the file system.
+     *
+     * @param root  root directory
+     * @param p  path under the root
+     * @return  relative path
+     */
+    public static String relativePath(Path root, Path p) {
+        final StringBuilder buf = new StringBuilder();
+        for(Path name : root.relativize(p)) {
+            if(buf.length() > 0) {
+                buf.append('/');
+            }
+            buf.append(name.toString());
+        }
+        return buf.toString();
+    }
 }
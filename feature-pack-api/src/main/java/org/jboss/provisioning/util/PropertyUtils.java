@@ -20,6 +20,8 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Locale;
 
+import org.jboss.provisioning.ProvisioningException;
+
 /**
 *
 * @author Alexey Loubyansky
@@ -45,4 +47,29 @@ public class PropertyUtils {
            return System.getProperty(name);
        }
    }
+
+   /**
+    * Returns the number of threads configured with the system property
+    * or the number of the available processors if the property is not set.
+    *
+    * @param property  name of the system property
+    * @return  number of threads
+    * @throws ProvisioningException  in case the value is not a positive number
+    */
+   public static int getParallelism(String property) throws ProvisioningException {
+       final String value = getSystemProperty(property);
+       if(value == null) {
+           return Runtime.getRuntime().availableProcessors();
+       }
+       final int threads;
+       try {
+           threads = Integer.parseInt(value);
+       } catch(NumberFormatException e) {
+           throw new ProvisioningException("Failed to parse the value of " + property + ": " + value, e);
+       }
+       if(threads < 1) {
+           throw new ProvisioningException("The value of " + property + " must be a positive number: " + value);
+       }
+       return threads;
+   }
 }
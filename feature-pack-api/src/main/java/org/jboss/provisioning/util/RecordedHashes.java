@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.util;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Hashes recorded for the files of a directory, which can be used instead of
+ * reading the files that have not changed since the hashes were recorded.
+ */
+public interface RecordedHashes {
+
+    /**
+     * The algorithm the hashes were computed with.
+     *
+     * @return  hash algorithm
+     */
+    String getAlgorithm();
+
+    /**
+     * Checks whether the path is not a part of the content of the directory,
+     * e.g. because it is the record itself.
+     *
+     * @param path  path relative to the directory using '/' as the separator
+     * @return  true if the path is not a part of the content
+     */
+    boolean excludes(String path);
+
+    /**
+     * Returns the hash recorded for the file, provided the file appears to be
+     * unchanged since the hash was recorded.
+     *
+     * @param path  path relative to the directory using '/' as the separator
+     * @param attrs  current attributes of the file
+     * @return  the recorded hash or null if the file has to be hashed
+     */
+    byte[] getHash(String path, BasicFileAttributes attrs);
+}
@@ -40,28 +40,33 @@ public class ExtendedContentHandlerFactory implements FormatContentHandlerFactor
     private static final Class<?>[] CH_CTOR_ARGS = new Class[] {ParsingFormat.class, int.class};
 
     private final FormatContentHandlerFactory delegate;
-    private Map<String, Class<? extends FormatContentHandler>> chTypes = Collections.emptyMap();
+    private Map<String, Constructor<? extends FormatContentHandler>> chCtors = Collections.emptyMap();
 
     private ExtendedContentHandlerFactory(FormatContentHandlerFactory delegate) {
         this.delegate = delegate;
     }
 
     public ExtendedContentHandlerFactory addContentHandler(String formatName, Class<? extends FormatContentHandler> cls) {
-        chTypes = PmCollections.put(chTypes, formatName, cls);
+        final Constructor<? extends FormatContentHandler> ctor;
+        try {
+            ctor = cls.getConstructor(CH_CTOR_ARGS);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Content handler " + cls.getName() + " does not declare a public constructor accepting the format and the string index", e);
+        }
+        chCtors = PmCollections.put(chCtors, formatName, ctor);
         return this;
     }
 
     @Override
     public FormatContentHandler forFormat(ParsingFormat format, int strIndex) throws FormatParsingException {
-        final Class<? extends FormatContentHandler> chClass = chTypes.get(format.getContentType());
-        if(chClass == null) {
+        final Constructor<? extends FormatContentHandler> ctor = chCtors.get(format.getContentType());
+        if(ctor == null) {
             return delegate.forFormat(format, strIndex);
         }
         try {
-            final Constructor<? extends FormatContentHandler> ctor = chClass.getConstructor(CH_CTOR_ARGS);
             return ctor.newInstance(format, strIndex);
         } catch (Exception e) {
-            throw new FormatParsingException("Failed to instantiate content handler " + chClass.getName() + " for format " + format, e);
+            throw new FormatParsingException("Failed to instantiate content handler " + ctor.getDeclaringClass().getName() + " for format " + format, e);
         }
     }
 }
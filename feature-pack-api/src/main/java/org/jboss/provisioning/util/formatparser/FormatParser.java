@@ -32,14 +32,15 @@ import org.jboss.provisioning.util.formatparser.formats.expr.FormatExprTypeParam
  */
 public class FormatParser implements ParsingContext {
 
+    // the handlers of the format expressions, the factory is not modified once initialized
+    private static final FormatContentHandlerFactory FORMAT_EXPR_HANDLERS = ExtendedContentHandlerFactory.getInstance()
+            .addContentHandler(FormatExprParsingFormat.NAME, FormatExprContentHandler.class)
+            .addContentHandler(FormatExprTypeParamParsingFormat.NAME, FormatExprTypeParamContentHandler.class)
+            .addContentHandler(FormatExprParsingFormat.LIST_TYPE_FORMAT_NAME, FormatExprParsingFormat.ListTypeContentHandler.class)
+            .addContentHandler(FormatExprParsingFormat.COMPOSITE_TYPE_FORMAT_NAME, FormatExprParsingFormat.CompositeTypeContentHandler.class);
+
     public static ParsingFormat resolveFormat(String expr) throws FormatParsingException {
-        return (ParsingFormat) parse(
-                ExtendedContentHandlerFactory.getInstance()
-                .addContentHandler(FormatExprParsingFormat.NAME, FormatExprContentHandler.class)
-                .addContentHandler(FormatExprTypeParamParsingFormat.NAME, FormatExprTypeParamContentHandler.class)
-                .addContentHandler(FormatExprParsingFormat.LIST_TYPE_FORMAT_NAME, FormatExprParsingFormat.ListTypeContentHandler.class)
-                .addContentHandler(FormatExprParsingFormat.COMPOSITE_TYPE_FORMAT_NAME, FormatExprParsingFormat.CompositeTypeContentHandler.class),
-                FormatExprParsingFormat.getInstance(), expr);
+        return (ParsingFormat) parse(FORMAT_EXPR_HANDLERS, FormatExprParsingFormat.getInstance(), expr);
     }
 
     public static Object parse(String str) throws FormatParsingException {
@@ -17,18 +17,25 @@
 package org.jboss.provisioning.xml;
 
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.stream.Collectors;
 
+import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 
+import org.jboss.provisioning.diff.FileSystemDiffHandler;
 import org.jboss.provisioning.diff.FileSystemDiffResult;
 import org.jboss.provisioning.xml.FileSystemDiffResultParser.Element;
 import org.jboss.provisioning.xml.util.AttributeValue;
 import org.jboss.provisioning.xml.util.CDataNode;
 import org.jboss.provisioning.xml.util.ElementNode;
+import org.jboss.provisioning.xml.util.FormattingXmlStreamWriter;
 import org.jboss.provisioning.xml.util.TextNode;
 
 /**
@@ -43,6 +50,130 @@ public class FileSystemDiffResultWriter extends BaseXmlWriter<FileSystemDiffResu
         return INSTANCE;
     }
 
+    /**
+     * Writes the elements of the document as the changes are reported to it,
+     * i.e. without building the complete tree of the document in memory.
+     * Consecutive changes of the same kind are written into the same element.
+     */
+    public static class Stream implements FileSystemDiffHandler, AutoCloseable {
+
+        private final Writer out;
+        private final FormattingXmlStreamWriter writer;
+        private Element group;
+
+        private Stream(Path outputFile) throws IOException, XMLStreamException {
+            ensureParentDir(outputFile);
+            out = Files.newBufferedWriter(outputFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                writer = new FormattingXmlStreamWriter(XMLOutputFactory.newInstance().createXMLStreamWriter(out));
+                writer.writeStartDocument();
+                writer.setDefaultNamespace(Element.DIFF_RESULT.getNamespace());
+                writer.writeStartElement(Element.DIFF_RESULT.getLocalName());
+                writer.writeNamespace(null, Element.DIFF_RESULT.getNamespace());
+            } catch(XMLStreamException e) {
+                out.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void added(Path path) throws IOException {
+            writePath(Element.ADDED, path);
+        }
+
+        @Override
+        public void deleted(Path path) throws IOException {
+            writePath(Element.DELETED, path);
+        }
+
+        @Override
+        public void modifiedBinary(Path path) throws IOException {
+            writePath(Element.MODIFIED, path);
+        }
+
+        @Override
+        public void modified(Path path, List<String> unifiedDiff) throws IOException {
+            try {
+                switchGroup(Element.CHANGES);
+                writer.writeStartElement(Element.CHANGE.getNamespace(), Element.CHANGE.getLocalName());
+                writer.writeAttribute("path", path.toString());
+                writer.writeCData(toChangeContent(unifiedDiff));
+                writer.writeEndElement();
+            } catch(XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private void writePath(Element group, Path path) throws IOException {
+            try {
+                switchGroup(group);
+                writer.writeStartElement(Element.PATH.getNamespace(), Element.PATH.getLocalName());
+                writer.writeCharacters(path.toString());
+                writer.writeEndElement();
+            } catch(XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private void switchGroup(Element group) throws XMLStreamException {
+            if(this.group == group) {
+                return;
+            }
+            if(this.group != null) {
+                writer.writeEndElement();
+            }
+            writer.writeStartElement(group.getNamespace(), group.getLocalName());
+            this.group = group;
+        }
+
+        @Override
+        public void close() throws XMLStreamException, IOException {
+            try {
+                if(group != null) {
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+                writer.writeEndDocument();
+                writer.close();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Opens the output file for the changes to be written to it as they are reported.
+     *
+     * @param outputFile  output file
+     * @return  the stream which has to be closed once all the changes have been reported
+     * @throws IOException  in case the file could not be opened
+     * @throws XMLStreamException  in case the document could not be started
+     */
+    public Stream open(Path outputFile) throws IOException, XMLStreamException {
+        return new Stream(outputFile);
+    }
+
+    @Override
+    public void write(FileSystemDiffResult result, Path outputFile) throws XMLStreamException, IOException {
+        try(Stream stream = open(outputFile)) {
+            for(Path addedFile : result.getAddedFiles()) {
+                stream.added(addedFile);
+            }
+            for(Path deletedFile : result.getDeletedFiles()) {
+                stream.deleted(deletedFile);
+            }
+            if(!result.getUnifiedDiffs().isEmpty()) {
+                for(Entry<Path, List<String>> change : result.getUnifiedDiffs().entrySet()) {
+                    stream.modified(change.getKey(), change.getValue());
+                }
+                stream.switchGroup(Element.MODIFIED);
+                for(Path modifiedFile : result.getModifiedBinaryFiles()) {
+                    stream.modifiedBinary(modifiedFile);
+                }
+            }
+        }
+    }
+
     @Override
     protected ElementNode toElement(FileSystemDiffResult result) throws XMLStreamException {
         ElementNode root = addElement(null, Element.DIFF_RESULT);
@@ -74,7 +205,11 @@ public class FileSystemDiffResultWriter extends BaseXmlWriter<FileSystemDiffResu
     }
 
     private CDataNode addChangeContent(List<String> diff ) {
-        return new CDataNode(diff.stream().collect(Collectors.joining(System.lineSeparator(), System.lineSeparator(), System.lineSeparator())));
+        return new CDataNode(toChangeContent(diff));
+    }
+
+    private static String toChangeContent(List<String> diff) {
+        return diff.stream().collect(Collectors.joining(System.lineSeparator(), System.lineSeparator(), System.lineSeparator()));
     }
 
 }
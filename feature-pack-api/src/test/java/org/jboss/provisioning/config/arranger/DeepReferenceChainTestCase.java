@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.config.arranger;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.ConfigModel;
+import org.jboss.provisioning.config.FeatureConfig;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.runtime.ResolvedFeatureId;
+import org.jboss.provisioning.spec.FeatureParameterSpec;
+import org.jboss.provisioning.spec.FeatureReferenceSpec;
+import org.jboss.provisioning.spec.FeatureSpec;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.xml.ProvisionedConfigBuilder;
+import org.jboss.provisioning.xml.ProvisionedFeatureBuilder;
+
+/**
+ * Every feature references the one added to the config right after it,
+ * i.e. ordering the first feature walks the whole chain of references.
+ */
+public class DeepReferenceChainTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+
+    private static final int CHAIN_LENGTH = 5000;
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        final ConfigModel.Builder config = ConfigModel.builder();
+        for(int i = CHAIN_LENGTH - 1; i >= 0; --i) {
+            final FeatureConfig feature = new FeatureConfig("specA").setParam("a", String.valueOf(i));
+            if(i > 0) {
+                feature.setParam("prev", String.valueOf(i - 1));
+            }
+            config.addFeature(feature);
+        }
+        repoManager.installer()
+        .newFeaturePack(FP1_GAV)
+            .addSpec(FeatureSpec.builder("specA")
+                    .addFeatureRef(FeatureReferenceSpec.builder("specA").setName("prev").setNillable(true).mapParam("prev", "a").build())
+                    .addParam(FeatureParameterSpec.createId("a"))
+                    .addParam(FeatureParameterSpec.create("prev", true))
+                    .build())
+            .addConfig(config.build())
+            .getInstaller()
+        .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() {
+        return FeaturePackConfig.forGav(FP1_GAV);
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        final ProvisionedConfigBuilder config = ProvisionedConfigBuilder.builder();
+        for(int i = 0; i < CHAIN_LENGTH; ++i) {
+            final ProvisionedFeatureBuilder feature = ProvisionedFeatureBuilder.builder(ResolvedFeatureId.create(FP1_GAV, "specA", "a", String.valueOf(i)));
+            if(i > 0) {
+                feature.setConfigParam("prev", String.valueOf(i - 1));
+            }
+            config.addFeature(feature.build());
+        }
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.forGav(FP1_GAV))
+                .addConfig(config.build())
+                .build();
+    }
+}
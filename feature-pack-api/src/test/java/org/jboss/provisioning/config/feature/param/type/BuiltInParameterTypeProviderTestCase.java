@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.config.feature.param.type;
+
+import java.util.Arrays;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.type.FeatureParameterType;
+import org.jboss.provisioning.type.ParameterTypeNotFoundException;
+import org.jboss.provisioning.type.builtin.BuiltInParameterTypeProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BuiltInParameterTypeProviderTestCase {
+
+    private static final ArtifactCoords.Ga FP1_GA = ArtifactCoords.newGa("org.jboss.pm.test", "fp1");
+    private static final ArtifactCoords.Ga FP2_GA = ArtifactCoords.newGa("org.jboss.pm.test", "fp2");
+
+    @Test
+    public void testResolvedTypesAreShared() throws Exception {
+        final BuiltInParameterTypeProvider provider = BuiltInParameterTypeProvider.getInstance();
+        final FeatureParameterType type = provider.getType(FP1_GA, "List<String>");
+        Assert.assertSame(type, provider.getType(FP1_GA, "List<String>"));
+        Assert.assertSame(type, provider.getType(FP2_GA, "List<String>"));
+        Assert.assertEquals(Arrays.asList("a", "b"), type.fromString("[a,b]"));
+        Assert.assertEquals(Arrays.asList("c"), provider.getType(FP2_GA, "List<String>").fromString("[c]"));
+    }
+
+    @Test
+    public void testUnresolvedTypeIsNotCached() throws Exception {
+        final BuiltInParameterTypeProvider provider = BuiltInParameterTypeProvider.getInstance();
+        for(int i = 0; i < 2; ++i) {
+            try {
+                provider.getType(FP1_GA, "List<");
+                Assert.fail("The type should not have been resolved");
+            } catch(ParameterTypeNotFoundException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTypesAreEvicted() throws Exception {
+        final BuiltInParameterTypeProvider provider = BuiltInParameterTypeProvider.getInstance();
+        final FeatureParameterType used = provider.getType(FP1_GA, "List<Map<String,String>>");
+        final FeatureParameterType unused = provider.getType(FP1_GA, "Map<String,List<String>>");
+        final StringBuilder buf = new StringBuilder("List<");
+        for(int i = 0; i < 2048; ++i) {
+            buf.append(' ');
+            Assert.assertEquals(Arrays.asList("a"), provider.getType(FP1_GA, buf + "String>").fromString("[a]"));
+            Assert.assertSame(used, provider.getType(FP2_GA, "List<Map<String,String>>"));
+        }
+        Assert.assertNotSame(unused, provider.getType(FP1_GA, "Map<String,List<String>>"));
+    }
+}
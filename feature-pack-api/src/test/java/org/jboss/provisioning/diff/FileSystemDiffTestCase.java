@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.diff;
+
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.DefaultMessageWriter;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.PathFilter;
+import org.jboss.provisioning.xml.FileSystemDiffResultParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileSystemDiffTestCase {
+
+    private Path staged;
+    private Path customized;
+    private Path target;
+
+    @Before
+    public void before() throws Exception {
+        staged = TestUtils.mkRandomTmpDir();
+        customized = TestUtils.mkRandomTmpDir();
+        target = TestUtils.mkRandomTmpDir();
+
+        Files.createDirectories(staged.resolve("a/b"));
+        Files.createDirectories(staged.resolve("a-b"));
+        Files.createDirectories(staged.resolve("empty"));
+        IoUtils.writeFile(staged.resolve("a/b/same.txt"), "same");
+        IoUtils.writeFile(staged.resolve("a/b/modified.txt"), "line1\nline2\n");
+        IoUtils.writeFile(staged.resolve("a/deleted.txt"), "deleted");
+        IoUtils.writeFile(staged.resolve("a-b/large.txt"), "large text file");
+
+        Files.createDirectories(customized.resolve("a/b"));
+        Files.createDirectories(customized.resolve("a-b"));
+        Files.createDirectories(customized.resolve("empty"));
+        IoUtils.writeFile(customized.resolve("a/b/same.txt"), "same");
+        IoUtils.writeFile(customized.resolve("a/b/modified.txt"), "line1\nline3\n");
+        IoUtils.writeFile(customized.resolve("a/added.txt"), "added");
+        IoUtils.writeFile(customized.resolve("a-b/large.txt"), "larger text file");
+        IoUtils.writeFile(customized.resolve("empty/added.txt"), "added to the empty dir");
+    }
+
+    @After
+    public void after() throws Exception {
+        System.clearProperty(Constants.PROP_DIFF_MAX_TEXT_SIZE);
+        IoUtils.recursiveDelete(staged);
+        IoUtils.recursiveDelete(customized);
+        IoUtils.recursiveDelete(target);
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        final FileSystemDiffResult result = new FileSystemDiff(DefaultMessageWriter.getDefaultInstance(), staged, customized).diff();
+        Assert.assertEquals(new HashSet<>(Arrays.asList(Paths.get("a/added.txt"), Paths.get("empty/added.txt"))), result.getAddedFiles());
+        Assert.assertEquals(Collections.singleton(Paths.get("a/deleted.txt")), result.getDeletedFiles());
+        Assert.assertTrue(result.getModifiedBinaryFiles().isEmpty());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(Paths.get("a/b/modified.txt"), Paths.get("a-b/large.txt"))), result.getUnifiedDiffs().keySet());
+    }
+
+    @Test
+    public void testFilesLargerThanTheThresholdAreBinary() throws Exception {
+        System.setProperty(Constants.PROP_DIFF_MAX_TEXT_SIZE, "15");
+        final FileSystemDiffResult result = new FileSystemDiff(DefaultMessageWriter.getDefaultInstance(), staged, customized).diff();
+        Assert.assertEquals(Collections.singleton(Paths.get("a-b/large.txt")), result.getModifiedBinaryFiles());
+        Assert.assertEquals(Collections.singleton(Paths.get("a/b/modified.txt")), result.getUnifiedDiffs().keySet());
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        System.setProperty(Constants.PROP_DIFF_MAX_TEXT_SIZE, "15");
+        new FileSystemDiff(DefaultMessageWriter.getDefaultInstance(), staged, customized).export(PathFilter.DEFAULT, target);
+
+        final FileSystemDiffResult result;
+        try(Reader reader = Files.newBufferedReader(target.resolve("filesystem_changes.xml"))) {
+            result = FileSystemDiffResultParser.getInstance().parse(reader);
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(Paths.get("a/added.txt"), Paths.get("empty/added.txt"))), result.getAddedFiles());
+        Assert.assertEquals(Collections.singleton(Paths.get("a/deleted.txt")), result.getDeletedFiles());
+        Assert.assertEquals(Collections.singleton(Paths.get("a-b/large.txt")), result.getModifiedBinaryFiles());
+        Assert.assertEquals(Collections.singleton(Paths.get("a/b/modified.txt")), result.getUnifiedDiffs().keySet());
+
+        Assert.assertEquals("added", TestUtils.read(target.resolve("added_files/a/added.txt")));
+        Assert.assertEquals("larger text file", TestUtils.read(target.resolve("modified_files/a-b/large.txt")));
+    }
+}
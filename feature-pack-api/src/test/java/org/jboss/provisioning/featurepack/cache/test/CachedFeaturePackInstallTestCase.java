@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.cache.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.Assert;
+
+public class CachedFeaturePackInstallTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP1_100_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final Gav FP1_101_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.1.Final");
+
+    private Path cacheDir;
+
+    @Override
+    protected void doBefore() throws Exception {
+        cacheDir = TestUtils.mkRandomTmpDir();
+        System.setProperty(Constants.PROP_FP_CACHE_DIR, cacheDir.toString());
+        super.doBefore();
+        setReplacedInstalled(true);
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        System.clearProperty(Constants.PROP_FP_CACHE_DIR);
+        IoUtils.recursiveDelete(cacheDir);
+        super.doAfter();
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_100_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "fp1 1.0.0.Final p1")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP1_101_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "fp1 1.0.1.Final p1")
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected ProvisioningConfig initialState() throws ProvisioningException {
+        return ProvisioningConfig.builder()
+                .addFeaturePackDep(FeaturePackConfig.forGav(FP1_100_GAV))
+                .build();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP1_101_GAV);
+    }
+
+    @Override
+    protected void pmSuccess() {
+        // both versions remain cached after the provisioning is done
+        try (Stream<Path> stream = Files.list(cacheDir)) {
+            Assert.assertEquals(2, stream.filter(p -> Files.exists(p.resolve("layout").resolve(Constants.FEATURE_PACK_XML))).count());
+        } catch (Exception e) {
+            Assert.fail(e.getLocalizedMessage());
+        }
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_101_GAV)
+                        .addPackage("p1")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir() {
+        return newDirBuilder()
+                .addFile("fp1/p1.txt", "fp1 1.0.1.Final p1")
+                .build();
+    }
+}
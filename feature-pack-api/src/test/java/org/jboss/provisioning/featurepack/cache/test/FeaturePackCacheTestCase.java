@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.cache.test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.layout.FeaturePackCache;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.test.FeaturePackRepoTestBase;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FeaturePackCacheTestCase extends FeaturePackRepoTestBase {
+
+    private static final Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final Gav FP2_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp2", "1.0.0.Final");
+    private static final Gav FP3_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp3", "1.0.0.Final");
+
+    private Path cacheDir;
+
+    @Override
+    protected void doBefore() throws Exception {
+        cacheDir = TestUtils.mkRandomTmpDir();
+        getRepoManager().installer()
+            .newFeaturePack(FP1_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "fp1 p1")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP2_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp2/p1.txt", "fp2 p1")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP3_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp3/p1.txt", "fp3 p1")
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        IoUtils.recursiveDelete(cacheDir);
+    }
+
+    @Test
+    public void testEntryIsReused() throws Exception {
+        final FeaturePackRepositoryManager repo = getRepoManager();
+        final FeaturePackCache cache = FeaturePackCache.newInstance(cacheDir, FeaturePackCache.DEFAULT_MAX_SIZE);
+        final Path fpZip = repo.resolve(FP1_GAV.toArtifactCoords());
+        try (FeaturePackCache.Entry first = cache.acquire(fpZip)) {
+            Assert.assertTrue(Files.exists(first.getLayoutDir().resolve(Constants.FEATURE_PACK_XML)));
+            final Path fpXml = first.getLayoutDir().resolve(Constants.FEATURE_PACK_XML);
+            final long lastModified = Files.getLastModifiedTime(fpXml).toMillis();
+            try (FeaturePackCache.Entry second = cache.acquire(fpZip)) {
+                Assert.assertEquals(first.getHash(), second.getHash());
+                Assert.assertEquals(first.getLayoutDir(), second.getLayoutDir());
+                Assert.assertEquals(lastModified, Files.getLastModifiedTime(fpXml).toMillis());
+            }
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        final FeaturePackRepositoryManager repo = getRepoManager();
+        // big enough for a single entry only
+        final FeaturePackCache cache = FeaturePackCache.newInstance(cacheDir, 1);
+
+        final FeaturePackCache.Entry fp1 = cache.acquire(repo.resolve(FP1_GAV.toArtifactCoords()));
+        final FeaturePackCache.Entry fp2 = cache.acquire(repo.resolve(FP2_GAV.toArtifactCoords()));
+        // the entries in use are never evicted
+        Assert.assertTrue(Files.exists(fp1.getLayoutDir()));
+        Assert.assertTrue(Files.exists(fp2.getLayoutDir()));
+
+        fp1.close();
+        cache.evict();
+        Assert.assertFalse(Files.exists(fp1.getLayoutDir()));
+        Assert.assertTrue(Files.exists(fp2.getLayoutDir()));
+        fp2.close();
+
+        try (FeaturePackCache.Entry fp3 = cache.acquire(repo.resolve(FP3_GAV.toArtifactCoords()))) {
+            Assert.assertFalse(Files.exists(fp2.getLayoutDir()));
+            Assert.assertTrue(Files.exists(fp3.getLayoutDir()));
+        }
+    }
+}
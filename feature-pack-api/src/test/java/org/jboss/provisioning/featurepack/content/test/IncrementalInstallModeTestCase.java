@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.content.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.jboss.provisioning.util.PathsUtils;
+import org.junit.Assert;
+
+/**
+ * Replaces an installed feature-pack applying only the changed files.
+ */
+public class IncrementalInstallModeTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP1_100_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final Gav FP1_101_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.1.Final");
+
+    private Object unchangedFileKey;
+
+    @Override
+    protected void doBefore() throws Exception {
+        System.setProperty(Constants.PROP_INSTALL_MODE, Constants.INSTALL_MODE_INCREMENTAL);
+        super.doBefore();
+        setReplacedInstalled(true);
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        System.clearProperty(Constants.PROP_INSTALL_MODE);
+        super.doAfter();
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_100_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "fp1 1.0.0.Final p1")
+                    .getFeaturePack()
+                .newPackage("p2", true)
+                    .writeContent("fp1/p2.txt", "fp1 p2")
+                    .getFeaturePack()
+                .newPackage("p3", true)
+                    .writeContent("fp1/p3/p3.txt", "fp1 p3")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP1_101_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "fp1 1.0.1.Final p1")
+                    .getFeaturePack()
+                .newPackage("p2", true)
+                    .writeContent("fp1/p2.txt", "fp1 p2")
+                    .getFeaturePack()
+                .newPackage("p4", true)
+                    .writeContent("fp1/p4/p4.txt", "fp1 p4")
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected ProvisioningConfig initialState() throws ProvisioningException {
+        return ProvisioningConfig.builder()
+                .addFeaturePackDep(FeaturePackConfig.forGav(FP1_100_GAV))
+                .build();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP1_101_GAV);
+    }
+
+    @Override
+    protected void testPm(ProvisioningManager pm) throws ProvisioningException {
+        Assert.assertTrue(Files.exists(PathsUtils.getInstallationManifest(installHome)));
+        unchangedFileKey = fileKey(installHome.resolve("fp1/p2.txt"));
+        super.testPm(pm);
+    }
+
+    @Override
+    protected void pmSuccess() {
+        Assert.assertEquals(unchangedFileKey, fileKey(installHome.resolve("fp1/p2.txt")));
+        Assert.assertFalse(Files.exists(PathsUtils.getInstallationJournalDir(installHome)));
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningDescriptionException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_101_GAV)
+                        .addPackage("p1")
+                        .addPackage("p2")
+                        .addPackage("p4")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir() {
+        return newDirBuilder()
+                .addFile("fp1/p1.txt", "fp1 1.0.1.Final p1")
+                .addFile("fp1/p2.txt", "fp1 p2")
+                .addFile("fp1/p4/p4.txt", "fp1 p4")
+                .build();
+    }
+
+    private static Object fileKey(Path p) {
+        try {
+            return Files.readAttributes(p, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.content.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.DefaultMessageWriter;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.diff.FileSystemDiff;
+import org.jboss.provisioning.diff.FileSystemDiffResult;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.state.InstallationManifest;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.PathsUtils;
+import org.junit.Assert;
+
+/**
+ * The manifest of the installation recorded at provisioning time and used
+ * to compute the diff of the customized installation.
+ */
+public class InstallationManifestTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_GAV)
+                .newPackage("p1", true)
+                    .writeContent("fp1/p1.txt", "fp1 p1")
+                    .getFeaturePack()
+                .newPackage("p2", true)
+                    .writeContent("fp1/p2.txt", "fp1 p2")
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP1_GAV);
+    }
+
+    @Override
+    protected void pmSuccess() {
+        try {
+            assertManifest();
+            assertDiff();
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void assertManifest() throws IOException {
+        final InstallationManifest manifest = InstallationManifest.read(PathsUtils.getInstallationManifest(installHome));
+        Assert.assertNotNull(manifest);
+
+        final InstallationManifest.Entry p1 = manifest.getEntry("fp1/p1.txt");
+        Assert.assertEquals(FP1_GAV, p1.getOrigin().getFeaturePack());
+        Assert.assertEquals("p1", p1.getOrigin().getPackage());
+        Assert.assertTrue(p1.isUnchanged(Files.readAttributes(installHome.resolve("fp1/p1.txt"), BasicFileAttributes.class)));
+
+        Assert.assertTrue(manifest.getEntry("fp1").isDir());
+        Assert.assertNull(manifest.getEntry(".pm/provisioned.xml").getOrigin());
+        Assert.assertNull(manifest.getEntry(".pm/manifest"));
+    }
+
+    private void assertDiff() throws IOException {
+        final Path customized = TestUtils.mkRandomTmpDir();
+        try {
+            IoUtils.copy(installHome, customized);
+            Files.write(customized.resolve("fp1/p2.txt"), Collections.singletonList("customized p2"));
+            final FileSystemDiffResult diff = new FileSystemDiff(DefaultMessageWriter.getDefaultInstance(), installHome, customized).diff();
+            Assert.assertTrue(diff.getAddedFiles().isEmpty());
+            Assert.assertTrue(diff.getDeletedFiles().isEmpty());
+            Assert.assertEquals(Collections.singleton(Paths.get("fp1", "p2.txt")), diff.getUnifiedDiffs().keySet());
+        } finally {
+            IoUtils.recursiveDelete(customized);
+        }
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_GAV)
+                        .addPackage("p1")
+                        .addPackage("p2")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir() {
+        return newDirBuilder()
+                .addFile("fp1/p1.txt", "fp1 p1")
+                .addFile("fp1/p2.txt", "fp1 p2")
+                .build();
+    }
+}
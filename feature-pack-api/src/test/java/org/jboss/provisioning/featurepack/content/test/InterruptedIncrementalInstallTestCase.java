@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.content.test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.jboss.provisioning.DefaultMessageWriter;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.state.InstallationManifest;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.jboss.provisioning.util.PathsUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Recovery of an installation which was interrupted while the changes
+ * were applied incrementally.
+ */
+public class InterruptedIncrementalInstallTestCase {
+
+    private Path installHome;
+    private Path journalDir;
+
+    @Before
+    public void before() throws Exception {
+        installHome = TestUtils.mkRandomTmpDir();
+        write(installHome.resolve("a.txt"), "old a");
+        write(installHome.resolve("b.txt"), "old b");
+        journalDir = PathsUtils.getInstallationJournalDir(installHome);
+        write(journalDir.resolve("new").resolve("a.txt"), "new a");
+        write(journalDir.resolve("new").resolve("c").resolve("c.txt"), "new c");
+        Files.write(journalDir.resolve("ops"), Arrays.asList("D b.txt", "M c", "P a.txt", "P c/c.txt"), StandardCharsets.UTF_8);
+        InstallationManifest.build(installHome).write(journalDir.resolve("manifest"));
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        IoUtils.writeFile(file, content);
+    }
+
+    @After
+    public void after() throws Exception {
+        IoUtils.recursiveDelete(installHome);
+    }
+
+    @Test
+    public void testCommittedChangesAreRolledForward() throws Exception {
+        Files.createFile(journalDir.resolve("committed"));
+        ProvisioningRuntime.recover(installHome, DefaultMessageWriter.getDefaultInstance());
+        Assert.assertFalse(Files.exists(journalDir));
+        Assert.assertEquals("new a", TestUtils.read(installHome.resolve("a.txt")));
+        Assert.assertFalse(Files.exists(installHome.resolve("b.txt")));
+        Assert.assertEquals("new c", TestUtils.read(installHome.resolve("c").resolve("c.txt")));
+        Assert.assertNotNull(InstallationManifest.read(PathsUtils.getInstallationManifest(installHome)));
+    }
+
+    @Test
+    public void testFailedChangesAreRolledBack() throws Exception {
+        write(installHome.resolve("e.txt"), "old e");
+        write(journalDir.resolve("new").resolve("d").resolve("d.txt"), "new d");
+        // the directory of d.txt is missing, so moving it fails after a.txt and b.txt have been changed
+        Files.write(journalDir.resolve("ops"), Arrays.asList("D b.txt", "P a.txt", "P d/d.txt", "D e.txt"), StandardCharsets.UTF_8);
+        Files.createFile(journalDir.resolve("committed"));
+        try {
+            ProvisioningRuntime.recover(installHome, DefaultMessageWriter.getDefaultInstance());
+            Assert.fail("The changes could not be applied");
+        } catch(ProvisioningException e) {
+            // expected
+        }
+        Assert.assertFalse(Files.exists(journalDir));
+        Assert.assertEquals("old a", TestUtils.read(installHome.resolve("a.txt")));
+        Assert.assertEquals("old b", TestUtils.read(installHome.resolve("b.txt")));
+        Assert.assertEquals("old e", TestUtils.read(installHome.resolve("e.txt")));
+        Assert.assertFalse(Files.exists(installHome.resolve("d")));
+    }
+
+    @Test
+    public void testInterruptedAfterManifestWasMoved() throws Exception {
+        Files.createFile(journalDir.resolve("committed"));
+        // everything has been applied except the journal cleanup
+        write(journalDir.resolve("backup").resolve("a.txt"), "old a");
+        Files.move(installHome.resolve("b.txt"), journalDir.resolve("backup").resolve("b.txt"));
+        Files.move(journalDir.resolve("new").resolve("a.txt"), installHome.resolve("a.txt"), StandardCopyOption.REPLACE_EXISTING);
+        Files.createDirectories(installHome.resolve("c"));
+        Files.move(journalDir.resolve("new").resolve("c").resolve("c.txt"), installHome.resolve("c").resolve("c.txt"));
+        Files.move(journalDir.resolve("manifest"), PathsUtils.getInstallationManifest(installHome));
+
+        ProvisioningRuntime.recover(installHome, DefaultMessageWriter.getDefaultInstance());
+        Assert.assertFalse(Files.exists(journalDir));
+        Assert.assertEquals("new a", TestUtils.read(installHome.resolve("a.txt")));
+        Assert.assertFalse(Files.exists(installHome.resolve("b.txt")));
+        Assert.assertEquals("new c", TestUtils.read(installHome.resolve("c").resolve("c.txt")));
+        Assert.assertNotNull(InstallationManifest.read(PathsUtils.getInstallationManifest(installHome)));
+    }
+
+    @Test
+    public void testUncommittedChangesAreDiscarded() throws Exception {
+        ProvisioningRuntime.recover(installHome, DefaultMessageWriter.getDefaultInstance());
+        Assert.assertFalse(Files.exists(journalDir));
+        Assert.assertEquals("old a", TestUtils.read(installHome.resolve("a.txt")));
+        Assert.assertEquals("old b", TestUtils.read(installHome.resolve("b.txt")));
+        Assert.assertFalse(Files.exists(installHome.resolve("c")));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.content.test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.runtime.FeaturePackRuntime;
+import org.jboss.provisioning.runtime.PackageRuntime;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.runtime.ProvisioningRuntimeBuilder;
+import org.jboss.provisioning.spec.PackageDependencySpec;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedPackage;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Replaces an installed feature-pack with the package content linked from the
+ * layout and the staged directory renamed to the installation directory.
+ */
+public class LinkInstallModeTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP1_100_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final Gav FP1_101_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.1.Final");
+
+    @Override
+    protected void doBefore() throws Exception {
+        System.setProperty(Constants.PROP_INSTALL_MODE, Constants.INSTALL_MODE_LINK);
+        super.doBefore();
+        setReplacedInstalled(true);
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        System.clearProperty(Constants.PROP_INSTALL_MODE);
+        super.doAfter();
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_100_GAV)
+                .newPackage("p1", true)
+                    .addDependency(PackageDependencySpec.forPackage("p2", true))
+                    .writeContent("fp1/p1.txt", "fp1 1.0.0.Final p1")
+                    .getFeaturePack()
+                .newPackage("p2")
+                    .writeContent("fp1/p2.txt", "fp1 1.0.0.Final p2")
+                    .getFeaturePack()
+                .newPackage("p3")
+                    .writeContent("fp1/p3.txt", "fp1 1.0.0.Final p3")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP1_101_GAV)
+                .newPackage("p1", true)
+                    .addDependency(PackageDependencySpec.forPackage("p2", true))
+                    .writeContent("fp1/p1.txt", "fp1 1.0.1.Final p1")
+                    .getFeaturePack()
+                .newPackage("p2")
+                    .writeContent("fp1/p2.txt", "fp1 1.0.1.Final p2")
+                    .getFeaturePack()
+                .newPackage("p3")
+                    .writeContent("fp1/p3.txt", "fp1 1.0.1.Final p3")
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected ProvisioningConfig initialState() throws ProvisioningException {
+        return ProvisioningConfig.builder()
+                .addFeaturePackDep(FeaturePackConfig.forGav(FP1_100_GAV))
+                .build();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP1_101_GAV);
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningDescriptionException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_101_GAV)
+                        .addPackage(ProvisionedPackage.newInstance("p1"))
+                        .addPackage(ProvisionedPackage.newInstance("p2"))
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir() {
+        return newDirBuilder()
+                .addFile("fp1/p1.txt", "fp1 1.0.1.Final p1")
+                .addFile("fp1/p2.txt", "fp1 1.0.1.Final p2")
+                .build();
+    }
+
+    @Test
+    public void testContentIsLinkedAndStagedDirRenamed() throws Exception {
+        try (ProvisioningRuntime rt = ProvisioningRuntimeBuilder.newInstance()
+                .setArtifactResolver(getRepoManager())
+                .setConfig(provisionedConfig())
+                .setEncoding("UTF-8")
+                .setInstallDir(installHome)
+                .build()) {
+            final Path stagedDir = rt.getStagedDir();
+            Files.createDirectories(stagedDir);
+            final Object stagedKey = fileKey(stagedDir);
+            Assume.assumeNotNull(stagedKey);
+
+            ProvisioningRuntime.install(rt);
+
+            Assert.assertFalse(Files.exists(stagedDir));
+            Assert.assertEquals(stagedKey, fileKey(installHome));
+
+            final FeaturePackRuntime fp = rt.getFeaturePack(FP1_101_GAV.toGa());
+            for(String pkgName : new String[] {"p1", "p2"}) {
+                final PackageRuntime pkg = fp.getPackage(pkgName);
+                final Path layoutFile = pkg.getContentDir().resolve("fp1").resolve(pkgName + ".txt");
+                final Path installedFile = installHome.resolve("fp1").resolve(pkgName + ".txt");
+                Assert.assertEquals(fileKey(layoutFile), fileKey(installedFile));
+                Assert.assertTrue(Files.isSameFile(layoutFile, installedFile));
+                if(Files.getFileStore(installedFile).supportsFileAttributeView("unix")) {
+                    Assert.assertTrue(((Integer) Files.getAttribute(installedFile, "unix:nlink")) > 1);
+                }
+            }
+        }
+    }
+
+    private static Object fileKey(Path p) throws IOException {
+        return Files.readAttributes(p, BasicFileAttributes.class).fileKey();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.content.test;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+
+/**
+ * Package content installed by several threads, the content installed later
+ * overrides the content installed earlier.
+ */
+public class ParallelContentOverrideTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final Gav FP2_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp2", "2.0.0.Final");
+
+    @Override
+    protected void doBefore() throws Exception {
+        System.setProperty(Constants.PROP_INSTALL_THREADS, "4");
+        super.doBefore();
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        System.clearProperty(Constants.PROP_INSTALL_THREADS);
+        super.doAfter();
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_GAV)
+                .addDependency(FP2_GAV)
+                .newPackage("p1", true)
+                    .addDependency("p2")
+                    .writeContent("a.txt", "fp1 p1")
+                    .writeContent("dir/b.txt", "fp1 p1")
+                    .writeContent("dir/c.txt", "fp1 p1")
+                    .getFeaturePack()
+                .newPackage("p2")
+                    .writeContent("dir/c.txt", "fp1 p2")
+                    .writeContent("dir/sub/d.txt", "fp1 p2")
+                    .getFeaturePack()
+                .getInstaller()
+            .newFeaturePack(FP2_GAV)
+                .newPackage("p1", true)
+                    .writeContent("a.txt", "fp2 p1")
+                    .writeContent("dir/b.txt", "fp2 p1")
+                    .writeContent("dir/e.txt", "fp2 p1")
+                    .writeContent("f.txt", "fp2 p1")
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP1_GAV);
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP2_GAV)
+                        .addPackage("p1")
+                        .build())
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_GAV)
+                        .addPackage("p2")
+                        .addPackage("p1")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir() {
+        return newDirBuilder()
+                .addFile("a.txt", "fp1 p1")
+                .addFile("dir/b.txt", "fp1 p1")
+                .addFile("dir/c.txt", "fp1 p1")
+                .addFile("dir/sub/d.txt", "fp1 p2")
+                .addFile("dir/e.txt", "fp2 p1")
+                .addFile("f.txt", "fp2 p1")
+                .build();
+    }
+}
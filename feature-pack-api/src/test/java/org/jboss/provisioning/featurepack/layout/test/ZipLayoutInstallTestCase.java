@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.layout.test;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.plugin.InstallPlugin;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.runtime.FeaturePackRuntime;
+import org.jboss.provisioning.runtime.PackageRuntime;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+import org.jboss.provisioning.test.util.fs.state.DirState;
+
+/**
+ * Installs a feature-pack which is read directly from its archive.
+ */
+public class ZipLayoutInstallTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+
+    public static class ResourcesCopyingPlugin implements InstallPlugin {
+        @Override
+        public void postInstall(ProvisioningRuntime runtime) throws ProvisioningException {
+            final FeaturePackRuntime fp = runtime.getFeaturePack(FP1_GAV.toGa());
+            // the resources are extracted, the package content is not
+            copy(fp.getResource("res.txt"), runtime.getStagedDir().resolve("res.txt"));
+            for(PackageRuntime pkg : fp.getPackages()) {
+                if(pkg.getContentDir().getFileSystem() == FileSystems.getDefault()) {
+                    throw new ProvisioningException("Package content has been extracted");
+                }
+                copy(pkg.getResource("pm", pkg.getName() + ".txt"), runtime.getStagedDir().resolve(pkg.getName() + ".pm"));
+            }
+        }
+
+        private static void copy(Path src, Path target) throws ProvisioningException {
+            if(src.getFileSystem() != FileSystems.getDefault()) {
+                throw new ProvisioningException(src + " has not been extracted");
+            }
+            try {
+                Files.copy(src, target);
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to copy " + src, e);
+            }
+        }
+    }
+
+    @Override
+    protected void doBefore() throws Exception {
+        System.setProperty(Constants.PROP_FP_LAYOUT, Constants.FP_LAYOUT_ZIP);
+        super.doBefore();
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        System.clearProperty(Constants.PROP_FP_LAYOUT);
+        super.doAfter();
+    }
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        repoManager.installer()
+            .newFeaturePack(FP1_GAV)
+                .newPackage("p1", true)
+                    .addDependency("p2")
+                    .writeContent("fp1/p1.txt", "p1")
+                    .writeContent("pm/p1.txt", "p1 pm", false)
+                    .getFeaturePack()
+                .newPackage("p2")
+                    .writeContent("fp1/p2/p2.txt", "p2")
+                    .writeContent("pm/p2.txt", "p2 pm", false)
+                    .getFeaturePack()
+                .newPackage("p3")
+                    .writeContent("fp1/p3.txt", "p3")
+                    .getFeaturePack()
+                .writeResources("res.txt", "fp1 resource")
+                .addPlugin(ResourcesCopyingPlugin.class)
+                .getInstaller()
+            .install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() throws ProvisioningDescriptionException {
+        return FeaturePackConfig.forGav(FP1_GAV);
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        return ProvisionedState.builder()
+                .addFeaturePack(ProvisionedFeaturePack.builder(FP1_GAV)
+                        .addPackage("p1")
+                        .addPackage("p2")
+                        .build())
+                .build();
+    }
+
+    @Override
+    protected DirState provisionedHomeDir() {
+        return newDirBuilder()
+                .addFile("fp1/p1.txt", "p1")
+                .addFile("fp1/p2/p2.txt", "p2")
+                .addFile("p1.pm", "p1 pm")
+                .addFile("p2.pm", "p2 pm")
+                .addFile("res.txt", "fp1 resource")
+                .build();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.featurepack.pkg.test;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.ProvisioningDescriptionException;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.repomanager.FeaturePackBuilder;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.state.ProvisionedFeaturePack;
+import org.jboss.provisioning.state.ProvisionedState;
+import org.jboss.provisioning.test.PmInstallFeaturePackTestBase;
+
+/**
+ * The only default package depends on the rest of the packages through a chain
+ * of dependencies.
+ */
+public class DeepPackageDependencyChainTestCase extends PmInstallFeaturePackTestBase {
+
+    private static final Gav FP_GAV = ArtifactCoords.newGav("org.pm.test", "fp-install", "1.0.0.Beta1");
+
+    private static final int CHAIN_LENGTH = 3000;
+
+    @Override
+    protected void setupRepo(FeaturePackRepositoryManager repoManager) throws ProvisioningDescriptionException {
+        final FeaturePackBuilder fp = repoManager.installer().newFeaturePack(FP_GAV);
+        for(int i = 0; i < CHAIN_LENGTH; ++i) {
+            if(i + 1 < CHAIN_LENGTH) {
+                fp.newPackage("p" + i, i == 0).addDependency("p" + (i + 1));
+            } else {
+                fp.newPackage("p" + i);
+            }
+        }
+        fp.getInstaller().install();
+    }
+
+    @Override
+    protected FeaturePackConfig featurePackConfig() {
+        return FeaturePackConfig.forGav(FP_GAV);
+    }
+
+    @Override
+    protected ProvisionedState provisionedState() throws ProvisioningException {
+        final ProvisionedFeaturePack.Builder fp = ProvisionedFeaturePack.builder(FP_GAV);
+        for(int i = CHAIN_LENGTH - 1; i >= 0; --i) {
+            fp.addPackage("p" + i);
+        }
+        return ProvisionedState.builder()
+                .addFeaturePack(fp.build())
+                .build();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.repomanager;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactResolutionException;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResolveAllArtifactsTestCase {
+
+    private static final ArtifactCoords A = ArtifactCoords.newInstance("org.pm.test", "a", "1.0", "jar");
+    private static final ArtifactCoords B = ArtifactCoords.newInstance("org.pm.test", "b", "1.0", "jar");
+    private static final ArtifactCoords C = ArtifactCoords.newInstance("org.pm.test", "c", "1.0", "jar");
+
+    private Path repoHome;
+    private FeaturePackRepositoryManager repo;
+
+    @Before
+    public void before() throws Exception {
+        repoHome = TestUtils.mkRandomTmpDir();
+        repo = FeaturePackRepositoryManager.newInstance(repoHome);
+        for(ArtifactCoords coords : Arrays.asList(A, B)) {
+            final Path artifact = repoHome.resolve(coords.getArtifactId() + ".txt");
+            IoUtils.writeFile(artifact, coords.toString());
+            repo.install(coords, artifact);
+        }
+    }
+
+    @After
+    public void after() throws Exception {
+        IoUtils.recursiveDelete(repoHome);
+    }
+
+    @Test
+    public void testAllResolved() throws Exception {
+        final Map<ArtifactCoords, Path> resolved = repo.resolveAll(Arrays.asList(B, A, B));
+        Assert.assertEquals(Arrays.asList(B, A), Arrays.asList(resolved.keySet().toArray()));
+        Assert.assertEquals(repo.resolve(A), resolved.get(A));
+        Assert.assertEquals(repo.resolve(B), resolved.get(B));
+    }
+
+    @Test
+    public void testFailuresReportedPerArtifact() throws Exception {
+        try {
+            repo.resolveAll(Arrays.asList(A, C, B));
+            Assert.fail("C is not in the repository");
+        } catch(ArtifactResolutionException e) {
+            Assert.assertEquals(Arrays.asList(A, B), Arrays.asList(e.getResolved().keySet().toArray()));
+            Assert.assertEquals(Arrays.asList(C), Arrays.asList(e.getFailures().keySet().toArray()));
+            Assert.assertEquals(1, e.getSuppressed().length);
+        }
+    }
+}
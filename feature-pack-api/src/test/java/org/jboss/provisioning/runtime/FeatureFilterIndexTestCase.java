@@ -0,0 +1,302 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.config.FeatureConfig;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the include/exclude state kept by {@link FeatureFilterIndex}
+ * against the result of walking the whole group stack.
+ */
+public class FeatureFilterIndexTestCase {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+
+    private static final ResolvedSpecId SPEC_A = new ResolvedSpecId(FP_GAV, "specA");
+    private static final ResolvedSpecId SPEC_B = new ResolvedSpecId(FP_GAV, "specB");
+    private static final ResolvedFeatureId A1 = ResolvedFeatureId.create(SPEC_A, "name", "a1");
+    private static final ResolvedFeatureId A2 = ResolvedFeatureId.create(SPEC_A, "name", "a2");
+    private static final ResolvedFeatureId B1 = ResolvedFeatureId.create(SPEC_B, "name", "b1");
+
+    private FeatureFilterIndex index;
+    private List<ResolvedFeatureGroupConfig> stack;
+
+    @Before
+    public void init() {
+        index = new FeatureFilterIndex();
+        stack = new ArrayList<>();
+    }
+
+    @Test
+    public void testEmptyStack() {
+        assertState(SPEC_A, A1, false, false);
+        assertState(SPEC_A, null, false, false);
+    }
+
+    @Test
+    public void testExcludeSpec() {
+        final ResolvedFeatureGroupConfig fg = group(true);
+        fg.excludeSpec(SPEC_A);
+        push(fg);
+        assertState(SPEC_A, A1, true, false);
+        assertState(SPEC_A, null, true, false);
+        assertState(SPEC_B, B1, false, false);
+        pop();
+        assertState(SPEC_A, A1, false, false);
+    }
+
+    @Test
+    public void testExcludeFeature() {
+        final ResolvedFeatureGroupConfig fg = group(true);
+        fg.excludeFeature(A1);
+        push(fg);
+        assertState(SPEC_A, A1, true, false);
+        assertState(SPEC_A, A2, false, false);
+        assertState(SPEC_A, null, false, false);
+        pop();
+        assertState(SPEC_A, A1, false, false);
+    }
+
+    @Test
+    public void testIncludeFeatureOfExcludedSpec() {
+        final ResolvedFeatureGroupConfig fg = group(true);
+        fg.excludeSpec(SPEC_A);
+        fg.includeFeature(A1, null);
+        push(fg);
+        assertState(SPEC_A, A1, false, true);
+        assertState(SPEC_A, A2, true, false);
+        pop();
+        assertState(SPEC_A, A1, false, false);
+    }
+
+    @Test
+    public void testIncludeSpecWithoutInheritingFeatures() {
+        final ResolvedFeatureGroupConfig fg = group(false);
+        fg.includeSpec(SPEC_A);
+        push(fg);
+        assertState(SPEC_A, A1, false, true);
+        assertState(SPEC_A, null, false, true);
+        assertState(SPEC_B, B1, true, true);
+        assertState(SPEC_B, null, true, true);
+        pop();
+        assertState(SPEC_B, B1, false, false);
+    }
+
+    @Test
+    public void testIncludeFeatureWithoutInheritingFeatures() {
+        final ResolvedFeatureGroupConfig fg = group(false);
+        fg.includeFeature(B1, new FeatureConfig());
+        push(fg);
+        assertState(SPEC_B, B1, false, true);
+        assertState(SPEC_A, A1, true, true);
+        pop();
+        assertState(SPEC_A, A1, false, false);
+    }
+
+    @Test
+    public void testExcludeFeatureOfIncludedSpecWithoutInheritingFeatures() {
+        final ResolvedFeatureGroupConfig fg = group(false);
+        fg.includeSpec(SPEC_A);
+        fg.excludeFeature(A1);
+        push(fg);
+        assertState(SPEC_A, A1, true, true);
+        assertState(SPEC_A, A2, false, true);
+        pop();
+        assertState(SPEC_A, A1, false, false);
+    }
+
+    @Test
+    public void testNestedGroups() {
+        final ResolvedFeatureGroupConfig outer = group(false);
+        outer.includeSpec(SPEC_A);
+        outer.includeSpec(SPEC_B);
+        push(outer);
+        assertState(SPEC_A, A1, false, true);
+
+        final ResolvedFeatureGroupConfig middle = group(true);
+        middle.excludeSpec(SPEC_A);
+        middle.includeFeature(A2, null);
+        push(middle);
+        assertState(SPEC_A, A1, true, true);
+        assertState(SPEC_A, A2, false, true);
+        assertState(SPEC_B, B1, false, true);
+
+        final ResolvedFeatureGroupConfig inner = group(false);
+        inner.includeFeature(A1, null);
+        push(inner);
+        // the exclusion by the middle group is not overridden by the inner one
+        assertState(SPEC_A, A1, true, true);
+        assertState(SPEC_A, A2, true, true);
+        assertState(SPEC_B, B1, true, true);
+
+        pop();
+        assertState(SPEC_A, A1, true, true);
+        assertState(SPEC_A, A2, false, true);
+        assertState(SPEC_B, B1, false, true);
+
+        pop();
+        assertState(SPEC_A, A1, false, true);
+        assertState(SPEC_A, A2, false, true);
+
+        pop();
+        assertState(SPEC_A, A1, false, false);
+        assertState(SPEC_B, B1, false, false);
+    }
+
+    @Test
+    public void testSameGroupPushedTwice() {
+        final ResolvedFeatureGroupConfig fg = group(true);
+        fg.excludeFeature(A1);
+        push(fg);
+        push(fg);
+        assertState(SPEC_A, A1, true, false);
+        pop();
+        assertState(SPEC_A, A1, true, false);
+        pop();
+        assertState(SPEC_A, A1, false, false);
+    }
+
+    @Test
+    public void testRandomStacks() {
+        final ResolvedSpecId[] specs = new ResolvedSpecId[] {SPEC_A, SPEC_B};
+        final ResolvedFeatureId[] ids = new ResolvedFeatureId[] {A1, A2, B1, ResolvedFeatureId.create(SPEC_B, "name", "b2")};
+        final Random random = new Random(2018);
+        for(int i = 0; i < 2000; ++i) {
+            if(!stack.isEmpty() && (stack.size() == 4 || random.nextInt(3) == 0)) {
+                pop();
+            } else {
+                final ResolvedFeatureGroupConfig fg = group(random.nextBoolean());
+                for(ResolvedSpecId specId : specs) {
+                    switch(random.nextInt(3)) {
+                        case 1:
+                            fg.includeSpec(specId);
+                            break;
+                        case 2:
+                            fg.excludeSpec(specId);
+                            break;
+                        default:
+                    }
+                }
+                for(ResolvedFeatureId id : ids) {
+                    switch(random.nextInt(4)) {
+                        case 1:
+                            fg.includeFeature(id, null);
+                            break;
+                        case 2:
+                            fg.excludeFeature(id);
+                            break;
+                        case 3:
+                            fg.includeFeature(id, null);
+                            fg.excludeFeature(id);
+                            break;
+                        default:
+                    }
+                }
+                push(fg);
+            }
+            for(ResolvedFeatureId id : ids) {
+                assertMatchesStack(id.specId, id);
+            }
+            for(ResolvedSpecId specId : specs) {
+                assertMatchesStack(specId, null);
+            }
+        }
+    }
+
+    private static ResolvedFeatureGroupConfig group(boolean inheritFeatures) {
+        return new ResolvedFeatureGroupConfig(null, null, FP_GAV).setInheritFeatures(inheritFeatures);
+    }
+
+    private void push(ResolvedFeatureGroupConfig fg) {
+        stack.add(fg);
+        index.push(fg);
+    }
+
+    private void pop() {
+        index.pop(stack.remove(stack.size() - 1));
+    }
+
+    private void assertState(ResolvedSpecId specId, ResolvedFeatureId id, boolean excluded, boolean included) {
+        Assert.assertEquals("excluded " + id, excluded, index.isExcluded(specId, id));
+        if(!excluded) {
+            Assert.assertEquals("included " + id, included, index.isIncluded(id));
+        }
+        assertMatchesStack(specId, id);
+    }
+
+    private void assertMatchesStack(ResolvedSpecId specId, ResolvedFeatureId id) {
+        final Boolean expected = walkStack(specId, id);
+        final String msg = "feature " + id + " of " + specId + " in a stack of " + stack.size();
+        if(expected == null) {
+            Assert.assertFalse(msg, index.isExcluded(specId, id));
+            Assert.assertFalse(msg, index.isIncluded(id));
+        } else if(expected) {
+            Assert.assertFalse(msg, index.isExcluded(specId, id));
+            Assert.assertTrue(msg, index.isIncluded(id));
+        } else {
+            Assert.assertTrue(msg, index.isExcluded(specId, id));
+        }
+    }
+
+    /**
+     * Evaluates the stack the way the config scope did before the state was
+     * kept in the index.
+     *
+     * @return  false if the feature is filtered out, true if it is explicitly included,
+     * null if none of the groups includes it
+     */
+    private Boolean walkStack(ResolvedSpecId specId, ResolvedFeatureId id) {
+        boolean included = false;
+        for(int i = stack.size() - 1; i >= 0; --i) {
+            final ResolvedFeatureGroupConfig fgConfig = stack.get(i);
+            if (fgConfig.inheritFeatures) {
+                if (id != null && fgConfig.excludedFeatures.contains(id)) {
+                    return false;
+                }
+                if (fgConfig.excludedSpecs.contains(specId)) {
+                    if (id != null && fgConfig.includedFeatures.containsKey(id)) {
+                        included = true;
+                        continue;
+                    }
+                    return false;
+                }
+            } else {
+                if (id != null && fgConfig.includedFeatures.containsKey(id)) {
+                    included = true;
+                    continue;
+                }
+                if (!fgConfig.includedSpecs.contains(specId)) {
+                    return false;
+                }
+                if (id != null && fgConfig.excludedFeatures.contains(id)) {
+                    return false;
+                }
+                included = true;
+            }
+        }
+        return included ? true : null;
+    }
+}
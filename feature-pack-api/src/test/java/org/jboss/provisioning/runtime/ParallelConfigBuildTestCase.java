@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.config.ConfigId;
+import org.jboss.provisioning.config.ConfigModel;
+import org.jboss.provisioning.config.FeatureConfig;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.plugin.ProvisionedConfigHandler;
+import org.jboss.provisioning.repomanager.FeaturePackBuilder;
+import org.jboss.provisioning.spec.FeatureParameterSpec;
+import org.jboss.provisioning.spec.FeatureReferenceSpec;
+import org.jboss.provisioning.spec.FeatureSpec;
+import org.jboss.provisioning.state.ProvisionedConfig;
+import org.jboss.provisioning.state.ProvisionedFeature;
+import org.jboss.provisioning.test.FeaturePackRepoTestBase;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the configs ordered on several threads come out the same
+ * as the configs ordered on a single thread.
+ */
+public class ParallelConfigBuildTestCase extends FeaturePackRepoTestBase {
+
+    private static final Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final int CONFIGS = 5;
+
+    @Override
+    protected void doBefore() throws Exception {
+        final FeaturePackBuilder fp = getRepoManager().installer()
+            .newFeaturePack(FP1_GAV)
+                .addSpec(FeatureSpec.builder("specA")
+                        .addParam(FeatureParameterSpec.createId("a"))
+                        .build())
+                .addSpec(FeatureSpec.builder("specB")
+                        .addFeatureRef(FeatureReferenceSpec.create("specA"))
+                        .addParam(FeatureParameterSpec.createId("b"))
+                        .addParam(FeatureParameterSpec.create("a"))
+                        .build())
+                .addSpec(FeatureSpec.builder("specC")
+                        .addFeatureRef(FeatureReferenceSpec.create("specB"))
+                        .addParam(FeatureParameterSpec.createId("c"))
+                        .addParam(FeatureParameterSpec.create("b"))
+                        .build());
+        // config0 depends on the last config, the others are independent
+        for(int i = 0; i < CONFIGS; ++i) {
+            final ConfigModel.Builder config = ConfigModel.builder("model1", "config" + i);
+            if(i == 0) {
+                config.setConfigDep("dep", new ConfigId("model1", "config" + (CONFIGS - 1)));
+            }
+            // the features are added in the reverse of their dependency order
+            for(int j = 0; j < 3; ++j) {
+                config.addFeature(new FeatureConfig("specC").setParam("c", "c" + i + j).setParam("b", "b" + i + j));
+                config.addFeature(new FeatureConfig("specB").setParam("b", "b" + i + j).setParam("a", "a" + i + j));
+                config.addFeature(new FeatureConfig("specA").setParam("a", "a" + i + j));
+            }
+            fp.addConfig(config.build());
+        }
+        fp.getInstaller().install();
+    }
+
+    @Override
+    protected void doAfter() throws Exception {
+        System.clearProperty(Constants.PROP_CONFIG_THREADS);
+    }
+
+    @Test
+    public void testConcurrentOrderMatchesSerial() throws Exception {
+        System.setProperty(Constants.PROP_CONFIG_THREADS, "1");
+        final List<String> serial = buildConfigs();
+        System.setProperty(Constants.PROP_CONFIG_THREADS, "4");
+        final List<String> concurrent = buildConfigs();
+        Assert.assertEquals(serial, concurrent);
+
+        Assert.assertTrue(concurrent.indexOf("config model1:config" + (CONFIGS - 1)) < concurrent.indexOf("config model1:config0"));
+        final int c0 = concurrent.indexOf("config model1:config0");
+        Assert.assertTrue(c0 < concurrent.indexOf(FP1_GAV + "#specA:a=a00"));
+        Assert.assertTrue(concurrent.indexOf(FP1_GAV + "#specA:a=a00") < concurrent.indexOf(FP1_GAV + "#specB:b=b00"));
+        Assert.assertTrue(concurrent.indexOf(FP1_GAV + "#specB:b=b00") < concurrent.indexOf(FP1_GAV + "#specC:c=c00"));
+    }
+
+    private List<String> buildConfigs() throws ProvisioningException {
+        final List<String> events = new ArrayList<>();
+        try(ProvisioningRuntime runtime = ProvisioningRuntimeBuilder.newInstance()
+                .setArtifactResolver(getRepoManager())
+                .setConfig(ProvisioningConfig.builder().addFeaturePackDep(FeaturePackConfig.forGav(FP1_GAV)).build())
+                .setEncoding("UTF-8")
+                .setInstallDir(installHome)
+                .build()) {
+            for(ProvisionedConfig config : runtime.getConfigs()) {
+                events.add("config " + config.getModel() + ':' + config.getName());
+                config.handle(new ProvisionedConfigHandler() {
+                    @Override
+                    public void nextFeature(ProvisionedFeature feature) {
+                        events.add(feature.getId().toString());
+                    }
+                });
+            }
+        }
+        return events;
+    }
+}
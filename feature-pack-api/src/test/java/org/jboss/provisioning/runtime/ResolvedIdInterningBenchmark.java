@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.util.IoUtils;
+
+/**
+ * Synthetic comparison of the heap retained by and the lookup time over the feature ids
+ * of several configs which include the same features, once with an id instance per config
+ * and once with the ids interned by {@link ProvisioningRuntimeBuilder}. It is not run by the
+ * build. The ids are generated deterministically, so that the runs are comparable.
+ *
+ * <pre>
+ * mvn test-compile -pl feature-pack-api
+ * java -Xmx2g -cp feature-pack-api/target/classes:feature-pack-api/target/test-classes \
+ *     org.jboss.provisioning.runtime.ResolvedIdInterningBenchmark [configs [features [passes]]]
+ * </pre>
+ */
+public class ResolvedIdInterningBenchmark {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final int SPECS = 100;
+
+    public static void main(String[] args) throws Exception {
+        final int configs = args.length > 0 ? Integer.parseInt(args[0]) : 6;
+        final int features = args.length > 1 ? Integer.parseInt(args[1]) : 30000;
+        final int passes = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        System.out.println("configs=" + configs + " features=" + features + " passes=" + passes
+                + " java=" + System.getProperty("java.version"));
+        // the first round warms up the JIT
+        for(int round = 0; round < 2; ++round) {
+            run(false, configs, features, passes, round == 1);
+            run(true, configs, features, passes, round == 1);
+        }
+    }
+
+    private static void run(boolean interned, int configs, int features, int passes, boolean report) throws ProvisioningException {
+        final ProvisioningRuntimeBuilder rt = ProvisioningRuntimeBuilder.newInstance();
+        try {
+            final long heapBefore = usedHeap();
+            final List<Map<ResolvedFeatureId, Integer>> configMaps = new ArrayList<>(configs);
+            for(int c = 0; c < configs; ++c) {
+                final Map<ResolvedFeatureId, Integer> config = new HashMap<>();
+                for(int f = 0; f < features; ++f) {
+                    ResolvedSpecId specId = new ResolvedSpecId(FP_GAV, "spec" + (f % SPECS));
+                    if(interned) {
+                        specId = rt.intern(specId);
+                    }
+                    ResolvedFeatureId id = ResolvedFeatureId.builder(specId)
+                            .setParam("profile", "default")
+                            .setParam("subsystem", "subsystem" + (f % SPECS))
+                            .setParam("name", "feature" + f)
+                            .build();
+                    if(interned) {
+                        id = rt.intern(id);
+                    }
+                    config.put(id, f);
+                }
+                configMaps.add(config);
+            }
+            final long retained = usedHeap() - heapBefore;
+
+            final List<ResolvedFeatureId> lookups = new ArrayList<>(configMaps.get(0).keySet());
+            final long start = System.nanoTime();
+            long found = 0;
+            for(int p = 0; p < passes; ++p) {
+                for(Map<ResolvedFeatureId, Integer> config : configMaps) {
+                    for(ResolvedFeatureId id : lookups) {
+                        if(config.get(id) != null) {
+                            ++found;
+                        }
+                    }
+                }
+            }
+            final long lookupMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if(found != (long) passes * configs * features) {
+                throw new IllegalStateException("Found " + found + " ids");
+            }
+            if(report) {
+                System.out.println((interned ? "interned" : "copies  ") + " retained=" + retained / (1024 * 1024) + "MB lookups=" + lookupMs + "ms");
+            }
+        } finally {
+            IoUtils.recursiveDelete(rt.workDir);
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the equality of the resolved spec and feature ids and their interning
+ * by the runtime builder.
+ */
+public class ResolvedIdTestCase {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final ArtifactCoords.Gav FP2_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp2", "1.0.0.Final");
+
+    private ProvisioningRuntimeBuilder rt;
+
+    @Before
+    public void init() {
+        rt = ProvisioningRuntimeBuilder.newInstance();
+    }
+
+    @After
+    public void cleanup() {
+        IoUtils.recursiveDelete(rt.workDir);
+    }
+
+    @Test
+    public void testEqualSpecIds() {
+        final ResolvedSpecId id1 = new ResolvedSpecId(FP_GAV, "specA");
+        final ResolvedSpecId id2 = new ResolvedSpecId(ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final"), new String("specA"));
+        Assert.assertNotSame(id1, id2);
+        Assert.assertEquals(id1, id2);
+        Assert.assertEquals(id1.hashCode(), id2.hashCode());
+
+        Assert.assertNotEquals(id1, new ResolvedSpecId(FP2_GAV, "specA"));
+        Assert.assertNotEquals(id1, new ResolvedSpecId(FP_GAV, "specB"));
+    }
+
+    @Test
+    public void testSpecIdsWithSameHash() {
+        // "Aa" and "BB" have the same hash code
+        final ResolvedSpecId id1 = new ResolvedSpecId(FP_GAV, "Aa");
+        final ResolvedSpecId id2 = new ResolvedSpecId(FP_GAV, "BB");
+        Assert.assertEquals(id1.hashCode(), id2.hashCode());
+        Assert.assertNotEquals(id1, id2);
+
+        final Map<ResolvedSpecId, String> map = new HashMap<>();
+        map.put(id1, "Aa");
+        map.put(id2, "BB");
+        Assert.assertEquals("Aa", map.get(new ResolvedSpecId(FP_GAV, "Aa")));
+        Assert.assertEquals("BB", map.get(new ResolvedSpecId(FP_GAV, "BB")));
+    }
+
+    @Test
+    public void testEqualFeatureIds() throws Exception {
+        final ResolvedFeatureId id1 = ResolvedFeatureId.builder(new ResolvedSpecId(FP_GAV, "specA"))
+                .setParam("p1", "a").setParam("p2", "b").build();
+        final ResolvedFeatureId id2 = ResolvedFeatureId.builder(FP_GAV, "specA")
+                .setParam("p2", "b").setParam("p1", "a").build();
+        Assert.assertNotSame(id1, id2);
+        Assert.assertEquals(id1, id2);
+        Assert.assertEquals(id1.hashCode(), id2.hashCode());
+
+        Assert.assertNotEquals(id1, ResolvedFeatureId.builder(FP_GAV, "specB").setParam("p1", "a").setParam("p2", "b").build());
+        Assert.assertNotEquals(id1, ResolvedFeatureId.builder(FP_GAV, "specA").setParam("p1", "a").setParam("p2", "c").build());
+    }
+
+    @Test
+    public void testFeatureIdsWithSameHash() throws Exception {
+        final ResolvedFeatureId id1 = ResolvedFeatureId.create(FP_GAV, "specA", "name", "Aa");
+        final ResolvedFeatureId id2 = ResolvedFeatureId.create(FP_GAV, "specA", "name", "BB");
+        Assert.assertEquals(id1.hashCode(), id2.hashCode());
+        Assert.assertNotEquals(id1, id2);
+
+        final Map<ResolvedFeatureId, String> map = new HashMap<>();
+        map.put(id1, "Aa");
+        map.put(id2, "BB");
+        Assert.assertEquals("Aa", map.get(ResolvedFeatureId.create(FP_GAV, "specA", "name", "Aa")));
+        Assert.assertEquals("BB", map.get(ResolvedFeatureId.create(FP_GAV, "specA", "name", "BB")));
+    }
+
+    @Test
+    public void testInternedSpecIds() {
+        final ResolvedSpecId id1 = new ResolvedSpecId(FP_GAV, "specA");
+        Assert.assertSame(id1, rt.intern(id1));
+        Assert.assertSame(id1, rt.intern(new ResolvedSpecId(FP_GAV, "specA")));
+
+        final ResolvedSpecId collision = new ResolvedSpecId(FP_GAV, "Aa");
+        Assert.assertSame(collision, rt.intern(collision));
+        final ResolvedSpecId other = new ResolvedSpecId(FP_GAV, "BB");
+        Assert.assertSame(other, rt.intern(other));
+        Assert.assertSame(collision, rt.intern(new ResolvedSpecId(FP_GAV, "Aa")));
+    }
+
+    @Test
+    public void testInternedFeatureIds() throws Exception {
+        final ResolvedFeatureId id1 = ResolvedFeatureId.create(FP_GAV, "specA", "name", "Aa");
+        Assert.assertSame(id1, rt.intern(id1));
+        Assert.assertSame(id1, rt.intern(ResolvedFeatureId.create(FP_GAV, "specA", "name", "Aa")));
+
+        final ResolvedFeatureId other = ResolvedFeatureId.create(FP_GAV, "specA", "name", "BB");
+        Assert.assertSame(other, rt.intern(other));
+        Assert.assertSame(id1, rt.intern(ResolvedFeatureId.create(FP_GAV, "specA", "name", "Aa")));
+        Assert.assertNull(rt.intern((ResolvedFeatureId) null));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.runtime;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactCoords.Gav;
+import org.jboss.provisioning.Constants;
+import org.jboss.provisioning.config.ConfigModel;
+import org.jboss.provisioning.config.FeatureConfig;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.spec.FeatureParameterSpec;
+import org.jboss.provisioning.spec.FeaturePackSpec;
+import org.jboss.provisioning.spec.FeatureSpec;
+import org.jboss.provisioning.test.FeaturePackRepoTestBase;
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the feature spec lookups are resolved once per origin and name
+ * and that a feature-pack looks for a spec missing in its layout only once.
+ */
+public class SpecLookupCacheTestCase extends FeaturePackRepoTestBase {
+
+    private static final Gav FP1_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final Gav FP2_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp2", "1.0.0.Final");
+
+    @Override
+    protected void doBefore() throws Exception {
+        getRepoManager().installer()
+        .newFeaturePack(FP2_GAV)
+            .addSpec(FeatureSpec.builder("specA")
+                    .addParam(FeatureParameterSpec.createId("id"))
+                    .build())
+            .getInstaller()
+        .newFeaturePack(FP1_GAV)
+            .addDependency(FeaturePackConfig.forGav(FP2_GAV))
+            .addSpec(FeatureSpec.builder("specB")
+                    .addParam(FeatureParameterSpec.createId("id"))
+                    .build())
+            .addConfig(ConfigModel.builder("model1", "config1")
+                    .addFeature(new FeatureConfig("specA").setParam("id", "a1"))
+                    .addFeature(new FeatureConfig("specA").setParam("id", "a2"))
+                    .addFeature(new FeatureConfig("specB").setParam("id", "b1"))
+                    .build())
+            .addConfig(ConfigModel.builder("model1", "config2")
+                    .addFeature(new FeatureConfig("specA").setParam("id", "a3"))
+                    .addFeature(new FeatureConfig("specB").setParam("id", "b2"))
+                    .build())
+            .getInstaller()
+        .install();
+    }
+
+    @Test
+    public void testSpecLookupsAreCached() throws Exception {
+        final ProvisioningRuntimeBuilder builder = ProvisioningRuntimeBuilder.newInstance()
+                .setArtifactResolver(getRepoManager())
+                .setConfig(ProvisioningConfig.builder()
+                        .addFeaturePackDep(FeaturePackConfig.forGav(FP1_GAV))
+                        .addConfig(ConfigModel.builder("model1", "config3")
+                                .addFeature(new FeatureConfig("specA").setParam("id", "a4"))
+                                .addFeature(new FeatureConfig("specA").setParam("id", "a5"))
+                                .build())
+                        .build())
+                .setEncoding("UTF-8")
+                .setInstallDir(installHome);
+        try(ProvisioningRuntime runtime = builder.build()) {
+            // specA and specB looked up from fp1, where specA is missing, and specA looked up from the provisioning config
+            Assert.assertEquals(3, builder.getSpecLookupMisses());
+            // the other features of config1, config2 and config3
+            Assert.assertEquals(4, builder.getSpecLookupHits());
+        }
+    }
+
+    @Test
+    public void testMissingSpecsAreCached() throws Exception {
+        final Path fpDir = TestUtils.mkRandomTmpDir();
+        final ProvisioningRuntimeBuilder rt = ProvisioningRuntimeBuilder.newInstance();
+        try {
+            final FeaturePackRuntimeBuilder fp = new FeaturePackRuntimeBuilder(FeaturePackSpec.builder(FP1_GAV).build(), fpDir);
+            Assert.assertNull(fp.getFeatureSpec("specA", rt));
+            Assert.assertNull(fp.getFeatureGroupSpec("fg1"));
+
+            // the layout would fail to parse if it was looked at again
+            final Path specXml = fpDir.resolve(Constants.FEATURES).resolve("specA").resolve(Constants.SPEC_XML);
+            Files.createDirectories(specXml.getParent());
+            Files.write(specXml, "not a spec".getBytes());
+            final Path fgXml = fpDir.resolve(Constants.FEATURE_GROUPS).resolve("fg1.xml");
+            Files.createDirectories(fgXml.getParent());
+            Files.write(fgXml, "not a group".getBytes());
+
+            Assert.assertNull(fp.getFeatureSpec("specA", rt));
+            Assert.assertNull(fp.getFeatureGroupSpec("fg1"));
+        } finally {
+            IoUtils.recursiveDelete(fpDir);
+            IoUtils.recursiveDelete(rt.workDir);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.state;
+
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jboss.provisioning.test.util.TestUtils;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reading the manifests written in the previous versions of the format.
+ */
+public class InstallationManifestFormatTestCase {
+
+    private Path dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = TestUtils.mkRandomTmpDir();
+    }
+
+    @After
+    public void after() throws Exception {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testVersion2IsReadAsSha1() throws Exception {
+        final Path file = dir.resolve("manifest");
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x504d4d46);
+            out.writeInt(2);
+            out.writeInt(0); // origins
+            out.writeInt(1); // entries
+            out.writeUTF("a.txt");
+            out.writeLong(5);
+            out.writeLong(1000);
+            out.writeShort(20);
+            out.write(new byte[20]);
+            out.writeInt(-1);
+        }
+        final InstallationManifest manifest = InstallationManifest.read(file);
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals(HashUtils.SHA1, manifest.getAlgorithm());
+        final InstallationManifest.Entry entry = manifest.getEntry("a.txt");
+        Assert.assertEquals(5, entry.getSize());
+        Assert.assertEquals(1000, entry.getLastModified());
+        Assert.assertNull(entry.getOrigin());
+    }
+
+    @Test
+    public void testUnknownVersionIsIgnored() throws Exception {
+        final Path file = dir.resolve("manifest");
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(0x504d4d46);
+            out.writeInt(1);
+        }
+        Assert.assertNull(InstallationManifest.read(file));
+    }
+
+    @Test
+    public void testCurrentVersionRoundTrip() throws Exception {
+        final Path installDir = dir.resolve("install");
+        Files.createDirectories(installDir);
+        IoUtils.writeFile(installDir.resolve("a.txt"), "a");
+        final Path file = dir.resolve("manifest");
+        InstallationManifest.build(installDir).write(file);
+        final InstallationManifest manifest = InstallationManifest.read(file);
+        Assert.assertEquals(HashUtils.getChangeDetectionAlgorithm(), manifest.getAlgorithm());
+        Assert.assertNotNull(manifest.getEntry("a.txt"));
+    }
+}
@@ -20,7 +20,9 @@ package org.jboss.provisioning.test.util;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.UUID;
@@ -67,7 +69,8 @@ public class TestUtils {
 
     public static String read(Path p) {
         final StringWriter strWriter = new StringWriter();
-        try(BufferedReader reader = Files.newBufferedReader(p);
+        // unlike Files.newBufferedReader(), the reader replaces malformed input, e.g. binary files
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(p), StandardCharsets.UTF_8));
                 BufferedWriter writer = new BufferedWriter(strWriter)) {
             String line = reader.readLine();
             if (line != null) {
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.util;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.jboss.provisioning.test.util.TestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashUtilsTestCase {
+
+    private Path dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = TestUtils.mkRandomTmpDir();
+    }
+
+    @After
+    public void after() throws Exception {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testParallelHashesMatchSequentialOnes() throws Exception {
+        final List<Path> files = new ArrayList<>();
+        for(int i = 0; i < 100; ++i) {
+            final Path file = dir.resolve("file" + i + ".txt");
+            IoUtils.writeFile(file, "content of file " + i);
+            files.add(file);
+        }
+        final byte[][] hashes = HashUtils.hashPaths(files, HashUtils.SHA1);
+        for(int i = 0; i < hashes.length; ++i) {
+            final byte[] expected = MessageDigest.getInstance("SHA-1").digest(("content of file " + i).getBytes(StandardCharsets.UTF_8));
+            Assert.assertArrayEquals(expected, hashes[i]);
+        }
+    }
+
+    @Test
+    public void testLargeFile() throws Exception {
+        final Path file = dir.resolve("large.bin");
+        final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        final CRC32 crc = new CRC32();
+        final Random random = new Random(1);
+        final byte[] bytes = new byte[1024 * 1024];
+        try(OutputStream out = Files.newOutputStream(file)) {
+            // larger than the size starting from which the files are mapped into memory
+            for(int i = 0; i < 10; ++i) {
+                random.nextBytes(bytes);
+                out.write(bytes);
+                sha1.update(bytes);
+                crc.update(bytes);
+            }
+        }
+        Assert.assertEquals(HashUtils.bytesToHexString(sha1.digest()), HashUtils.hashFile(file));
+        Assert.assertEquals(Long.toHexString(crc.getValue()), Long.toHexString(Long.parseLong(HashUtils.hashFile(file, HashUtils.CRC32), 16)));
+    }
+}
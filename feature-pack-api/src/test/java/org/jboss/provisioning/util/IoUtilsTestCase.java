@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.util;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+import org.jboss.provisioning.test.util.TestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the hashes listed for the content of a directory.
+ */
+public class IoUtilsTestCase {
+
+    private static final byte[] RECORDED_HASH = {1, 2, 3};
+
+    private static class TestRecordedHashes implements RecordedHashes {
+
+        private final String algorithm;
+
+        TestRecordedHashes(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public boolean excludes(String path) {
+            return path.equals("record");
+        }
+
+        @Override
+        public byte[] getHash(String path, BasicFileAttributes attrs) {
+            return path.equals("dir/unchanged.txt") ? RECORDED_HASH : null;
+        }
+    }
+
+    private Path dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = TestUtils.mkRandomTmpDir();
+        IoUtils.writeFile(dir.resolve("record"), "record");
+        dir.resolve("dir").toFile().mkdirs();
+        IoUtils.writeFile(dir.resolve("dir/unchanged.txt"), "unchanged");
+        IoUtils.writeFile(dir.resolve("dir/changed.txt"), "changed");
+    }
+
+    @After
+    public void after() throws Exception {
+        IoUtils.recursiveDelete(dir);
+    }
+
+    @Test
+    public void testRecordedHashesAreUsed() throws Exception {
+        final Map<Path, String> contents = IoUtils.listContents(dir, PathFilter.DEFAULT,
+                new TestRecordedHashes(HashUtils.getChangeDetectionAlgorithm()));
+        Assert.assertEquals(2, contents.size());
+        Assert.assertEquals(HashUtils.bytesToHexString(RECORDED_HASH), contents.get(Paths.get("dir", "unchanged.txt")));
+        Assert.assertEquals(HashUtils.hashFile(dir.resolve("dir/changed.txt"), HashUtils.getChangeDetectionAlgorithm()),
+                contents.get(Paths.get("dir", "changed.txt")));
+    }
+
+    @Test
+    public void testHashesRecordedWithOtherAlgorithmAreIgnored() throws Exception {
+        final Map<Path, String> contents = IoUtils.listContents(dir, PathFilter.DEFAULT, new TestRecordedHashes("other"));
+        Assert.assertEquals(2, contents.size());
+        Assert.assertEquals(HashUtils.hashFile(dir.resolve("dir/unchanged.txt"), HashUtils.getChangeDetectionAlgorithm()),
+                contents.get(Paths.get("dir", "unchanged.txt")));
+    }
+
+    @Test
+    public void testNothingExcludedWithoutRecordedHashes() throws Exception {
+        Assert.assertEquals(3, IoUtils.listContents(dir, PathFilter.DEFAULT).size());
+    }
+}
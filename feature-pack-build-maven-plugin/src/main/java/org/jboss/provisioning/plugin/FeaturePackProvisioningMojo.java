@@ -23,7 +23,13 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.xml.stream.XMLStreamException;
@@ -57,6 +63,7 @@ import org.jboss.provisioning.ProvisioningException;
 import org.jboss.provisioning.ProvisioningManager;
 import org.jboss.provisioning.config.ProvisioningConfig;
 import org.jboss.provisioning.plugin.util.LoggerMessageWriter;
+import org.jboss.provisioning.util.PmCollections;
 import org.jboss.provisioning.xml.ProvisioningXmlParser;
 import org.jboss.provisioning.ArtifactRepositoryManager;
 
@@ -126,13 +133,37 @@ public class FeaturePackProvisioningMojo extends AbstractMojo {
                             } catch (ArtifactResolutionException e) {
                                 throw new org.jboss.provisioning.ArtifactException(FpMavenErrors.artifactResolution(coords), e);
                             }
-                            if(!result.isResolved()) {
-                                throw new org.jboss.provisioning.ArtifactException(FpMavenErrors.artifactResolution(coords));
+                            return getArtifactPath(coords, result);
+                        }
+
+                        @Override
+                        public Map<ArtifactCoords, Path> resolveAll(Collection<ArtifactCoords> coords) throws org.jboss.provisioning.ArtifactResolutionException {
+                            // the repository system resolves the requests of a batch concurrently
+                            final List<ArtifactCoords> artifacts = new ArrayList<>(new LinkedHashSet<>(coords));
+                            final List<ArtifactRequest> requests = new ArrayList<>(artifacts.size());
+                            for(ArtifactCoords artifact : artifacts) {
+                                requests.add(getArtifactRequest(artifact));
+                            }
+                            List<ArtifactResult> results;
+                            try {
+                                results = repoSystem.resolveArtifacts(repoSession, requests);
+                            } catch (ArtifactResolutionException e) {
+                                results = e.getResults();
                             }
-                            if(result.isMissing()) {
-                                throw new org.jboss.provisioning.ArtifactException(FpMavenErrors.artifactMissing(coords));
+                            final Map<ArtifactCoords, Path> resolved = new LinkedHashMap<>(artifacts.size());
+                            Map<ArtifactCoords, org.jboss.provisioning.ArtifactException> failures = Collections.emptyMap();
+                            for(int i = 0; i < artifacts.size(); ++i) {
+                                final ArtifactCoords artifact = artifacts.get(i);
+                                try {
+                                    resolved.put(artifact, getArtifactPath(artifact, results.get(i)));
+                                } catch (org.jboss.provisioning.ArtifactException e) {
+                                    failures = PmCollections.putLinked(failures, artifact, e);
+                                }
                             }
-                            return Paths.get(result.getArtifact().getFile().toURI());
+                            if(!failures.isEmpty()) {
+                                throw new org.jboss.provisioning.ArtifactResolutionException(resolved, failures);
+                            }
+                            return resolved;
                         }
 
                         @Override
@@ -272,6 +303,17 @@ public class FeaturePackProvisioningMojo extends AbstractMojo {
         }
     }
 */
+    private static Path getArtifactPath(ArtifactCoords coords, ArtifactResult result) throws org.jboss.provisioning.ArtifactException {
+        if(!result.isResolved()) {
+            final List<Exception> errors = result.getExceptions();
+            throw new org.jboss.provisioning.ArtifactException(FpMavenErrors.artifactResolution(coords), errors.isEmpty() ? null : errors.get(0));
+        }
+        if(result.isMissing()) {
+            throw new org.jboss.provisioning.ArtifactException(FpMavenErrors.artifactMissing(coords));
+        }
+        return Paths.get(result.getArtifact().getFile().toURI());
+    }
+
     private ArtifactRequest getArtifactRequest(ArtifactCoords coords) {
         final ArtifactRequest req = new ArtifactRequest();
         req.setArtifact(new DefaultArtifact(coords.getGroupId(), coords.getArtifactId(), coords.getClassifier(), coords.getExtension(), coords.getVersion()));
@@ -18,7 +18,13 @@ package org.jboss.provisioning.cli;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,7 +44,9 @@ import org.eclipse.aether.resolution.VersionRangeResult;
 import org.jboss.provisioning.ArtifactCoords;
 import org.jboss.provisioning.ArtifactException;
 import org.jboss.provisioning.ArtifactRepositoryManager;
+import org.jboss.provisioning.ArtifactResolutionException;
 import org.jboss.provisioning.plugin.FpMavenErrors;
+import org.jboss.provisioning.util.PmCollections;
 
 /**
  *
@@ -62,17 +70,56 @@ class MavenArtifactRepositoryManager implements ArtifactRepositoryManager {
 
     @Override
     public Path resolve(ArtifactCoords coords) throws ArtifactException {
-        final ArtifactRequest request = new ArtifactRequest();
-        request.setArtifact(new DefaultArtifact(coords.getGroupId(), coords.getArtifactId(), coords.getClassifier(),
-                coords.getExtension(), coords.getVersion()));
         final ArtifactResult result;
         try {
-            result = repoSystem.resolveArtifact(session, request);
+            result = repoSystem.resolveArtifact(session, getArtifactRequest(coords));
         } catch (org.eclipse.aether.resolution.ArtifactResolutionException e) {
             throw new ArtifactException(FpMavenErrors.artifactResolution(coords), e);
         }
+        return getArtifactPath(coords, result);
+    }
+
+    @Override
+    public Map<ArtifactCoords, Path> resolveAll(Collection<ArtifactCoords> coords) throws ArtifactResolutionException {
+        // the repository system resolves the requests of a batch concurrently
+        final List<ArtifactCoords> artifacts = new ArrayList<>(new LinkedHashSet<>(coords));
+        final List<ArtifactRequest> requests = new ArrayList<>(artifacts.size());
+        for(ArtifactCoords artifact : artifacts) {
+            requests.add(getArtifactRequest(artifact));
+        }
+        List<ArtifactResult> results;
+        try {
+            results = repoSystem.resolveArtifacts(session, requests);
+        } catch (org.eclipse.aether.resolution.ArtifactResolutionException e) {
+            results = e.getResults();
+        }
+        final Map<ArtifactCoords, Path> resolved = new LinkedHashMap<>(artifacts.size());
+        Map<ArtifactCoords, ArtifactException> failures = Collections.emptyMap();
+        for(int i = 0; i < artifacts.size(); ++i) {
+            final ArtifactCoords artifact = artifacts.get(i);
+            try {
+                resolved.put(artifact, getArtifactPath(artifact, results.get(i)));
+            } catch (ArtifactException e) {
+                failures = PmCollections.putLinked(failures, artifact, e);
+            }
+        }
+        if(!failures.isEmpty()) {
+            throw new ArtifactResolutionException(resolved, failures);
+        }
+        return resolved;
+    }
+
+    private static ArtifactRequest getArtifactRequest(ArtifactCoords coords) {
+        final ArtifactRequest request = new ArtifactRequest();
+        request.setArtifact(new DefaultArtifact(coords.getGroupId(), coords.getArtifactId(), coords.getClassifier(),
+                coords.getExtension(), coords.getVersion()));
+        return request;
+    }
+
+    private static Path getArtifactPath(ArtifactCoords coords, ArtifactResult result) throws ArtifactException {
         if (!result.isResolved()) {
-            throw new ArtifactException(FpMavenErrors.artifactResolution(coords));
+            final List<Exception> errors = result.getExceptions();
+            throw new ArtifactException(FpMavenErrors.artifactResolution(coords), errors.isEmpty() ? null : errors.get(0));
         }
         if (result.isMissing()) {
             throw new ArtifactException(FpMavenErrors.artifactMissing(coords));
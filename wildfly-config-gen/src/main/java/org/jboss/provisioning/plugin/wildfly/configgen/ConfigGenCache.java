@@ -0,0 +1,452 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.plugin.PluginOption;
+import org.jboss.provisioning.plugin.wildfly.WfConstants;
+import org.jboss.provisioning.runtime.FeaturePackRuntime;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.util.HashUtils;
+import org.jboss.provisioning.util.IoUtils;
+
+/**
+ * On-disk cache of the generated config files.
+ *
+ * An entry is keyed by the digest of the recorded config script, the
+ * config generator jar, the feature-packs of the installation and the
+ * content of the config files the script updates instead of creating them
+ * from scratch. The entry directory contains the config files the script
+ * produced, at the same paths relative to the installation directory.
+ *
+ * The embedded process also writes other files into the configuration
+ * directory, e.g. logging.properties, which end up as written for the last
+ * config generated in the directory. So the entry of the last config of
+ * a directory also saves the other files the generation added or changed there,
+ * and only such an entry is restored for the last config of a directory.
+ *
+ * The feature-packs are identified by their coordinates, which is why the
+ * cache is not used if one of them is a SNAPSHOT. The least recently used
+ * entries are evicted once the number of the entries exceeds the limit.
+ */
+class ConfigGenCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static final String CONFIGURATION = "configuration";
+    private static final String SNAPSHOT = "-SNAPSHOT";
+    private static final String EVICTED = ".evicted";
+    // the entry subdirectory of the config files
+    private static final String CONFIGS = "configs";
+    // the entry subdirectory of the other files written into the configuration directory,
+    // present only in the entries of the last configs of their directories
+    private static final String OTHER_FILES = "other";
+    private static final String HISTORY_SUFFIX = "_history";
+    private static final String[] CONFIG_DIRS = {WfConstants.STANDALONE + '/' + CONFIGURATION, WfConstants.DOMAIN + '/' + CONFIGURATION};
+
+    /**
+     * Creates the cache of the configs of an installation.
+     *
+     * @param cacheDir  cache directory
+     * @param runtime  provisioning runtime
+     * @return  the cache or null, if the configs of the installation cannot be cached
+     * @throws ProvisioningException  in case the cache could not be initialized
+     */
+    static ConfigGenCache newInstance(Path cacheDir, ProvisioningRuntime runtime) throws ProvisioningException {
+        final List<ArtifactCoords.Gav> fps = new ArrayList<>();
+        for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
+            fps.add(fp.getGav());
+        }
+        final ArtifactCoords.Gav snapshot = findSnapshot(fps);
+        if(snapshot != null) {
+            runtime.getMessageWriter().verbose("The config generation cache is not used since %s may have been rebuilt", snapshot);
+            return null;
+        }
+
+        int maxEntries = DEFAULT_MAX_ENTRIES;
+        final String maxEntriesValue = runtime.getOptionValue(PluginOption.forName(WfConstants.CONFIG_GEN_CACHE_SIZE));
+        if(maxEntriesValue != null) {
+            try {
+                maxEntries = Integer.parseInt(maxEntriesValue);
+            } catch(NumberFormatException e) {
+                throw new ProvisioningException("Failed to parse the value of " + WfConstants.CONFIG_GEN_CACHE_SIZE + " option: " + maxEntriesValue, e);
+            }
+            if(maxEntries < 1) {
+                throw new ProvisioningException("The value of " + WfConstants.CONFIG_GEN_CACHE_SIZE + " option must be a positive integer: " + maxEntriesValue);
+            }
+        }
+
+        Path configGenJar = null;
+        final String configGenHash;
+        try {
+            configGenJar = Paths.get(ConfigGenCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            configGenHash = HashUtils.hashFile(configGenJar);
+        } catch (URISyntaxException e) {
+            throw new ProvisioningException("Failed to locate the config generator jar", e);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.hashCalculation(configGenJar), e);
+        }
+        return new ConfigGenCache(cacheDir, runtime.getStagedDir(), configGenHash, fps, maxEntries);
+    }
+
+    static ArtifactCoords.Gav findSnapshot(List<ArtifactCoords.Gav> fps) {
+        for(ArtifactCoords.Gav fp : fps) {
+            if(fp.getVersion() != null && fp.getVersion().endsWith(SNAPSHOT)) {
+                return fp;
+            }
+        }
+        return null;
+    }
+
+    private final Path cacheDir;
+    private final Path stagedDir;
+    private final byte[] base;
+    private final int maxEntries;
+    private final Map<String, List<String>> entryFiles = new HashMap<>();
+    // the files of the configs that are going to be generated in this run
+    private final Set<String> pending = new HashSet<>();
+    // the files of all the configs of this run
+    private final Set<String> configFiles = new HashSet<>();
+    // the content of the configuration directories before the configs were generated
+    private final Map<String, byte[]> originalFiles;
+    // the other files of the restored entries of the last configs, written once the rest of the configs are generated
+    private final Map<String, byte[]> restoredOtherFiles = new LinkedHashMap<>();
+
+    ConfigGenCache(Path cacheDir, Path stagedDir, String configGenHash, List<ArtifactCoords.Gav> fps, int maxEntries) throws ProvisioningException {
+        this.cacheDir = cacheDir;
+        this.stagedDir = stagedDir;
+        this.maxEntries = maxEntries;
+        this.originalFiles = readOtherFiles(stagedDir, Collections.emptySet());
+        final StringBuilder buf = new StringBuilder();
+        buf.append(configGenHash);
+        for(ArtifactCoords.Gav fp : fps) {
+            buf.append(' ').append(fp);
+        }
+        base = buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Computes the cache key of a recorded config script.
+     *
+     * @param script  config script
+     * @return  the cache key or null, if the config cannot be cached
+     * @throws ProvisioningException  in case the script could not be read
+     */
+    String getKey(Path script) throws ProvisioningException {
+        final String[] header = ConfigGenWorker.readHeader(script);
+        final String[] args = Arrays.copyOfRange(header, 1, header.length);
+        final List<String> files = new ArrayList<>(2);
+        final List<String> updated = new ArrayList<>(2);
+        if(ConfigGenWorker.STANDALONE.equals(header[0])) {
+            addConfigFile(WfConstants.STANDALONE, args, "--server-config", "standalone.xml", "--internal-empty-config", files, updated);
+        } else {
+            addConfigFile(WfConstants.DOMAIN, args, "--domain-config", "domain.xml", "--empty-domain-config", files, updated);
+            addConfigFile(WfConstants.DOMAIN, args, "--host-config", "host.xml", "--empty-host-config", files, updated);
+        }
+        boolean cacheable = true;
+        for(String file : updated) {
+            if(pending.contains(file)) {
+                // the current content is going to be replaced before the config is generated
+                cacheable = false;
+                break;
+            }
+        }
+        pending.addAll(files);
+        configFiles.addAll(files);
+        if(!cacheable) {
+            return null;
+        }
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HashUtils.SHA1);
+        } catch (NoSuchAlgorithmException e) {
+            throw new ProvisioningException("Failed to init " + HashUtils.SHA1 + " digest", e);
+        }
+        digest.update(base);
+        try {
+            digest.update(Files.readAllBytes(script));
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readFile(script), e);
+        }
+        for(String file : updated) {
+            final Path p = stagedDir.resolve(file);
+            if(!Files.exists(p)) {
+                return null;
+            }
+            digest.update(file.getBytes(StandardCharsets.UTF_8));
+            try {
+                digest.update(Files.readAllBytes(p));
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.readFile(p), e);
+            }
+        }
+        final String key = HashUtils.bytesToHexString(digest.digest());
+        entryFiles.put(key, files);
+        return key;
+    }
+
+    private static void addConfigFile(String baseDir, String[] args, String configArg, String defaultConfig, String emptyArg,
+            List<String> files, List<String> updated) {
+        String config = WfConfigGenerator.getArgValue(args, configArg);
+        if(config == null) {
+            config = defaultConfig;
+        }
+        final String file = baseDir + '/' + CONFIGURATION + '/' + config;
+        files.add(file);
+        if(!Arrays.asList(args).contains(emptyArg)) {
+            updated.add(file);
+        }
+    }
+
+    /**
+     * Copies the cached config files to the staged installation and marks
+     * the entry as the most recently used one. The other files of the entry of
+     * the last config of a configuration directory are kept to be written
+     * by {@link #restoreOtherFiles()}.
+     *
+     * @param key  cache key
+     * @param last  whether the config is the last one generated in its configuration directory
+     * @return  true if the cache contains the entry, otherwise false
+     * @throws ProvisioningException  in case the files could not be copied
+     */
+    boolean restore(String key, boolean last) throws ProvisioningException {
+        final Path entryDir = cacheDir.resolve(key);
+        if(!Files.exists(entryDir) || last && !Files.exists(entryDir.resolve(OTHER_FILES))) {
+            return false;
+        }
+        final Map<String, byte[]> otherFiles;
+        try {
+            otherFiles = last ? readFiles(entryDir.resolve(OTHER_FILES)) : Collections.emptyMap();
+            IoUtils.copy(entryDir.resolve(CONFIGS), stagedDir);
+        } catch (IOException e) {
+            // another build may have evicted the entry in the meantime
+            if(!Files.exists(entryDir)) {
+                return false;
+            }
+            throw new ProvisioningException(Errors.copyFile(entryDir, stagedDir), e);
+        }
+        restoredOtherFiles.putAll(otherFiles);
+        try {
+            Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // the entry remains usable, it is just evicted earlier
+        }
+        pending.removeAll(entryFiles.get(key));
+        return true;
+    }
+
+    /**
+     * Writes the other files of the restored entries of the last configs to the
+     * staged installation. This is meant to be called once the configs that
+     * were not restored have been generated, so that the files end up as written
+     * for the last configs.
+     *
+     * @throws ProvisioningException  in case the files could not be written
+     */
+    void restoreOtherFiles() throws ProvisioningException {
+        for(Map.Entry<String, byte[]> file : restoredOtherFiles.entrySet()) {
+            final Path target = stagedDir.resolve(file.getKey());
+            try {
+                Files.createDirectories(target.getParent());
+                Files.write(target, file.getValue());
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.writeFile(target), e);
+            }
+        }
+        restoredOtherFiles.clear();
+    }
+
+    /**
+     * Saves the config files generated for the key. The entry of the last
+     * config of a configuration directory also saves the other files the
+     * generation added or changed in the configuration directories, replacing
+     * an entry saved without them. The entry is prepared in a temporary directory
+     * which is then moved to its place, so that a concurrent build never sees
+     * an incomplete entry. The least recently used entries exceeding the limit are evicted.
+     *
+     * @param key  cache key
+     * @param last  whether the config is the last one generated in its configuration directory
+     * @throws ProvisioningException  in case the entry could not be saved
+     */
+    void store(String key, boolean last) throws ProvisioningException {
+        final Path entryDir = cacheDir.resolve(key);
+        if(Files.exists(entryDir) && (!last || Files.exists(entryDir.resolve(OTHER_FILES)))) {
+            return;
+        }
+        final Path tmpDir = cacheDir.resolve(key + '.' + System.nanoTime() + ".tmp");
+        try {
+            final List<String> files = entryFiles.get(key);
+            for(String file : files) {
+                final Path target = tmpDir.resolve(CONFIGS).resolve(file);
+                Files.createDirectories(target.getParent());
+                Files.copy(stagedDir.resolve(file), target);
+            }
+            if(last) {
+                final Path otherDir = tmpDir.resolve(OTHER_FILES);
+                Files.createDirectories(otherDir);
+                final String configDir = files.get(0).substring(0, files.get(0).lastIndexOf('/') + 1);
+                for(Map.Entry<String, byte[]> file : readOtherFiles(stagedDir, configFiles).entrySet()) {
+                    if(!file.getKey().startsWith(configDir) || Arrays.equals(file.getValue(), originalFiles.get(file.getKey()))) {
+                        continue;
+                    }
+                    final Path target = otherDir.resolve(file.getKey());
+                    Files.createDirectories(target.getParent());
+                    Files.write(target, file.getValue());
+                }
+            }
+            if(Files.exists(entryDir)) {
+                // replace the entry saved without the other files
+                final Path evicted = cacheDir.resolve(key + EVICTED + '.' + System.nanoTime());
+                Files.move(entryDir, evicted, StandardCopyOption.ATOMIC_MOVE);
+                IoUtils.recursiveDelete(evicted);
+            }
+            Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // another build may have saved the same entry in the meantime
+            if(!Files.exists(entryDir)) {
+                throw new ProvisioningException(Errors.writeFile(entryDir), e);
+            }
+        } finally {
+            IoUtils.recursiveDelete(tmpDir);
+        }
+        evict();
+    }
+
+    /**
+     * Reads the files of the configuration directories except for the config
+     * history and the given config files.
+     */
+    private static Map<String, byte[]> readOtherFiles(Path stagedDir, Set<String> configFiles) throws ProvisioningException {
+        final Map<String, byte[]> files = new HashMap<>();
+        for(String dir : CONFIG_DIRS) {
+            final Path configDir = stagedDir.resolve(dir);
+            if(!Files.exists(configDir)) {
+                continue;
+            }
+            try {
+                for(Map.Entry<String, byte[]> file : readFiles(configDir).entrySet()) {
+                    final String path = dir + '/' + file.getKey();
+                    if(!configFiles.contains(path)) {
+                        files.put(path, file.getValue());
+                    }
+                }
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.readDirectory(configDir), e);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Reads the files of a directory, except for the config history, by their paths relative
+     * to the directory, which use '/' as the separator.
+     */
+    private static Map<String, byte[]> readFiles(Path dir) throws IOException {
+        final Map<String, byte[]> files = new LinkedHashMap<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                return d.getFileName().toString().endsWith(HISTORY_SUFFIX) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                files.put(dir.relativize(file).toString().replace(File.separatorChar, '/'), Files.readAllBytes(file));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Removes the least recently used entries exceeding the limit. An entry
+     * is first renamed, so that a concurrent build either restores it completely
+     * or does not find it.
+     */
+    private void evict() throws ProvisioningException {
+        final List<Path> entries = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+            for(Path entry : stream) {
+                // skip the entries being stored or evicted
+                if(entry.getFileName().toString().indexOf('.') < 0 && Files.isDirectory(entry)) {
+                    entries.add(entry);
+                }
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readDirectory(cacheDir), e);
+        }
+        if(entries.size() <= maxEntries) {
+            return;
+        }
+        final Map<Path, Long> lastUsed = new HashMap<>(entries.size());
+        for(Path entry : entries) {
+            try {
+                lastUsed.put(entry, Files.getLastModifiedTime(entry).toMillis());
+            } catch (IOException e) {
+                // evicted by another build
+                lastUsed.put(entry, Long.MIN_VALUE);
+            }
+        }
+        Collections.sort(entries, new Comparator<Path>() {
+            @Override
+            public int compare(Path o1, Path o2) {
+                return Long.compare(lastUsed.get(o1), lastUsed.get(o2));
+            }
+        });
+        for(int i = 0; i < entries.size() - maxEntries; ++i) {
+            final Path entry = entries.get(i);
+            final Path evicted = cacheDir.resolve(entry.getFileName().toString() + EVICTED + '.' + System.nanoTime());
+            try {
+                Files.move(entry, evicted, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // evicted by another build
+                continue;
+            }
+            IoUtils.recursiveDelete(evicted);
+        }
+    }
+}
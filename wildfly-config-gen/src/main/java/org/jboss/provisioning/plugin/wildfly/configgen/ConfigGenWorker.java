@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.util.PmCollections;
+
+/**
+ * Entry point of a forked JVM generating configs from the scripts recorded
+ * by {@link ScriptedConfigGenerator}.
+ *
+ * The first argument is the JBoss home directory, the rest are the paths to
+ * the scripts, which are executed in the order they are listed. The JVM
+ * exits with status 1 if one of the scripts failed, describing the failure
+ * in the error output, and with status 2 if the arguments are missing.
+ */
+public class ConfigGenWorker {
+
+    static final String STANDALONE = "standalone";
+    static final String HC = "hc";
+
+    static final int END = 0;
+    static final int OP = 1;
+
+    public static void main(String[] args) {
+        if(args.length < 1) {
+            System.err.println("Usage: " + ConfigGenWorker.class.getName() + " <jboss-home> <script>...");
+            System.exit(2);
+        }
+        final List<Path> scripts = new ArrayList<>(args.length - 1);
+        for(int i = 1; i < args.length; ++i) {
+            scripts.add(Paths.get(args[i]));
+        }
+        int status = 0;
+        try {
+            // stops the embedded process also in case of a failure
+            new WfConfigGenerator(args[0]).execute(scripts);
+        } catch(Throwable t) {
+            // the standard output belongs to the embedded process, the failure is reported to the provisioning JVM in the error output
+            System.err.print(describe(t));
+            status = 1;
+        }
+        // the embedded process may leave non-daemon threads behind
+        System.exit(status);
+    }
+
+    /**
+     * Describes a failure by the messages of its causes.
+     *
+     * @param t  failure
+     * @return  failure description
+     */
+    static String describe(Throwable t) {
+        final StringBuilder buf = new StringBuilder();
+        while(t != null) {
+            if(buf.length() > 0) {
+                buf.append(System.lineSeparator()).append("Caused by: ");
+            }
+            buf.append(t.getMessage() == null ? t.getClass().getName() : t.getMessage());
+            t = t.getCause();
+        }
+        return buf.toString();
+    }
+
+    static void execute(WfConfigGenerator configGen, Path script) throws ProvisioningException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(script)))) {
+            final String process = in.readUTF();
+            final String[] embeddedArgs = readArgs(in);
+            if(STANDALONE.equals(process)) {
+                configGen.startServer(embeddedArgs);
+            } else if(HC.equals(process)) {
+                configGen.startHc(embeddedArgs);
+            } else {
+                throw new ProvisioningException("Unexpected embedded process type " + process + " in " + script);
+            }
+            int record = in.readInt();
+            while(record == OP) {
+                final int sourcesTotal = in.readInt();
+                List<String> sources = Collections.emptyList();
+                for(int i = 0; i < sourcesTotal; ++i) {
+                    final String source = in.readUTF();
+                    sources = PmCollections.add(sources, source.isEmpty() ? null : source);
+                }
+                final ModelNode op = new ModelNode();
+                op.readExternal(in);
+                if(sourcesTotal == 0) {
+                    configGen.execute(op);
+                } else {
+                    configGen.execute(op, sources);
+                }
+                record = in.readInt();
+            }
+            if(record != END) {
+                throw new ProvisioningException("Unexpected record type " + record + " in " + script);
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readFile(script), e);
+        }
+    }
+
+    /**
+     * Reads the embedded process type and arguments the script starts with.
+     *
+     * @param script  config script
+     * @return  the embedded process type followed by its arguments
+     * @throws ProvisioningException  in case the script could not be read
+     */
+    static String[] readHeader(Path script) throws ProvisioningException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(script)))) {
+            final String process = in.readUTF();
+            final String[] args = readArgs(in);
+            final String[] header = new String[args.length + 1];
+            header[0] = process;
+            System.arraycopy(args, 0, header, 1, args.length);
+            return header;
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readFile(script), e);
+        }
+    }
+
+    private static String[] readArgs(DataInputStream in) throws IOException {
+        final String[] args = new String[in.readInt()];
+        for(int i = 0; i < args.length; ++i) {
+            args[i] = in.readUTF();
+        }
+        return args;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.AttributeChangeNotificationFilter;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import org.jboss.provisioning.ProvisioningException;
+
+/**
+ * Tracks the state of an embedded process by the attribute change notifications
+ * of the process state MBean, which the embedded server and host controller
+ * register in the platform MBean server when they boot. The MBean is kept
+ * across reloads of the process.
+ *
+ * A wait completes once the process has been seen starting or stopping and then
+ * reaching a state other than these, i.e. running, requiring a reload or
+ * a restart or stopped. A wait for a reload completes only once the process
+ * has been seen starting again, since a reloading process passes the stopped state.
+ */
+class ProcessStateListener implements NotificationListener, AutoCloseable {
+
+    static final String PROCESS_STATE_MBEAN = "jboss.root:type=state";
+    static final String PROCESS_STATE = "ProcessState";
+    static final String RUNTIME_CONFIGURATION_STATE = "RuntimeConfigurationState";
+
+    static final String STARTING = "starting";
+    static final String STOPPING = "stopping";
+    static final String STOPPED = "stopped";
+
+    /**
+     * Registers a listener with the process state MBean of the embedded process.
+     *
+     * @return  the registered listener or null if the MBean is not registered
+     * @throws ProvisioningException  in case the listener could not be registered
+     */
+    static ProcessStateListener register() throws ProvisioningException {
+        try {
+            return register(ManagementFactory.getPlatformMBeanServer(), new ObjectName(PROCESS_STATE_MBEAN));
+        } catch (MalformedObjectNameException e) {
+            throw new ProvisioningException("Failed to create object name " + PROCESS_STATE_MBEAN, e);
+        }
+    }
+
+    static ProcessStateListener register(MBeanServer server, ObjectName name) throws ProvisioningException {
+        final ProcessStateListener listener = new ProcessStateListener(server, name);
+        final AttributeChangeNotificationFilter filter = new AttributeChangeNotificationFilter();
+        filter.enableAttribute(RUNTIME_CONFIGURATION_STATE);
+        try {
+            server.addNotificationListener(name, listener, filter, null);
+        } catch (InstanceNotFoundException e) {
+            return null;
+        }
+        return listener;
+    }
+
+    private final MBeanServer server;
+    private final ObjectName name;
+    private String state;
+    private boolean changing;
+    private boolean restarted;
+    private int notifications;
+
+    private ProcessStateListener(MBeanServer server, ObjectName name) {
+        this.server = server;
+        this.name = name;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        stateChanged(String.valueOf(((AttributeChangeNotification) notification).getNewValue()));
+    }
+
+    /**
+     * Reads the current state of the process and takes it into account as if the
+     * process has just been started.
+     *
+     * @throws ProvisioningException  in case the state could not be read
+     */
+    void processStarted() throws ProvisioningException {
+        final int notified;
+        synchronized(this) {
+            notified = notifications;
+        }
+        final Object current;
+        try {
+            current = server.getAttribute(name, PROCESS_STATE);
+        } catch (JMException e) {
+            throw new ProvisioningException("Failed to read " + PROCESS_STATE + " of " + name, e);
+        }
+        synchronized(this) {
+            changing = true;
+            // a notification received while the attribute was being read is at least as recent as the value read
+            if(notifications == notified) {
+                state = String.valueOf(current);
+            }
+            notifyAll();
+        }
+    }
+
+    synchronized void stateChanged(String state) {
+        ++notifications;
+        this.state = state;
+        if(STARTING.equals(state)) {
+            changing = true;
+            restarted = true;
+        } else if(STOPPING.equals(state)) {
+            changing = true;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Waits for the process to complete its start or reload.
+     *
+     * @param timeout  the max time to wait in nanoseconds or null to wait without a limit
+     * @return  the state the process reached
+     * @throws ProvisioningException  in case the process did not reach a stable state
+     * within the timeout, the process stopped or the thread was interrupted
+     */
+    String await(Long timeout) throws ProvisioningException {
+        return await(timeout, false);
+    }
+
+    /**
+     * Waits for the process to complete a reload, during which it passes the stopped state
+     * before it starts again.
+     *
+     * @param timeout  the max time to wait in nanoseconds or null to wait without a limit
+     * @return  the state the process reached
+     * @throws ProvisioningException  in case the process did not reach a stable state
+     * within the timeout, the process stopped after it started again or the thread was interrupted
+     */
+    String awaitReload(Long timeout) throws ProvisioningException {
+        return await(timeout, true);
+    }
+
+    private synchronized String await(Long timeout, boolean reload) throws ProvisioningException {
+        final long deadline = timeout == null ? 0 : System.nanoTime() + timeout;
+        while(!(reload ? restarted : changing) || STARTING.equals(state) || STOPPING.equals(state)) {
+            long wait = 0;
+            if(timeout != null) {
+                wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if(wait <= 0) {
+                    throw new ProvisioningException("Embedded process did not leave '" + (changing ? state : "running") + "' state within " +
+                            TimeUnit.NANOSECONDS.toSeconds(timeout) + " seconds");
+                }
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProvisioningException("Interrupted while waiting for embedded process to start");
+            }
+        }
+        if(STOPPED.equals(state)) {
+            throw new ProvisioningException("Embedded process stopped while it was expected to start");
+        }
+        return state;
+    }
+
+    @Override
+    public void close() {
+        try {
+            server.removeNotificationListener(name, this);
+        } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+            // the process has been stopped
+        }
+    }
+}
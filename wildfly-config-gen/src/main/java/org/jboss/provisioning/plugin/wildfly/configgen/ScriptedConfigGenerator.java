@@ -0,0 +1,474 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.FileVisitResult;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.jboss.dmr.ModelNode;
+import org.jboss.provisioning.Errors;
+import org.jboss.provisioning.MessageWriter;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.runtime.ProvisioningRuntime;
+import org.jboss.provisioning.state.ProvisionedConfig;
+import org.jboss.provisioning.util.IoUtils;
+
+/**
+ * Generates the configs from the recorded scripts of their operations.
+ *
+ * The management operations of every config are recorded into a script
+ * in the provisioning JVM. If the config cache is enabled, the configs
+ * found in it are copied from the cache. The rest of the scripts are
+ * executed either in this JVM or by a pool of {@link ConfigGenWorker}
+ * processes against the staged installation. The standalone
+ * configs are spread across the workers while the domain and host configs
+ * are generated by one worker in the order they were provisioned. A single
+ * worker generates all of them. Every worker gets its own data, log, tmp and
+ * configuration directories and is destroyed if it does not complete in time.
+ */
+class ScriptedConfigGenerator {
+
+    /**
+     * Records the operations of a config instead of executing them.
+     */
+    private static class ScriptRecorder extends WfConfigGenerator {
+
+        private DataOutputStream out;
+        private boolean started;
+        private boolean hc;
+
+        void record(Path script, ProvisionedConfig config, WfProvisionedConfigHandler handler) throws ProvisioningException {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(script)))) {
+                this.out = out;
+                started = false;
+                config.handle(handler);
+                if(!started) {
+                    throw new ProvisioningException("Config " + config.getModel() + ':' + config.getName() + " did not start an embedded process");
+                }
+                out.writeInt(ConfigGenWorker.END);
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to record the operations of " + config.getModel() + ':' + config.getName() + " to " + script, e);
+            } finally {
+                this.out = null;
+            }
+        }
+
+        @Override
+        void startServer(String... args) throws ProvisioningException {
+            start(ConfigGenWorker.STANDALONE, args);
+            hc = false;
+        }
+
+        @Override
+        void startHc(String... args) throws ProvisioningException {
+            start(ConfigGenWorker.HC, args);
+            hc = true;
+        }
+
+        private void start(String process, String... args) throws ProvisioningException {
+            started = true;
+            try {
+                out.writeUTF(process);
+                out.writeInt(args.length);
+                for(String arg : args) {
+                    out.writeUTF(arg);
+                }
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to record the embedded process arguments", e);
+            }
+        }
+
+        @Override
+        void execute(ModelNode op) throws ProvisioningException {
+            execute(op, Collections.emptyList());
+        }
+
+        @Override
+        void execute(ModelNode composite, List<String> stepSources) throws ProvisioningException {
+            try {
+                out.writeInt(ConfigGenWorker.OP);
+                out.writeInt(stepSources.size());
+                for(String source : stepSources) {
+                    out.writeUTF(source == null ? "" : source);
+                }
+                composite.writeExternal(out);
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to record " + composite, e);
+            }
+        }
+
+        @Override
+        void stopEmbedded() throws ProvisioningException {
+        }
+    }
+
+    /** the default number of seconds the workers are given to complete */
+    static final long DEFAULT_WORKER_TIMEOUT = 600;
+
+    private static final String CONFIGURATION = "configuration";
+    private static final String OUT_LOG = "out.log";
+    private static final String ERR_LOG = "err.log";
+    private static final String[] CONFIG_DIR_TYPES = {"server", "domain"};
+    private static final String[] CONFIG_DIRS = {"standalone", "domain"};
+
+    private final ProvisioningRuntime runtime;
+    private final Path stagedDir;
+    private final MessageWriter messageWriter;
+    private final int workers;
+    private final long workerTimeout;
+    private final ConfigGenCache cache;
+    private final String workerMain;
+
+    ScriptedConfigGenerator(ProvisioningRuntime runtime, int workers, long workerTimeout, ConfigGenCache cache) {
+        this(runtime, runtime.getStagedDir(), runtime.getMessageWriter(), workers, workerTimeout, cache, ConfigGenWorker.class.getName());
+    }
+
+    ScriptedConfigGenerator(Path stagedDir, MessageWriter messageWriter, int workers, long workerTimeout, String workerMain) {
+        this(null, stagedDir, messageWriter, workers, workerTimeout, null, workerMain);
+    }
+
+    private ScriptedConfigGenerator(ProvisioningRuntime runtime, Path stagedDir, MessageWriter messageWriter, int workers, long workerTimeout,
+            ConfigGenCache cache, String workerMain) {
+        this.runtime = runtime;
+        this.stagedDir = stagedDir;
+        this.messageWriter = messageWriter;
+        this.workers = workers;
+        this.workerTimeout = workerTimeout;
+        this.cache = cache;
+        this.workerMain = workerMain;
+    }
+
+    void generate() throws ProvisioningException {
+        final Path workDir = runtime.getTmpPath("config-gen");
+        try {
+            Files.createDirectories(workDir);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.mkdirs(workDir), e);
+        }
+        try {
+            final List<Path> recorded = new ArrayList<>();
+            final List<Boolean> recordedHc = new ArrayList<>();
+            final ScriptRecorder recorder = new ScriptRecorder();
+            final WfProvisionedConfigHandler handler = new WfProvisionedConfigHandler(runtime, recorder);
+            int lastServer = -1;
+            int lastHc = -1;
+            for (ProvisionedConfig config : runtime.getConfigs()) {
+                final Path script = workDir.resolve("config" + recorded.size() + ".ops");
+                messageWriter.verbose("Recording config model=%s name=%s", config.getModel(), config.getName());
+                recorder.record(script, config, handler);
+                if(recorder.hc) {
+                    lastHc = recorded.size();
+                } else {
+                    lastServer = recorded.size();
+                }
+                recorded.add(script);
+                recordedHc.add(recorder.hc);
+            }
+
+            final List<Path> scripts = new ArrayList<>();
+            final List<Path> hcScripts = new ArrayList<>();
+            final List<Path> serverScripts = new ArrayList<>();
+            final List<String> cacheKeys = new ArrayList<>();
+            // the keys of the last configs generated in the standalone and domain configuration directories
+            final List<String> lastKeys = new ArrayList<>(2);
+            for(int i = 0; i < recorded.size(); ++i) {
+                final Path script = recorded.get(i);
+                final boolean last = i == lastServer || i == lastHc;
+                if(cache != null) {
+                    final String key = cache.getKey(script);
+                    if(key != null) {
+                        if(cache.restore(key, last)) {
+                            messageWriter.verbose("  restored config %d from the cache entry %s", i, key);
+                            continue;
+                        }
+                        cacheKeys.add(key);
+                        if(last) {
+                            lastKeys.add(key);
+                        }
+                    }
+                }
+                scripts.add(script);
+                if(recordedHc.get(i)) {
+                    hcScripts.add(script);
+                } else {
+                    serverScripts.add(script);
+                }
+            }
+
+            if(workers > 0) {
+                fork(workDir, hcScripts, serverScripts);
+            } else if(!scripts.isEmpty()) {
+                new WfConfigGenerator(stagedDir.toString()).execute(scripts);
+            }
+
+            if(cache != null) {
+                cache.restoreOtherFiles();
+                for(String key : cacheKeys) {
+                    cache.store(key, lastKeys.contains(key));
+                }
+            }
+        } finally {
+            IoUtils.recursiveDelete(workDir);
+        }
+    }
+
+    /**
+     * Executes the scripts in a pool of at most as many worker processes as configured.
+     *
+     * Each worker generates the configs in a copy of the configuration directories
+     * of the staged installation. Once all the workers have succeeded, the files
+     * they added or changed in their configuration directories are copied to the
+     * staged installation. The server workers are handled in the order of their
+     * scripts, so that, like if the configs were generated one after another,
+     * a file written by the embedded server of every config (e.g. logging.properties)
+     * ends up as written for the last config.
+     *
+     * @param workDir  work directory
+     * @param hcScripts  scripts to be executed by an embedded host controller
+     * @param serverScripts  scripts to be executed by an embedded server
+     * @throws ProvisioningException  in case a worker failed
+     */
+    void fork(Path workDir, List<Path> hcScripts, List<Path> serverScripts) throws ProvisioningException {
+        if(hcScripts.isEmpty() && serverScripts.isEmpty()) {
+            return;
+        }
+        final List<List<Path>> workerScripts = new ArrayList<>(workers);
+        int serverWorkers = Math.min(workers, serverScripts.size());
+        if(!hcScripts.isEmpty()) {
+            if(workers == 1) {
+                final List<Path> scripts = new ArrayList<>(hcScripts.size() + serverScripts.size());
+                scripts.addAll(hcScripts);
+                scripts.addAll(serverScripts);
+                workerScripts.add(scripts);
+                serverWorkers = 0;
+            } else {
+                workerScripts.add(hcScripts);
+                serverWorkers = Math.min(workers - 1, serverScripts.size());
+            }
+        }
+        // consecutive standalone configs are kept together so that a worker can reload its server between them
+        int offset = 0;
+        int i;
+        for(i = 0; i < serverWorkers && offset < serverScripts.size(); ++i) {
+            final int size = (serverScripts.size() - offset + serverWorkers - i - 1) / (serverWorkers - i);
+            workerScripts.add(serverScripts.subList(offset, offset + size));
+            offset += size;
+        }
+
+        final Path classpathJar = writeClasspathJar(workDir);
+        final List<Process> processes = new ArrayList<>(workerScripts.size());
+        final List<Path> workerDirs = new ArrayList<>(workerScripts.size());
+        try {
+            for(i = 0; i < workerScripts.size(); ++i) {
+                final Path workerDir = workDir.resolve("worker" + i);
+                workerDirs.add(workerDir);
+                copyConfigDirs(stagedDir, workerDir);
+                messageWriter.verbose("Starting config generation worker %d for %s", i, workerScripts.get(i));
+                processes.add(fork(classpathJar, workerDir, workerScripts.get(i)));
+            }
+            ProvisioningException failure = null;
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(workerTimeout);
+            for(i = 0; i < processes.size(); ++i) {
+                final Process process = processes.get(i);
+                try {
+                    if(!process.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        process.destroyForcibly();
+                        throw new ProvisioningException("Config generation worker " + i + " did not complete within " + workerTimeout + " seconds");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ProvisioningException("Interrupted while waiting for the config generation workers", e);
+                }
+                final int status = process.exitValue();
+                final Path workerDir = workerDirs.get(i);
+                if(messageWriter.isVerboseEnabled()) {
+                    messageWriter.verbose(readLog(workerDir.resolve(OUT_LOG)));
+                }
+                if(status != 0 && failure == null) {
+                    failure = new ProvisioningException("Config generation worker " + i + " exited with status " + status + ": " + readLog(workerDir.resolve(ERR_LOG)));
+                }
+            }
+            if(failure != null) {
+                throw failure;
+            }
+        } finally {
+            for(Process process : processes) {
+                if(process.isAlive()) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+        for(Path workerDir : workerDirs) {
+            mergeConfigDirs(workerDir, stagedDir);
+        }
+    }
+
+    private Process fork(Path classpathJar, Path workerDir, List<Path> scripts) throws ProvisioningException {
+        final List<String> cmd = new ArrayList<>(12 + scripts.size());
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        addDirProps(cmd, "data", workerDir.resolve("data"));
+        addDirProps(cmd, "log", workerDir.resolve("log"));
+        addDirProps(cmd, "temp", workerDir.resolve("tmp"));
+        for(int i = 0; i < CONFIG_DIRS.length; ++i) {
+            cmd.add("-Djboss." + CONFIG_DIR_TYPES[i] + ".config.dir=" + workerDir.resolve(CONFIG_DIRS[i]).resolve(CONFIGURATION));
+        }
+        cmd.add("-cp");
+        cmd.add(classpathJar.toString());
+        cmd.add(workerMain);
+        cmd.add(stagedDir.toString());
+        for(Path script : scripts) {
+            cmd.add(script.toString());
+        }
+        try {
+            return new ProcessBuilder(cmd)
+                    .redirectOutput(workerDir.resolve(OUT_LOG).toFile())
+                    .redirectError(workerDir.resolve(ERR_LOG).toFile())
+                    .start();
+        } catch (IOException e) {
+            throw new ProvisioningException("Failed to start config generation worker " + cmd, e);
+        }
+    }
+
+    private static void addDirProps(List<String> cmd, String name, Path dir) {
+        cmd.add("-Djboss.server." + name + ".dir=" + dir);
+        cmd.add("-Djboss.domain." + name + ".dir=" + dir);
+    }
+
+    private static void copyConfigDirs(Path stagedDir, Path workerDir) throws ProvisioningException {
+        for(String dir : CONFIG_DIRS) {
+            final Path src = stagedDir.resolve(dir).resolve(CONFIGURATION);
+            final Path target = workerDir.resolve(dir).resolve(CONFIGURATION);
+            try {
+                if(Files.exists(src)) {
+                    IoUtils.copy(src, target);
+                } else {
+                    Files.createDirectories(target);
+                }
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.copyFile(src, target), e);
+            }
+        }
+    }
+
+    /**
+     * Copies the files a worker added or changed in its configuration directories
+     * to the configuration directories of the staged installation. The config
+     * history directories are skipped.
+     */
+    static void mergeConfigDirs(Path workerDir, Path stagedDir) throws ProvisioningException {
+        for(String dir : CONFIG_DIRS) {
+            final Path src = workerDir.resolve(dir).resolve(CONFIGURATION);
+            if(!Files.exists(src)) {
+                continue;
+            }
+            final Path target = stagedDir.resolve(dir).resolve(CONFIGURATION);
+            try {
+                Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        return dir.getFileName().toString().endsWith("_history") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        final Path targetFile = target.resolve(src.relativize(file).toString());
+                        if(Files.exists(targetFile)) {
+                            if(Files.size(targetFile) == attrs.size() && Arrays.equals(Files.readAllBytes(targetFile), Files.readAllBytes(file))) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                        } else {
+                            Files.createDirectories(targetFile.getParent());
+                        }
+                        Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                throw new ProvisioningException(Errors.copyFile(src, target), e);
+            }
+        }
+    }
+
+    /**
+     * The classpath of the workers is the one the generator was loaded with.
+     * It is passed in the manifest of an empty jar since it includes every jar
+     * of the staged installation and may exceed the command line length limit.
+     */
+    private Path writeClasspathJar(Path workDir) throws ProvisioningException {
+        final List<URL> urls = new ArrayList<>();
+        ClassLoader cl = getClass().getClassLoader();
+        while(cl instanceof URLClassLoader) {
+            Collections.addAll(urls, ((URLClassLoader) cl).getURLs());
+            cl = cl.getParent();
+        }
+        // the provisioning API is loaded by the plugin's class loader
+        urls.add(ProvisioningException.class.getProtectionDomain().getCodeSource().getLocation());
+
+        final StringBuilder buf = new StringBuilder();
+        for(URL url : urls) {
+            final String path;
+            try {
+                path = Paths.get(url.toURI()).toUri().toString();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                continue;
+            }
+            if(buf.length() > 0) {
+                buf.append(' ');
+            }
+            buf.append(path);
+        }
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, buf.toString());
+        final Path jar = workDir.resolve("classpath.jar");
+        try {
+            new JarOutputStream(Files.newOutputStream(jar), manifest).close();
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.writeFile(jar), e);
+        }
+        return jar;
+    }
+
+    private static String readLog(Path log) throws ProvisioningException {
+        try {
+            return new String(Files.readAllBytes(log), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readFile(log), e);
+        }
+    }
+}
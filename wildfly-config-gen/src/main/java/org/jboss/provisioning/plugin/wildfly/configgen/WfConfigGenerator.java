@@ -18,18 +18,34 @@
 package org.jboss.provisioning.plugin.wildfly.configgen;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.jboss.as.controller.client.ModelControllerClient;
 import org.jboss.as.controller.client.helpers.ClientConstants;
 import org.jboss.as.controller.client.helpers.Operations;
 import org.jboss.dmr.ModelNode;
+import org.jboss.provisioning.Errors;
 import org.jboss.provisioning.MessageWriter;
 import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.plugin.PluginOption;
+import org.jboss.provisioning.plugin.wildfly.WfConstants;
 import org.jboss.provisioning.runtime.ProvisioningRuntime;
 import org.jboss.provisioning.state.ProvisionedConfig;
 import org.jboss.provisioning.util.PmCollections;
@@ -43,17 +59,70 @@ import org.wildfly.core.embedded.EmbeddedProcessStartException;
  */
 public class WfConfigGenerator {
 
+    private static final String SERVER_CONFIG_ARG = "--server-config";
+    private static final String EMPTY_SERVER_CONFIG_ARG = "--internal-empty-config";
+    private static final String REMOVE_SERVER_CONFIG_ARG = "--internal-remove-config";
+    private static final String ADMIN_ONLY_ARG = "--admin-only";
+    private static final String SERVER_CONFIG_DIR_PROP = "jboss.server.config.dir";
+    private static final String SERVER_BASE_DIR_PROP = "jboss.server.base.dir";
+    private static final String CONFIGURATION = "configuration";
+    private static final String SERVER = "server";
+    private static final String BOOT_CONFIG_SUFFIX = ".boot";
+
     private Long bootTimeout = null;
 
     private String jbossHome;
     private EmbeddedManagedProcess embeddedProcess;
     private ModelControllerClient mcc;
 
+    private boolean started;
     private boolean hc;
     private String[] args;
 
+    /** the config file the running server persists its changes to */
+    private Path bootConfig;
+    /** the config file of the config the running server is generating */
+    private Path serverConfig;
+    /** the content of the boot config file, while the server is generating other configs */
+    private Path bootConfigContent;
+
+    public WfConfigGenerator() {
+    }
+
+    WfConfigGenerator(String jbossHome) {
+        this.jbossHome = jbossHome;
+    }
+
     public void generate(ProvisioningRuntime runtime) throws ProvisioningException {
 
+        int workers = 0;
+        final String workersValue = runtime.getOptionValue(PluginOption.forName(WfConstants.CONFIG_GEN_WORKERS));
+        if(workersValue != null) {
+            try {
+                workers = Integer.parseInt(workersValue);
+            } catch(NumberFormatException e) {
+                throw new ProvisioningException("Failed to parse the value of " + WfConstants.CONFIG_GEN_WORKERS + " option: " + workersValue, e);
+            }
+        }
+        long workerTimeout = ScriptedConfigGenerator.DEFAULT_WORKER_TIMEOUT;
+        final String workerTimeoutValue = runtime.getOptionValue(PluginOption.forName(WfConstants.CONFIG_GEN_WORKER_TIMEOUT));
+        if(workerTimeoutValue != null) {
+            try {
+                workerTimeout = Long.parseLong(workerTimeoutValue);
+            } catch(NumberFormatException e) {
+                throw new ProvisioningException("Failed to parse the value of " + WfConstants.CONFIG_GEN_WORKER_TIMEOUT + " option: " + workerTimeoutValue, e);
+            }
+            if(workerTimeout < 1) {
+                throw new ProvisioningException("The value of " + WfConstants.CONFIG_GEN_WORKER_TIMEOUT + " option must be a positive integer: " + workerTimeoutValue);
+            }
+        }
+        final String cacheDir = runtime.getOptionValue(PluginOption.forName(WfConstants.CONFIG_GEN_CACHE));
+        final ConfigGenCache cache = cacheDir == null ? null : ConfigGenCache.newInstance(Paths.get(cacheDir), runtime);
+        if(workers > 0 || cache != null) {
+            new ScriptedConfigGenerator(runtime, workers, workerTimeout, cache).generate();
+            return;
+        }
+
         this.jbossHome = runtime.getStagedDir().toString();
         final MessageWriter messageWriter = runtime.getMessageWriter();
         final WfProvisionedConfigHandler configHandler = new WfProvisionedConfigHandler(runtime, this);
@@ -81,238 +150,453 @@ public class WfConfigGenerator {
             }
         } finally {
             try {
-                if (embeddedProcess != null) {
-                    stopEmbedded();
-                }
+                stopEmbedded();
             } finally {
-                Set<String> toClear = Collections.emptySet();
-                for (Map.Entry<?, ?> prop : System.getProperties().entrySet()) {
-                    final Object value = originalProps.get(prop.getKey());
-                    if (value != null) {
-                        System.setProperty(prop.getKey().toString(), value.toString());
-                    } else {
-                        toClear = PmCollections.add(toClear, prop.getKey().toString());
-                    }
-                }
-                if (!toClear.isEmpty()) {
-                    for (String prop : toClear) {
-                        System.clearProperty(prop);
-                    }
-                }
+                restoreSystemProperties(originalProps);
+            }
+        }
+    }
+
+    /**
+     * Executes the recorded config scripts in this JVM.
+     *
+     * @param scripts  config scripts
+     * @throws ProvisioningException  in case one of the scripts failed
+     */
+    void execute(List<Path> scripts) throws ProvisioningException {
+        final Map<?, ?> originalProps = new HashMap<>(System.getProperties());
+        try {
+            for(Path script : scripts) {
+                ConfigGenWorker.execute(this, script);
+            }
+        } finally {
+            try {
+                stopEmbedded();
+            } finally {
+                restoreSystemProperties(originalProps);
             }
         }
     }
 
+    private static void restoreSystemProperties(Map<?, ?> originalProps) {
+        Set<String> toClear = Collections.emptySet();
+        for (Map.Entry<?, ?> prop : System.getProperties().entrySet()) {
+            final Object value = originalProps.get(prop.getKey());
+            if (value != null) {
+                System.setProperty(prop.getKey().toString(), value.toString());
+            } else {
+                toClear = PmCollections.add(toClear, prop.getKey().toString());
+            }
+        }
+        if (!toClear.isEmpty()) {
+            for (String prop : toClear) {
+                System.clearProperty(prop);
+            }
+        }
+    }
+
+    /**
+     * Starts an embedded server for a config. If a server is already running
+     * with the same arguments except for the config file, it is switched to
+     * the config instead, see {@link #switchServerConfig(String[])}.
+     *
+     * @param args  embedded arguments of the config
+     * @throws ProvisioningException  in case the server failed to start
+     */
     void startServer(String... args) throws ProvisioningException {
-        //System.out.println("embed server " + jbossHome + " " + Arrays.asList(args));
+        if(started) {
+            if(!hc && switchServerConfig(args)) {
+                return;
+            }
+            stopEmbedded();
+        }
         this.args = args;
         this.hc = false;
-        embeddedProcess = EmbeddedProcessFactory.createStandaloneServer(jbossHome, null, null, args);
-        try {
-            embeddedProcess.start();
-        } catch (EmbeddedProcessStartException e) {
-            throw new ProvisioningException("Failed to start embedded server", e);
-        }
-        mcc = embeddedProcess.getModelControllerClient();
-        waitForServer();
+        serverConfig = getServerConfigFile(args);
+        bootConfig = serverConfig;
+        // a process that failed to start is stopped, too
+        started = true;
+        startProcess(false, args);
     }
 
+    /**
+     * Starts an embedded host controller for a config. A running embedded
+     * process is always stopped first, the embedded host controller does not
+     * complete a reload.
+     *
+     * @param args  embedded arguments of the config
+     * @throws ProvisioningException  in case the host controller failed to start
+     */
     void startHc(String... args) throws ProvisioningException {
-        //System.out.println("embed hc " + jbossHome + " " + Arrays.asList(args));
+        if(started) {
+            stopEmbedded();
+        }
         this.args = args;
         this.hc = true;
-        embeddedProcess = EmbeddedProcessFactory.createHostController(jbossHome, null, null, args);
+        started = true;
+        startProcess(true, args);
+    }
+
+    void startProcess(boolean hc, String... args) throws ProvisioningException {
+        embeddedProcess = hc ? EmbeddedProcessFactory.createHostController(jbossHome, null, null, args)
+                : EmbeddedProcessFactory.createStandaloneServer(jbossHome, null, null, args);
         try {
             embeddedProcess.start();
         } catch (EmbeddedProcessStartException e) {
-            throw new ProvisioningException("Failed to start embedded hc", e);
+            throw new ProvisioningException(hc ? "Failed to start embedded hc" : "Failed to start embedded server", e);
         }
         mcc = embeddedProcess.getModelControllerClient();
-        //waitForHc();
+        try(ProcessStateListener listener = ProcessStateListener.register()) {
+            // without the process state MBean there is nothing to wait for, the start returns after the boot
+            if(listener != null) {
+                listener.processStarted();
+                listener.await(bootTimeout);
+            }
+        }
     }
 
-    void stopEmbedded() throws ProvisioningException {
-        //System.out.println("stop embedded");
-        if(mcc != null) {
+    /**
+     * Switches the running embedded server to another config by reloading it
+     * instead of booting a new embedded server.
+     *
+     * A server persists its changes to the config file it booted with also after
+     * a reload with another config file. So the boot config file is used for all
+     * the configs: its content is set aside once the first config is complete,
+     * then, before each reload, the boot config file is copied to the file of the
+     * config that is complete and replaced with the initial content of the next
+     * config. For an empty config that is the root element in the namespace of
+     * the previous one. The boot config file gets its content back once the server
+     * is stopped.
+     *
+     * @param args  embedded arguments of the next config
+     * @return  true if the server has been reloaded with the next config, false if it has to be restarted
+     * @throws ProvisioningException  in case the config files could not be switched or the server
+     * failed to complete the reload
+     */
+    private boolean switchServerConfig(String[] args) throws ProvisioningException {
+        if(!isReloadable(this.args, args)) {
+            return false;
+        }
+        final Path nextConfig = getServerConfigFile(args);
+        if(nextConfig.equals(bootConfig)) {
+            return false;
+        }
+        final boolean empty = Arrays.asList(args).contains(EMPTY_SERVER_CONFIG_ARG);
+        String namespace = null;
+        if(empty) {
+            namespace = readServerNamespace(bootConfig);
+            if(namespace == null) {
+                return false;
+            }
+        } else if(!Files.exists(nextConfig)) {
+            return false;
+        }
+        try {
+            if(bootConfigContent == null) {
+                bootConfigContent = bootConfig.resolveSibling(bootConfig.getFileName() + BOOT_CONFIG_SUFFIX);
+                Files.copy(bootConfig, bootConfigContent, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.copy(bootConfig, serverConfig, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if(empty) {
+                Files.write(bootConfig, ("<?xml version='1.0' encoding='UTF-8'?>\n\n<server xmlns=\"" + namespace + "\"/>\n").getBytes(StandardCharsets.UTF_8));
+            } else {
+                Files.copy(nextConfig, bootConfig, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new ProvisioningException("Failed to switch the embedded server from " + serverConfig + " to " + nextConfig, e);
+        }
+        this.args = args;
+        serverConfig = nextConfig;
+        return reloadProcess(Arrays.asList(args).contains(ADMIN_ONLY_ARG));
+    }
+
+    /**
+     * Reloads the running embedded server.
+     *
+     * @param adminOnly  whether the server should be reloaded in the admin-only mode
+     * @return  true if the server has been reloaded, false if it has to be restarted
+     * @throws ProvisioningException  in case the server failed to complete the reload
+     */
+    boolean reloadProcess(boolean adminOnly) throws ProvisioningException {
+        final ModelNode reloadOp = Operations.createOperation("reload");
+        if(adminOnly) {
+            reloadOp.get("admin-only").set(true);
+        }
+        try(ProcessStateListener listener = ProcessStateListener.register()) {
+            if(listener == null) {
+                return false;
+            }
             try {
-                mcc.close();
+                if(!Operations.isSuccessfulOutcome(mcc.execute(reloadOp))) {
+                    return false;
+                }
             } catch (IOException e) {
-                throw new ProvisioningException("Failed to close ModelControllerClient", e);
+                return false;
             }
-            mcc = null;
-        }
-        if(embeddedProcess != null) {
-            embeddedProcess.stop();
-            embeddedProcess = null;
+            // the reload op returns before the process begins stopping
+            listener.awaitReload(bootTimeout);
         }
+        awaitClient();
+        return true;
     }
 
-    void execute(ModelNode op) throws ProvisioningException {
-        try {
-            final ModelNode response = mcc.execute(op);
-            if(Operations.isSuccessfulOutcome(response)) {
+    /**
+     * Waits for the client of the embedded server to accept operations after a reload.
+     * The client rejects them until the embedded server has connected it to the reloaded
+     * model controller, which happens after the server has been reported to be running.
+     *
+     * @throws ProvisioningException  in case the client did not accept an operation within the boot timeout
+     */
+    private void awaitClient() throws ProvisioningException {
+        final ModelNode op = Operations.createReadAttributeOperation(new ModelNode().setEmptyList(), "server-state");
+        final long deadline = bootTimeout == null ? 0 : System.nanoTime() + bootTimeout;
+        while(true) {
+            try {
+                mcc.execute(op);
                 return;
+            } catch(IllegalStateException e) {
+                // the server is still reloading
+            } catch(IOException e) {
+                throw new ProvisioningException("Failed to execute " + op, e);
+            }
+            if(bootTimeout != null && System.nanoTime() - deadline >= 0) {
+                throw new ProvisioningException("Embedded server did not accept management operations within " +
+                        TimeUnit.NANOSECONDS.toSeconds(bootTimeout) + " seconds after reload");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ProvisioningException("Interrupted while waiting for embedded server to reload");
             }
+        }
+    }
 
-            final StringBuilder buf = new StringBuilder();
-            buf.append("Failed to");
-            if(hc) {
-                String domainConfig = null;
-                boolean emptyDomain = false;
-                String hostConfig = null;
-                boolean emptyHost = false;
-                int i = 0;
-                while(i < args.length) {
-                    final String arg = args[i++];
-                    if(arg.startsWith("--domain-config")) {
-                        if(arg.length() == "--domain-config".length()) {
-                            domainConfig = args[i++];
-                        } else {
-                            domainConfig = arg.substring("--domain-config=".length());
-                        }
-                    } else if(arg.startsWith("--host-config")) {
-                        if(arg.length() == "--host-config".length()) {
-                            hostConfig = args[i++];
-                        } else {
-                            hostConfig = arg.substring("--host-config=".length());
-                        }
-                    } else if(arg.equals("--empty-host-config")) {
-                        emptyHost = true;
-                    } else if(arg.equals("--empty-domain-config")) {
-                        emptyDomain = true;
-                    }
-                }
-                if(emptyDomain) {
-                    buf.append(" generate ").append(domainConfig);
-                    if(emptyHost) {
-                        buf.append(" and ").append(hostConfig);
-                    }
-                } else if(emptyHost) {
-                    buf.append(" generate ").append(hostConfig);
-                } else {
-                    buf.append(" execute script");
+    /**
+     * Checks whether an embedded server started with some arguments can be switched
+     * to a config with other arguments. This is the case if the arguments differ only
+     * in the config file and whether the config is empty or replaces the existing file.
+     *
+     * @param current  the arguments the server was started with
+     * @param next  the arguments of the next config
+     * @return  true if the server can be reloaded, false if it has to be restarted
+     */
+    static boolean isReloadable(String[] current, String[] next) {
+        return getOtherArgs(next).equals(getOtherArgs(current));
+    }
+
+    /**
+     * Reads the namespace of the root element of a standalone config file.
+     *
+     * @return  the namespace or null, if the file is not a standalone config
+     */
+    private static String readServerNamespace(Path config) {
+        if(!Files.exists(config)) {
+            return null;
+        }
+        try(InputStream in = Files.newInputStream(config)) {
+            final XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            try {
+                reader.nextTag();
+                return SERVER.equals(reader.getLocalName()) ? reader.getNamespaceURI() : null;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            return null;
+        }
+    }
+
+    private Path getServerConfigFile(String[] args) {
+        String config = getArgValue(args, SERVER_CONFIG_ARG);
+        if(config == null) {
+            config = WfConstants.STANDALONE + ".xml";
+        }
+        Path configDir;
+        final String configDirProp = System.getProperty(SERVER_CONFIG_DIR_PROP);
+        if(configDirProp != null) {
+            configDir = Paths.get(configDirProp);
+        } else {
+            final String baseDirProp = System.getProperty(SERVER_BASE_DIR_PROP);
+            configDir = (baseDirProp == null ? Paths.get(jbossHome, WfConstants.STANDALONE) : Paths.get(baseDirProp)).resolve(CONFIGURATION);
+        }
+        return configDir.resolve(config);
+    }
+
+    void stopEmbedded() throws ProvisioningException {
+        if(!started) {
+            return;
+        }
+        started = false;
+        try {
+            stopProcess();
+        } finally {
+            if(bootConfigContent != null) {
+                try {
+                    Files.copy(bootConfig, serverConfig, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(bootConfigContent, bootConfig, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new ProvisioningException(Errors.copyFile(bootConfig, serverConfig), e);
+                } finally {
+                    bootConfigContent = null;
                 }
-            } else {
-                String serverConfig = null;
-                boolean emptyConfig = false;
-                int i = 0;
-                while(i < args.length) {
-                    final String arg = args[i++];
-                    if(arg.equals("--server-config")) {
-                        if(arg.length() == "--server-config".length()) {
-                            serverConfig = args[i++];
-                        } else {
-                            serverConfig = arg.substring("--server-config=".length());
-                        }
-                    } else if(arg.equals("--internal-empty-config")) {
-                        emptyConfig = true;
-                    }
+            }
+        }
+    }
+
+    void stopProcess() throws ProvisioningException {
+        try {
+            if(mcc != null) {
+                try {
+                    mcc.close();
+                } catch (IOException e) {
+                    throw new ProvisioningException("Failed to close ModelControllerClient", e);
+                } finally {
+                    mcc = null;
                 }
-                if(emptyConfig) {
-                    buf.append(" generate ").append(serverConfig);
-                } else {
-                    buf.append(" execute script");
+            }
+        } finally {
+            if(embeddedProcess != null) {
+                try {
+                    embeddedProcess.stop();
+                } finally {
+                    embeddedProcess = null;
                 }
             }
-            buf.append(" on ").append(op).append(": ").append(Operations.getFailureDescription(response));
-            throw new ProvisioningException(buf.toString());
+        }
+    }
+
+    void execute(ModelNode op) throws ProvisioningException {
+        final ModelNode response;
+        try {
+            response = mcc.execute(op);
         } catch (IOException e) {
             throw new ProvisioningException("Failed to execute " + op);
         }
+        if(!Operations.isSuccessfulOutcome(response)) {
+            throw new ProvisioningException(failureMessage(op, response, null));
+        }
     }
 
-    private void waitForServer() throws ProvisioningException {
-        if (bootTimeout == null || bootTimeout > 0) {
-            // Poll for server state. Alternative would be to get ControlledProcessStateService
-            // and do reflection stuff to read the state and register for change notifications
-            long expired = bootTimeout == null ? Long.MAX_VALUE : System.nanoTime() + bootTimeout;
-            String status = "starting";
-            final ModelNode getStateOp = new ModelNode();
-            getStateOp.get(ClientConstants.OP).set(ClientConstants.READ_ATTRIBUTE_OPERATION);
-            getStateOp.get(ClientConstants.NAME).set("server-state");
-            do {
-                try {
-                    final ModelNode response = mcc.execute(getStateOp);
-                    if (Operations.isSuccessfulOutcome(response)) {
-                        status = response.get(ClientConstants.RESULT).asString();
-                    }
-                } catch (Exception e) {
-                    // ignore and try again
+    /**
+     * Executes a composite operation and, in case it fails, reports the step
+     * that caused the failure along with its source.
+     *
+     * @param composite  composite operation
+     * @param stepSources  descriptions of the origins of the steps, in the order of the steps
+     * @throws ProvisioningException  in case the operation failed
+     */
+    void execute(ModelNode composite, List<String> stepSources) throws ProvisioningException {
+        final ModelNode response;
+        try {
+            response = mcc.execute(composite);
+        } catch (IOException e) {
+            throw new ProvisioningException("Failed to execute " + composite);
+        }
+        if(Operations.isSuccessfulOutcome(response)) {
+            return;
+        }
+        if(response.hasDefined(ClientConstants.RESULT)) {
+            final ModelNode result = response.get(ClientConstants.RESULT);
+            final List<ModelNode> steps = composite.get(WfConstants.STEPS).asList();
+            for(int i = 0; i < steps.size(); ++i) {
+                final String stepId = "step-" + (i + 1);
+                if(!result.hasDefined(stepId)) {
+                    continue;
                 }
-
-                if ("starting".equals(status)) {
-                    try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        throw new ProvisioningException("Interrupted while waiting for embedded server to start");
-                    }
-                } else {
-                    break;
+                final ModelNode stepResponse = result.get(stepId);
+                if(!Operations.isSuccessfulOutcome(stepResponse) && stepResponse.hasDefined(ClientConstants.FAILURE_DESCRIPTION)) {
+                    throw new ProvisioningException(failureMessage(steps.get(i), stepResponse, stepSources.get(i)));
                 }
-            } while (System.nanoTime() < expired);
-
-            if ("starting".equals(status)) {
-                assert bootTimeout != null; // we'll assume the loop didn't run for decades
-                // Stop server and restore environment
-                stopEmbedded();
-                throw new ProvisioningException("Embedded server did not exit 'starting' status within " +
-                        TimeUnit.NANOSECONDS.toSeconds(bootTimeout) + " seconds");
             }
-
         }
+        throw new ProvisioningException(failureMessage(composite, response, null));
     }
 
-    private void waitForHc() throws ProvisioningException {
-        if (bootTimeout == null || bootTimeout > 0) {
-            long expired = bootTimeout == null ? Long.MAX_VALUE : System.nanoTime() + bootTimeout;
-
-            String status = "starting";
-
-            // read out the host controller name
-            final ModelNode getNameOp = new ModelNode();
-            getNameOp.get(ClientConstants.OP).set(ClientConstants.READ_ATTRIBUTE_OPERATION);
-            getNameOp.get(ClientConstants.NAME).set("local-host-name");
-
-            final ModelNode getStateOp = new ModelNode();
-            getStateOp.get(ClientConstants.OP).set(ClientConstants.READ_ATTRIBUTE_OPERATION);
-            ModelNode address = getStateOp.get(ClientConstants.ADDRESS);
-            getStateOp.get(ClientConstants.NAME).set(ClientConstants.HOST_STATE);
-            do {
-                try {
-                    final ModelNode nameResponse = mcc.execute(getNameOp);
-                    if (Operations.isSuccessfulOutcome(nameResponse)) {
-                        // read out the connected HC name
-                        final String localName = nameResponse.get(ClientConstants.RESULT).asString();
-                        address.set(ClientConstants.HOST, localName);
-                        final ModelNode stateResponse = mcc.execute(getStateOp);
-                        if (Operations.isSuccessfulOutcome(stateResponse)) {
-                            status = stateResponse.get(ClientConstants.RESULT).asString();
-                        }
+    private String failureMessage(ModelNode op, ModelNode response, String source) {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("Failed to");
+        if(hc) {
+            String domainConfig = null;
+            boolean emptyDomain = false;
+            String hostConfig = null;
+            boolean emptyHost = false;
+            int i = 0;
+            while(i < args.length) {
+                final String arg = args[i++];
+                if(arg.startsWith("--domain-config")) {
+                    if(arg.length() == "--domain-config".length()) {
+                        domainConfig = args[i++];
+                    } else {
+                        domainConfig = arg.substring("--domain-config=".length());
                     }
-                } catch (Exception e) {
-                    // ignore and try again
-                }
-
-                if ("starting".equals(status)) {
-                    try {
-                        Thread.sleep(50);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        throw new ProvisioningException("Interrupted while waiting for embedded server to start");
+                } else if(arg.startsWith("--host-config")) {
+                    if(arg.length() == "--host-config".length()) {
+                        hostConfig = args[i++];
+                    } else {
+                        hostConfig = arg.substring("--host-config=".length());
                     }
-                } else {
-                    break;
+                } else if(arg.equals("--empty-host-config")) {
+                    emptyHost = true;
+                } else if(arg.equals("--empty-domain-config")) {
+                    emptyDomain = true;
+                }
+            }
+            if(emptyDomain) {
+                buf.append(" generate ").append(domainConfig);
+                if(emptyHost) {
+                    buf.append(" and ").append(hostConfig);
                 }
-            } while (System.nanoTime() < expired);
+            } else if(emptyHost) {
+                buf.append(" generate ").append(hostConfig);
+            } else {
+                buf.append(" execute script");
+            }
+        } else {
+            final String serverConfig = getArgValue(args, SERVER_CONFIG_ARG);
+            if(Arrays.asList(args).contains(EMPTY_SERVER_CONFIG_ARG)) {
+                buf.append(" generate ").append(serverConfig);
+            } else {
+                buf.append(" execute script");
+            }
+        }
+        buf.append(" on ").append(op);
+        if(source != null) {
+            buf.append(" of ").append(source);
+        }
+        buf.append(": ").append(Operations.getFailureDescription(response));
+        return buf.toString();
+    }
 
-            if ("starting".equals(status)) {
-                assert bootTimeout != null; // we'll assume the loop didn't run for decades
-                // Stop server and restore environment
-                stopEmbedded();
-                throw new ProvisioningException("Embedded host controller did not exit 'starting' status within " +
-                        TimeUnit.NANOSECONDS.toSeconds(bootTimeout) + " seconds");
+    static String getArgValue(String[] args, String name) {
+        int i = 0;
+        while(i < args.length) {
+            final String arg = args[i++];
+            if(!arg.startsWith(name)) {
+                continue;
+            }
+            if(arg.length() == name.length()) {
+                return i < args.length ? args[i] : null;
+            }
+            if(arg.charAt(name.length()) == '=') {
+                return arg.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static List<String> getOtherArgs(String[] args) {
+        final List<String> other = new ArrayList<>(args.length);
+        int i = 0;
+        while(i < args.length) {
+            final String arg = args[i++];
+            if(arg.equals(SERVER_CONFIG_ARG)) {
+                ++i;
+            } else if(!arg.startsWith(SERVER_CONFIG_ARG + '=') && !arg.equals(EMPTY_SERVER_CONFIG_ARG) && !arg.equals(REMOVE_SERVER_CONFIG_ARG)) {
+                other.add(arg);
             }
         }
+        return other;
     }
 }
@@ -20,8 +20,11 @@ package org.jboss.provisioning.plugin.wildfly.configgen;
 import static org.jboss.provisioning.Constants.PM_UNDEFINED;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,6 +39,7 @@ import org.jboss.provisioning.Constants;
 import org.jboss.provisioning.MessageWriter;
 import org.jboss.provisioning.ProvisioningDescriptionException;
 import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.plugin.PluginOption;
 import org.jboss.provisioning.plugin.ProvisionedConfigHandler;
 import org.jboss.provisioning.plugin.wildfly.WfConstants;
 import org.jboss.provisioning.runtime.ProvisioningRuntime;
@@ -99,11 +103,116 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
         return HOST_PARAM_FILTER;
     }
 
+    private static final int MAX_PARSED_VALUES = 4096;
+
+    private static final Set<String> DMR_KEYWORDS = new HashSet<>(Arrays.asList(
+            "true", "false", "undefined", "big", "bytes", "expression", "NaN", "Infinity",
+            "BIG_DECIMAL", "BIG_INTEGER", "BOOLEAN", "BYTES", "DOUBLE", "EXPRESSION", "INT",
+            "LIST", "LONG", "OBJECT", "PROPERTY", "STRING", "TYPE", "UNDEFINED"));
+
+    /**
+     * Converts the string values of the feature parameters of one type to the values
+     * of the operation parameters.
+     * The same values repeat across the features, so the most recently used
+     * converted values are kept until the next config.
+     */
+    abstract static class ValueConverter {
+
+        @SuppressWarnings("serial")
+        private final Map<String, ModelNode> parsedValues = new LinkedHashMap<String, ModelNode>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ModelNode> eldest) {
+                return size() > MAX_PARSED_VALUES;
+            }
+        };
+
+        ModelNode convert(String name, String value) throws ProvisioningException {
+            ModelNode converted = parsedValues.get(value);
+            if(converted == null) {
+                converted = parse(name, value);
+                parsedValues.put(value, converted);
+            }
+            return converted;
+        }
+
+        protected abstract ModelNode parse(String name, String value) throws ProvisioningException;
+
+        void clear() {
+            parsedValues.clear();
+        }
+
+        int size() {
+            return parsedValues.size();
+        }
+    }
+
+    /**
+     * Converts the values of the parameters declared with a type other than String.
+     * These values have been parsed by the provisioning runtime according to the format
+     * of the type, i.e. lists, sets and maps in the syntax of the CLI argument values,
+     * so they are passed to the CLI argument parser directly.
+     */
+    static class CliValueConverter extends ValueConverter {
+        @Override
+        protected ModelNode parse(String name, String value) throws ProvisioningException {
+            return parseCliValue(name, value);
+        }
+    }
+
+    /**
+     * Converts the values of the String parameters, which is also the type of the parameters
+     * declared without a type, so the values may be written in either the DMR or the CLI syntax.
+     * The values which ModelNode.fromString() can't parse, i.e. the values starting with
+     * a word that is not a DMR keyword, are passed to the CLI argument parser directly.
+     * The rest are parsed as DMR falling back to the CLI argument parser.
+     */
+    static class StringValueConverter extends ValueConverter {
+        @Override
+        protected ModelNode parse(String name, String value) throws ProvisioningException {
+            return isCliValue(value) ? parseCliValue(name, value) : parseValue(name, value);
+        }
+
+        private static boolean isCliValue(String value) {
+            if(value.isEmpty()) {
+                return false;
+            }
+            char c = value.charAt(0);
+            if(c == '$') {
+                return true;
+            }
+            if(!Character.isLetter(c)) {
+                return false;
+            }
+            int i = 0;
+            while(++i < value.length() && Character.isLetter(value.charAt(i))) {
+            }
+            return !DMR_KEYWORDS.contains(value.substring(0, i));
+        }
+    }
+
     private class ManagedOp {
         String name;
         List<String> addrParams = Collections.emptyList();
         List<String> opParams = Collections.emptyList();
         int op;
+        private ValueConverter[] converters;
+
+        /*
+         * The operation with its address, in which the values of the address elements
+         * are set for each feature. The address elements depend on the param filter
+         * of the config model the template was created for.
+         */
+        private ModelNode template;
+        private NameFilter templateFilter;
+        private String[] addrFeatureParams;
+        private String[] addrKeys;
+
+        void initConverters(ResolvedFeatureSpec spec) throws ProvisioningException {
+            converters = new ValueConverter[opParams.size() / 2];
+            for(int i = 0; i < converters.length; ++i) {
+                converters[i] = getConverter(spec, opParams.get(i * 2));
+            }
+        }
 
         @Override
         public String toString() {
@@ -111,7 +220,7 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
         }
 
         private void writeOp(ProvisionedFeature feature) throws ProvisioningException {
-            final ModelNode op = writeOpAddress(feature);
+            final ModelNode op = newOp(feature);
             if (!opParams.isEmpty()) {
                 int i = 0;
                 while (i < opParams.size()) {
@@ -121,50 +230,70 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
                         ++i;
                         continue;
                     }
-                    setOpParam(op, opParams.get(i++), value.trim().isEmpty() ? '\"' + value + '\"' : value);
+                    setOpParam(op, opParams.get(i), converters[i / 2], value.trim().isEmpty() ? '\"' + value + '\"' : value);
+                    ++i;
                 }
             }
             handleOp(op);
         }
 
         private void writeList(ProvisionedFeature feature) throws ProvisioningException {
-            final ModelNode op = writeOpAddress(feature);
             String value = feature.getConfigParam(opParams.get(0));
             if (value == null) {
                 throw new ProvisioningDescriptionException(opParams.get(0) + " parameter is null: " + feature);
             }
-            op.get(WfConstants.NAME).set(opParams.get(1));
-            setOpParam(op, WfConstants.VALUE, value);
+            final ModelNode op = newOp(feature);
+            setOpParam(op, WfConstants.VALUE, converters[0], value);
             handleOp(op);
         }
 
-        private ModelNode writeOpAddress(ProvisionedFeature feature) throws ProvisioningException {
-            final ModelNode op = Operations.createOperation(name);
-            if(addrParams.isEmpty()) {
+        private ModelNode newOp(ProvisionedFeature feature) throws ProvisioningException {
+            if(template == null || templateFilter != paramFilter) {
+                initTemplate();
+            }
+            final ModelNode op = template.clone();
+            if(addrKeys.length == 0) {
                 return op;
             }
             final ModelNode addr = Operations.getOperationAddress(op);
-            int i = 0;
-            while (i < addrParams.size()) {
-                final String featureParam = addrParams.get(i);
-                if(!paramFilter.accepts(featureParam, i)) {
-                    i += 2;
-                    continue;
-                }
-                String value = feature.getConfigParam(featureParam);
+            int j = 0;
+            for(int i = 0; i < addrKeys.length; ++i) {
+                final String value = feature.getConfigParam(addrFeatureParams[i]);
                 if(value == null) {
-                    throw new ProvisioningException("Address parameter " + featureParam + " of " + feature.getId() + " is null");
+                    throw new ProvisioningException("Address parameter " + addrFeatureParams[i] + " of " + feature.getId() + " is null");
                 }
                 if(PM_UNDEFINED.equals(value)) {
-                    i += 2;
+                    addr.remove(j);
                     continue;
                 }
-                ++i;
-                addr.add(addrParams.get(i++), value);
+                addr.get(j++).set(addrKeys[i], value);
             }
             return op;
         }
 
+        private void initTemplate() {
+            final List<String> featureParams = new ArrayList<>(addrParams.size() / 2);
+            final List<String> keys = new ArrayList<>(addrParams.size() / 2);
+            for(int i = 0; i < addrParams.size(); i += 2) {
+                if(paramFilter.accepts(addrParams.get(i), i)) {
+                    featureParams.add(addrParams.get(i));
+                    keys.add(addrParams.get(i + 1));
+                }
+            }
+            addrFeatureParams = featureParams.toArray(new String[featureParams.size()]);
+            addrKeys = keys.toArray(new String[keys.size()]);
+
+            final ModelNode addr = new ModelNode().setEmptyList();
+            for(String key : addrKeys) {
+                addr.add(key, "");
+            }
+            template = Operations.createOperation(name, addr);
+            if(op == LIST_ADD) {
+                template.get(WfConstants.NAME).set(opParams.get(1));
+            }
+            templateFilter = paramFilter;
+        }
+
         void toCommandLine(ProvisionedFeature feature) throws ProvisioningException {
             switch (op) {
                 case OP: {
@@ -192,9 +321,10 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
                     ++i;
                     continue;
                 }
-                final ModelNode op = writeOpAddress(feature);
-                op.get(WfConstants.NAME).set(opParams.get(i++));
-                setOpParam(op, WfConstants.VALUE, value.toString());
+                final ModelNode op = newOp(feature);
+                op.get(WfConstants.NAME).set(opParams.get(i));
+                setOpParam(op, WfConstants.VALUE, converters[i / 2], value.toString());
+                ++i;
                 handleOp(op);
             }
         }
@@ -347,18 +477,62 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
     private final WfConfigGenerator configGen;
 
     private final Map<ResolvedSpecId, List<ManagedOp>> specOps = new HashMap<>();
+    private final Map<String, ValueConverter> converters = new HashMap<>();
     private List<ManagedOp> ops = Collections.emptyList();
     private NameFilter paramFilter;
 
     private ModelNode composite;
 
+    /*
+     * Unless the config declares explicit batches, the operations are grouped
+     * into composites of up to autoBatchSize steps. The steps are executed in the order
+     * they were produced, a composite is flushed before the next explicit batch,
+     * at the branch boundaries and at the end of the config.
+     */
+    private final int autoBatchSize;
+    private ModelNode autoBatch;
+    private List<String> autoBatchSources = Collections.emptyList();
+    private ProvisionedFeature feature;
+
     public WfProvisionedConfigHandler(ProvisioningRuntime runtime, WfConfigGenerator configGen) throws ProvisioningException {
-        this.messageWriter = runtime.getMessageWriter();
+        this(runtime.getMessageWriter(), configGen, getAutoBatchSize(runtime.getOptionValue(PluginOption.forName(WfConstants.CONFIG_GEN_BATCH_SIZE))));
+    }
+
+    WfProvisionedConfigHandler(MessageWriter messageWriter, WfConfigGenerator configGen, int autoBatchSize) {
+        this.messageWriter = messageWriter;
         this.configGen = configGen;
+        this.autoBatchSize = autoBatchSize;
+    }
+
+    /**
+     * Parses the value of the batch size option. Without the option, as well as
+     * with the value of 1, each operation is executed individually.
+     *
+     * @param value  the value of the option or null
+     * @return  the max number of operations in an automatically created composite
+     * @throws ProvisioningException  if the value is not a positive integer
+     */
+    static int getAutoBatchSize(String value) throws ProvisioningException {
+        if(value == null) {
+            return 1;
+        }
+        final int batchSize;
+        try {
+            batchSize = Integer.parseInt(value);
+        } catch(NumberFormatException e) {
+            throw new ProvisioningException("Failed to parse the value of " + WfConstants.CONFIG_GEN_BATCH_SIZE + " option: " + value, e);
+        }
+        if(batchSize < 1) {
+            throw new ProvisioningException("The value of " + WfConstants.CONFIG_GEN_BATCH_SIZE + " option must be a positive integer: " + value);
+        }
+        return batchSize;
     }
 
     @Override
     public void prepare(ProvisionedConfig config) throws ProvisioningException {
+        for(ValueConverter converter : converters.values()) {
+            converter.clear();
+        }
         if(WfConstants.STANDALONE.equals(config.getModel())) {
             configGen.startServer(getEmbeddedArgs(config));
             paramFilter = getStandaloneParamFilter();
@@ -399,6 +573,9 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
             }
             ops = PmCollections.addAll(ops, nextAnnotation(spec, annotation));
         }
+        for(ManagedOp op : ops) {
+            op.initConverters(spec);
+        }
         specOps.put(spec.getId(), ops);
     }
 
@@ -420,14 +597,30 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
             messageWriter.verbose("      %s", feature.getResolvedParams());
             return;
         }
-        for(ManagedOp op : ops) {
-            op.toCommandLine(feature);
+        this.feature = feature;
+        try {
+            for (ManagedOp op : ops) {
+                op.toCommandLine(feature);
+            }
+        } finally {
+            this.feature = null;
         }
     }
 
+    @Override
+    public void startBranch() throws ProvisioningException {
+        flushAutoBatch();
+    }
+
+    @Override
+    public void endBranch() throws ProvisioningException {
+        flushAutoBatch();
+    }
+
     @Override
     public void startBatch() throws ProvisioningException {
         messageWriter.verbose("      START BATCH");
+        flushAutoBatch();
         composite = Operations.createCompositeOperation();
     }
 
@@ -440,7 +633,8 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
 
     @Override
     public void done() throws ProvisioningException {
-        configGen.stopEmbedded();
+        // the embedded process is kept to be reused for the next config and is stopped by the generator
+        flushAutoBatch();
     }
 
     private String[] getEmbeddedArgs(ProvisionedConfig config) {
@@ -459,25 +653,62 @@ public class WfProvisionedConfigHandler implements ProvisionedConfigHandler {
     private void handleOp(ModelNode op) throws ProvisioningException {
         if(composite != null) {
             composite.get(WfConstants.STEPS).add(op);
+        } else if(autoBatchSize > 1) {
+            if(autoBatch == null) {
+                autoBatch = Operations.createCompositeOperation();
+            }
+            autoBatch.get(WfConstants.STEPS).add(op);
+            autoBatchSources = PmCollections.add(autoBatchSources, feature == null ? null : String.valueOf(feature.hasId() ? feature.getId() : feature.getSpecId()));
+            if(autoBatchSources.size() == autoBatchSize) {
+                flushAutoBatch();
+            }
         } else {
             configGen.execute(op);
         }
     }
 
-    private void setOpParam(ModelNode op, String name, String value) throws ProvisioningException {
-        ModelNode toSet = null;
+    private void flushAutoBatch() throws ProvisioningException {
+        if(autoBatch == null) {
+            return;
+        }
+        final ModelNode batch = autoBatch;
+        final List<String> sources = autoBatchSources;
+        autoBatch = null;
+        autoBatchSources = Collections.emptyList();
+        messageWriter.verbose("      EXECUTE %d OPERATION(S)", sources.size());
+        configGen.execute(batch, sources);
+    }
+
+    private ValueConverter getConverter(ResolvedFeatureSpec spec, String param) throws ProvisioningException {
+        final String type = spec.getSpec().hasParam(param) ? spec.getSpec().getParam(param).getType() : Constants.BUILT_IN_TYPE_STRING;
+        ValueConverter converter = converters.get(type);
+        if(converter == null) {
+            converter = Constants.BUILT_IN_TYPE_STRING.equals(type) ? new StringValueConverter() : new CliValueConverter();
+            converters.put(type, converter);
+        }
+        return converter;
+    }
+
+    private static void setOpParam(ModelNode op, String name, ValueConverter converter, String value) throws ProvisioningException {
+        op.get(name).set(converter.convert(name, value));
+    }
+
+    static ModelNode parseValue(String name, String value) throws ProvisioningException {
         try {
-            toSet = ModelNode.fromString(value);
+            return ModelNode.fromString(value);
         } catch (Exception e) {
-            final ArgumentValueCallbackHandler handler = new ArgumentValueCallbackHandler();
-            try {
-                StateParser.parse(value, handler, ArgumentValueInitialState.INSTANCE);
-            } catch (CommandFormatException e1) {
-                throw new ProvisioningException("Failed to parse parameter " + name + " '" + value + "'", e1);
-            }
-            toSet = handler.getResult();
+            return parseCliValue(name, value);
+        }
+    }
+
+    static ModelNode parseCliValue(String name, String value) throws ProvisioningException {
+        final ArgumentValueCallbackHandler handler = new ArgumentValueCallbackHandler();
+        try {
+            StateParser.parse(value, handler, ArgumentValueInitialState.INSTANCE);
+        } catch (CommandFormatException e) {
+            throw new ProvisioningException("Failed to parse parameter " + name + " '" + value + "'", e);
         }
-        op.get(name).set(toSet);
+        return handler.getResult();
     }
 
     static List<String> parseList(List<String> params, List<String> mappings) throws ProvisioningDescriptionException {
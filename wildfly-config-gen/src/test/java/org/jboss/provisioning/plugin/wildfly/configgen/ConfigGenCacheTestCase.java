@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the lookups, the invalidation and the eviction of the cached configs.
+ */
+public class ConfigGenCacheTestCase {
+
+    private static final List<ArtifactCoords.Gav> FPS = Collections.singletonList(ArtifactCoords.newGav("org.jboss.test", "fp1", "1.0.0.Final"));
+
+    private Path workDir;
+    private Path cacheDir;
+    private Path stagedDir;
+    private Path configDir;
+
+    @Before
+    public void init() throws Exception {
+        workDir = Files.createTempDirectory("configgen");
+        cacheDir = workDir.resolve("cache");
+        stagedDir = workDir.resolve("staged");
+        configDir = stagedDir.resolve("standalone").resolve("configuration");
+        Files.createDirectories(cacheDir);
+        Files.createDirectories(configDir);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        IoUtils.recursiveDelete(workDir);
+    }
+
+    @Test
+    public void testMiss() throws Exception {
+        final Path script = writeScript("s1", "--server-config=standalone.xml", "--internal-empty-config");
+        final String key = newCache(2).getKey(script);
+        Assert.assertNotNull(key);
+        Assert.assertFalse(newCache(2).restore(key, false));
+        Assert.assertFalse(Files.exists(configDir.resolve("standalone.xml")));
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        final Path script = writeScript("s1", "--server-config=standalone.xml", "--internal-empty-config");
+        final String key = generate(newCache(2), script, "standalone.xml", "generated");
+        Files.delete(configDir.resolve("standalone.xml"));
+
+        final ConfigGenCache cache = newCache(2);
+        Assert.assertEquals(key, cache.getKey(script));
+        Assert.assertTrue(cache.restore(key, false));
+        Assert.assertEquals("generated", read(configDir.resolve("standalone.xml")));
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        write(configDir.resolve("standalone.xml"), "original");
+        final Path script = writeScript("s1", "--server-config=standalone.xml");
+        final String key = newCache(2).getKey(script);
+        Assert.assertEquals(key, newCache(2).getKey(script));
+
+        // a different config generator
+        Assert.assertNotEquals(key, new ConfigGenCache(cacheDir, stagedDir, "hash2", FPS, 2).getKey(script));
+        // different feature-packs
+        Assert.assertNotEquals(key, new ConfigGenCache(cacheDir, stagedDir, "hash1",
+                Collections.singletonList(ArtifactCoords.newGav("org.jboss.test", "fp1", "1.0.1.Final")), 2).getKey(script));
+        // a different script
+        Assert.assertNotEquals(key, newCache(2).getKey(writeScript("s2", "--server-config=standalone.xml", "--read-only-server-config=x")));
+        // a different content of the updated config
+        write(configDir.resolve("standalone.xml"), "changed");
+        Assert.assertNotEquals(key, newCache(2).getKey(script));
+        // the updated config is generated earlier in the same run
+        final ConfigGenCache cache = newCache(2);
+        Assert.assertNotNull(cache.getKey(writeScript("s3", "--server-config=standalone.xml", "--internal-empty-config")));
+        Assert.assertNull(cache.getKey(script));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        final Path script1 = writeScript("s1", "--server-config=standalone1.xml", "--internal-empty-config");
+        final Path script2 = writeScript("s2", "--server-config=standalone2.xml", "--internal-empty-config");
+        final Path script3 = writeScript("s3", "--server-config=standalone3.xml", "--internal-empty-config");
+        final String key1 = generate(newCache(2), script1, "standalone1.xml", "s1");
+        final String key2 = generate(newCache(2), script2, "standalone2.xml", "s2");
+        final long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(cacheDir.resolve(key1), FileTime.fromMillis(now - 20000));
+        Files.setLastModifiedTime(cacheDir.resolve(key2), FileTime.fromMillis(now - 10000));
+
+        final ConfigGenCache cache = newCache(2);
+        Assert.assertEquals(key1, cache.getKey(script1));
+        Assert.assertTrue(cache.restore(key1, false));
+        final String key3 = generate(cache, script3, "standalone3.xml", "s3");
+
+        Assert.assertTrue(restore(script1));
+        Assert.assertFalse(restore(script2));
+        Assert.assertTrue(restore(script3));
+        final List<String> entries = Arrays.asList(key1, key3);
+        Collections.sort(entries);
+        Assert.assertEquals(entries, list(cacheDir));
+    }
+
+    @Test
+    public void testOtherFilesOfLastConfig() throws Exception {
+        write(configDir.resolve("logging.properties"), "original");
+        write(configDir.resolve("mgmt-users.properties"), "users");
+        final Path script = writeScript("s1", "--server-config=standalone.xml", "--internal-empty-config");
+        ConfigGenCache cache = newCache(2);
+        final String key = cache.getKey(script);
+        write(configDir.resolve("standalone.xml"), "generated");
+        write(configDir.resolve("logging.properties"), "s1");
+        write(configDir.resolve("extra.properties"), "s1");
+        Files.createDirectories(configDir.resolve("standalone_xml_history"));
+        write(configDir.resolve("standalone_xml_history").resolve("standalone.xml"), "history");
+        cache.store(key, true);
+
+        IoUtils.recursiveDelete(configDir);
+        Files.createDirectories(configDir);
+        write(configDir.resolve("logging.properties"), "original");
+        write(configDir.resolve("mgmt-users.properties"), "users");
+
+        cache = newCache(2);
+        Assert.assertEquals(key, cache.getKey(script));
+        Assert.assertTrue(cache.restore(key, true));
+        Assert.assertEquals("generated", read(configDir.resolve("standalone.xml")));
+        // written once the rest of the configs are generated
+        Assert.assertEquals("original", read(configDir.resolve("logging.properties")));
+        cache.restoreOtherFiles();
+        Assert.assertEquals("s1", read(configDir.resolve("logging.properties")));
+        Assert.assertEquals("s1", read(configDir.resolve("extra.properties")));
+        Assert.assertEquals("users", read(configDir.resolve("mgmt-users.properties")));
+        Assert.assertFalse(Files.exists(configDir.resolve("standalone_xml_history")));
+    }
+
+    @Test
+    public void testLastConfigNotRestoredWithoutOtherFiles() throws Exception {
+        write(configDir.resolve("logging.properties"), "original");
+        final Path script = writeScript("s1", "--server-config=standalone.xml", "--internal-empty-config");
+        final String key = generate(newCache(2), script, "standalone.xml", "generated");
+
+        ConfigGenCache cache = newCache(2);
+        Assert.assertEquals(key, cache.getKey(script));
+        Assert.assertFalse(cache.restore(key, true));
+        Assert.assertTrue(cache.restore(key, false));
+
+        // the entry is replaced once the config is generated as the last one
+        write(configDir.resolve("logging.properties"), "original");
+        cache = newCache(2);
+        cache.getKey(script);
+        write(configDir.resolve("logging.properties"), "s1");
+        cache.store(key, true);
+        write(configDir.resolve("logging.properties"), "original");
+        cache = newCache(2);
+        cache.getKey(script);
+        Assert.assertTrue(cache.restore(key, true));
+        cache.restoreOtherFiles();
+        Assert.assertEquals("s1", read(configDir.resolve("logging.properties")));
+        Assert.assertEquals(Collections.singletonList(key), list(cacheDir));
+    }
+
+    @Test
+    public void testSnapshotNotCached() {
+        final ArtifactCoords.Gav snapshot = ArtifactCoords.newGav("org.jboss.test", "fp2", "1.0.0-SNAPSHOT");
+        Assert.assertNull(ConfigGenCache.findSnapshot(FPS));
+        Assert.assertEquals(snapshot, ConfigGenCache.findSnapshot(Arrays.asList(FPS.get(0), snapshot)));
+    }
+
+    private ConfigGenCache newCache(int maxEntries) throws Exception {
+        return new ConfigGenCache(cacheDir, stagedDir, "hash1", FPS, maxEntries);
+    }
+
+    private boolean restore(Path script) throws Exception {
+        final ConfigGenCache cache = newCache(2);
+        return cache.restore(cache.getKey(script), false);
+    }
+
+    private String generate(ConfigGenCache cache, Path script, String config, String content) throws Exception {
+        final String key = cache.getKey(script);
+        Assert.assertNotNull(key);
+        write(configDir.resolve(config), content);
+        cache.store(key, false);
+        return key;
+    }
+
+    private Path writeScript(String name, String... args) throws Exception {
+        final Path script = workDir.resolve(name);
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(script))) {
+            out.writeUTF(ConfigGenWorker.STANDALONE);
+            out.writeInt(args.length);
+            for(String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.writeInt(ConfigGenWorker.END);
+        }
+        return script;
+    }
+
+    private static List<String> list(Path dir) throws Exception {
+        final List<String> names = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for(Path p : stream) {
+                names.add(p.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
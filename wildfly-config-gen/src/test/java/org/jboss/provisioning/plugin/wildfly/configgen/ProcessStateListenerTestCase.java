@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.MBeanServer;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+
+import org.jboss.provisioning.ProvisioningException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link ProcessStateListener} waits for the state changes
+ * broadcast by a process state MBean.
+ */
+public class ProcessStateListenerTestCase {
+
+    public interface TestProcessStateMBean {
+        String getProcessState();
+    }
+
+    public static class TestProcessState extends NotificationBroadcasterSupport implements TestProcessStateMBean {
+
+        private volatile String state;
+        private long sequence;
+
+        TestProcessState(String state) {
+            this.state = state;
+        }
+
+        @Override
+        public String getProcessState() {
+            return state;
+        }
+
+        synchronized void setProcessState(String newState) {
+            final String oldState = state;
+            state = newState;
+            sendNotification(new AttributeChangeNotification(this, ++sequence, System.currentTimeMillis(), "state changed",
+                    ProcessStateListener.RUNTIME_CONFIGURATION_STATE, String.class.getName(), oldState, newState));
+        }
+    }
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    private MBeanServer server;
+    private ObjectName name;
+    private TestProcessState mbean;
+
+    @Before
+    public void init() throws Exception {
+        server = ManagementFactory.getPlatformMBeanServer();
+        name = new ObjectName("org.jboss.pm.test:type=state");
+        mbean = new TestProcessState("ok");
+        server.registerMBean(mbean, name);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        server.unregisterMBean(name);
+    }
+
+    @Test
+    public void testNoMBean() throws Exception {
+        Assert.assertNull(ProcessStateListener.register(server, new ObjectName("org.jboss.pm.test:type=none")));
+    }
+
+    @Test
+    public void testStartedProcessIsRunning() throws Exception {
+        try(ProcessStateListener listener = ProcessStateListener.register(server, name)) {
+            listener.processStarted();
+            Assert.assertEquals("ok", listener.await(TIMEOUT));
+        }
+    }
+
+    @Test
+    public void testStartingProcess() throws Exception {
+        mbean.setProcessState("starting");
+        try(ProcessStateListener listener = ProcessStateListener.register(server, name)) {
+            listener.processStarted();
+            changeLater("reload-required");
+            Assert.assertEquals("reload-required", listener.await(TIMEOUT));
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        try(ProcessStateListener listener = ProcessStateListener.register(server, name)) {
+            changeLater("stopping", "starting", "ok");
+            Assert.assertEquals("ok", listener.await(TIMEOUT));
+            Assert.assertEquals("ok", mbean.getProcessState());
+        }
+    }
+
+    @Test
+    public void testReloadPassesStoppedState() throws Exception {
+        try(ProcessStateListener listener = ProcessStateListener.register(server, name)) {
+            changeLater("stopping", "stopped", "starting", "admin-only");
+            Assert.assertEquals("admin-only", listener.awaitReload(TIMEOUT));
+        }
+    }
+
+    @Test
+    public void testProcessStoppedAfterReload() throws Exception {
+        try(ProcessStateListener listener = ProcessStateListener.register(server, name)) {
+            changeLater("stopping", "stopped", "starting", "stopping", "stopped");
+            listener.awaitReload(TIMEOUT);
+            Assert.fail("The process stopped");
+        } catch(ProvisioningException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testStateDoesNotChange() throws Exception {
+        try(ProcessStateListener listener = ProcessStateListener.register(server, name)) {
+            listener.await(TimeUnit.MILLISECONDS.toNanos(100));
+            Assert.fail("The process did not reload");
+        } catch(ProvisioningException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testProcessStopped() throws Exception {
+        try(ProcessStateListener listener = ProcessStateListener.register(server, name)) {
+            changeLater("stopping", "stopped");
+            listener.await(TIMEOUT);
+            Assert.fail("The process stopped");
+        } catch(ProvisioningException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testListenerIsRemoved() throws Exception {
+        final ProcessStateListener listener = ProcessStateListener.register(server, name);
+        listener.close();
+        mbean.setProcessState("stopping");
+        try {
+            listener.await(TimeUnit.MILLISECONDS.toNanos(100));
+            Assert.fail("The listener received a notification after it was closed");
+        } catch(ProvisioningException e) {
+            // expected
+        }
+    }
+
+    private void changeLater(final String... states) {
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                for(String state : states) {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    mbean.setProcessState(state);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
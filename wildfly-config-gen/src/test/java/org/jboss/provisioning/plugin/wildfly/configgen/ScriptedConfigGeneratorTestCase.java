@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.provisioning.DefaultMessageWriter;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the configs generated by forked workers end up in the
+ * configuration directories of the installation.
+ */
+public class ScriptedConfigGeneratorTestCase {
+
+    private Path workDir;
+    private Path stagedDir;
+    private Path standaloneConfigDir;
+    private Path domainConfigDir;
+
+    @Before
+    public void init() throws Exception {
+        workDir = Files.createTempDirectory("configgen");
+        stagedDir = workDir.resolve("staged");
+        standaloneConfigDir = stagedDir.resolve("standalone").resolve("configuration");
+        domainConfigDir = stagedDir.resolve("domain").resolve("configuration");
+        Files.createDirectories(standaloneConfigDir);
+        Files.createDirectories(domainConfigDir);
+        write(standaloneConfigDir.resolve("mgmt-users.properties"), "users");
+        write(standaloneConfigDir.resolve("logging.properties"), "original");
+        write(domainConfigDir.resolve("mgmt-users.properties"), "users");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        IoUtils.recursiveDelete(workDir);
+    }
+
+    @Test
+    public void testGeneratedConfigsAreMerged() throws Exception {
+        newGenerator(3).fork(workDir,
+                Collections.singletonList(writeScript("h1", ConfigGenWorker.HC, "--domain-config=domain-full.xml")),
+                Arrays.asList(writeScript("s1", ConfigGenWorker.STANDALONE, "--server-config=standalone.xml"),
+                        writeScript("s2", ConfigGenWorker.STANDALONE, "--server-config=standalone-ha.xml"),
+                        writeScript("s3", ConfigGenWorker.STANDALONE, "--server-config=standalone-full.xml")));
+
+        Assert.assertEquals("s1", read(standaloneConfigDir.resolve("standalone.xml")));
+        Assert.assertEquals("s2", read(standaloneConfigDir.resolve("standalone-ha.xml")));
+        Assert.assertEquals("s3", read(standaloneConfigDir.resolve("standalone-full.xml")));
+        Assert.assertEquals("users", read(standaloneConfigDir.resolve("mgmt-users.properties")));
+        // written for the last config like if the configs were generated one after another
+        Assert.assertEquals("s3", read(standaloneConfigDir.resolve("logging.properties")));
+        Assert.assertFalse(Files.exists(standaloneConfigDir.resolve("standalone_xml_history")));
+
+        Assert.assertEquals("h1", read(domainConfigDir.resolve("domain-full.xml")));
+        Assert.assertEquals("users", read(domainConfigDir.resolve("mgmt-users.properties")));
+        Assert.assertFalse(Files.exists(domainConfigDir.resolve("domain-full_xml_history")));
+    }
+
+    @Test
+    public void testFailedWorker() throws Exception {
+        try {
+            newGenerator(2).fork(workDir, Collections.emptyList(),
+                    Arrays.asList(writeScript("s1", ConfigGenWorker.STANDALONE, "--server-config=standalone.xml"),
+                            writeScript("s2", ConfigGenWorker.STANDALONE, "--fail")));
+            Assert.fail("The worker did not fail");
+        } catch(ProvisioningException e) {
+            Assert.assertEquals("Config generation worker 1 exited with status 1: Failed to generate s2", e.getMessage());
+        }
+        // nothing is merged unless all the workers succeeded
+        Assert.assertFalse(Files.exists(standaloneConfigDir.resolve("standalone.xml")));
+        Assert.assertEquals("original", read(standaloneConfigDir.resolve("logging.properties")));
+    }
+
+    @Test
+    public void testSingleWorkerGeneratesAllConfigs() throws Exception {
+        newGenerator(1).fork(workDir,
+                Collections.singletonList(writeScript("h1", ConfigGenWorker.HC, "--domain-config=domain-full.xml")),
+                Arrays.asList(writeScript("s1", ConfigGenWorker.STANDALONE, "--server-config=standalone.xml"),
+                        writeScript("s2", ConfigGenWorker.STANDALONE, "--server-config=standalone-ha.xml")));
+
+        Assert.assertTrue(Files.exists(workDir.resolve("worker0")));
+        Assert.assertFalse(Files.exists(workDir.resolve("worker1")));
+        Assert.assertEquals("s1", read(standaloneConfigDir.resolve("standalone.xml")));
+        Assert.assertEquals("s2", read(standaloneConfigDir.resolve("standalone-ha.xml")));
+        Assert.assertEquals("s2", read(standaloneConfigDir.resolve("logging.properties")));
+        Assert.assertEquals("h1", read(domainConfigDir.resolve("domain-full.xml")));
+    }
+
+    @Test
+    public void testHangingWorkerDestroyed() throws Exception {
+        final long start = System.nanoTime();
+        try {
+            newGenerator(2, 1).fork(workDir, Collections.emptyList(),
+                    Arrays.asList(writeScript("s1", ConfigGenWorker.STANDALONE, "--server-config=standalone.xml"),
+                            writeScript("s2", ConfigGenWorker.STANDALONE, "--hang")));
+            Assert.fail("The worker did not time out");
+        } catch(ProvisioningException e) {
+            Assert.assertEquals("Config generation worker 1 did not complete within 1 seconds", e.getMessage());
+        }
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+        Assert.assertFalse(Files.exists(standaloneConfigDir.resolve("standalone.xml")));
+    }
+
+    @Test
+    public void testFailureDescription() {
+        Assert.assertEquals("Failed to execute script" + System.lineSeparator() + "Caused by: java.lang.IllegalStateException",
+                ConfigGenWorker.describe(new ProvisioningException("Failed to execute script", new IllegalStateException())));
+    }
+
+    private ScriptedConfigGenerator newGenerator(int workers) {
+        return newGenerator(workers, ScriptedConfigGenerator.DEFAULT_WORKER_TIMEOUT);
+    }
+
+    private ScriptedConfigGenerator newGenerator(int workers, long workerTimeout) {
+        return new ScriptedConfigGenerator(stagedDir, new DefaultMessageWriter(), workers, workerTimeout, TestConfigGenWorker.class.getName());
+    }
+
+    private Path writeScript(String name, String process, String... args) throws Exception {
+        final Path script = workDir.resolve(name);
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(script))) {
+            out.writeUTF(process);
+            out.writeInt(args.length);
+            for(String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.writeInt(ConfigGenWorker.END);
+        }
+        return script;
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Stands for {@link ConfigGenWorker} in the tests. Instead of executing the
+ * scripts, it writes the name of each script to the config file named by the
+ * embedded arguments the script starts with and to logging.properties, which the
+ * embedded server writes on every boot, and adds a config history file.
+ * A script with the --fail argument fails the worker, a script with the --hang
+ * argument never completes.
+ */
+public class TestConfigGenWorker {
+
+    public static void main(String[] args) throws Exception {
+        for(int i = 1; i < args.length; ++i) {
+            final Path script = Paths.get(args[i]);
+            final String[] header = ConfigGenWorker.readHeader(script);
+            final boolean hc = ConfigGenWorker.HC.equals(header[0]);
+            final Path configDir = Paths.get(System.getProperty(hc ? "jboss.domain.config.dir" : "jboss.server.config.dir"));
+            if(configDir.startsWith(Paths.get(args[0]))) {
+                System.err.print("The configuration directory belongs to the installation");
+                System.exit(1);
+            }
+            if(!Files.exists(configDir.resolve("mgmt-users.properties"))) {
+                System.err.print("The configuration directory was not copied");
+                System.exit(1);
+            }
+            String config = hc ? "domain.xml" : "standalone.xml";
+            for(int j = 1; j < header.length; ++j) {
+                if(header[j].equals("--fail")) {
+                    System.err.print("Failed to generate " + script.getFileName());
+                    System.exit(1);
+                }
+                if(header[j].equals("--hang")) {
+                    Thread.sleep(Long.MAX_VALUE);
+                }
+                if(header[j].startsWith("--server-config=") || header[j].startsWith("--domain-config=")) {
+                    config = header[j].substring(header[j].indexOf('=') + 1);
+                }
+            }
+            final byte[] content = script.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+            Files.write(configDir.resolve(config), content);
+            Files.write(configDir.resolve("logging.properties"), content);
+            final Path history = configDir.resolve(config.replace('.', '_') + "_history").resolve("current");
+            Files.createDirectories(history);
+            Files.write(history.resolve(config), content);
+            System.out.println("Generated " + config);
+        }
+        System.exit(0);
+    }
+}
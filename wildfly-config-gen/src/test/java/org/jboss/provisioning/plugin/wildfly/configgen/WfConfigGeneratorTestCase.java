@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.jboss.as.controller.client.helpers.Operations;
+import org.jboss.dmr.ModelNode;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks when the embedded process is reloaded instead of restarted, that
+ * each config ends up in its own file and that the process is stopped after
+ * the scripts have been executed.
+ */
+public class WfConfigGeneratorTestCase {
+
+    private static final String SERVER_CONFIG = "--server-config";
+    private static final String EMPTY_CONFIG = "--internal-empty-config";
+    private static final String REMOVE_CONFIG = "--internal-remove-config";
+    private static final String ADMIN_ONLY = "--admin-only";
+    private static final String NAMESPACE = "urn:jboss:domain:6.0";
+
+    /**
+     * Records the requests to the embedded process, which persists the names
+     * of the executed operations to the config file it booted with.
+     */
+    private static class RecordingGenerator extends WfConfigGenerator {
+
+        final List<String> requests = new ArrayList<>();
+        private final Path configDir;
+        private final String failingOp;
+        private Path bootConfig;
+        private List<String> model;
+
+        RecordingGenerator(Path jbossHome, String failingOp) {
+            super(jbossHome.toString());
+            this.configDir = jbossHome.resolve("standalone").resolve("configuration");
+            this.failingOp = failingOp;
+        }
+
+        @Override
+        void startProcess(boolean hc, String... args) throws ProvisioningException {
+            requests.add((hc ? "start hc " : "start ") + Arrays.asList(args));
+            if(hc) {
+                return;
+            }
+            final String config = WfConfigGenerator.getArgValue(args, SERVER_CONFIG);
+            bootConfig = configDir.resolve(config == null ? "standalone.xml" : config);
+            model = Arrays.asList(args).contains(EMPTY_CONFIG) ? new ArrayList<>() : read(bootConfig);
+            persist();
+        }
+
+        @Override
+        boolean reloadProcess(boolean adminOnly) throws ProvisioningException {
+            requests.add(adminOnly ? "reload admin-only" : "reload");
+            model = read(bootConfig);
+            return true;
+        }
+
+        @Override
+        void execute(ModelNode op) throws ProvisioningException {
+            final String name = Operations.getOperationName(op);
+            requests.add(name);
+            if(name.equals(failingOp)) {
+                throw new ProvisioningException("Failed to execute " + name);
+            }
+            model.add(name);
+            persist();
+        }
+
+        @Override
+        void stopProcess() {
+            requests.add("stop");
+        }
+
+        private void persist() throws ProvisioningException {
+            final StringBuilder buf = new StringBuilder();
+            buf.append("<?xml version=\"1.0\" ?>\n<server xmlns=\"").append(NAMESPACE).append("\">\n");
+            for(String op : model) {
+                buf.append("<op name=\"").append(op).append("\"/>\n");
+            }
+            buf.append("</server>\n");
+            try {
+                Files.createDirectories(configDir);
+                Files.write(bootConfig, buf.toString().getBytes(StandardCharsets.UTF_8));
+            } catch(Exception e) {
+                throw new ProvisioningException("Failed to persist " + bootConfig, e);
+            }
+        }
+    }
+
+    private Path workDir;
+
+    @Before
+    public void init() throws Exception {
+        workDir = Files.createTempDirectory("wfconfiggen");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        IoUtils.recursiveDelete(workDir);
+    }
+
+    @Test
+    public void testServerReloadedForAnotherConfigFile() {
+        Assert.assertTrue(WfConfigGenerator.isReloadable(
+                args(ADMIN_ONLY, SERVER_CONFIG, "standalone.xml"),
+                args(ADMIN_ONLY, SERVER_CONFIG + "=standalone-ha.xml")));
+        Assert.assertTrue(WfConfigGenerator.isReloadable(
+                args(SERVER_CONFIG, "standalone-ha.xml"),
+                args()));
+    }
+
+    @Test
+    public void testServerReloadedForEmptyConfig() {
+        Assert.assertTrue(WfConfigGenerator.isReloadable(
+                args(ADMIN_ONLY, EMPTY_CONFIG, REMOVE_CONFIG, SERVER_CONFIG, "standalone.xml"),
+                args(ADMIN_ONLY, EMPTY_CONFIG, REMOVE_CONFIG, SERVER_CONFIG, "standalone-ha.xml")));
+        Assert.assertTrue(WfConfigGenerator.isReloadable(
+                args(ADMIN_ONLY, SERVER_CONFIG, "standalone.xml"),
+                args(ADMIN_ONLY, EMPTY_CONFIG, SERVER_CONFIG, "standalone-ha.xml")));
+    }
+
+    @Test
+    public void testServerRestartedForOtherArgs() {
+        Assert.assertFalse(WfConfigGenerator.isReloadable(
+                args(ADMIN_ONLY, SERVER_CONFIG, "standalone.xml"),
+                args(SERVER_CONFIG, "standalone-ha.xml")));
+    }
+
+    @Test
+    public void testEmptyConfigsGeneratedByOneServer() throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator(workDir, null);
+        generator.startServer(ADMIN_ONLY, EMPTY_CONFIG, REMOVE_CONFIG, SERVER_CONFIG + "=standalone.xml");
+        generator.execute(Operations.createOperation("add-logging"));
+        generator.startServer(ADMIN_ONLY, EMPTY_CONFIG, REMOVE_CONFIG, SERVER_CONFIG + "=standalone-ha.xml");
+        generator.execute(Operations.createOperation("add-jgroups"));
+        generator.startServer(ADMIN_ONLY, EMPTY_CONFIG, REMOVE_CONFIG, SERVER_CONFIG + "=standalone-full.xml");
+        generator.execute(Operations.createOperation("add-messaging"));
+        generator.stopEmbedded();
+
+        Assert.assertEquals(Arrays.asList(
+                "start [" + ADMIN_ONLY + ", " + EMPTY_CONFIG + ", " + REMOVE_CONFIG + ", " + SERVER_CONFIG + "=standalone.xml]",
+                "add-logging", "reload admin-only", "add-jgroups", "reload admin-only", "add-messaging", "stop"), generator.requests);
+        assertConfig("standalone.xml", "add-logging");
+        assertConfig("standalone-ha.xml", "add-jgroups");
+        assertConfig("standalone-full.xml", "add-messaging");
+        try(Stream<Path> files = Files.list(configDir())) {
+            Assert.assertEquals(3, files.count());
+        }
+    }
+
+    @Test
+    public void testExistingConfigLoadedOnReload() throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator(workDir, null);
+        generator.startServer(EMPTY_CONFIG, SERVER_CONFIG + "=standalone.xml");
+        generator.execute(Operations.createOperation("add-logging"));
+        generator.startServer(EMPTY_CONFIG, SERVER_CONFIG + "=standalone-ha.xml");
+        generator.execute(Operations.createOperation("add-jgroups"));
+        generator.startServer(SERVER_CONFIG + "=standalone.xml");
+        generator.execute(Operations.createOperation("add-jmx"));
+        generator.stopEmbedded();
+
+        // the boot config can be switched to only after the server has been restarted
+        Assert.assertEquals(Arrays.asList(
+                "start [" + EMPTY_CONFIG + ", " + SERVER_CONFIG + "=standalone.xml]", "add-logging",
+                "reload", "add-jgroups",
+                "stop", "start [" + SERVER_CONFIG + "=standalone.xml]", "add-jmx", "stop"), generator.requests);
+        assertConfig("standalone.xml", "add-logging", "add-jmx");
+        assertConfig("standalone-ha.xml", "add-jgroups");
+
+        generator.requests.clear();
+        generator.startServer(EMPTY_CONFIG, SERVER_CONFIG + "=standalone-full.xml");
+        generator.execute(Operations.createOperation("add-messaging"));
+        generator.startServer(SERVER_CONFIG + "=standalone-ha.xml");
+        generator.execute(Operations.createOperation("add-jmx"));
+        generator.stopEmbedded();
+        Assert.assertEquals(Arrays.asList(
+                "start [" + EMPTY_CONFIG + ", " + SERVER_CONFIG + "=standalone-full.xml]", "add-messaging",
+                "reload", "add-jmx", "stop"), generator.requests);
+        assertConfig("standalone-full.xml", "add-messaging");
+        assertConfig("standalone-ha.xml", "add-jgroups", "add-jmx");
+    }
+
+    @Test
+    public void testServerRestartedForAnotherMode() throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator(workDir, null);
+        generator.startServer(ADMIN_ONLY, EMPTY_CONFIG, SERVER_CONFIG + "=standalone.xml");
+        generator.startServer(EMPTY_CONFIG, SERVER_CONFIG + "=standalone-ha.xml");
+        generator.startHc(ADMIN_ONLY, "--empty-host-config", "--host-config=host.xml");
+        generator.startHc(ADMIN_ONLY, "--empty-host-config", "--host-config=host-slave.xml");
+        generator.stopEmbedded();
+        Assert.assertEquals(Arrays.asList(
+                "start [" + ADMIN_ONLY + ", " + EMPTY_CONFIG + ", " + SERVER_CONFIG + "=standalone.xml]", "stop",
+                "start [" + EMPTY_CONFIG + ", " + SERVER_CONFIG + "=standalone-ha.xml]", "stop",
+                "start hc [" + ADMIN_ONLY + ", --empty-host-config, --host-config=host.xml]", "stop",
+                "start hc [" + ADMIN_ONLY + ", --empty-host-config, --host-config=host-slave.xml]", "stop"), generator.requests);
+    }
+
+    @Test
+    public void testEmbeddedProcessStoppedAfterScripts() throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator(workDir, null);
+        generator.execute(Arrays.asList(writeScript("config0.xml", "add"), writeScript("config1.xml", "write-attribute")));
+        Assert.assertEquals(Arrays.asList(
+                "start [" + EMPTY_CONFIG + ", " + SERVER_CONFIG + "=config0.xml]", "add",
+                "reload", "write-attribute",
+                "stop"), generator.requests);
+        assertConfig("config0.xml", "add");
+        assertConfig("config1.xml", "write-attribute");
+    }
+
+    @Test
+    public void testEmbeddedProcessStoppedAfterFailure() throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator(workDir, "write-attribute");
+        try {
+            generator.execute(Arrays.asList(writeScript("config0.xml", "write-attribute"), writeScript("config1.xml", "add")));
+            Assert.fail("The script did not fail");
+        } catch(ProvisioningException e) {
+            Assert.assertEquals("Failed to execute write-attribute", e.getMessage());
+        }
+        Assert.assertEquals(Arrays.asList("start [" + EMPTY_CONFIG + ", " + SERVER_CONFIG + "=config0.xml]", "write-attribute", "stop"), generator.requests);
+    }
+
+    private Path configDir() {
+        return workDir.resolve("standalone").resolve("configuration");
+    }
+
+    private void assertConfig(String name, String... ops) throws Exception {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("<?xml version=\"1.0\" ?>\n<server xmlns=\"").append(NAMESPACE).append("\">\n");
+        for(String op : ops) {
+            buf.append("<op name=\"").append(op).append("\"/>\n");
+        }
+        buf.append("</server>\n");
+        Assert.assertEquals(buf.toString(), new String(Files.readAllBytes(configDir().resolve(name)), StandardCharsets.UTF_8));
+    }
+
+    private static List<String> read(Path config) throws ProvisioningException {
+        final List<String> ops = new ArrayList<>();
+        try {
+            for(String line : Files.readAllLines(config, StandardCharsets.UTF_8)) {
+                if(line.startsWith("<op name=\"")) {
+                    ops.add(line.substring("<op name=\"".length(), line.length() - "\"/>".length()));
+                }
+            }
+        } catch(Exception e) {
+            throw new ProvisioningException("Failed to read " + config, e);
+        }
+        return ops;
+    }
+
+    private Path writeScript(String name, String opName) throws Exception {
+        final Path script = workDir.resolve(name + ".ops");
+        try(DataOutputStream out = new DataOutputStream(Files.newOutputStream(script))) {
+            out.writeUTF(ConfigGenWorker.STANDALONE);
+            out.writeInt(2);
+            out.writeUTF(EMPTY_CONFIG);
+            out.writeUTF(SERVER_CONFIG + '=' + name);
+            out.writeInt(ConfigGenWorker.OP);
+            out.writeInt(0);
+            Operations.createOperation(opName, Operations.createAddress("subsystem", "test")).writeExternal(out);
+            out.writeInt(ConfigGenWorker.END);
+        }
+        return script;
+    }
+
+    private static String[] args(String... args) {
+        return args;
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly.configgen;
+
+import static org.jboss.provisioning.Constants.PM_UNDEFINED;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.as.controller.client.helpers.Operations;
+import org.jboss.dmr.ModelNode;
+import org.jboss.dmr.ModelType;
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.DefaultMessageWriter;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.plugin.wildfly.WfConstants;
+import org.jboss.provisioning.runtime.ResolvedFeatureId;
+import org.jboss.provisioning.runtime.ResolvedFeatureSpec;
+import org.jboss.provisioning.runtime.ResolvedSpecId;
+import org.jboss.provisioning.spec.FeatureAnnotation;
+import org.jboss.provisioning.spec.FeatureParameterSpec;
+import org.jboss.provisioning.spec.FeatureSpec;
+import org.jboss.provisioning.state.ProvisionedConfig;
+import org.jboss.provisioning.state.ProvisionedFeature;
+import org.jboss.provisioning.type.builtin.BuiltInParameterTypeProvider;
+import org.jboss.provisioning.xml.ProvisionedConfigBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the operations {@link WfProvisionedConfigHandler} passes to the generator,
+ * the conversion of the parameter values and the batch size option.
+ */
+public class WfProvisionedConfigHandlerTestCase {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.jboss.pm.test", "fp1", "1.0.0.Final");
+    private static final ResolvedSpecId SPEC_ID = new ResolvedSpecId(FP_GAV, "socket-binding");
+
+    private static class TestFeature implements ProvisionedFeature {
+
+        private final Map<String, String> params = new HashMap<>();
+
+        TestFeature(String name, String port) {
+            params.put("socket-binding", name);
+            params.put("port", port);
+        }
+
+        TestFeature(Map<String, String> params) {
+            this.params.putAll(params);
+        }
+
+        @Override
+        public boolean hasId() {
+            return true;
+        }
+
+        @Override
+        public ResolvedFeatureId getId() {
+            return ResolvedFeatureId.create(SPEC_ID, "socket-binding", params.get("socket-binding"));
+        }
+
+        @Override
+        public ResolvedSpecId getSpecId() {
+            return SPEC_ID;
+        }
+
+        @Override
+        public boolean hasParams() {
+            return true;
+        }
+
+        @Override
+        public Collection<String> getParamNames() {
+            return params.keySet();
+        }
+
+        @Override
+        public String getConfigParam(String name) {
+            return params.get(name);
+        }
+
+        @Override
+        public Object getResolvedParam(String name) {
+            return params.get(name);
+        }
+
+        @Override
+        public Map<String, Object> getResolvedParams() {
+            return new HashMap<String, Object>(params);
+        }
+    }
+
+    /**
+     * Records the requests instead of executing them against an embedded server.
+     */
+    private static class RecordingGenerator extends WfConfigGenerator {
+
+        final List<String> requests = new ArrayList<>();
+
+        @Override
+        void startServer(String... args) {
+            requests.add("start " + Arrays.asList(args));
+        }
+
+        @Override
+        void execute(ModelNode op) {
+            if(op.hasDefined(WfConstants.STEPS)) {
+                requests.add("batch " + stepNames(op));
+            } else {
+                requests.add("op " + op.get("address").asList().get(0).get("socket-binding").asString());
+            }
+        }
+
+        @Override
+        void execute(ModelNode composite, List<String> stepSources) {
+            requests.add("auto-batch " + stepNames(composite));
+            Assert.assertEquals(composite.get(WfConstants.STEPS).asList().size(), stepSources.size());
+        }
+
+        private static List<String> stepNames(ModelNode composite) {
+            final List<String> names = new ArrayList<>();
+            for(ModelNode step : composite.get(WfConstants.STEPS).asList()) {
+                names.add(step.get("address").asList().get(0).get("socket-binding").asString());
+            }
+            return names;
+        }
+    }
+
+    /**
+     * Collects the operations of the configs of any model.
+     */
+    private static class CapturingGenerator extends WfConfigGenerator {
+
+        private final List<ModelNode> ops;
+
+        CapturingGenerator(List<ModelNode> ops) {
+            this.ops = ops;
+        }
+
+        @Override
+        void startServer(String... args) {
+        }
+
+        @Override
+        void startHc(String... args) {
+        }
+
+        @Override
+        void execute(ModelNode op) {
+            if(!WfConstants.ADD.equals(Operations.getOperationName(op)) || !Operations.getOperationAddress(op).asList().get(0).has("host")) {
+                ops.add(op);
+            }
+        }
+    }
+
+    private static final String[] SCALAR_VALUES = {
+            "foo", "default-server", "security-realm", "org.h2.Driver", "h2", "sa", "none", "ALL",
+            "java:jboss/datasources/ExampleDS", "jdbc:h2:mem:test;DB_CLOSE_DELAY=-1",
+            "${jboss.bind.address:127.0.0.1}", "${env.X}", "x=y", "a,b", "a b", "(a=>b)",
+            "8080", "-1", "1.5", "100000000000", "1e5", "0x10",
+            "true", "false", "TRUE", "truth", "undefined", "big", "bytes", "expression \"x\"",
+            "STRING", "INT", "INTEGER", "NaN", "Infinity", "\"quoted\"", "\" \"",
+            "[a,b]", "{a=b}", "[\"a\",\"b\"]", "{\"a\" => \"b\"}"
+    };
+
+    private static final String[] COLLECTION_VALUES = {
+            "[a,b]", "[ a , b ]", "[a, b]", "[ab c, d]", "[${x},y]", "[a=b,c=d]", "{a=b}", "{a=[x,y]}",
+            "[true,x]", "[1,a]", "[big,x]", "[INT]", "[\"a\",b]", "[\"a\",\"b\"]", "[1,2]", "[]", "{}",
+            "{\"a\" => \"b\"}", "a", "true"
+    };
+
+    @Test
+    public void testOperationsAreGroupedIntoBatchesOfTheConfiguredSize() throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator();
+        final WfProvisionedConfigHandler handler = startConfig(generator, 3);
+        for(int i = 1; i <= 7; ++i) {
+            handler.nextFeature(new TestFeature("sb" + i, "808" + i));
+        }
+        handler.done();
+        Assert.assertEquals(Arrays.asList("start [--server-config, standalone.xml]",
+                "auto-batch [sb1, sb2, sb3]",
+                "auto-batch [sb4, sb5, sb6]",
+                "auto-batch [sb7]"), generator.requests);
+    }
+
+    @Test
+    public void testOperationsAreExecutedOneByOneWithBatchSizeOfOne() throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator();
+        final WfProvisionedConfigHandler handler = startConfig(generator, 1);
+        handler.nextFeature(new TestFeature("sb1", "8081"));
+        handler.nextFeature(new TestFeature("sb2", "8082"));
+        handler.done();
+        Assert.assertEquals(Arrays.asList("start [--server-config, standalone.xml]", "op sb1", "op sb2"), generator.requests);
+    }
+
+    @Test
+    public void testPendingOperationsAreFlushedBeforeExplicitBatchAndBranch() throws Exception {
+        final RecordingGenerator generator = new RecordingGenerator();
+        final WfProvisionedConfigHandler handler = startConfig(generator, 10);
+        handler.nextFeature(new TestFeature("sb1", "8081"));
+        handler.nextFeature(new TestFeature("sb2", "8082"));
+        handler.startBatch();
+        handler.nextFeature(new TestFeature("sb3", "8083"));
+        handler.endBatch();
+        handler.nextFeature(new TestFeature("sb4", "8084"));
+        handler.startBranch();
+        handler.nextFeature(new TestFeature("sb5", "8085"));
+        handler.endBranch();
+        handler.nextFeature(new TestFeature("sb6", "8086"));
+        handler.done();
+        Assert.assertEquals(Arrays.asList("start [--server-config, standalone.xml]",
+                "auto-batch [sb1, sb2]",
+                "batch [sb3]",
+                "auto-batch [sb4]",
+                "auto-batch [sb5]",
+                "auto-batch [sb6]"), generator.requests);
+    }
+
+    @Test
+    public void testParameterValuesAreConverted() throws Exception {
+        final List<ModelNode> ops = new ArrayList<>();
+        final WfProvisionedConfigHandler handler = startConfig(new RecordingGenerator() {
+            @Override
+            void execute(ModelNode op) {
+                ops.add(op);
+            }
+        }, 1);
+        handler.nextFeature(new TestFeature("http", "8080"));
+        handler.nextFeature(new TestFeature("https", "${jboss.https.port:8443}"));
+        Assert.assertEquals(2, ops.size());
+        Assert.assertEquals(new ModelNode(8080), ops.get(0).get("port"));
+        Assert.assertEquals(new ModelNode("${jboss.https.port:8443}"), ops.get(1).get("port"));
+    }
+
+    @Test
+    public void testConverterIsChosenByParameterType() throws Exception {
+        final List<ModelNode> ops = new ArrayList<>();
+        final WfProvisionedConfigHandler handler = new WfProvisionedConfigHandler(new DefaultMessageWriter(), new CapturingGenerator(ops), 1);
+        handler.prepare(standaloneConfig());
+        handler.nextSpec(new ResolvedFeatureSpec(SPEC_ID, BuiltInParameterTypeProvider.getInstance(), FeatureSpec.builder(SPEC_ID.getName())
+                .addParam(FeatureParameterSpec.createId("socket-binding"))
+                .addParam(FeatureParameterSpec.create("port", true))
+                .addParam(FeatureParameterSpec.builder("ports").setNillable().setType("List<String>").build())
+                .addParam(FeatureParameterSpec.builder("props").setNillable().setType("Map<String,String>").build())
+                .addAnnotation(new FeatureAnnotation(WfConstants.JBOSS_OP)
+                        .setElement(WfConstants.NAME, WfConstants.ADD)
+                        .setElement(WfConstants.ADDR_PARAMS, "socket-binding"))
+                .build()));
+        final Map<String, String> params = new HashMap<>();
+        params.put("socket-binding", "http");
+        params.put("port", "8080");
+        params.put("ports", "[8080,8443]");
+        params.put("props", "{a=b}");
+        handler.nextFeature(new TestFeature(params));
+        Assert.assertEquals(1, ops.size());
+        Assert.assertEquals(new ModelNode(8080), ops.get(0).get("port"));
+        // the values of the declared types are not parsed as DMR
+        Assert.assertEquals(new ModelNode().add("8080").add("8443"), ops.get(0).get("ports"));
+        Assert.assertEquals(ModelType.OBJECT, ops.get(0).get("props").getType());
+        Assert.assertEquals("b", ops.get(0).get("props").get("a").asString());
+    }
+
+    @Test
+    public void testDeclaredTypeValues() throws Exception {
+        final WfProvisionedConfigHandler.ValueConverter converter = new WfProvisionedConfigHandler.CliValueConverter();
+        for(String value : COLLECTION_VALUES) {
+            final ModelNode expected = WfProvisionedConfigHandler.parseCliValue("p", value);
+            final ModelNode actual = converter.convert("p", value);
+            Assert.assertEquals(value, expected, actual);
+        }
+    }
+
+    @Test
+    public void testAddressDependsOnConfigModel() throws Exception {
+        final ResolvedSpecId specId = new ResolvedSpecId(FP_GAV, "subsystem.logging.logger");
+        final ResolvedFeatureSpec spec = new ResolvedFeatureSpec(specId, BuiltInParameterTypeProvider.getInstance(), FeatureSpec.builder(specId.getName())
+                .addParam(FeatureParameterSpec.createId("profile"))
+                .addParam(FeatureParameterSpec.createId("logger"))
+                .addParam(FeatureParameterSpec.create("level", true))
+                .addAnnotation(new FeatureAnnotation(WfConstants.JBOSS_OP)
+                        .setElement(WfConstants.NAME, WfConstants.WRITE_ATTRIBUTE)
+                        .setElement(WfConstants.ADDR_PARAMS, "profile,logger")
+                        .setElement(WfConstants.ADDR_PARAMS_MAPPING, "profile,category")
+                        .setElement(WfConstants.OP_PARAMS, "level"))
+                .build());
+        final Map<String, String> params = new HashMap<>();
+        params.put("profile", "default");
+        params.put("logger", "org.jboss");
+        params.put("level", "INFO");
+
+        final List<ModelNode> ops = new ArrayList<>();
+        final WfProvisionedConfigHandler handler = new WfProvisionedConfigHandler(new DefaultMessageWriter(), new CapturingGenerator(ops), 1);
+        handler.prepare(standaloneConfig());
+        handler.nextSpec(spec);
+        handler.nextFeature(new TestFeature(params));
+        handler.done();
+
+        handler.prepare(ProvisionedConfigBuilder.builder()
+                .setModel(WfConstants.DOMAIN)
+                .setName("domain.xml")
+                .build());
+        ops.clear();
+        handler.nextSpec(spec);
+        handler.nextFeature(new TestFeature(params));
+        params.put("logger", PM_UNDEFINED);
+        handler.nextFeature(new TestFeature(params));
+        handler.done();
+
+        handler.prepare(standaloneConfig());
+        params.put("logger", "org.jboss.as");
+        handler.nextSpec(spec);
+        handler.nextFeature(new TestFeature(params));
+
+        Assert.assertEquals(3, ops.size());
+        Assert.assertEquals(Operations.createAddress("profile", "default", "category", "org.jboss"), Operations.getOperationAddress(ops.get(0)));
+        Assert.assertEquals(Operations.createAddress("profile", "default"), Operations.getOperationAddress(ops.get(1)));
+        Assert.assertEquals(Operations.createAddress("category", "org.jboss.as"), Operations.getOperationAddress(ops.get(2)));
+        for(ModelNode op : ops) {
+            Assert.assertEquals(WfConstants.WRITE_ATTRIBUTE, Operations.getOperationName(op));
+            Assert.assertEquals("level", op.get(WfConstants.NAME).asString());
+            Assert.assertEquals("INFO", op.get(WfConstants.VALUE).asString());
+        }
+    }
+
+    private static ProvisionedConfig standaloneConfig() throws ProvisioningException {
+        return ProvisionedConfigBuilder.builder()
+                .setModel(WfConstants.STANDALONE)
+                .setName("standalone.xml")
+                .build();
+    }
+
+    private static WfProvisionedConfigHandler startConfig(RecordingGenerator generator, int batchSize) throws ProvisioningException {
+        final WfProvisionedConfigHandler handler = new WfProvisionedConfigHandler(new DefaultMessageWriter(), generator, batchSize);
+        handler.prepare(ProvisionedConfigBuilder.builder()
+                .setModel(WfConstants.STANDALONE)
+                .setName("standalone.xml")
+                .setProperty("--server-config", "standalone.xml")
+                .build());
+        final FeatureSpec spec = FeatureSpec.builder(SPEC_ID.getName())
+                .addParam(FeatureParameterSpec.createId("socket-binding"))
+                .addParam(FeatureParameterSpec.create("port", true))
+                .addAnnotation(new FeatureAnnotation(WfConstants.JBOSS_OP)
+                        .setElement(WfConstants.NAME, WfConstants.ADD)
+                        .setElement(WfConstants.ADDR_PARAMS, "socket-binding"))
+                .build();
+        handler.nextSpec(new ResolvedFeatureSpec(SPEC_ID, BuiltInParameterTypeProvider.getInstance(), spec));
+        return handler;
+    }
+
+    @Test
+    public void testStringValues() throws Exception {
+        assertConvertedAsParsed(new WfProvisionedConfigHandler.StringValueConverter(), SCALAR_VALUES);
+        assertConvertedAsParsed(new WfProvisionedConfigHandler.StringValueConverter(), COLLECTION_VALUES);
+    }
+
+    @Test
+    public void testConvertedValueIsReused() throws Exception {
+        final WfProvisionedConfigHandler.ValueConverter converter = new WfProvisionedConfigHandler.StringValueConverter();
+        final ModelNode first = converter.convert("p", "8080");
+        Assert.assertSame(first, converter.convert("p", "8080"));
+        Assert.assertEquals(1, converter.size());
+        converter.clear();
+        Assert.assertEquals(0, converter.size());
+        Assert.assertNotSame(first, converter.convert("p", "8080"));
+    }
+
+    @Test
+    public void testConvertedValuesAreBounded() throws Exception {
+        final WfProvisionedConfigHandler.ValueConverter converter = new WfProvisionedConfigHandler.StringValueConverter();
+        final ModelNode first = converter.convert("p", "value0");
+        for(int i = 1; i < 10000; ++i) {
+            converter.convert("p", "value" + i);
+        }
+        Assert.assertTrue(converter.size() < 10000);
+        Assert.assertNotSame(first, converter.convert("p", "value0"));
+    }
+
+    @Test
+    public void testDefaultBatchSize() throws Exception {
+        Assert.assertEquals(1, WfProvisionedConfigHandler.getAutoBatchSize(null));
+        Assert.assertEquals(1, WfProvisionedConfigHandler.getAutoBatchSize("1"));
+        Assert.assertEquals(50, WfProvisionedConfigHandler.getAutoBatchSize("50"));
+    }
+
+    @Test
+    public void testInvalidBatchSize() throws Exception {
+        for(String value : new String[] {"0", "-1", "ten", ""}) {
+            try {
+                WfProvisionedConfigHandler.getAutoBatchSize(value);
+                Assert.fail("Batch size " + value + " was accepted");
+            } catch(ProvisioningException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertConvertedAsParsed(WfProvisionedConfigHandler.ValueConverter converter, String[] values) throws ProvisioningException {
+        for(String value : values) {
+            // compared as strings since NaN is not equal to itself
+            final ModelNode expected = WfProvisionedConfigHandler.parseValue("p", value);
+            final ModelNode actual = converter.convert("p", value);
+            Assert.assertEquals(value, expected.getType(), actual.getType());
+            Assert.assertEquals(value, expected.toString(), actual.toString());
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.plugin.wildfly;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningException;
+
+/**
+ * Copies the modules of the packages to the installation. The module.xml
+ * templates are scheduled instead of being processed right away and
+ * the scheduled templates are processed by a pool of threads, which is
+ * shared by all the packages of the installation.
+ *
+ * The scheduled templates are processed before a file of a later package
+ * is copied to a module directory of a scheduled template or when a later
+ * package overrides a scheduled template, so that the content of the later
+ * package is never overwritten by an earlier one.
+ */
+class ModuleTemplateProcessor implements AutoCloseable {
+
+    /**
+     * module.xml template scheduled for processing
+     */
+    static class ModuleTemplate {
+        final ArtifactCoords.Gav fp;
+        final String pkgName;
+        final Path fpModuleDir;
+        final Path file;
+
+        ModuleTemplate(ArtifactCoords.Gav fp, String pkgName, Path fpModuleDir, Path file) {
+            this.fp = fp;
+            this.pkgName = pkgName;
+            this.fpModuleDir = fpModuleDir;
+            this.file = file;
+        }
+    }
+
+    interface Handler {
+
+        /**
+         * Processes a module template. Called concurrently for the templates
+         * that are processed together.
+         *
+         * @param template  module template
+         * @return  the module artifacts the schemas of which should be extracted
+         * @throws ProvisioningException  in case the template could not be processed
+         */
+        List<Path> process(ModuleTemplate template) throws ProvisioningException;
+
+        /**
+         * Called once all the templates processed together are done,
+         * in the order the templates were scheduled.
+         *
+         * @param template  module template
+         * @param schemaArtifacts  the artifacts returned when the template was processed
+         * @throws ProvisioningException  in case the schemas could not be extracted
+         */
+        void processed(ModuleTemplate template, List<Path> schemaArtifacts) throws ProvisioningException;
+    }
+
+    /**
+     * Thrown from the file visitor when the scheduled module templates fail to be processed.
+     */
+    private static class UncheckedProvisioningException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedProvisioningException(ProvisioningException cause) {
+            super(cause);
+        }
+
+        @Override
+        public ProvisioningException getCause() {
+            return (ProvisioningException) super.getCause();
+        }
+    }
+
+    private final Path installDir;
+    private final int threads;
+    private final Handler handler;
+    private ExecutorService executor;
+    // the map is keyed by the target path
+    private final Map<Path, ModuleTemplate> templates = new LinkedHashMap<>();
+    private final Set<Path> templateDirs = new HashSet<>();
+
+    ModuleTemplateProcessor(Path installDir, int threads, Handler handler) {
+        this.installDir = installDir;
+        this.threads = threads;
+        this.handler = handler;
+    }
+
+    /**
+     * Copies the content of the module directory of a package to the installation
+     * and schedules its module templates.
+     *
+     * @param fp  feature-pack of the package
+     * @param pkgName  package name
+     * @param fpModuleDir  module directory of the package
+     * @throws ProvisioningException  in case the modules could not be copied
+     */
+    void processModules(ArtifactCoords.Gav fp, String pkgName, Path fpModuleDir) throws ProvisioningException {
+        try {
+            Files.walkFileTree(fpModuleDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                    throws IOException {
+                    final Path targetDir = installDir.resolve(fpModuleDir.relativize(dir));
+                    try {
+                        Files.copy(dir, targetDir);
+                    } catch (FileAlreadyExistsException e) {
+                         if (!Files.isDirectory(targetDir)) {
+                             throw e;
+                         }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                    final Path targetPath = installDir.resolve(fpModuleDir.relativize(file));
+                    if(file.getFileName().toString().equals(WfConstants.MODULE_XML)) {
+                        if(templates.containsKey(targetPath)) {
+                            // the module is overridden by a package installed later
+                            flushUnchecked();
+                        }
+                        templates.put(targetPath, new ModuleTemplate(fp, pkgName, fpModuleDir, file));
+                        templateDirs.add(targetPath.getParent());
+                    } else {
+                        if(templateDirs.contains(targetPath.getParent())) {
+                            // the scheduled template may copy its artifacts to the same directory
+                            flushUnchecked();
+                        }
+                        Files.copy(file, targetPath, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new ProvisioningException("Failed to process modules from package " + pkgName + " from feature-pack " + fp, e);
+        } catch (UncheckedProvisioningException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void flushUnchecked() {
+        try {
+            flush();
+        } catch (ProvisioningException e) {
+            throw new UncheckedProvisioningException(e);
+        }
+    }
+
+    /**
+     * Processes the scheduled module templates.
+     *
+     * @throws ProvisioningException  in case one of the templates could not be processed
+     */
+    void flush() throws ProvisioningException {
+        if(templates.isEmpty()) {
+            return;
+        }
+        final List<ModuleTemplate> batch = new ArrayList<>(templates.values());
+        templates.clear();
+        templateDirs.clear();
+
+        final List<List<Path>> schemaArtifacts = new ArrayList<>(batch.size());
+        if(threads == 1 || batch.size() == 1) {
+            for(ModuleTemplate template : batch) {
+                schemaArtifacts.add(handler.process(template));
+            }
+        } else {
+            if(executor == null) {
+                executor = Executors.newFixedThreadPool(threads);
+            }
+            final List<Future<List<Path>>> futures = new ArrayList<>(batch.size());
+            for(ModuleTemplate template : batch) {
+                futures.add(executor.submit(new Callable<List<Path>>() {
+                    @Override
+                    public List<Path> call() throws ProvisioningException {
+                        return handler.process(template);
+                    }
+                }));
+            }
+            try {
+                for(Future<List<Path>> future : futures) {
+                    schemaArtifacts.add(future.get());
+                }
+            } catch (ExecutionException e) {
+                cancel(futures);
+                final Throwable cause = e.getCause();
+                if(cause instanceof ProvisioningException) {
+                    throw (ProvisioningException) cause;
+                }
+                throw new ProvisioningException("Failed to process module templates", cause);
+            } catch (InterruptedException e) {
+                cancel(futures);
+                Thread.currentThread().interrupt();
+                throw new ProvisioningException("Interrupted while processing module templates", e);
+            }
+        }
+
+        for(int i = 0; i < batch.size(); ++i) {
+            handler.processed(batch.get(i), schemaArtifacts.get(i));
+        }
+    }
+
+    private static void cancel(List<Future<List<Path>>> futures) {
+        for(Future<List<Path>> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public void close() {
+        if(executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
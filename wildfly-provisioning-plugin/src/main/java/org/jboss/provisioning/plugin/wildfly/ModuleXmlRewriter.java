@@ -0,0 +1,578 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import nu.xom.Attribute;
+import nu.xom.Builder;
+import nu.xom.Document;
+import nu.xom.Element;
+import nu.xom.Elements;
+import nu.xom.ParsingException;
+import nu.xom.Serializer;
+
+/**
+ * Rewrites module.xml templates from a single pass over the StAX events
+ * instead of building and serializing a XOM document for each template.
+ *
+ * A template is parsed once, which records its events and collects the
+ * artifacts it declares as its resources. The artifacts can also be read
+ * without recording the events, so that they can be resolved before the
+ * templates are parsed and written. Writing replays the events
+ * with the substitutions applied and reproduces what nu.xom.Serializer
+ * writes for the document with the same substitutions. Templates that use
+ * the constructs the rewriter does not reproduce (a DTD, unresolved entities,
+ * namespace prefixes) are written with XOM.
+ */
+class ModuleXmlRewriter {
+
+    interface Substitutions {
+
+        /**
+         * @return  the new value of the version attribute of the module or null to keep it as is
+         */
+        String getVersion(String versionExpr) throws IOException;
+
+        /**
+         * @return  the new value of the name attribute of the artifact or null to keep the artifact as is
+         */
+        String getArtifact(String nameExpr) throws IOException;
+    }
+
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            return factory;
+        }
+    };
+
+    /**
+     * Recorded StAX event of the template.
+     */
+    private static class Event {
+        final int type;
+        // element name, text, comment or processing instruction target
+        final String name;
+        // namespace declared by the element or processing instruction data
+        final String value;
+        final String[] attrNames;
+        final String[] attrValues;
+        // index of the attribute to substitute or -1
+        final int substitute;
+
+        Event(int type, String name, String value) {
+            this(type, name, value, null, null, -1);
+        }
+
+        Event(int type, String name, String value, String[] attrNames, String[] attrValues, int substitute) {
+            this.type = type;
+            this.name = name;
+            this.value = value;
+            this.attrNames = attrNames;
+            this.attrValues = attrValues;
+            this.substitute = substitute;
+        }
+    }
+
+    /**
+     * Parses a module template.
+     *
+     * @param template  module.xml template
+     * @return  parsed template
+     * @throws IOException  in case the template could not be read
+     */
+    static ModuleXmlRewriter parse(Path template) throws IOException {
+        final ModuleXmlRewriter rewriter = new ModuleXmlRewriter(template);
+        try (BufferedReader input = Files.newBufferedReader(template, StandardCharsets.UTF_8)) {
+            final XMLStreamReader reader = INPUT_FACTORY.get().createXMLStreamReader(input);
+            try {
+                rewriter.parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            // let XOM report the problem
+            rewriter.rewritable = false;
+        }
+        return rewriter;
+    }
+
+    /**
+     * Reads the artifacts a module template declares as its resources, the same
+     * ones {@link #getArtifacts()} returns for a well-formed parsed template, without
+     * recording the events of the template. The template is read up to
+     * the end of its resources.
+     *
+     * @param template  module.xml template
+     * @return  the values of the name attributes of the artifacts
+     * @throws IOException  in case the template could not be read
+     */
+    static List<String> readArtifacts(Path template) throws IOException {
+        try (BufferedReader input = Files.newBufferedReader(template, StandardCharsets.UTF_8)) {
+            final XMLStreamReader reader = INPUT_FACTORY.get().createXMLStreamReader(input);
+            try {
+                return readArtifacts(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            // the template will fail to parse when it is written
+            return Collections.emptyList();
+        }
+    }
+
+    private static List<String> readArtifacts(XMLStreamReader reader) throws XMLStreamException {
+        List<String> artifacts = Collections.emptyList();
+        String moduleNs = null;
+        int depth = 0;
+        boolean inResources = false;
+        while(reader.hasNext()) {
+            final int event = reader.next();
+            if(event == XMLStreamConstants.END_ELEMENT) {
+                if(--depth == 1 && inResources) {
+                    break;
+                }
+                continue;
+            }
+            if(event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            final String name = reader.getLocalName();
+            final String ns = nullToEmpty(reader.getNamespaceURI());
+            if(depth == 0) {
+                if(!"module".equals(name)) {
+                    break;
+                }
+                moduleNs = ns;
+            } else if(depth == 1) {
+                inResources = ns.equals(moduleNs) && "resources".equals(name);
+            } else if(depth == 2 && inResources && ns.equals(moduleNs) && "artifact".equals(name)) {
+                for(int i = 0; i < reader.getAttributeCount(); ++i) {
+                    if("name".equals(reader.getAttributeLocalName(i)) && isEmpty(reader.getAttributePrefix(i))
+                            && isEmpty(reader.getAttributeNamespace(i))) {
+                        if(artifacts.isEmpty()) {
+                            artifacts = new ArrayList<>();
+                        }
+                        artifacts.add(reader.getAttributeValue(i));
+                        break;
+                    }
+                }
+            }
+            ++depth;
+        }
+        return artifacts;
+    }
+
+    /**
+     * Writes a module template the way it was written before the rewriter was
+     * introduced, building and serializing a XOM document.
+     *
+     * @param template  module.xml template
+     * @param target  target module.xml
+     * @param renameArtifacts  whether the substituted artifacts should become resource roots
+     * @param substitutions  substitutions
+     * @throws IOException  in case of a failure
+     */
+    static void writeWithXom(Path template, Path target, boolean renameArtifacts, Substitutions substitutions) throws IOException {
+        final Builder builder = new Builder(false);
+        final Document document;
+        try (BufferedReader reader = Files.newBufferedReader(template, StandardCharsets.UTF_8)) {
+            document = builder.build(reader);
+        } catch (ParsingException e) {
+            throw new IOException("Failed to parse document", e);
+        }
+        final Element rootElement = document.getRootElement();
+        if (! rootElement.getLocalName().equals("module")) {
+            // just copy the content and leave
+            Files.copy(template, target, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        // replace version, if any
+        final Attribute versionAttribute = rootElement.getAttribute("version");
+        if (versionAttribute != null) {
+            final String version = substitutions.getVersion(versionAttribute.getValue());
+            if (version != null) {
+                versionAttribute.setValue(version);
+            }
+        }
+        // replace all artifact declarations
+        final Element resourcesElement = rootElement.getFirstChildElement("resources", rootElement.getNamespaceURI());
+        if (resourcesElement != null) {
+            final Elements artifacts = resourcesElement.getChildElements("artifact", rootElement.getNamespaceURI());
+            final int artifactCount = artifacts.size();
+            for (int i = 0; i < artifactCount; i ++) {
+                final Element element = artifacts.get(i);
+                assert element.getLocalName().equals("artifact");
+                final Attribute attribute = element.getAttribute("name");
+                final String value = substitutions.getArtifact(attribute.getValue());
+                if (value != null) {
+                    if (renameArtifacts) {
+                        element.setLocalName("resource-root");
+                        attribute.setLocalName("path");
+                    }
+                    attribute.setValue(value);
+                }
+                // if any step fails, don't change anything at all for that artifact
+            }
+        }
+        // now serialize the result
+        try (OutputStream outputStream = Files.newOutputStream(target)) {
+            new Serializer(outputStream).write(document);
+        } catch (Throwable t) {
+            try {
+                Files.deleteIfExists(target);
+            } catch (Throwable t2) {
+                t2.addSuppressed(t);
+                throw t2;
+            }
+            throw t;
+        }
+    }
+
+    private final Path template;
+    private final List<Event> events = new ArrayList<>();
+    private List<String> artifacts = Collections.emptyList();
+    private boolean rewritable = true;
+    private boolean module;
+
+    private StringBuilder buf;
+    private boolean startTagOpen;
+
+    private ModuleXmlRewriter(Path template) {
+        this.template = template;
+    }
+
+    /**
+     * @return  the values of the name attributes of the artifacts the module
+     * declares as its resources
+     */
+    List<String> getArtifacts() {
+        return artifacts;
+    }
+
+    private void parse(XMLStreamReader reader) throws XMLStreamException {
+        final List<String> namespaces = new ArrayList<>();
+        String moduleNs = null;
+        boolean resourcesSeen = false;
+        boolean inResources = false;
+        while(reader.hasNext()) {
+            final int event = reader.next();
+            switch(event) {
+                case XMLStreamConstants.START_ELEMENT: {
+                    final int depth = namespaces.size();
+                    final String name = reader.getLocalName();
+                    final String ns = nullToEmpty(reader.getNamespaceURI());
+                    if(depth == 0) {
+                        if(!"module".equals(name)) {
+                            events.clear();
+                            return;
+                        }
+                        module = true;
+                        moduleNs = ns;
+                    }
+                    if(!isEmpty(reader.getPrefix())) {
+                        rewritable = false;
+                    }
+                    for(int i = 0; i < reader.getNamespaceCount(); ++i) {
+                        if(!isEmpty(reader.getNamespacePrefix(i))) {
+                            rewritable = false;
+                        }
+                    }
+                    final boolean inModuleNs = ns.equals(moduleNs);
+                    boolean artifact = false;
+                    if(depth == 1) {
+                        if(!resourcesSeen && inModuleNs && "resources".equals(name)) {
+                            resourcesSeen = true;
+                            inResources = true;
+                        }
+                    } else if(depth == 2 && inResources && inModuleNs && "artifact".equals(name)) {
+                        artifact = true;
+                    }
+
+                    final int attrCount = reader.getAttributeCount();
+                    final String[] attrNames = new String[attrCount];
+                    final String[] attrValues = new String[attrCount];
+                    int substitute = -1;
+                    for(int i = 0; i < attrCount; ++i) {
+                        final boolean qualified = !isEmpty(reader.getAttributePrefix(i)) || !isEmpty(reader.getAttributeNamespace(i));
+                        if(qualified) {
+                            rewritable = false;
+                        }
+                        attrNames[i] = reader.getAttributeLocalName(i);
+                        attrValues[i] = reader.getAttributeValue(i);
+                        if(qualified) {
+                            continue;
+                        }
+                        if(depth == 0 && "version".equals(attrNames[i])
+                                || artifact && "name".equals(attrNames[i])) {
+                            substitute = i;
+                        }
+                    }
+                    if(artifact) {
+                        if(substitute < 0) {
+                            rewritable = false;
+                        } else {
+                            if(artifacts.isEmpty()) {
+                                artifacts = new ArrayList<>();
+                            }
+                            artifacts.add(attrValues[substitute]);
+                        }
+                    }
+                    final String parentNs = depth == 0 ? "" : namespaces.get(depth - 1);
+                    events.add(new Event(XMLStreamConstants.START_ELEMENT, name, ns.equals(parentNs) ? null : ns,
+                            attrNames, attrValues, substitute));
+                    namespaces.add(ns);
+                    break;
+                }
+                case XMLStreamConstants.END_ELEMENT:
+                    namespaces.remove(namespaces.size() - 1);
+                    if(namespaces.size() == 1) {
+                        inResources = false;
+                    }
+                    events.add(new Event(XMLStreamConstants.END_ELEMENT, null, null));
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if(!namespaces.isEmpty()) {
+                        events.add(new Event(XMLStreamConstants.CHARACTERS, reader.getText(), null));
+                    }
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    events.add(new Event(XMLStreamConstants.COMMENT, reader.getText(), null));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    events.add(new Event(XMLStreamConstants.PROCESSING_INSTRUCTION, reader.getPITarget(), reader.getPIData()));
+                    break;
+                case XMLStreamConstants.START_DOCUMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    break;
+                default:
+                    // DTD, entity references, etc
+                    rewritable = false;
+            }
+        }
+    }
+
+    /**
+     * Writes the template to the target applying the substitutions.
+     *
+     * @param target  target module.xml
+     * @param renameArtifacts  whether the substituted artifacts should become resource roots
+     * @param substitutions  substitutions
+     * @throws IOException  in case of a failure
+     */
+    void write(Path target, boolean renameArtifacts, Substitutions substitutions) throws IOException {
+        if(!rewritable) {
+            writeWithXom(template, target, renameArtifacts, substitutions);
+            return;
+        }
+        if(!module) {
+            // just copy the content and leave
+            Files.copy(template, target, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        buf = new StringBuilder();
+        try {
+            write(renameArtifacts, substitutions);
+            Files.write(target, buf.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (Throwable t) {
+            try {
+                Files.deleteIfExists(target);
+            } catch (Throwable t2) {
+                t2.addSuppressed(t);
+                throw t2;
+            }
+            throw t;
+        } finally {
+            buf = null;
+            startTagOpen = false;
+        }
+    }
+
+    private void write(boolean renameArtifacts, Substitutions substitutions) throws IOException {
+        final List<String> names = new ArrayList<>();
+        buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(LINE_SEPARATOR);
+        for(Event event : events) {
+            switch(event.type) {
+                case XMLStreamConstants.START_ELEMENT:
+                    closeStartTag();
+                    String name = event.name;
+                    String[] attrNames = event.attrNames;
+                    String[] attrValues = event.attrValues;
+                    if(event.substitute >= 0) {
+                        final String value;
+                        if(names.isEmpty()) {
+                            value = substitutions.getVersion(attrValues[event.substitute]);
+                        } else {
+                            value = substitutions.getArtifact(attrValues[event.substitute]);
+                            if(value != null && renameArtifacts) {
+                                name = "resource-root";
+                                attrNames = attrNames.clone();
+                                attrNames[event.substitute] = "path";
+                            }
+                        }
+                        if(value != null) {
+                            attrValues = attrValues.clone();
+                            attrValues[event.substitute] = value;
+                        }
+                    }
+                    buf.append('<').append(name);
+                    for(int i = 0; i < attrNames.length; ++i) {
+                        buf.append(' ').append(attrNames[i]).append("=\"");
+                        writeAttributeValue(attrValues[i]);
+                        buf.append('"');
+                    }
+                    if(event.value != null) {
+                        buf.append(" xmlns=\"");
+                        writeAttributeValue(event.value);
+                        buf.append('"');
+                    }
+                    startTagOpen = true;
+                    names.add(name);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    final String endName = names.remove(names.size() - 1);
+                    if(startTagOpen) {
+                        buf.append("/>");
+                        startTagOpen = false;
+                    } else {
+                        buf.append("</").append(endName).append('>');
+                    }
+                    if(names.isEmpty()) {
+                        buf.append(LINE_SEPARATOR);
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    closeStartTag();
+                    writeText(event.name);
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    closeStartTag();
+                    buf.append("<!--").append(event.name).append("-->");
+                    if(names.isEmpty()) {
+                        buf.append(LINE_SEPARATOR);
+                    }
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    closeStartTag();
+                    buf.append("<?").append(event.name);
+                    if(event.value != null && !event.value.isEmpty()) {
+                        buf.append(' ').append(event.value);
+                    }
+                    buf.append("?>");
+                    if(names.isEmpty()) {
+                        buf.append(LINE_SEPARATOR);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected event " + event.type);
+            }
+        }
+    }
+
+    private void closeStartTag() {
+        if(startTagOpen) {
+            buf.append('>');
+            startTagOpen = false;
+        }
+    }
+
+    private void writeText(String text) {
+        for(int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            switch(c) {
+                case '&':
+                    buf.append("&amp;");
+                    break;
+                case '<':
+                    buf.append("&lt;");
+                    break;
+                case '>':
+                    buf.append("&gt;");
+                    break;
+                case '\r':
+                    buf.append("&#x0D;");
+                    break;
+                default:
+                    buf.append(c);
+            }
+        }
+    }
+
+    private void writeAttributeValue(String value) {
+        for(int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch(c) {
+                case '&':
+                    buf.append("&amp;");
+                    break;
+                case '<':
+                    buf.append("&lt;");
+                    break;
+                case '>':
+                    buf.append("&gt;");
+                    break;
+                case '"':
+                    buf.append("&quot;");
+                    break;
+                case '\t':
+                    buf.append("&#x09;");
+                    break;
+                case '\n':
+                    buf.append("&#x0A;");
+                    break;
+                case '\r':
+                    buf.append("&#x0D;");
+                    break;
+                default:
+                    buf.append(c);
+            }
+        }
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+
+    private static String nullToEmpty(String s) {
+        return s == null ? "" : s;
+    }
+}
@@ -62,4 +62,13 @@ public interface WfConstants {
     String OP_PARAMS = "op-params";
     String OP_PARAMS_MAPPING = "op-params-mapping";
     String WRITE_ATTRIBUTE = "write-attribute";
+
+    // Plugin options
+    String CONFIG_GEN_BATCH_SIZE = "jboss.config-gen.batch-size";
+    String CONFIG_GEN_CACHE = "jboss.config-gen.cache";
+    String CONFIG_GEN_CACHE_SIZE = "jboss.config-gen.cache-size";
+    String CONFIG_GEN_WORKER_TIMEOUT = "jboss.config-gen.worker-timeout";
+    String CONFIG_GEN_WORKERS = "jboss.config-gen.workers";
+    String MAVEN_DIST = "jboss.maven.dist";
+    String MAVEN_DIST_VERIFY = "jboss.maven.dist.verify";
 }
@@ -42,6 +42,7 @@ import org.jboss.provisioning.ProvisioningException;
 import org.jboss.provisioning.config.ConfigId;
 import org.jboss.provisioning.config.ConfigModel;
 import org.jboss.provisioning.diff.FileSystemDiff;
+import org.jboss.provisioning.diff.FileSystemDiffResult;
 import org.jboss.provisioning.plugin.DiffPlugin;
 import org.jboss.provisioning.plugin.PluginOption;
 import org.jboss.provisioning.plugin.ProvisioningPluginWithOptions;
@@ -57,6 +58,8 @@ import org.jboss.provisioning.xml.ConfigXmlWriter;
  */
 public class WfDiffPlugin extends ProvisioningPluginWithOptions implements DiffPlugin {
 
+    private static final String EXPORT_FP = "diff-to-feature-pack";
+
     private static final PathFilter FILTER_FP = PathFilter.Builder.instance()
             .addDirectories("*" + File.separatorChar + "tmp", "*" + File.separatorChar + "log", "*_xml_history", "model_diff")
             .addFiles("standalone.xml", "process-uuid", "logging.properties")
@@ -82,7 +85,6 @@ public class WfDiffPlugin extends ProvisioningPluginWithOptions implements DiffP
     public void computeDiff(ProvisioningRuntime runtime, Path customizedInstallation, Path target) throws ProvisioningException {
         final MessageWriter messageWriter = runtime.getMessageWriter();
         messageWriter.verbose("WildFly diff plug-in");
-        FileSystemDiff diff = new FileSystemDiff(messageWriter, runtime.getInstallDir(), customizedInstallation);
         final ClassLoader originalCl = Thread.currentThread().getContextClassLoader();
         URLClassLoader newCl = ClassLoaderHelper.prepareProvisioningClassLoader(runtime.getInstallDir(), originalCl);
         Properties props = System.getProperties();
@@ -102,23 +104,24 @@ public class WfDiffPlugin extends ProvisioningPluginWithOptions implements DiffP
         }
         try {
             ConfigXmlWriter.getInstance().write(config, target.resolve("config.xml"));
+            final FileSystemDiffResult fsDiff;
+            if (EXPORT_FP.equals(runtime.getOperation())) {
+                // the feature-pack is built from the collected changes
+                fsDiff = new FileSystemDiff(messageWriter, runtime.getInstallDir(), customizedInstallation).diff(FILTER_FP);
+            } else {
+                runtime.exportFileSystemDiff(FILTER, target, customizedInstallation);
+                fsDiff = FileSystemDiffResult.empty();
+            }
             WfDiffResult result = new WfDiffResult(
                     includedConfigs,
                     Collections.singletonList(config),
 //                    Collections.singletonList(target.resolve("finalize.cli").toAbsolutePath()),
                     Collections.emptyList(),
-                    diff.diff(getFilter(runtime)));
+                    fsDiff);
             runtime.setDiff(result.merge(runtime.getDiff()));
         } catch (IOException | XMLStreamException ex) {
             messageWriter.error(ex, "Couldn't compute the WildFly Model diff because of %s", ex.getMessage());
             Logger.getLogger(WfDiffPlugin.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
-
-    private PathFilter getFilter(ProvisioningRuntime runtime) {
-        if ("diff-to-feature-pack".equals(runtime.getOperation())) {
-            return FILTER_FP;
-        }
-        return FILTER;
-    }
 }
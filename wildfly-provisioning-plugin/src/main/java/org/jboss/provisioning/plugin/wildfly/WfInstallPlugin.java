@@ -21,13 +21,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
@@ -39,37 +37,35 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
-import nu.xom.Attribute;
-import nu.xom.Builder;
-import nu.xom.Document;
-import nu.xom.Element;
-import nu.xom.Elements;
-import nu.xom.ParsingException;
-import nu.xom.Serializer;
-
 import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ArtifactException;
+import org.jboss.provisioning.ArtifactResolutionException;
 import org.jboss.provisioning.Errors;
 import org.jboss.provisioning.MessageWriter;
 import org.jboss.provisioning.ProvisioningException;
 import org.jboss.provisioning.plugin.PluginOption;
 import org.jboss.provisioning.plugin.InstallPlugin;
 import org.jboss.provisioning.plugin.ProvisioningPluginWithOptions;
+import org.jboss.provisioning.plugin.wildfly.ModuleTemplateProcessor.ModuleTemplate;
 import org.jboss.provisioning.plugin.wildfly.config.CopyArtifact;
 import org.jboss.provisioning.plugin.wildfly.config.CopyPath;
 import org.jboss.provisioning.plugin.wildfly.config.DeletePath;
 import org.jboss.provisioning.plugin.wildfly.config.FilePermission;
 import org.jboss.provisioning.plugin.wildfly.config.WildFlyPackageTasks;
-import org.jboss.provisioning.plugin.wildfly.server.CliScriptRunner;
+import org.jboss.provisioning.plugin.wildfly.server.EmbeddedServerInvoker;
 import org.jboss.provisioning.runtime.FeaturePackRuntime;
 import org.jboss.provisioning.runtime.PackageRuntime;
 import org.jboss.provisioning.runtime.ProvisioningRuntime;
@@ -96,11 +92,49 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
     private boolean thinServer;
     private Set<String> schemaGroups = Collections.emptySet();
 
-    private final PluginOption mavenDistOption = PluginOption.builder("jboss.maven.dist").hasNoValue().build();
+    private ModuleTemplateProcessor moduleTemplates;
+    // package tasks loaded when their artifacts were collected
+    private final Map<Path, WildFlyPackageTasks> packageTasks = new HashMap<>();
+    // artifacts resolved up front, read by the threads processing module templates
+    private final Map<ArtifactCoords, Path> resolvedArtifacts = new ConcurrentHashMap<>();
+
+    private final PluginOption mavenDistOption = PluginOption.builder(WfConstants.MAVEN_DIST).hasNoValue().build();
+    /**
+     * Maximum number of the management operations the config generator
+     * groups into a single composite operation. The operations are executed
+     * one by one unless the option is set.
+     */
+    private final PluginOption configGenBatchSizeOption = PluginOption.builder(WfConstants.CONFIG_GEN_BATCH_SIZE).build();
+    /**
+     * Number of the forked JVMs the configs are generated in. The configs
+     * are generated in the provisioning JVM unless the option is set.
+     */
+    private final PluginOption configGenWorkersOption = PluginOption.builder(WfConstants.CONFIG_GEN_WORKERS).build();
+    /**
+     * Number of seconds the config generation workers are given to complete,
+     * after which they are destroyed. The default is 600.
+     */
+    private final PluginOption configGenWorkerTimeoutOption = PluginOption.builder(WfConstants.CONFIG_GEN_WORKER_TIMEOUT).build();
+    /**
+     * Directory of the cache of the generated configs. The configs
+     * are always generated unless the option is set.
+     */
+    private final PluginOption configGenCacheOption = PluginOption.builder(WfConstants.CONFIG_GEN_CACHE).build();
+    /**
+     * Maximum number of the configs kept in the cache of the generated configs.
+     * The least recently used ones are evicted. The default is 64.
+     */
+    private final PluginOption configGenCacheSizeOption = PluginOption.builder(WfConstants.CONFIG_GEN_CACHE_SIZE).build();
+    /**
+     * Whether the module artifacts of a thin server should be checked
+     * to be resolvable. The module artifacts of a thin server are not
+     * resolved unless the option is set.
+     */
+    private final PluginOption mavenDistVerifyOption = PluginOption.builder(WfConstants.MAVEN_DIST_VERIFY).hasNoValue().build();
 
     @Override
     protected List<PluginOption> initPluginOptions() {
-        return Collections.singletonList(mavenDistOption);
+        return Arrays.asList(mavenDistOption, mavenDistVerifyOption, configGenBatchSizeOption, configGenWorkersOption, configGenWorkerTimeoutOption, configGenCacheOption, configGenCacheSizeOption);
     }
 
     /* (non-Javadoc)
@@ -180,8 +214,26 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         tasksProps = new MapPropertyResolver(provisioningProps);
         versionResolver = new MapPropertyResolver(artifactVersions);
 
-        for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
-            processPackages(fp);
+        resolveArtifacts();
+        moduleTemplates = new ModuleTemplateProcessor(runtime.getStagedDir(), runtime.getInstallThreads(), new ModuleTemplateProcessor.Handler() {
+            @Override
+            public List<Path> process(ModuleTemplate template) throws ProvisioningException {
+                return processModuleTemplate(template);
+            }
+            @Override
+            public void processed(ModuleTemplate template, List<Path> schemaArtifacts) throws ProvisioningException {
+                extractSchemas(template, schemaArtifacts);
+            }
+        });
+        try {
+            for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
+                processPackages(fp);
+            }
+            moduleTemplates.flush();
+        } finally {
+            moduleTemplates.close();
+            moduleTemplates = null;
+            packageTasks.clear();
         }
 
         generateConfigs(runtime, messageWriter);
@@ -190,7 +242,7 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
             final Path finalizeCli = fp.getResource(WfConstants.WILDFLY, WfConstants.SCRIPTS, "finalize.cli");
             if(Files.exists(finalizeCli)) {
-                CliScriptRunner.runCliScript(runtime.getStagedDir(), finalizeCli, messageWriter);
+                EmbeddedServerInvoker.runCliScript(runtime.getStagedDir(), finalizeCli, messageWriter);
             }
         }
     }
@@ -261,6 +313,94 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         return urls;
     }
 
+    /**
+     * Collects the artifacts referenced from the module templates and the
+     * copy-artifact tasks of all the packages and resolves them in one batch.
+     * The artifacts that could not be resolved are resolved again when they are
+     * needed, which is where the failure is reported.
+     *
+     * The module artifacts of a thin server are referenced by their coordinates,
+     * so only the ones the schemas are extracted from are resolved. The rest are
+     * resolved only to verify them, if requested.
+     */
+    private void resolveArtifacts() throws ProvisioningException {
+        final Set<ArtifactCoords> artifacts = new LinkedHashSet<>();
+        Set<ArtifactCoords> thinArtifacts = Collections.emptySet();
+        final List<String> nameExprs = new ArrayList<>();
+        for(FeaturePackRuntime fp : runtime.getFeaturePacks()) {
+            for(PackageRuntime pkg : fp.getPackages()) {
+                final Path pmWfDir = pkg.getResource(WfConstants.PM, WfConstants.WILDFLY);
+                if(!Files.exists(pmWfDir)) {
+                    continue;
+                }
+                final Path moduleDir = pmWfDir.resolve(WfConstants.MODULE);
+                if(Files.exists(moduleDir)) {
+                    try(Stream<Path> files = Files.walk(moduleDir)) {
+                        final Iterator<Path> i = files.iterator();
+                        while(i.hasNext()) {
+                            final Path file = i.next();
+                            if(file.getFileName().toString().equals(WfConstants.MODULE_XML)) {
+                                nameExprs.addAll(ModuleXmlRewriter.readArtifacts(file));
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new ProvisioningException("Failed to process modules from package " + pkg.getName() + " from feature-pack " + fp.getGav(), e);
+                    }
+                    for(String nameExpr : nameExprs) {
+                        final String artifactName = getModuleArtifactName(nameExpr);
+                        final String resolved = artifactName == null ? null : versionResolver.resolveProperty(artifactName);
+                        if(resolved == null) {
+                            continue;
+                        }
+                        final ArtifactCoords coords = fromJBossModules(resolved, "jar");
+                        if(thinServer && !schemaGroups.contains(coords.getGroupId())) {
+                            thinArtifacts = PmCollections.addLinked(thinArtifacts, coords);
+                        } else {
+                            artifacts.add(coords);
+                        }
+                    }
+                    nameExprs.clear();
+                }
+                final Path tasksXml = pmWfDir.resolve(WfConstants.TASKS_XML);
+                if(Files.exists(tasksXml)) {
+                    final WildFlyPackageTasks tasks = WildFlyPackageTasks.load(tasksXml);
+                    packageTasks.put(tasksXml, tasks);
+                    if(tasks.hasCopyArtifacts()) {
+                        for(CopyArtifact copyArtifact : tasks.getCopyArtifacts()) {
+                            final String gavString = versionResolver.resolveProperty(copyArtifact.getArtifact());
+                            if(gavString != null) {
+                                artifacts.add(fromJBossModules(gavString, "jar"));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        if(!thinArtifacts.isEmpty() && runtime.isOptionSet(mavenDistVerifyOption)) {
+            runtime.getMessageWriter().verbose("Verifying %d module artifact(s)", thinArtifacts.size());
+            runtime.resolveArtifacts(thinArtifacts);
+        }
+        if(artifacts.isEmpty()) {
+            return;
+        }
+        runtime.getMessageWriter().verbose("Resolving %d artifact(s)", artifacts.size());
+        try {
+            resolvedArtifacts.putAll(runtime.resolveArtifacts(artifacts));
+        } catch (ArtifactResolutionException e) {
+            resolvedArtifacts.putAll(e.getResolved());
+            runtime.getMessageWriter().verbose(e.getMessage());
+        }
+    }
+
+    private Path resolveArtifact(ArtifactCoords coords) throws ArtifactException {
+        Path path = resolvedArtifacts.get(coords);
+        if(path == null) {
+            path = runtime.resolveArtifact(coords);
+            resolvedArtifacts.put(coords, path);
+        }
+        return path;
+    }
+
     private void processPackages(final FeaturePackRuntime fp) throws ProvisioningException {
         for(PackageRuntime pkg : fp.getPackages()) {
             final Path pmWfDir = pkg.getResource(WfConstants.PM, WfConstants.WILDFLY);
@@ -270,11 +410,16 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
 
             final Path moduleDir = pmWfDir.resolve(WfConstants.MODULE);
             if(Files.exists(moduleDir)) {
-                processModules(fp.getGav(), pkg.getName(), moduleDir);
+                moduleTemplates.processModules(fp.getGav(), pkg.getName(), moduleDir);
             }
             final Path tasksXml = pmWfDir.resolve(WfConstants.TASKS_XML);
             if(Files.exists(tasksXml)) {
-                final WildFlyPackageTasks pkgTasks = WildFlyPackageTasks.load(tasksXml);
+                // the tasks may depend on the content of the modules
+                moduleTemplates.flush();
+                WildFlyPackageTasks pkgTasks = packageTasks.remove(tasksXml);
+                if(pkgTasks == null) {
+                    pkgTasks = WildFlyPackageTasks.load(tasksXml);
+                }
                 if(pkgTasks.hasCopyArtifacts()) {
                     copyArtifacts(pkgTasks);
                 }
@@ -294,151 +439,133 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
         }
     }
 
-    private void processModules(ArtifactCoords.Gav fp, String pkgName, Path fpModuleDir) throws ProvisioningException {
+    private List<Path> processModuleTemplate(ModuleTemplate template) throws ProvisioningException {
         try {
-            final Path installDir = runtime.getStagedDir();
-            Files.walkFileTree(fpModuleDir, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
-                    throws IOException {
-                    final Path targetDir = installDir.resolve(fpModuleDir.relativize(dir));
-                    try {
-                        Files.copy(dir, targetDir);
-                    } catch (FileAlreadyExistsException e) {
-                         if (!Files.isDirectory(targetDir)) {
-                             throw e;
-                         }
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
-                    throws IOException {
-                    if(file.getFileName().toString().equals(WfConstants.MODULE_XML)) {
-                        processModuleTemplate(fpModuleDir, installDir, file);
-                    } else {
-                        Files.copy(file, installDir.resolve(fpModuleDir.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-            });
+            return processModuleTemplate(template.fpModuleDir, runtime.getStagedDir(), template.file);
         } catch (IOException e) {
-            throw new ProvisioningException("Failed to process modules from package " + pkgName + " from feature-pack " + fp, e);
+            throw new ProvisioningException("Failed to process modules from package " + template.pkgName + " from feature-pack " + template.fp, e);
         }
     }
 
-    private void processModuleTemplate(Path fpModuleDir, final Path installDir, Path moduleTemplate) throws IOException {
-        final Builder builder = new Builder(false);
-        final Document document;
-        try (BufferedReader reader = Files.newBufferedReader(moduleTemplate, StandardCharsets.UTF_8)) {
-            document = builder.build(reader);
-        } catch (ParsingException e) {
-            throw new IOException("Failed to parse document", e);
+    private void extractSchemas(ModuleTemplate template, List<Path> schemaArtifacts) throws ProvisioningException {
+        for(Path artifact : schemaArtifacts) {
+            try {
+                extractSchemas(artifact);
+            } catch (IOException e) {
+                throw new ProvisioningException("Failed to process modules from package " + template.pkgName + " from feature-pack " + template.fp, e);
+            }
         }
+    }
+
+    /**
+     * Processes a module template and returns the module artifacts the schemas of which should be extracted.
+     */
+    private List<Path> processModuleTemplate(Path fpModuleDir, final Path installDir, Path moduleTemplate) throws IOException {
         final Path targetPath = installDir.resolve(fpModuleDir.relativize(moduleTemplate));
-        final Element rootElement = document.getRootElement();
-        if (! rootElement.getLocalName().equals("module")) {
-            // just copy the content and leave
-            Files.copy(moduleTemplate, targetPath, StandardCopyOption.REPLACE_EXISTING);
-            return;
-        }
-        // replace version, if any
-        final Attribute versionAttribute = rootElement.getAttribute("version");
-        if (versionAttribute != null) {
-            final String versionExpr = versionAttribute.getValue();
-            if (versionExpr.startsWith("${") && versionExpr.endsWith("}")) {
-                final String exprBody = versionExpr.substring(2, versionExpr.length() - 1);
-                final int optionsIndex = exprBody.indexOf('?');
-                final String artifactName;
-                if (optionsIndex > 0) {
-                    artifactName = exprBody.substring(0, optionsIndex);
-                } else {
-                    artifactName = exprBody;
-                }
-                final String resolved = versionResolver.resolveProperty(artifactName);
-                if (resolved != null) {
-                    final ArtifactCoords coords = fromJBossModules(resolved, "jar");
-                    versionAttribute.setValue(coords.getVersion());
-                }
+        final Path targetDir = installDir.resolve(fpModuleDir.relativize(moduleTemplate.getParent()));
+        final List<Path> schemaArtifacts = new ArrayList<>(0);
+        final ModuleXmlRewriter.Substitutions substitutions = new ModuleXmlRewriter.Substitutions() {
+            @Override
+            public String getVersion(String versionExpr) throws IOException {
+                return resolveModuleVersion(versionExpr);
             }
-        }
-        // replace all artifact declarations
-        final Element resourcesElement = rootElement.getFirstChildElement("resources", rootElement.getNamespaceURI());
-        if (resourcesElement != null) {
-            final Elements artifacts = resourcesElement.getChildElements("artifact", rootElement.getNamespaceURI());
-            final int artifactCount = artifacts.size();
-            for (int i = 0; i < artifactCount; i ++) {
-                final Element element = artifacts.get(i);
-                assert element.getLocalName().equals("artifact");
-                final Attribute attribute = element.getAttribute("name");
-                final String nameExpr = attribute.getValue();
-                if (nameExpr.startsWith("${") && nameExpr.endsWith("}")) {
-                    final String exprBody = nameExpr.substring(2, nameExpr.length() - 1);
-                    final int optionsIndex = exprBody.indexOf('?');
-                    final String artifactName;
-                    final boolean jandex;
-                    if (optionsIndex >= 0) {
-                        artifactName = exprBody.substring(0, optionsIndex);
-                        jandex = nameExpr.indexOf("jandex", optionsIndex) >= 0;
-                    } else {
-                        artifactName = exprBody;
-                        jandex = false;
-                    }
-                    final String resolved = versionResolver.resolveProperty(artifactName);
-                    if (resolved != null) {
-                        final ArtifactCoords coords = fromJBossModules(resolved, "jar");
-                        final Path moduleArtifact;
+            @Override
+            public String getArtifact(String nameExpr) throws IOException {
+                return resolveModuleArtifact(nameExpr, targetDir, schemaArtifacts);
+            }
+        };
+        ModuleXmlRewriter.parse(moduleTemplate).write(targetPath, !thinServer, substitutions);
+        return schemaArtifacts;
+    }
 
-                        try {
-                            moduleArtifact = runtime.resolveArtifact(coords);
-                        } catch (ProvisioningException e) {
-                            throw new IOException(e);
-                        }
-                        if (thinServer) {
-                            // ignore jandex variable, just resolve coordinates to a string
-                            attribute.setValue(resolved);
-                        } else {
-                            final Path targetDir = installDir.resolve(fpModuleDir.relativize(moduleTemplate.getParent()));
-                            final String artifactFileName = moduleArtifact.getFileName().toString();
-                            final String finalFileName;
-
-                            if (jandex) {
-                                final int lastDot = artifactFileName.lastIndexOf(".");
-                                final File target = new File(targetDir.toFile(), new StringBuilder()
-                                    .append(artifactFileName.substring(0, lastDot))
-                                    .append("-jandex")
-                                    .append(artifactFileName.substring(lastDot)).toString()
-                                );
-                                JandexIndexer.createIndex(moduleArtifact.toFile(), new FileOutputStream(target));
-                                finalFileName = target.getName();
-                            } else {
-                                Files.copy(moduleArtifact, targetDir.resolve(artifactFileName), StandardCopyOption.REPLACE_EXISTING);
-                                finalFileName = artifactFileName;
-                            }
-                            element.setLocalName("resource-root");
-                            attribute.setLocalName("path");
-                            attribute.setValue(finalFileName);
-                        }
-                        if (schemaGroups.contains(coords.getGroupId())) {
-                            extractSchemas(moduleArtifact);
-                        }
-                    }
-                }
-                // if any step fails, don't change anything at all for that artifact
+    /**
+     * Resolves the version expression of a module.
+     *
+     * @return  the version or null, if the module version should be left as is
+     */
+    private String resolveModuleVersion(String versionExpr) {
+        if (versionExpr.startsWith("${") && versionExpr.endsWith("}")) {
+            final String exprBody = versionExpr.substring(2, versionExpr.length() - 1);
+            final int optionsIndex = exprBody.indexOf('?');
+            final String artifactName;
+            if (optionsIndex > 0) {
+                artifactName = exprBody.substring(0, optionsIndex);
+            } else {
+                artifactName = exprBody;
             }
-        }
-        // now serialize the result
-        try (OutputStream outputStream = Files.newOutputStream(targetPath)) {
-            new Serializer(outputStream).write(document);
-        } catch (Throwable t) {
-            try {
-                Files.deleteIfExists(targetPath);
-            } catch (Throwable t2) {
-                t2.addSuppressed(t);
-                throw t2;
+            final String resolved = versionResolver.resolveProperty(artifactName);
+            if (resolved != null) {
+                final ArtifactCoords coords = fromJBossModules(resolved, "jar");
+                return coords.getVersion();
             }
-            throw t;
         }
+        return null;
+    }
+
+    /**
+     * Resolves the artifact expression of a module resource. Unless the
+     * installation is a thin server, the artifact is copied (or its jandex index
+     * created) into the module directory. The artifact of a thin server is
+     * resolved only if its schemas have to be extracted.
+     *
+     * @return  the artifact coordinates for a thin server, otherwise the file name of the resource root,
+     * or null, if the artifact should be left as is
+     */
+    private String resolveModuleArtifact(String nameExpr, Path targetDir, List<Path> schemaArtifacts) throws IOException {
+        final String artifactName = getModuleArtifactName(nameExpr);
+        if (artifactName == null) {
+            return null;
+        }
+        // the options, if any, follow the artifact name
+        final boolean jandex = artifactName.length() + 3 < nameExpr.length() && nameExpr.indexOf("jandex", artifactName.length()) >= 0;
+        final String resolved = versionResolver.resolveProperty(artifactName);
+        if (resolved == null) {
+            return null;
+        }
+        final ArtifactCoords coords = fromJBossModules(resolved, "jar");
+        final boolean schemas = schemaGroups.contains(coords.getGroupId());
+        if (thinServer && !schemas) {
+            // ignore jandex variable, just resolve coordinates to a string
+            return resolved;
+        }
+        final Path moduleArtifact;
+        try {
+            moduleArtifact = resolveArtifact(coords);
+        } catch (ProvisioningException e) {
+            throw new IOException(e);
+        }
+        if (schemas) {
+            schemaArtifacts.add(moduleArtifact);
+        }
+        if (thinServer) {
+            return resolved;
+        }
+        final String artifactFileName = moduleArtifact.getFileName().toString();
+        if (jandex) {
+            final int lastDot = artifactFileName.lastIndexOf(".");
+            final File target = new File(targetDir.toFile(), new StringBuilder()
+                .append(artifactFileName.substring(0, lastDot))
+                .append("-jandex")
+                .append(artifactFileName.substring(lastDot)).toString()
+            );
+            JandexIndexer.createIndex(moduleArtifact.toFile(), new FileOutputStream(target));
+            return target.getName();
+        }
+        Files.copy(moduleArtifact, targetDir.resolve(artifactFileName), StandardCopyOption.REPLACE_EXISTING);
+        return artifactFileName;
+    }
+
+    /**
+     * @return  the name of the artifact property in the artifact expression of a module resource
+     * or null, if the value is not an expression
+     */
+    private static String getModuleArtifactName(String nameExpr) {
+        if (!nameExpr.startsWith("${") || !nameExpr.endsWith("}")) {
+            return null;
+        }
+        final String exprBody = nameExpr.substring(2, nameExpr.length() - 1);
+        final int optionsIndex = exprBody.indexOf('?');
+        return optionsIndex >= 0 ? exprBody.substring(0, optionsIndex) : exprBody;
     }
 
     private void extractSchemas(Path moduleArtifact) throws IOException {
@@ -457,7 +584,7 @@ public class WfInstallPlugin extends ProvisioningPluginWithOptions implements In
             final String gavString = versionResolver.resolveProperty(copyArtifact.getArtifact());
             try {
                 final ArtifactCoords coords = fromJBossModules(gavString, "jar");
-                final Path jarSrc = runtime.resolveArtifact(coords);
+                final Path jarSrc = resolveArtifact(coords);
                 String location = copyArtifact.getToLocation();
                 if (!location.isEmpty() && location.charAt(location.length() - 1) == '/') {
                     // if the to location ends with a / then it is a directory
@@ -16,85 +16,140 @@
  */
 package org.jboss.provisioning.plugin.wildfly.server;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
+import org.jboss.as.cli.CliInitializationException;
+import org.jboss.as.cli.CommandContext;
+import org.jboss.as.cli.CommandContextFactory;
+import org.jboss.as.cli.CommandLineException;
+import org.jboss.as.cli.impl.CommandContextConfiguration;
+import org.jboss.provisioning.Errors;
 import org.jboss.provisioning.MessageWriter;
 import org.jboss.provisioning.ProvisioningException;
-import org.wildfly.core.launcher.CliCommandBuilder;
 
 /**
- * @author Alexey Loubyansky
+ * Executes a CLI script in this JVM, the way the CLI launched with
+ * the --file argument would do it. The class has to be loaded by a class
+ * loader that sees the CLI of the installation, which is what
+ * {@link EmbeddedServerInvoker#runCliScript(Path, Path, MessageWriter)} does.
  *
+ * @author Alexey Loubyansky
  */
 public class CliScriptRunner {
 
-    public static void runCliScript(Path installHome, Path script, MessageWriter messageWriter) throws ProvisioningException {
-        final CliCommandBuilder builder = CliCommandBuilder
-                .of(installHome)
-                .addCliArgument("--no-operation-validation")
-                .addCliArgument("--echo-command")
-                .addCliArgument("--file=" + script);
-        List<String> arguments = builder.build();
-        messageWriter.verbose("Executing jboss console: %s", arguments.stream().collect(Collectors.joining(" ")));
-        final ProcessBuilder processBuilder = new ProcessBuilder(arguments).redirectErrorStream(true);
-        processBuilder.environment().put("JBOSS_HOME", installHome.toString());
+    private static final String[] EMBED_COMMANDS = {"embed-server", "embed-host-controller"};
+    private static final String JBOSS_HOME_ARG = "--jboss-home";
 
-        execute(processBuilder, messageWriter);
+    public static void runCliScript(Path installHome, Path script, MessageWriter messageWriter) throws ProvisioningException {
+        messageWriter.verbose("Executing CLI script %s", script);
+        final List<String> commands = readCommands(installHome, script);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CommandContext ctx;
+        try {
+            ctx = CommandContextFactory.getInstance().newCommandContext(new CommandContextConfiguration.Builder()
+                    .setConsoleOutput(out)
+                    .setEchoCommand(true)
+                    .setValidateOperationRequests(false)
+                    .build());
+        } catch (CliInitializationException e) {
+            throw new ProvisioningException("Failed to initialize CLI context", e);
+        }
+        try {
+            for(String cmd : commands) {
+                try {
+                    ctx.handle(cmd);
+                } catch (CommandLineException e) {
+                    throw new ProvisioningException("Failed to execute " + cmd + " from " + script,
+                            new ProvisioningException(toString(out), e));
+                }
+            }
+        } finally {
+            try {
+                ctx.terminateSession();
+            } finally {
+                if(messageWriter.isVerboseEnabled()) {
+                    messageWriter.verbose(toString(out));
+                }
+            }
+        }
     }
 
-    private static void execute(final ProcessBuilder processBuilder, MessageWriter messageWriter) throws ProvisioningException {
-        final Process cliProcess;
+    /**
+     * Reads the commands of a script, joining the continued lines and skipping
+     * the comments. The processes embedded by the script are started from
+     * the installation, unless the script says otherwise.
+     *
+     * @param installHome  installation directory
+     * @param script  CLI script
+     * @return  the commands to execute
+     * @throws ProvisioningException  in case the script could not be read
+     */
+    static List<String> readCommands(Path installHome, Path script) throws ProvisioningException {
+        final List<String> lines;
         try {
-            cliProcess = processBuilder.start();
-
-            String config = null;
-            final StringWriter errorWriter = new StringWriter();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(cliProcess.getInputStream()));
-                    BufferedWriter writer = new BufferedWriter(errorWriter)) {
-                String line = reader.readLine();
-                boolean flush = false;
-                while (line != null) {
-                    if (line.equals("}")) {
-                        flush = true;
-                    } else {
-                        if(line.startsWith("&config ")) {
-                            config = line;
-                        }
-                        if (flush) {
-                            writer.flush();
-                            errorWriter.getBuffer().setLength(0);
-                            flush = false;
-                        }
-                    }
-                    writer.write(line);
-                    writer.newLine();
-                    line = reader.readLine();
-                }
-            } catch (IOException e) {
-                messageWriter.error(e, e.getMessage());
+            lines = Files.readAllLines(script, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ProvisioningException(Errors.readFile(script), e);
+        }
+        final List<String> commands = new ArrayList<>();
+        final StringBuilder buf = new StringBuilder();
+        for(String line : lines) {
+            line = line.trim();
+            if(buf.length() == 0 && (line.isEmpty() || line.charAt(0) == '#')) {
+                continue;
+            }
+            if(line.endsWith("\\")) {
+                buf.append(line, 0, line.length() - 1);
+                continue;
+            }
+            buf.append(line);
+            if(isEmbedCommand(buf) && buf.indexOf(JBOSS_HOME_ARG) < 0) {
+                buf.append(' ').append(JBOSS_HOME_ARG).append('=');
+                appendQuoted(buf, installHome.toString());
             }
+            commands.add(buf.toString());
+            buf.setLength(0);
+        }
+        return commands;
+    }
 
-            if (cliProcess.isAlive()) {
-                try {
-                    cliProcess.waitFor();
-                } catch (InterruptedException e) {
-                    messageWriter.error(e, e.getMessage());
-                }
+    /**
+     * Appends the value in quotes, escaping the quotes and the backslashes it
+     * contains, so that the CLI parser reads it as a single argument value.
+     */
+    private static void appendQuoted(StringBuilder buf, String value) {
+        buf.append('"');
+        for(int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if(c == '"' || c == '\\') {
+                buf.append('\\');
             }
+            buf.append(c);
+        }
+        buf.append('"');
+    }
 
-            if (cliProcess.exitValue() != 0) {
-                throw new ProvisioningException("Failed to generate " + config.substring(1),
-                        new ProvisioningException(errorWriter.getBuffer().toString()));
+    private static boolean isEmbedCommand(StringBuilder cmd) {
+        for(String embedCmd : EMBED_COMMANDS) {
+            if(cmd.indexOf(embedCmd) == 0 && (cmd.length() == embedCmd.length() || Character.isWhitespace(cmd.charAt(embedCmd.length())))) {
+                return true;
             }
-        } catch (IOException e) {
-            throw new ProvisioningException("CLI process failed", e);
+        }
+        return false;
+    }
+
+    private static String toString(ByteArrayOutputStream out) {
+        try {
+            return out.toString(StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            return out.toString();
         }
     }
 }
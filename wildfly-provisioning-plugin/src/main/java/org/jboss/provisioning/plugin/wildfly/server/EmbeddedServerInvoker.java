@@ -108,16 +108,33 @@ public class EmbeddedServerInvoker {
      * @throws ProvisioningException
      */
     public void execute(List<String> commands) throws ProvisioningException {
+        runCliScript(installationDir, createEmbeddedStandaloneScript(commands), messageWriter);
+    }
+
+    /**
+     * Executes a CLI script in this JVM with the CLI of the installation.
+     *
+     * @param installationDir  installation directory
+     * @param script  CLI script
+     * @param messageWriter  message writer
+     * @throws ProvisioningException  in case the script failed
+     */
+    public static void runCliScript(Path installationDir, Path script, MessageWriter messageWriter) throws ProvisioningException {
         final ClassLoader originalCl = Thread.currentThread().getContextClassLoader();
         URLClassLoader newCl = ClassLoaderHelper.prepareProvisioningClassLoader(installationDir, originalCl);
-        Path script = createEmbeddedStandaloneScript(commands);
         Properties props = System.getProperties();
         try {
             Thread.currentThread().setContextClassLoader(newCl);
-            final Class<?> cliScriptRunner = newCl.loadClass("org.jboss.provisioning.plugin.wildfly.server.CliScriptRunner");
+            final Class<?> cliScriptRunner = newCl.loadClass(CliScriptRunner.class.getName());
             final Method execute = cliScriptRunner.getMethod("runCliScript", Path.class, Path.class, MessageWriter.class);
             execute.invoke(null, installationDir, script, messageWriter);
-        } catch (ClassNotFoundException | NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NoClassDefFoundError ex) {
+        } catch (InvocationTargetException ex) {
+            final Throwable cause = ex.getCause();
+            if(cause instanceof ProvisioningException) {
+                throw (ProvisioningException) cause;
+            }
+            throw new ProvisioningException(cause.getMessage(), cause);
+        } catch (ClassNotFoundException | NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | NoClassDefFoundError ex) {
             throw new ProvisioningException(ex.getMessage(), ex);
         } finally {
             Thread.currentThread().setContextClassLoader(originalCl);
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.plugin.wildfly;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.plugin.wildfly.ModuleTemplateProcessor.ModuleTemplate;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the order in which the module templates of the packages are processed.
+ */
+public class ModuleTemplateProcessorTestCase {
+
+    private static final ArtifactCoords.Gav FP = ArtifactCoords.newGav("org.jboss.test", "fp1", "1.0.0.Final");
+    private static final String MODULE_DIR = "system/layers/base/org/jboss/test/main";
+
+    /**
+     * Writes the template content to the target module.xml and copies
+     * the module artifact to the module directory.
+     */
+    private class TestHandler implements ModuleTemplateProcessor.Handler {
+
+        final List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        final Set<String> pools = Collections.synchronizedSet(new HashSet<>());
+
+        @Override
+        public List<Path> process(ModuleTemplate template) throws ProvisioningException {
+            final String threadName = Thread.currentThread().getName();
+            final int i = threadName.lastIndexOf("-thread-");
+            // the templates of a batch may also be processed by the calling thread
+            if(i > 0) {
+                pools.add(threadName.substring(0, i));
+            }
+            try {
+                final String content = read(template.file);
+                if(content.equals("fail")) {
+                    throw new ProvisioningException("Failed to process " + template.pkgName);
+                }
+                final Path targetPath = installDir.resolve(template.fpModuleDir.relativize(template.file));
+                write(targetPath, content);
+                write(targetPath.getParent().resolve("artifact.jar"), template.pkgName);
+            } catch (ProvisioningException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ProvisioningException(e);
+            }
+            return Collections.singletonList(template.file);
+        }
+
+        @Override
+        public void processed(ModuleTemplate template, List<Path> schemaArtifacts) throws ProvisioningException {
+            Assert.assertEquals(Collections.singletonList(template.file), schemaArtifacts);
+            processed.add(template.pkgName);
+        }
+    }
+
+    private Path workDir;
+    private Path installDir;
+    private TestHandler handler;
+
+    @Before
+    public void init() throws Exception {
+        workDir = Files.createTempDirectory("modules");
+        installDir = workDir.resolve("install");
+        Files.createDirectories(installDir);
+        handler = new TestHandler();
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        IoUtils.recursiveDelete(workDir);
+    }
+
+    @Test
+    public void testLaterPackageOverridesTemplate() throws Exception {
+        try(ModuleTemplateProcessor processor = new ModuleTemplateProcessor(installDir, 4, handler)) {
+            processor.processModules(FP, "p1", writeModule("p1", MODULE_DIR, WfConstants.MODULE_XML, "module1"));
+            processor.processModules(FP, "p2", writeModule("p2", MODULE_DIR, WfConstants.MODULE_XML, "module2"));
+            processor.flush();
+        }
+        Assert.assertEquals("module2", read(installDir.resolve(MODULE_DIR).resolve(WfConstants.MODULE_XML)));
+        Assert.assertEquals("p2", read(installDir.resolve(MODULE_DIR).resolve("artifact.jar")));
+        Assert.assertEquals(Arrays.asList("p1", "p2"), handler.processed);
+    }
+
+    @Test
+    public void testLaterPackageFileNotOverwritten() throws Exception {
+        try(ModuleTemplateProcessor processor = new ModuleTemplateProcessor(installDir, 4, handler)) {
+            processor.processModules(FP, "p1", writeModule("p1", MODULE_DIR, WfConstants.MODULE_XML, "module1"));
+            processor.processModules(FP, "p2", writeModule("p2", MODULE_DIR, "artifact.jar", "copied"));
+            processor.flush();
+        }
+        Assert.assertEquals("module1", read(installDir.resolve(MODULE_DIR).resolve(WfConstants.MODULE_XML)));
+        Assert.assertEquals("copied", read(installDir.resolve(MODULE_DIR).resolve("artifact.jar")));
+    }
+
+    @Test
+    public void testThreadPoolSharedByBatches() throws Exception {
+        final List<String> expected = new ArrayList<>();
+        try(ModuleTemplateProcessor processor = new ModuleTemplateProcessor(installDir, 3, handler)) {
+            for(int batch = 0; batch < 3; ++batch) {
+                for(int i = 0; i < 5; ++i) {
+                    final String pkg = "p" + batch + i;
+                    processor.processModules(FP, pkg, writeModule(pkg, "system/layers/base/org/jboss/test" + i + "/main", WfConstants.MODULE_XML, pkg));
+                    expected.add(pkg);
+                }
+                processor.flush();
+            }
+        }
+        Assert.assertEquals(expected, handler.processed);
+        Assert.assertEquals(1, handler.pools.size());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        try(ModuleTemplateProcessor processor = new ModuleTemplateProcessor(installDir, 2, handler)) {
+            processor.processModules(FP, "p1", writeModule("p1", MODULE_DIR, WfConstants.MODULE_XML, "module1"));
+            processor.processModules(FP, "p2", writeModule("p2", "system/layers/base/org/jboss/test2/main", WfConstants.MODULE_XML, "fail"));
+            processor.flush();
+            Assert.fail("The template did not fail");
+        } catch(ProvisioningException e) {
+            Assert.assertEquals("Failed to process p2", e.getMessage());
+        }
+        Assert.assertTrue(handler.processed.isEmpty());
+    }
+
+    private Path writeModule(String pkg, String moduleDir, String fileName, String content) throws Exception {
+        final Path fpModuleDir = workDir.resolve(pkg);
+        final Path file = fpModuleDir.resolve(moduleDir).resolve(fileName);
+        Files.createDirectories(file.getParent());
+        write(file, content);
+        return fpModuleDir;
+    }
+
+    private static void write(Path file, String content) throws Exception {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
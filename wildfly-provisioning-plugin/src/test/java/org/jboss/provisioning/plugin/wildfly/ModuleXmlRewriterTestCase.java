@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.plugin.wildfly;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the module.xml files written by the rewriter are the same,
+ * byte for byte, as the ones written with XOM.
+ */
+public class ModuleXmlRewriterTestCase {
+
+    private static final ModuleXmlRewriter.Substitutions SUBSTITUTIONS = new ModuleXmlRewriter.Substitutions() {
+        @Override
+        public String getVersion(String versionExpr) {
+            return versionExpr.startsWith("${") ? "1.0.0.Final" : null;
+        }
+        @Override
+        public String getArtifact(String nameExpr) {
+            if(!nameExpr.startsWith("${")) {
+                return null;
+            }
+            return nameExpr.substring(2, nameExpr.length() - 1).replace(':', '-').replace('?', '-') + "-1.0.0.Final.jar";
+        }
+    };
+
+    private Path workDir;
+
+    @Before
+    public void init() throws Exception {
+        workDir = Files.createTempDirectory("module-templates");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        IoUtils.recursiveDelete(workDir);
+    }
+
+    @Test
+    public void testWildFlyCoreTemplates() throws Exception {
+        for(String name : Arrays.asList("org.jboss.logmanager", "org.wildfly.extension.elytron", "sun.jdk", "javax.json.api")) {
+            assertSameAsXom(Paths.get(getClass().getResource("/module-templates/" + name + ".xml").toURI()));
+        }
+    }
+
+    @Test
+    public void testArtifactsCollected() throws Exception {
+        assertArtifacts(Collections.singletonList("${org.wildfly.core:wildfly-elytron-integration}"),
+                Paths.get(getClass().getResource("/module-templates/org.wildfly.extension.elytron.xml").toURI()));
+        assertArtifacts(Collections.emptyList(),
+                Paths.get(getClass().getResource("/module-templates/sun.jdk.xml").toURI()));
+        assertArtifacts(Arrays.asList("${a:b}", "${c:d?jandex}", "plain.jar"),
+                writeTemplate(
+                        "<module xmlns=\"urn:jboss:module:1.6\" name=\"m\">",
+                        "  <properties><property name=\"p\" value=\"v\"/></properties>",
+                        "  <resources>",
+                        "    <artifact name=\"${a:b}\"/>",
+                        "    <artifact name=\"${c:d?jandex}\"/>",
+                        "    <other xmlns=\"urn:other\"><artifact name=\"${ignored:z}\"/></other>",
+                        "    <artifact name=\"plain.jar\"/>",
+                        "  </resources>",
+                        "  <resources><artifact name=\"${ignored:x}\"/></resources>",
+                        "  <dependencies><artifact name=\"${ignored:y}\"/></dependencies>",
+                        "</module>"));
+    }
+
+    private static void assertArtifacts(List<String> expected, Path template) throws IOException {
+        Assert.assertEquals(expected, ModuleXmlRewriter.parse(template).getArtifacts());
+        Assert.assertEquals(expected, ModuleXmlRewriter.readArtifacts(template));
+    }
+
+    @Test
+    public void testEscapingAndMarkup() throws Exception {
+        assertSameAsXom(writeTemplate(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                "<!-- header -->",
+                "<?pi-before data?>",
+                "<module xmlns=\"urn:jboss:module:1.6\" name=\"m\" version=\"${a:b}\">",
+                "  <properties><property name=\"p\" value=\"a &amp; b &lt; &quot;c&quot; &#9;&#10;&#13;\"/></properties>",
+                "  <resources>",
+                "    <artifact name=\"${a:b}\"/>",
+                "    <artifact name=\"${c:d?jandex}\"/>",
+                "    <artifact name=\"plain.jar\"/>",
+                "    <resource-root path=\"r\"></resource-root>",
+                "  </resources>",
+                "  <!-- text -->",
+                "  <x>&gt; &amp; <![CDATA[<cdata> & ]]>&#13;</x>",
+                "  <other xmlns=\"urn:other\"><artifact name=\"${a:b}\"/></other>",
+                "  <?pi-inside?>",
+                "</module>",
+                "<!-- trailer -->"));
+    }
+
+    @Test
+    public void testNotModule() throws Exception {
+        final Path template = writeTemplate("<module-alias xmlns=\"urn:jboss:module:1.6\" name=\"a\" target-name=\"m\"/>");
+        assertSameAsXom(template);
+        assertArtifacts(Collections.emptyList(), template);
+    }
+
+    @Test
+    public void testNamespacePrefixesFallBack() throws Exception {
+        assertSameAsXom(writeTemplate(
+                "<m:module xmlns:m=\"urn:jboss:module:1.6\" name=\"m\">",
+                "  <m:resources><m:artifact name=\"${a:b}\"/></m:resources>",
+                "</m:module>"));
+        assertSameAsXom(writeTemplate(
+                "<module xmlns=\"urn:jboss:module:1.6\" xmlns:x=\"urn:x\" name=\"m\">",
+                "  <resources><artifact x:opt=\"1\" name=\"${a:b}\"/></resources>",
+                "</module>"));
+    }
+
+    @Test
+    public void testDtdAndEntitiesFallBack() throws Exception {
+        assertSameAsXom(writeTemplate(
+                "<!DOCTYPE module [",
+                "  <!ENTITY ver \"${a:b}\">",
+                "]>",
+                "<module xmlns=\"urn:jboss:module:1.6\" name=\"m\" version=\"&ver;\">",
+                "  <resources><artifact name=\"&ver;\"/></resources>",
+                "</module>"));
+    }
+
+    @Test
+    public void testArtifactWithoutNameFallsBack() throws Exception {
+        final Path template = writeTemplate(
+                "<module xmlns=\"urn:jboss:module:1.6\" name=\"m\">",
+                "  <resources><artifact path=\"${a:b}\"/></resources>",
+                "</module>");
+        try {
+            ModuleXmlRewriter.parse(template).write(workDir.resolve("out.xml"), true, SUBSTITUTIONS);
+            Assert.fail("XOM did not fail");
+        } catch(NullPointerException e) {
+            // the same failure as with XOM
+        }
+    }
+
+    private void assertSameAsXom(Path template) throws IOException {
+        for(boolean renameArtifacts : new boolean[] {true, false}) {
+            final Path expected = workDir.resolve("xom.xml");
+            final Path actual = workDir.resolve("rewritten.xml");
+            ModuleXmlRewriter.writeWithXom(template, expected, renameArtifacts, SUBSTITUTIONS);
+            ModuleXmlRewriter.parse(template).write(actual, renameArtifacts, SUBSTITUTIONS);
+            Assert.assertEquals(template + " renameArtifacts=" + renameArtifacts,
+                    new String(Files.readAllBytes(expected), StandardCharsets.UTF_8),
+                    new String(Files.readAllBytes(actual), StandardCharsets.UTF_8));
+            Assert.assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(actual));
+        }
+    }
+
+    private Path writeTemplate(String... lines) throws IOException {
+        final Path template = workDir.resolve("module.xml");
+        Files.write(template, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return template;
+    }
+}
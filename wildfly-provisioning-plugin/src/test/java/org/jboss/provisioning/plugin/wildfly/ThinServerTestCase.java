@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.provisioning.plugin.wildfly;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.provisioning.ArtifactCoords;
+import org.jboss.provisioning.ProvisioningException;
+import org.jboss.provisioning.ProvisioningManager;
+import org.jboss.provisioning.config.FeaturePackConfig;
+import org.jboss.provisioning.config.ProvisioningConfig;
+import org.jboss.provisioning.repomanager.FeaturePackRepositoryManager;
+import org.jboss.provisioning.util.IoUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Provisions the module of a feature-pack as a thin and as a regular server.
+ */
+public class ThinServerTestCase {
+
+    private static final ArtifactCoords.Gav FP_GAV = ArtifactCoords.newGav("org.pm.test", "fp", "1.0.0.Final");
+    private static final ArtifactCoords LIB = ArtifactCoords.newInstance("org.pm.test", "lib", "1.0", "jar");
+
+    private static final String MODULE_XML = "modules/org/pm/test/main/module.xml";
+
+    private Path repoHome;
+    private Path installHome;
+    private FeaturePackRepositoryManager repo;
+
+    @Before
+    public void before() throws Exception {
+        repoHome = Files.createTempDirectory("pm-repo");
+        installHome = Files.createTempDirectory("pm-install");
+        repo = FeaturePackRepositoryManager.newInstance(repoHome);
+        repo.installer()
+            .newFeaturePack(FP_GAV)
+                .writeResources("wildfly/" + WfConstants.ARTIFACT_VERSIONS_PROPS, "org.pm.test:lib=org.pm.test:lib:1.0")
+                .newPackage("org.pm.test", true)
+                    .writeContent("pm/wildfly/module/" + MODULE_XML,
+                            "<module xmlns=\"urn:jboss:module:1.5\" name=\"org.pm.test\">\n" +
+                            "    <resources>\n" +
+                            "        <artifact name=\"${org.pm.test:lib}\"/>\n" +
+                            "    </resources>\n" +
+                            "</module>\n", false)
+                    .getFeaturePack()
+                .getInstaller()
+            .install();
+    }
+
+    @After
+    public void after() throws Exception {
+        IoUtils.recursiveDelete(installHome);
+        IoUtils.recursiveDelete(repoHome);
+    }
+
+    @Test
+    public void testThinServerDoesNotResolveModuleArtifacts() throws Exception {
+        install(WfConstants.MAVEN_DIST);
+        Assert.assertTrue(read(MODULE_XML).contains("<artifact name=\"org.pm.test:lib:1.0\"/>"));
+        Assert.assertFalse(Files.exists(installHome.resolve("modules/org/pm/test/main/lib-1.0.jar")));
+    }
+
+    @Test
+    public void testThinServerVerifiesModuleArtifacts() throws Exception {
+        try {
+            install(WfConstants.MAVEN_DIST, WfConstants.MAVEN_DIST_VERIFY);
+            Assert.fail("The module artifact is not in the repository");
+        } catch(ProvisioningException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(LIB.toString()));
+        }
+
+        installLib();
+        install(WfConstants.MAVEN_DIST, WfConstants.MAVEN_DIST_VERIFY);
+        Assert.assertTrue(read(MODULE_XML).contains("<artifact name=\"org.pm.test:lib:1.0\"/>"));
+    }
+
+    @Test
+    public void testRegularServerCopiesModuleArtifacts() throws Exception {
+        installLib();
+        install();
+        Assert.assertTrue(read(MODULE_XML).contains("<resource-root path=\"lib-1.0.jar\"/>"));
+        Assert.assertEquals("lib", read("modules/org/pm/test/main/lib-1.0.jar"));
+    }
+
+    private void installLib() throws Exception {
+        final Path lib = repoHome.resolve("lib.jar");
+        IoUtils.writeFile(lib, "lib");
+        repo.install(LIB, lib);
+    }
+
+    private void install(String... options) throws ProvisioningException {
+        final Map<String, String> pluginOptions;
+        if(options.length == 0) {
+            pluginOptions = Collections.emptyMap();
+        } else {
+            pluginOptions = new HashMap<>(options.length);
+            for(String option : options) {
+                pluginOptions.put(option, null);
+            }
+        }
+        ProvisioningManager.builder()
+            .setArtifactResolver(repo)
+            .setInstallationHome(installHome)
+            .build()
+            .provision(ProvisioningConfig.builder().addFeaturePackDep(FeaturePackConfig.forGav(FP_GAV)).build(), pluginOptions);
+    }
+
+    private String read(String relativePath) throws Exception {
+        return new String(Files.readAllBytes(installHome.resolve(relativePath)), "UTF-8");
+    }
+}
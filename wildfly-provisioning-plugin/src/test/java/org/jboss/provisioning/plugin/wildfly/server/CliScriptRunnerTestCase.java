@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016-2018 Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.provisioning.plugin.wildfly.server;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how the commands of the CLI scripts are prepared for the execution.
+ */
+public class CliScriptRunnerTestCase {
+
+    private static final Path HOME = Paths.get("/opt/wildfly");
+
+    private Path script;
+
+    @Before
+    public void init() throws Exception {
+        script = Files.createTempFile("script", ".cli");
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        Files.deleteIfExists(script);
+    }
+
+    @Test
+    public void testCommentsAndContinuedLines() throws Exception {
+        write("# comment",
+                "",
+                "/subsystem=logging:read-resource",
+                "  /subsystem=logging/console-handler=CONSOLE:write-attribute(\\",
+                "name=level,\\",
+                "value=INFO)");
+        Assert.assertEquals(Arrays.asList("/subsystem=logging:read-resource",
+                "/subsystem=logging/console-handler=CONSOLE:write-attribute(name=level,value=INFO)"),
+                CliScriptRunner.readCommands(HOME, script));
+    }
+
+    @Test
+    public void testEmbeddedProcessesStartedFromInstallation() throws Exception {
+        write("embed-server --admin-only --server-config=standalone.xml",
+                "stop-embedded-server",
+                "embed-host-controller",
+                "stop-embedded-host-controller",
+                "embed-server-custom",
+                "embed-server --jboss-home=/opt/other");
+        Assert.assertEquals(Arrays.asList("embed-server --admin-only --server-config=standalone.xml --jboss-home=\"/opt/wildfly\"",
+                "stop-embedded-server",
+                "embed-host-controller --jboss-home=\"/opt/wildfly\"",
+                "stop-embedded-host-controller",
+                "embed-server-custom",
+                "embed-server --jboss-home=/opt/other"),
+                CliScriptRunner.readCommands(HOME, script));
+    }
+
+    @Test
+    public void testInstallationPathIsQuoted() throws Exception {
+        write("embed-server --admin-only");
+        Assert.assertEquals(Arrays.asList("embed-server --admin-only --jboss-home=\"/opt/wild fly/x\\\"y\\\\z\""),
+                CliScriptRunner.readCommands(Paths.get("/opt/wild fly/x\"y\\z"), script));
+    }
+
+    private void write(String... lines) throws Exception {
+        Files.write(script, Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+}